@@ -408,6 +408,8 @@ public class ComplexTypeMetadataImpl extends MetadataExtensions implements Compl
         copy.localeToDescription.putAll(localeToDescription);
         if (dataMap != null) {
             copy.dataMap = new HashMap<String, Object>(dataMap);
+            // Usage index is keyed by type instances: it does not contain the copy.
+            copy.dataMap.remove(MetadataRepository.TYPE_USAGE_INDEX);
         }
         copy.usages.addAll(usages);
         return copy;
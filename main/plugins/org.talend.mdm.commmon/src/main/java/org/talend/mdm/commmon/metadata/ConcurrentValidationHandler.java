@@ -0,0 +1,235 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.w3c.dom.Element;
+
+/**
+ * <p>
+ * A thread safe {@link ValidationHandler} that reports errors the same way {@link DefaultValidationHandler} does
+ * (an exception with all error messages when validation ends), with the following differences:
+ * <ul>
+ * <li>Errors are collected without locks (so rules may be run concurrently) and kept as {@link Record records}:
+ * messages are only formatted when read.</li>
+ * <li>An optional cap on the number of errors: once reached, validation is aborted with a
+ * {@link ValidationAbortedException} (so {@link MetadataRepository#load(java.io.InputStream, ValidationHandler)} of a
+ * broken data model fails fast instead of validating all types).</li>
+ * </ul>
+ * </p>
+ */
+public class ConcurrentValidationHandler implements ValidationHandler {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ConcurrentValidationHandler.class);
+
+    // Same as DefaultValidationHandler: only one error is kept for an error type and a location.
+    private final ConcurrentMap<Record, Record> errors = new ConcurrentHashMap<Record, Record>();
+
+    private final AtomicInteger errorCount = new AtomicInteger();
+
+    private final AtomicLong sequence = new AtomicLong();
+
+    private final int maxErrors;
+
+    /**
+     * Creates a handler that collects all errors.
+     */
+    public ConcurrentValidationHandler() {
+        this(Integer.MAX_VALUE);
+    }
+
+    /**
+     * @param maxErrors Number of errors after which validation is aborted (with a {@link ValidationAbortedException}).
+     */
+    public ConcurrentValidationHandler(int maxErrors) {
+        if (maxErrors <= 0) {
+            throw new IllegalArgumentException("Max errors must be greater than 0."); //$NON-NLS-1$
+        }
+        this.maxErrors = maxErrors;
+    }
+
+    private void addError(String message, Integer lineNumber, Integer columnNumber, ValidationError error) {
+        Record record = new Record(sequence.getAndIncrement(), message, lineNumber, columnNumber, error);
+        errors.put(record, record);
+        if (errorCount.incrementAndGet() >= maxErrors) {
+            throw new ValidationAbortedException(maxErrors, getMessages());
+        }
+    }
+
+    @Override
+    public void fatal(FieldMetadata field, String message, Element element, Integer lineNumber, Integer columnNumber,
+            ValidationError error) {
+        throw new RuntimeException(message);
+    }
+
+    @Override
+    public void error(FieldMetadata field, String message, Element element, Integer lineNumber, Integer columnNumber,
+            ValidationError error) {
+        addError(message, lineNumber, columnNumber, error);
+    }
+
+    @Override
+    public void warning(FieldMetadata field, String message, Element element, Integer lineNumber, Integer columnNumber,
+            ValidationError error) {
+        LOGGER.warn(message);
+    }
+
+    @Override
+    public void fatal(TypeMetadata type, String message, Element element, Integer lineNumber, Integer columnNumber,
+            ValidationError error) {
+        throw new RuntimeException(message);
+    }
+
+    @Override
+    public void error(TypeMetadata type, String message, Element element, Integer lineNumber, Integer columnNumber,
+            ValidationError error) {
+        addError(message, lineNumber, columnNumber, error);
+    }
+
+    @Override
+    public void warning(TypeMetadata type, String message, Element element, Integer lineNumber, Integer columnNumber,
+            ValidationError error) {
+        LOGGER.warn(message);
+    }
+
+    @Override
+    public void end() {
+        Collection<String> messages = getMessages();
+        if (!messages.isEmpty()) {
+            StringBuilder aggregatedMessages = new StringBuilder();
+            aggregatedMessages.append('\t');
+            for (String message : messages) {
+                aggregatedMessages.append(message).append('\n').append('\t').append('\t');
+            }
+            throw new RuntimeException("Data model is invalid:\n\t" + aggregatedMessages.toString()); //$NON-NLS-1$
+        }
+    }
+
+    @Override
+    public int getErrorCount() {
+        return errorCount.get();
+    }
+
+    /**
+     * @return All errors (in the order they were reported).
+     */
+    public List<Record> getErrors() {
+        List<Record> records = new ArrayList<Record>(errors.values());
+        Collections.sort(records, new Comparator<Record>() {
+
+            @Override
+            public int compare(Record record1, Record record2) {
+                return Long.compare(record1.sequence, record2.sequence);
+            }
+        });
+        return records;
+    }
+
+    /**
+     * @return Formatted messages of all errors (same format as {@link DefaultValidationHandler#getMessages()}).
+     */
+    public Collection<String> getMessages() {
+        Collection<String> messages = new LinkedList<String>();
+        for (Record record : getErrors()) {
+            messages.add(record.getFormattedMessage());
+        }
+        return messages;
+    }
+
+    /**
+     * A validation error (equals if error type and location are equal).
+     */
+    public static class Record {
+
+        private final long sequence;
+
+        private final String message;
+
+        private final Integer lineNumber;
+
+        private final Integer columnNumber;
+
+        private final ValidationError error;
+
+        private Record(long sequence, String message, Integer lineNumber, Integer columnNumber, ValidationError error) {
+            this.sequence = sequence;
+            this.message = message;
+            this.lineNumber = lineNumber;
+            this.columnNumber = columnNumber;
+            this.error = error;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        public Integer getLineNumber() {
+            return lineNumber;
+        }
+
+        public Integer getColumnNumber() {
+            return columnNumber;
+        }
+
+        public ValidationError getError() {
+            return error;
+        }
+
+        /**
+         * @return The message with error location.
+         */
+        public String getFormattedMessage() {
+            return message + " (line: " + lineNumber + " / column: " + columnNumber + ")"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof Record)) {
+                return false;
+            }
+            Record record = (Record) o;
+            return error == record.error && equals(lineNumber, record.lineNumber) && equals(columnNumber, record.columnNumber);
+        }
+
+        private static boolean equals(Integer value1, Integer value2) {
+            return value1 == null ? value2 == null : value1.equals(value2);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = error != null ? error.hashCode() : 0;
+            result = 31 * result + (lineNumber != null ? lineNumber.hashCode() : 0);
+            result = 31 * result + (columnNumber != null ? columnNumber.hashCode() : 0);
+            return result;
+        }
+
+        @Override
+        public String toString() {
+            return getFormattedMessage();
+        }
+    }
+}
@@ -11,20 +11,186 @@
 
 package org.talend.mdm.commmon.metadata;
 
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Set;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 /**
+ * <p>
  * Default visitor for data model classes in package org.talend.mdm.commmon.metadata.
+ * </p>
+ * <p>
+ * Sub classes may control traversal:
+ * <ul>
+ * <li>{@link #preVisit(MetadataVisitable)} is called before an element is visited, and may skip the element (and its
+ * content) or stop the traversal.</li>
+ * <li>{@link #stop()} stops the traversal (e.g. once a visit method found what it was looking for).</li>
+ * <li>{@link #DefaultMetadataVisitor(boolean)} enables a built-in tracking of visited types: a type is then visited at
+ * most once (types are compared by identity).</li>
+ * <li>{@link #traverse(MetadataVisitable)} visits elements using an explicit stack instead of recursive calls (useful
+ * for deeply nested data models).</li>
+ * </ul>
+ * Traversal control applies to elements visited by this class and by sub classes that use
+ * {@link #visitChild(MetadataVisitable)} (instead of calling {@link MetadataVisitable#accept(MetadataVisitor)}).
+ * </p>
  */
 public class DefaultMetadataVisitor<T> implements MetadataVisitor<T> {
 
     private static final Logger LOGGER = LoggerFactory.getLogger(DefaultMetadataVisitor.class);
 
+    /**
+     * Returned by {@link DefaultMetadataVisitor#preVisit(MetadataVisitable)} to control traversal.
+     */
+    public enum Traversal {
+        /**
+         * Visit element (and its content).
+         */
+        CONTINUE,
+        /**
+         * Don't visit element (nor its content) but continue traversal with next element.
+         */
+        SKIP_SUBTREE,
+        /**
+         * Stop traversal: no other element is visited.
+         */
+        STOP
+    }
+
+    private final Set<MetadataVisitable> visitedTypes;
+
+    private boolean isStopped;
+
+    // Not null during an iterative traversal: elements to be visited once current element is visited.
+    private List<MetadataVisitable> pendingElements;
+
+    public DefaultMetadataVisitor() {
+        this(false);
+    }
+
+    /**
+     * @param trackVisitedTypes If <code>true</code>, a type is visited at most once by this visitor (types are compared
+     * by identity).
+     */
+    public DefaultMetadataVisitor(boolean trackVisitedTypes) {
+        if (trackVisitedTypes) {
+            visitedTypes = Collections.newSetFromMap(new IdentityHashMap<MetadataVisitable, Boolean>());
+        } else {
+            visitedTypes = null;
+        }
+    }
+
+    /**
+     * Called before <code>element</code> is visited (using {@link #visitChild(MetadataVisitable)}). Default
+     * implementation always returns {@link Traversal#CONTINUE}.
+     * 
+     * @param element The element about to be visited.
+     * @return How traversal should continue.
+     */
+    protected Traversal preVisit(MetadataVisitable element) {
+        return Traversal.CONTINUE;
+    }
+
+    /**
+     * Stops traversal: no other element will be visited by this visitor.
+     */
+    protected void stop() {
+        isStopped = true;
+    }
+
+    /**
+     * @return <code>true</code> if traversal was stopped (with {@link #stop()} or {@link Traversal#STOP}).
+     */
+    public boolean isStopped() {
+        return isStopped;
+    }
+
+    /**
+     * Visits <code>element</code> unless traversal is stopped, {@link #preVisit(MetadataVisitable)} skips element or
+     * element is a type already visited (if visited types are tracked).
+     * 
+     * @param element An element to visit.
+     * @return The visit result, or <code>null</code> if element was not visited (or will be visited later during an
+     * {@link #traverse(MetadataVisitable) iterative traversal}).
+     */
+    protected T visitChild(MetadataVisitable element) {
+        if (isStopped) {
+            return null;
+        }
+        Traversal traversal = preVisit(element);
+        if (traversal == null) {
+            throw new IllegalStateException("No traversal returned for element '" + element + "'."); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        switch (traversal) {
+        case STOP:
+            isStopped = true;
+            return null;
+        case SKIP_SUBTREE:
+            return null;
+        case CONTINUE:
+            if (visitedTypes != null && element instanceof TypeMetadata && !visitedTypes.add(element)) {
+                return null;
+            }
+            if (pendingElements != null) {
+                pendingElements.add(element);
+                return null;
+            }
+            return element.accept(this);
+        default:
+            throw new IllegalStateException("Unexpected traversal '" + traversal + "' for element '" + element + "'."); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+        }
+    }
+
+    /**
+     * <p>
+     * Visits <code>root</code> and all its content using an explicit stack (instead of recursive calls): visit depth of
+     * data model is then not limited by thread's call stack.
+     * </p>
+     * <p>
+     * Elements are visited in the same order as with <code>root.accept(visitor)</code> only for visitors that do all
+     * their work <b>before</b> visiting content (pre-order). During iterative traversal,
+     * {@link #visitChild(MetadataVisitable)} only schedules the visit, so visit methods don't get results of content
+     * visits.
+     * </p>
+     * 
+     * @param root The element to start traversal from.
+     * @return The result of <code>root</code> visit.
+     */
+    public T traverse(MetadataVisitable root) {
+        List<MetadataVisitable> previousPendingElements = pendingElements;
+        try {
+            if (visitedTypes != null && root instanceof TypeMetadata) {
+                visitedTypes.add(root);
+            }
+            Deque<MetadataVisitable> stack = new ArrayDeque<MetadataVisitable>();
+            stack.push(root);
+            T result = null;
+            boolean isRoot = true;
+            while (!stack.isEmpty() && !isStopped) {
+                MetadataVisitable element = stack.pop();
+                pendingElements = new ArrayList<MetadataVisitable>();
+                T elementResult = element.accept(this);
+                if (isRoot) {
+                    result = elementResult;
+                    isRoot = false;
+                }
+                for (int i = pendingElements.size() - 1; i >= 0; i--) {
+                    stack.push(pendingElements.get(i));
+                }
+            }
+            return result;
+        } finally {
+            pendingElements = previousPendingElements;
+        }
+    }
+
     protected static boolean isDatabaseMandatory(FieldMetadata field, TypeMetadata declaringType) {
         boolean isDatabaseMandatory = field.isMandatory() && declaringType.isInstantiable();
         if (field.isMandatory() && !isDatabaseMandatory) {
@@ -40,10 +206,10 @@ public class DefaultMetadataVisitor<T> implements MetadataVisitor<T> {
      */
     public T visit(MetadataRepository repository) {
         for (TypeMetadata type : repository.getUserComplexTypes()) {
-            type.accept(this);
+            visitChild(type);
         }
         for (TypeMetadata type : repository.getNonInstantiableTypes()) {
-            type.accept(this);
+            visitChild(type);
         }
         return null;
     }
@@ -65,11 +231,11 @@ public class DefaultMetadataVisitor<T> implements MetadataVisitor<T> {
         List<FieldMetadata> copy = new ArrayList<FieldMetadata>(complexType.getFields());
         Collection<FieldMetadata> keyFields = complexType.getKeyFields();
         for (FieldMetadata keyField : keyFields) {
-            keyField.accept(this);
+            visitChild(keyField);
             copy.remove(keyField);
         }
         for (FieldMetadata field : copy) {
-            field.accept(this);
+            visitChild(field);
         }
         return null;
     }
@@ -81,7 +247,7 @@ public class DefaultMetadataVisitor<T> implements MetadataVisitor<T> {
      */
     public T visit(ContainedComplexTypeMetadata containedType) {
         for (FieldMetadata field : containedType.getFields()) {
-            field.accept(this);
+            visitChild(field);
         }
         return null;
     }
@@ -91,7 +257,7 @@ public class DefaultMetadataVisitor<T> implements MetadataVisitor<T> {
     }
 
     public T visit(ContainedTypeFieldMetadata containedField) {
-        return containedField.getContainedType().accept(this);
+        return visitChild(containedField.getContainedType());
     }
 
     public T visit(FieldMetadata fieldMetadata) {
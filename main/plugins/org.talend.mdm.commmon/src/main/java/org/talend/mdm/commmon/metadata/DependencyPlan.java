@@ -0,0 +1,486 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * A plan to process (load or purge) records of all entity types of a repository, built from an
+ * {@link EntityDependencyGraph}. Entity types are grouped in {@link Unit units} (a unit contains either one entity type
+ * or all entity types of a dependency cycle) and units are grouped in levels: a unit can be processed once units of
+ * previous levels are processed, so all units of a level can be processed concurrently.
+ * </p>
+ * <p>
+ * In a load plan, a unit only depends on units of previous levels. In a purge plan, units of previous levels contain all
+ * types that depend on the unit (plan is in reverse dependency order).
+ * </p>
+ * <p>
+ * Plan also includes an estimation of its critical path: the chain of dependent units with the highest cost (the cost
+ * of an entity type is given by a cost hint, e.g. the number of records, and defaults to <code>1</code>).
+ * </p>
+ *
+ * @see MetadataUtils#getLoadPlan(MetadataRepository)
+ * @see MetadataUtils#getPurgePlan(MetadataRepository)
+ */
+public class DependencyPlan {
+
+    private static final long DEFAULT_COST = 1;
+
+    private final List<List<Unit>> levels;
+
+    private final List<Unit> criticalPath;
+
+    private final long criticalPathCost;
+
+    private DependencyPlan(List<List<Unit>> levels, List<Unit> criticalPath, long criticalPathCost) {
+        this.levels = levels;
+        this.criticalPath = criticalPath;
+        this.criticalPathCost = criticalPathCost;
+    }
+
+    /**
+     * @param graph A dependency graph.
+     * @param costHints Cost of each entity type (may be empty).
+     * @param isPurge If <code>true</code>, plan is a purge plan: all types that depend on a type are processed before
+     * the type. Otherwise all dependencies of a type are processed before the type.
+     * @return A plan for all entity types in <code>graph</code>.
+     * @throws CircularDependencyException If a dependency cycle can't be broken (see {@link Unit#getBrokenReferences()}).
+     */
+    static DependencyPlan create(EntityDependencyGraph graph, Map<ComplexTypeMetadata, Long> costHints, boolean isPurge) {
+        List<List<ComplexTypeMetadata>> components = graph.getStronglyConnectedComponents();
+        if (isPurge) {
+            Collections.reverse(components);
+        }
+        Map<ComplexTypeMetadata, Unit> typeToUnit = new HashMap<>();
+        List<Unit> units = new ArrayList<>(components.size());
+        for (List<ComplexTypeMetadata> component : components) {
+            List<ComplexTypeMetadata> types = new ArrayList<>(component);
+            sortByIndex(graph, types);
+            List<ReferenceFieldMetadata> brokenReferences = Collections.emptyList();
+            boolean isCycle = graph.isCycle(component);
+            if (isCycle) {
+                brokenReferences = breakCycle(graph, types, isPurge);
+                types = sortUnitTypes(graph, types, brokenReferences);
+                if (isPurge) {
+                    Collections.reverse(types);
+                }
+            }
+            long cost = 0;
+            for (ComplexTypeMetadata type : types) {
+                Long costHint = costHints.get(type);
+                cost += costHint == null ? DEFAULT_COST : costHint;
+            }
+            Unit unit = new Unit(types, isCycle, cost, brokenReferences);
+            for (ComplexTypeMetadata type : types) {
+                typeToUnit.put(type, unit);
+            }
+            units.add(unit);
+        }
+        // Components are in processing order: units that must be processed before a unit are always computed before
+        // the unit itself.
+        Map<Unit, Unit> criticalPredecessors = new HashMap<>();
+        Map<Unit, Long> pathCosts = new HashMap<>();
+        List<List<Unit>> levels = new ArrayList<>();
+        Unit criticalPathEnd = null;
+        long criticalPathCost = 0;
+        for (Unit unit : units) {
+            int level = 0;
+            long predecessorCost = 0;
+            Unit criticalPredecessor = null;
+            for (ComplexTypeMetadata type : unit.types) {
+                List<EntityDependencyGraph.Dependency> dependencies = isPurge ? graph.getDependents(type) : graph
+                        .getDependencies(type);
+                for (EntityDependencyGraph.Dependency dependency : dependencies) {
+                    Unit predecessor = typeToUnit.get(isPurge ? dependency.getType() : dependency.getDependency());
+                    if (predecessor != unit) {
+                        level = Math.max(level, predecessor.level + 1);
+                        long cost = pathCosts.get(predecessor);
+                        if (criticalPredecessor == null || cost > predecessorCost) {
+                            criticalPredecessor = predecessor;
+                            predecessorCost = cost;
+                        }
+                    }
+                }
+            }
+            unit.level = level;
+            while (levels.size() <= level) {
+                levels.add(new ArrayList<Unit>());
+            }
+            levels.get(level).add(unit);
+            long pathCost = predecessorCost + unit.cost;
+            pathCosts.put(unit, pathCost);
+            if (criticalPredecessor != null) {
+                criticalPredecessors.put(unit, criticalPredecessor);
+            }
+            if (criticalPathEnd == null || pathCost > criticalPathCost) {
+                criticalPathEnd = unit;
+                criticalPathCost = pathCost;
+            }
+        }
+        LinkedList<Unit> criticalPath = new LinkedList<>();
+        for (Unit unit = criticalPathEnd; unit != null; unit = criticalPredecessors.get(unit)) {
+            criticalPath.addFirst(unit);
+        }
+        for (List<Unit> level : levels) {
+            sortUnitsByIndex(graph, level);
+        }
+        return new DependencyPlan(levels, criticalPath, criticalPathCost);
+    }
+
+    /*
+     * Selects the reference fields to break all cycles in a strongly connected component. A field can be used to break
+     * a cycle if it can be set to null (field or one of its containers is optional) or, for purge, if FK integrity can
+     * be overridden for the field. Fields are selected in this order: fields that allow FK integrity override (purge
+     * only), optional fields, then field path (for a deterministic result).
+     */
+    private static List<ReferenceFieldMetadata> breakCycle(EntityDependencyGraph graph, List<ComplexTypeMetadata> types,
+            final boolean isPurge) {
+        List<EntityDependencyGraph.Dependency> dependencies = new ArrayList<>();
+        for (ComplexTypeMetadata type : types) {
+            for (EntityDependencyGraph.Dependency dependency : graph.getDependencies(type)) {
+                if (types.contains(dependency.getDependency())) {
+                    dependencies.add(dependency);
+                }
+            }
+        }
+        Comparator<ReferenceFieldMetadata> preference = new Comparator<ReferenceFieldMetadata>() {
+
+            @Override
+            public int compare(ReferenceFieldMetadata field1, ReferenceFieldMetadata field2) {
+                int result = Integer.compare(getBreakCost(field1), getBreakCost(field2));
+                if (result == 0) {
+                    result = field1.getEntityTypeName().compareTo(field2.getEntityTypeName());
+                }
+                if (result == 0) {
+                    result = field1.getPath().compareTo(field2.getPath());
+                }
+                return result;
+            }
+
+            private int getBreakCost(ReferenceFieldMetadata field) {
+                if (isPurge && field.allowFKIntegrityOverride()) {
+                    return 0;
+                }
+                return 1;
+            }
+        };
+        List<ReferenceFieldMetadata> brokenReferences = new ArrayList<>();
+        List<EntityDependencyGraph.Dependency> cycle;
+        while ((cycle = findCycle(graph, types, dependencies, brokenReferences)) != null) {
+            ReferenceFieldMetadata selectedField = null;
+            for (EntityDependencyGraph.Dependency dependency : cycle) {
+                ReferenceFieldMetadata field = dependency.getField();
+                if (field != null && isBreakable(field, isPurge)
+                        && (selectedField == null || preference.compare(field, selectedField) < 0)) {
+                    selectedField = field;
+                }
+            }
+            if (selectedField == null) {
+                Map<ComplexTypeMetadata, List<FieldMetadata>> cycleHints = new LinkedHashMap<>();
+                for (EntityDependencyGraph.Dependency dependency : cycle) {
+                    List<FieldMetadata> fields = cycleHints.get(dependency.getType());
+                    if (fields == null) {
+                        fields = new LinkedList<>();
+                        cycleHints.put(dependency.getType(), fields);
+                    }
+                    if (dependency.getField() != null) {
+                        fields.add(dependency.getField());
+                    }
+                }
+                throw new CircularDependencyException(cycleHints);
+            }
+            brokenReferences.add(selectedField);
+        }
+        // Greedy selection may select more fields than needed: keep only fields required to break cycles.
+        for (int i = brokenReferences.size() - 1; i >= 0; i--) {
+            ReferenceFieldMetadata field = brokenReferences.remove(i);
+            if (findCycle(graph, types, dependencies, brokenReferences) != null) {
+                brokenReferences.add(i, field);
+            }
+        }
+        Collections.sort(brokenReferences, preference);
+        return brokenReferences;
+    }
+
+    private static boolean isBreakable(ReferenceFieldMetadata field, boolean isPurge) {
+        return (isPurge && field.allowFKIntegrityOverride()) || !EntityDependencyGraph.isMandatory(field);
+    }
+
+    // Returns dependencies that form a cycle (or null if there's no cycle) once broken references are removed.
+    private static List<EntityDependencyGraph.Dependency> findCycle(EntityDependencyGraph graph,
+            List<ComplexTypeMetadata> types, List<EntityDependencyGraph.Dependency> dependencies,
+            List<ReferenceFieldMetadata> brokenReferences) {
+        Map<ComplexTypeMetadata, List<EntityDependencyGraph.Dependency>> adjacency = getAdjacency(types, dependencies,
+                brokenReferences);
+        Map<ComplexTypeMetadata, EntityDependencyGraph.Dependency> path = new HashMap<>();
+        Set<ComplexTypeMetadata> visited = new HashSet<>();
+        for (ComplexTypeMetadata root : types) {
+            if (visited.contains(root)) {
+                continue;
+            }
+            // Iterative depth first search: "path" contains the dependency used to reach each type on current path.
+            LinkedList<ComplexTypeMetadata> stack = new LinkedList<>();
+            LinkedList<Iterator<EntityDependencyGraph.Dependency>> iterators = new LinkedList<>();
+            Set<ComplexTypeMetadata> onPath = new HashSet<>();
+            stack.push(root);
+            iterators.push(adjacency.get(root).iterator());
+            visited.add(root);
+            onPath.add(root);
+            while (!stack.isEmpty()) {
+                Iterator<EntityDependencyGraph.Dependency> iterator = iterators.peek();
+                if (iterator.hasNext()) {
+                    EntityDependencyGraph.Dependency dependency = iterator.next();
+                    ComplexTypeMetadata next = dependency.getDependency();
+                    if (onPath.contains(next)) {
+                        LinkedList<EntityDependencyGraph.Dependency> cycle = new LinkedList<>();
+                        cycle.add(dependency);
+                        ComplexTypeMetadata current = dependency.getType();
+                        while (!current.equals(next)) {
+                            EntityDependencyGraph.Dependency previous = path.get(current);
+                            cycle.addFirst(previous);
+                            current = previous.getType();
+                        }
+                        return cycle;
+                    } else if (visited.add(next)) {
+                        path.put(next, dependency);
+                        onPath.add(next);
+                        stack.push(next);
+                        iterators.push(adjacency.get(next).iterator());
+                    }
+                } else {
+                    onPath.remove(stack.pop());
+                    iterators.pop();
+                }
+            }
+        }
+        return null;
+    }
+
+    private static Map<ComplexTypeMetadata, List<EntityDependencyGraph.Dependency>> getAdjacency(
+            List<ComplexTypeMetadata> types, List<EntityDependencyGraph.Dependency> dependencies,
+            List<ReferenceFieldMetadata> brokenReferences) {
+        Map<ComplexTypeMetadata, List<EntityDependencyGraph.Dependency>> adjacency = new HashMap<>();
+        for (ComplexTypeMetadata type : types) {
+            adjacency.put(type, new LinkedList<EntityDependencyGraph.Dependency>());
+        }
+        for (EntityDependencyGraph.Dependency dependency : dependencies) {
+            if (dependency.getField() == null || !brokenReferences.contains(dependency.getField())) {
+                adjacency.get(dependency.getType()).add(dependency);
+            }
+        }
+        return adjacency;
+    }
+
+    // Sorts types in a cycle (once broken references are removed): dependencies of a type are before the type.
+    private static List<ComplexTypeMetadata> sortUnitTypes(EntityDependencyGraph graph, List<ComplexTypeMetadata> types,
+            List<ReferenceFieldMetadata> brokenReferences) {
+        List<EntityDependencyGraph.Dependency> dependencies = new ArrayList<>();
+        for (ComplexTypeMetadata type : types) {
+            for (EntityDependencyGraph.Dependency dependency : graph.getDependencies(type)) {
+                if (types.contains(dependency.getDependency()) && !dependency.getDependency().equals(type)) {
+                    dependencies.add(dependency);
+                }
+            }
+        }
+        Map<ComplexTypeMetadata, List<EntityDependencyGraph.Dependency>> adjacency = getAdjacency(types, dependencies,
+                brokenReferences);
+        List<ComplexTypeMetadata> sortedTypes = new ArrayList<>(types.size());
+        while (sortedTypes.size() < types.size()) {
+            // Types are in index order: pick first type with all its dependencies sorted.
+            for (ComplexTypeMetadata type : types) {
+                if (!sortedTypes.contains(type) && isResolved(adjacency.get(type), sortedTypes)) {
+                    sortedTypes.add(type);
+                    break;
+                }
+            }
+        }
+        return sortedTypes;
+    }
+
+    private static boolean isResolved(List<EntityDependencyGraph.Dependency> dependencies,
+            List<ComplexTypeMetadata> sortedTypes) {
+        for (EntityDependencyGraph.Dependency dependency : dependencies) {
+            if (!sortedTypes.contains(dependency.getDependency())) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static void sortByIndex(final EntityDependencyGraph graph, List<ComplexTypeMetadata> types) {
+        Collections.sort(types, new Comparator<ComplexTypeMetadata>() {
+
+            @Override
+            public int compare(ComplexTypeMetadata type1, ComplexTypeMetadata type2) {
+                return Integer.compare(graph.indexOf(type1), graph.indexOf(type2));
+            }
+        });
+    }
+
+    private static void sortUnitsByIndex(final EntityDependencyGraph graph, List<Unit> units) {
+        Collections.sort(units, new Comparator<Unit>() {
+
+            @Override
+            public int compare(Unit unit1, Unit unit2) {
+                return Integer.compare(graph.indexOf(unit1.types.get(0)), graph.indexOf(unit2.types.get(0)));
+            }
+        });
+    }
+
+    /**
+     * @return All levels of this plan: all units in a level can be processed concurrently once all units of previous
+     * levels are processed.
+     */
+    public List<List<Unit>> getLevels() {
+        return Collections.unmodifiableList(levels);
+    }
+
+    /**
+     * @return All entity types of this plan in processing order (a linear order that respects levels).
+     */
+    public List<ComplexTypeMetadata> getTypes() {
+        List<ComplexTypeMetadata> types = new ArrayList<>();
+        for (List<Unit> level : levels) {
+            for (Unit unit : level) {
+                types.addAll(unit.types);
+            }
+        }
+        return types;
+    }
+
+    /**
+     * @return The chain of dependent units with the highest cost: the plan can't be processed faster than the time
+     * needed to process these units one after another.
+     */
+    public List<Unit> getCriticalPath() {
+        return Collections.unmodifiableList(criticalPath);
+    }
+
+    /**
+     * @return The sum of cost of all units in {@link #getCriticalPath()}.
+     */
+    public long getCriticalPathCost() {
+        return criticalPathCost;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        int i = 0;
+        for (List<Unit> level : levels) {
+            builder.append(i++).append(": ").append(level).append('\n'); //$NON-NLS-1$
+        }
+        builder.append("critical path (cost: ").append(criticalPathCost).append("): ").append(criticalPath); //$NON-NLS-1$ //$NON-NLS-2$
+        return builder.toString();
+    }
+
+    /**
+     * A group of entity types that must be processed together: either a single entity type, or all entity types in a
+     * dependency cycle.
+     */
+    public static class Unit {
+
+        private final List<ComplexTypeMetadata> types;
+
+        private final boolean isCycle;
+
+        private final long cost;
+
+        private final List<ReferenceFieldMetadata> brokenReferences;
+
+        private int level;
+
+        private Unit(List<ComplexTypeMetadata> types, boolean isCycle, long cost,
+                List<ReferenceFieldMetadata> brokenReferences) {
+            this.types = types;
+            this.isCycle = isCycle;
+            this.cost = cost;
+            this.brokenReferences = brokenReferences;
+        }
+
+        /**
+         * @return Entity types in this unit, in processing order (once {@link #getBrokenReferences() broken
+         * references} are ignored).
+         */
+        public List<ComplexTypeMetadata> getTypes() {
+            return Collections.unmodifiableList(types);
+        }
+
+        /**
+         * @return <code>true</code> if entity types in this unit are part of a dependency cycle (this includes an
+         * entity type that depends on itself).
+         */
+        public boolean isCycle() {
+            return isCycle;
+        }
+
+        /**
+         * <p>
+         * Returns the reference fields that break all dependency cycles in this unit. For a load plan, these fields
+         * must be left empty when records are created and set once all types of unit are loaded. For a purge plan,
+         * these fields must be set to <code>null</code> (or FK integrity overridden) before records are deleted.
+         * </p>
+         * <p>
+         * A field is selected only if it's not mandatory (field or one of its containers is optional) or, for a purge
+         * plan, if {@link ReferenceFieldMetadata#allowFKIntegrityOverride() FK integrity can be overridden} (such fields
+         * are preferred).
+         * </p>
+         *
+         * @return Fields to break dependency cycles or an empty list if unit is not a cycle.
+         */
+        public List<ReferenceFieldMetadata> getBrokenReferences() {
+            return Collections.unmodifiableList(brokenReferences);
+        }
+
+        /**
+         * @return The estimated cost to process this unit (sum of cost of all entity types in unit).
+         */
+        public long getCost() {
+            return cost;
+        }
+
+        /**
+         * @return The level of this unit in plan (starting from 0).
+         */
+        public int getLevel() {
+            return level;
+        }
+
+        @Override
+        public String toString() {
+            if (isCycle) {
+                StringBuilder builder = new StringBuilder("cycle").append(types).append(" breaks: ["); //$NON-NLS-1$ //$NON-NLS-2$
+                Iterator<ReferenceFieldMetadata> iterator = brokenReferences.iterator();
+                while (iterator.hasNext()) {
+                    ReferenceFieldMetadata field = iterator.next();
+                    builder.append(field.getEntityTypeName()).append('/').append(field.getPath());
+                    if (iterator.hasNext()) {
+                        builder.append(", "); //$NON-NLS-1$
+                    }
+                }
+                return builder.append(']').toString();
+            }
+            return types.toString();
+        }
+    }
+}
@@ -0,0 +1,347 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.apache.commons.lang.NotImplementedException;
+
+/**
+ * <p>
+ * Dependency graph between entity types of a {@link MetadataRepository}. A dependency from an entity type to another
+ * might be:
+ * <ul>
+ * <li>FK reference (with FK integrity enabled) to the other type (sub types of referenced type are all included as a
+ * dependency for {@link MetadataUtils.SortType#LENIENT lenient} graphs). References declared in contained types are
+ * dependencies of the entity type that contains them.</li>
+ * <li>Use of the other type as a super type.</li>
+ * </ul>
+ * Which references are included follows the same rules as {@link MetadataUtils#sortTypes(MetadataRepository,
+ * MetadataUtils.SortType)}.
+ * </p>
+ * <p>
+ * Types are indexed in the order returned by {@link MetadataRepository#getUserComplexTypes()}, so all results of this
+ * class are deterministic for a given repository. Once built, this class is thread safe.
+ * </p>
+ */
+public class EntityDependencyGraph {
+
+    private final List<ComplexTypeMetadata> types;
+
+    private final Map<ComplexTypeMetadata, Integer> typeIds;
+
+    private final List<List<Dependency>> dependencies;
+
+    private final List<List<Dependency>> dependents;
+
+    private EntityDependencyGraph(List<ComplexTypeMetadata> types) {
+        this.types = types;
+        typeIds = new HashMap<>();
+        dependencies = new ArrayList<>(types.size());
+        dependents = new ArrayList<>(types.size());
+        for (ComplexTypeMetadata type : types) {
+            typeIds.put(type, typeIds.size());
+            dependencies.add(new LinkedList<Dependency>());
+            dependents.add(new LinkedList<Dependency>());
+        }
+    }
+
+    /**
+     * @param repository A {@link MetadataRepository} instance that contains entity types.
+     * @param sortType Selects which references are dependencies.
+     * @return The dependency graph between all entity types of <code>repository</code>.
+     */
+    public static EntityDependencyGraph build(MetadataRepository repository, final MetadataUtils.SortType sortType) {
+        if (repository == null) {
+            throw new IllegalArgumentException("Repository cannot be null."); //$NON-NLS-1$
+        }
+        List<ComplexTypeMetadata> types = new ArrayList<>();
+        for (ComplexTypeMetadata type : repository.getUserComplexTypes()) {
+            if (type.isInstantiable()) {
+                types.add(type);
+            }
+        }
+        final EntityDependencyGraph graph = new EntityDependencyGraph(types);
+        for (final ComplexTypeMetadata type : types) {
+            for (TypeMetadata superType : type.getSuperTypes()) {
+                if (superType instanceof ComplexTypeMetadata && graph.typeIds.containsKey(superType)) {
+                    graph.addDependency(new Dependency(type, (ComplexTypeMetadata) superType, null));
+                }
+            }
+            type.accept(new DefaultMetadataVisitor<Void>() {
+
+                private final Set<TypeMetadata> processedTypes = new HashSet<>();
+
+                @Override
+                public Void visit(ContainedTypeFieldMetadata containedField) {
+                    ComplexTypeMetadata containedType = containedField.getContainedType();
+                    if (processedTypes.add(containedType)) {
+                        containedType.accept(this);
+                        for (ComplexTypeMetadata subType : containedType.getSubTypes()) {
+                            if (processedTypes.add(subType)) {
+                                subType.accept(this);
+                            }
+                        }
+                    }
+                    return null;
+                }
+
+                @Override
+                public Void visit(ReferenceFieldMetadata referenceField) {
+                    TypeMetadata declaringType = referenceField.getDeclaringType();
+                    if (declaringType.isInstantiable() && !type.equals(declaringType)) {
+                        // FK inherited from an entity super type: super type is already a dependency.
+                        return null;
+                    }
+                    if (!referenceField.isFKIntegrity() || !include(referenceField)) {
+                        return null;
+                    }
+                    ComplexTypeMetadata referencedType = referenceField.getReferencedType();
+                    if (graph.typeIds.containsKey(referencedType)) {
+                        graph.addDependency(new Dependency(type, referencedType, referenceField));
+                    }
+                    if (sortType == MetadataUtils.SortType.LENIENT) {
+                        for (ComplexTypeMetadata subType : referencedType.getSubTypes()) {
+                            if (graph.typeIds.containsKey(subType)) {
+                                graph.addDependency(new Dependency(type, subType, referenceField));
+                            }
+                        }
+                    }
+                    return null;
+                }
+
+                private boolean include(FieldMetadata field) {
+                    switch (sortType) {
+                    case STRICT:
+                        return isMandatory(field);
+                    case LENIENT:
+                        return true;
+                    default:
+                        throw new NotImplementedException("Sort '" + sortType + "' is not implemented."); //$NON-NLS-1$ //$NON-NLS-2$
+                    }
+                }
+            });
+        }
+        return graph;
+    }
+
+    /**
+     * @param field A field in an entity type.
+     * @return <code>true</code> if <code>field</code> is mandatory and all its containers are mandatory (i.e. field
+     * always has a value in a valid record).
+     */
+    static boolean isMandatory(FieldMetadata field) {
+        while (field != null) {
+            if (!field.isMandatory()) {
+                return false;
+            }
+            field = field.getContainingType().getContainer();
+        }
+        return true;
+    }
+
+    private void addDependency(Dependency dependency) {
+        dependencies.get(typeIds.get(dependency.getType())).add(dependency);
+        dependents.get(typeIds.get(dependency.getDependency())).add(dependency);
+    }
+
+    /**
+     * @return All entity types in this graph.
+     */
+    public List<ComplexTypeMetadata> getTypes() {
+        return Collections.unmodifiableList(types);
+    }
+
+    /**
+     * @param type An entity type.
+     * @return Index of <code>type</code> in {@link #getTypes()} or <code>-1</code> if type is not in this graph.
+     */
+    public int indexOf(ComplexTypeMetadata type) {
+        Integer id = typeIds.get(type);
+        return id == null ? -1 : id;
+    }
+
+    /**
+     * @param type An entity type.
+     * @return All dependencies of <code>type</code> (types <code>type</code> depends on).
+     */
+    public List<Dependency> getDependencies(ComplexTypeMetadata type) {
+        return Collections.unmodifiableList(dependencies.get(getId(type)));
+    }
+
+    /**
+     * @param type An entity type.
+     * @return All dependencies to <code>type</code> (types that depend on <code>type</code>).
+     */
+    public List<Dependency> getDependents(ComplexTypeMetadata type) {
+        return Collections.unmodifiableList(dependents.get(getId(type)));
+    }
+
+    private int getId(ComplexTypeMetadata type) {
+        Integer id = typeIds.get(type);
+        if (id == null) {
+            throw new IllegalArgumentException("Type '" + type + "' is not in dependency graph."); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        return id;
+    }
+
+    /**
+     * <p>
+     * Computes strongly connected components of this graph (Tarjan's algorithm): a component that contains more than
+     * one type (or a type that depends on itself) is a dependency cycle.
+     * </p>
+     * <p>
+     * Components are returned in dependency order: a component only depends on components returned before it. This
+     * method runs in linear time <i>O(n+p)</i> (<i>n</i> number of types and <i>p</i> number of dependencies).
+     * </p>
+     *
+     * @return Strongly connected components of this graph.
+     */
+    public List<List<ComplexTypeMetadata>> getStronglyConnectedComponents() {
+        int typeNumber = types.size();
+        int[] index = new int[typeNumber];
+        int[] lowLink = new int[typeNumber];
+        boolean[] onStack = new boolean[typeNumber];
+        int[] stack = new int[typeNumber];
+        int stackSize = 0;
+        int nextIndex = 1;
+        List<List<ComplexTypeMetadata>> components = new ArrayList<>();
+        // Iterative implementation (avoid stack overflows on large models): callStack holds type ids and edgePositions
+        // the next dependency to explore for each type in callStack.
+        int[] callStack = new int[typeNumber];
+        int[] edgePositions = new int[typeNumber];
+        List<List<Integer>> adjacency = new ArrayList<>(typeNumber);
+        for (List<Dependency> typeDependencies : dependencies) {
+            List<Integer> targets = new ArrayList<>(typeDependencies.size());
+            for (Dependency dependency : typeDependencies) {
+                targets.add(typeIds.get(dependency.getDependency()));
+            }
+            adjacency.add(targets);
+        }
+        for (int root = 0; root < typeNumber; root++) {
+            if (index[root] != 0) {
+                continue;
+            }
+            int depth = 0;
+            callStack[depth] = root;
+            edgePositions[depth] = 0;
+            index[root] = lowLink[root] = nextIndex++;
+            stack[stackSize++] = root;
+            onStack[root] = true;
+            while (depth >= 0) {
+                int current = callStack[depth];
+                List<Integer> targets = adjacency.get(current);
+                if (edgePositions[depth] < targets.size()) {
+                    int target = targets.get(edgePositions[depth]++);
+                    if (index[target] == 0) {
+                        index[target] = lowLink[target] = nextIndex++;
+                        stack[stackSize++] = target;
+                        onStack[target] = true;
+                        depth++;
+                        callStack[depth] = target;
+                        edgePositions[depth] = 0;
+                    } else if (onStack[target]) {
+                        lowLink[current] = Math.min(lowLink[current], index[target]);
+                    }
+                } else {
+                    if (lowLink[current] == index[current]) {
+                        List<ComplexTypeMetadata> component = new LinkedList<>();
+                        int member;
+                        do {
+                            member = stack[--stackSize];
+                            onStack[member] = false;
+                            component.add(0, types.get(member));
+                        } while (member != current);
+                        components.add(component);
+                    }
+                    depth--;
+                    if (depth >= 0) {
+                        int caller = callStack[depth];
+                        lowLink[caller] = Math.min(lowLink[caller], lowLink[current]);
+                    }
+                }
+            }
+        }
+        return components;
+    }
+
+    /**
+     * @param component A strongly connected component (see {@link #getStronglyConnectedComponents()}).
+     * @return <code>true</code> if <code>component</code> contains a dependency cycle.
+     */
+    public boolean isCycle(Collection<ComplexTypeMetadata> component) {
+        if (component.size() > 1) {
+            return true;
+        }
+        for (ComplexTypeMetadata type : component) {
+            for (Dependency dependency : dependencies.get(getId(type))) {
+                if (dependency.getDependency().equals(type)) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A dependency between two entity types.
+     */
+    public static class Dependency {
+
+        private final ComplexTypeMetadata type;
+
+        private final ComplexTypeMetadata dependency;
+
+        private final ReferenceFieldMetadata field;
+
+        Dependency(ComplexTypeMetadata type, ComplexTypeMetadata dependency, ReferenceFieldMetadata field) {
+            this.type = type;
+            this.dependency = dependency;
+            this.field = field;
+        }
+
+        /**
+         * @return The entity type that depends on {@link #getDependency()}.
+         */
+        public ComplexTypeMetadata getType() {
+            return type;
+        }
+
+        /**
+         * @return The entity type {@link #getType()} depends on.
+         */
+        public ComplexTypeMetadata getDependency() {
+            return dependency;
+        }
+
+        /**
+         * @return The reference field that creates the dependency or <code>null</code> if dependency is a super type.
+         */
+        public ReferenceFieldMetadata getField() {
+            return field;
+        }
+
+        @Override
+        public String toString() {
+            return type.getName() + " -> " + dependency.getName() //$NON-NLS-1$
+                    + (field == null ? " (super type)" : " (" + field.getPath() + ')'); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+}
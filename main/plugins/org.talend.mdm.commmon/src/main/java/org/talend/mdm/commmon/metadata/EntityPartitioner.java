@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * Splits entity types of a {@link MetadataRepository} into <i>k</i> partitions (e.g. to place entity types on different
+ * storage nodes) so that partitions have similar sizes and as few references as possible cross partitions.
+ * </p>
+ * <p>
+ * Partitioning works on the entity reference graph: each reference field (including references in contained types)
+ * creates an edge between the referencing and the referenced entity types. Edge weight depends on reference
+ * multiplicity ({@link ReferenceFieldMetadata#isMany()}), and an entity type and its super types are linked with a
+ * heavier edge (these types should be kept together). Size of an entity type is given by an optional size hint (e.g.
+ * number of records) and defaults to <code>1</code>.
+ * </p>
+ * <p>
+ * Partitioning is a greedy assignment followed by greedy refinement passes: each pass moves an entity type to another
+ * partition only if it reduces the weight of cut edges (or keeps it unchanged and improves balance) without breaking
+ * balance. Moves that increase cut weight are never made, so refinement stops in a local minimum. It runs locally and
+ * is deterministic: same model and size hints always give the same partitions.
+ * </p>
+ */
+public class EntityPartitioner {
+
+    private static final int SINGLE_REFERENCE_WEIGHT = 1;
+
+    private static final int MANY_REFERENCE_WEIGHT = 4;
+
+    private static final int SUPER_TYPE_WEIGHT = 64;
+
+    private static final double DEFAULT_IMBALANCE = 0.05;
+
+    private static final int MAX_REFINEMENT_PASSES = 32;
+
+    private EntityPartitioner() {
+    }
+
+    /**
+     * @param repository A {@link MetadataRepository} instance that contains entity types.
+     * @param partitionNumber Number of partitions (<i>k</i>).
+     * @return Partitions of entity types in <code>repository</code>.
+     * @see #partition(MetadataRepository, int, Map, double)
+     */
+    public static Partitions partition(MetadataRepository repository, int partitionNumber) {
+        return partition(repository, partitionNumber, Collections.<ComplexTypeMetadata, Long> emptyMap(),
+                DEFAULT_IMBALANCE);
+    }
+
+    /**
+     * @param repository A {@link MetadataRepository} instance that contains entity types.
+     * @param partitionNumber Number of partitions (<i>k</i>).
+     * @param sizeHints Size of each entity type (e.g. number of records). Entity types with no size hint have a size of
+     * 1.
+     * @param imbalance Allowed size difference between a partition and average partition size (e.g. <code>0.05</code>
+     * allows partitions 5% larger than average). A partition can always be as large as the largest entity type.
+     * @return Partitions of entity types in <code>repository</code>.
+     */
+    public static Partitions partition(MetadataRepository repository, int partitionNumber,
+            Map<ComplexTypeMetadata, Long> sizeHints, double imbalance) {
+        if (repository == null) {
+            throw new IllegalArgumentException("Repository cannot be null."); //$NON-NLS-1$
+        }
+        if (partitionNumber < 1) {
+            throw new IllegalArgumentException("Partition number must be greater than 0 (was " + partitionNumber + ")."); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        if (imbalance < 0) {
+            throw new IllegalArgumentException("Imbalance cannot be negative (was " + imbalance + ")."); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        if (sizeHints == null) {
+            sizeHints = Collections.emptyMap();
+        }
+        // Build graph
+        final List<ComplexTypeMetadata> types = new ArrayList<>();
+        final Map<ComplexTypeMetadata, Integer> typeIds = new HashMap<>();
+        for (ComplexTypeMetadata type : repository.getUserComplexTypes()) {
+            if (type.isInstantiable()) {
+                typeIds.put(type, types.size());
+                types.add(type);
+            }
+        }
+        int typeNumber = types.size();
+        final long[] sizes = new long[typeNumber];
+        long totalSize = 0;
+        long maxTypeSize = 0;
+        for (int i = 0; i < typeNumber; i++) {
+            Long sizeHint = sizeHints.get(types.get(i));
+            sizes[i] = sizeHint == null ? 1 : Math.max(0, sizeHint);
+            totalSize += sizes[i];
+            maxTypeSize = Math.max(maxTypeSize, sizes[i]);
+        }
+        List<Map<Integer, Integer>> edges = new ArrayList<>(typeNumber);
+        for (int i = 0; i < typeNumber; i++) {
+            edges.add(new HashMap<Integer, Integer>());
+        }
+        List<ReferenceFieldMetadata> references = new ArrayList<>();
+        List<int[]> referenceEnds = new ArrayList<>();
+        for (int i = 0; i < typeNumber; i++) {
+            ComplexTypeMetadata type = types.get(i);
+            for (TypeMetadata superType : type.getSuperTypes()) {
+                Integer superTypeId = typeIds.get(superType);
+                if (superTypeId != null) {
+                    addEdge(edges, i, superTypeId, SUPER_TYPE_WEIGHT);
+                }
+            }
+            for (ReferenceFieldMetadata reference : getReferences(type)) {
+                Integer referencedId = typeIds.get(reference.getReferencedType());
+                if (referencedId != null && referencedId != i) {
+                    addEdge(edges, i, referencedId, reference.isMany() ? MANY_REFERENCE_WEIGHT : SINGLE_REFERENCE_WEIGHT);
+                    references.add(reference);
+                    referenceEnds.add(new int[] { i, referencedId });
+                }
+            }
+        }
+        final long[] degrees = new long[typeNumber];
+        for (int i = 0; i < typeNumber; i++) {
+            for (int weight : edges.get(i).values()) {
+                degrees[i] += weight;
+            }
+        }
+        long maxPartitionSize = Math.max(maxTypeSize,
+                (long) Math.ceil(((double) totalSize / partitionNumber) * (1 + imbalance)));
+        // Initial assignment: largest (then most connected) types first, each type goes to the partition it's the most
+        // connected to (among partitions with enough space left).
+        List<Integer> order = new ArrayList<>(typeNumber);
+        for (int i = 0; i < typeNumber; i++) {
+            order.add(i);
+        }
+        Collections.sort(order, new Comparator<Integer>() {
+
+            @Override
+            public int compare(Integer type1, Integer type2) {
+                int result = Long.compare(sizes[type2], sizes[type1]);
+                if (result == 0) {
+                    result = Long.compare(degrees[type2], degrees[type1]);
+                }
+                if (result == 0) {
+                    result = Integer.compare(type1, type2);
+                }
+                return result;
+            }
+        });
+        int[] assignment = new int[typeNumber];
+        long[] partitionSizes = new long[partitionNumber];
+        for (int i = 0; i < typeNumber; i++) {
+            assignment[i] = -1;
+        }
+        for (int type : order) {
+            long[] connections = getConnections(edges, assignment, type, partitionNumber);
+            int selected = -1;
+            for (int partition = 0; partition < partitionNumber; partition++) {
+                if (partitionSizes[partition] + sizes[type] > maxPartitionSize) {
+                    continue;
+                }
+                if (selected < 0 || connections[partition] > connections[selected]
+                        || (connections[partition] == connections[selected] && partitionSizes[partition] < partitionSizes[selected])) {
+                    selected = partition;
+                }
+            }
+            if (selected < 0) { // No partition with enough space: use the smallest one.
+                selected = 0;
+                for (int partition = 1; partition < partitionNumber; partition++) {
+                    if (partitionSizes[partition] < partitionSizes[selected]) {
+                        selected = partition;
+                    }
+                }
+            }
+            assignment[type] = selected;
+            partitionSizes[selected] += sizes[type];
+        }
+        // Refinement: move a type to another partition if it reduces cut weight (or keeps it unchanged but improves
+        // balance) while keeping partition sizes under maximum size.
+        for (int pass = 0; pass < MAX_REFINEMENT_PASSES; pass++) {
+            boolean hasMoved = false;
+            for (int type = 0; type < typeNumber; type++) {
+                int current = assignment[type];
+                long[] connections = getConnections(edges, assignment, type, partitionNumber);
+                int selected = current;
+                long selectedGain = 0;
+                for (int partition = 0; partition < partitionNumber; partition++) {
+                    if (partition == current || partitionSizes[partition] + sizes[type] > maxPartitionSize) {
+                        continue;
+                    }
+                    long gain = connections[partition] - connections[current];
+                    boolean improvesBalance = partitionSizes[partition] + sizes[type] < partitionSizes[current];
+                    if (gain > selectedGain || (gain == selectedGain && gain >= 0 && selected == current && improvesBalance
+                            && sizes[type] > 0)) {
+                        selected = partition;
+                        selectedGain = gain;
+                    }
+                }
+                if (selected != current) {
+                    assignment[type] = selected;
+                    partitionSizes[current] -= sizes[type];
+                    partitionSizes[selected] += sizes[type];
+                    hasMoved = true;
+                }
+            }
+            if (!hasMoved) {
+                break;
+            }
+        }
+        // Build result
+        List<List<ComplexTypeMetadata>> partitions = new ArrayList<>(partitionNumber);
+        for (int partition = 0; partition < partitionNumber; partition++) {
+            partitions.add(new ArrayList<ComplexTypeMetadata>());
+        }
+        Map<ComplexTypeMetadata, Integer> typePartitions = new HashMap<>();
+        for (int type = 0; type < typeNumber; type++) {
+            partitions.get(assignment[type]).add(types.get(type));
+            typePartitions.put(types.get(type), assignment[type]);
+        }
+        List<ReferenceFieldMetadata> cutReferences = new LinkedList<>();
+        for (int i = 0; i < references.size(); i++) {
+            int[] ends = referenceEnds.get(i);
+            if (assignment[ends[0]] != assignment[ends[1]]) {
+                cutReferences.add(references.get(i));
+            }
+        }
+        long cutWeight = 0;
+        for (int type = 0; type < typeNumber; type++) {
+            for (Map.Entry<Integer, Integer> edge : edges.get(type).entrySet()) {
+                if (edge.getKey() > type && assignment[edge.getKey()] != assignment[type]) {
+                    cutWeight += edge.getValue();
+                }
+            }
+        }
+        return new Partitions(partitions, typePartitions, partitionSizes, cutReferences, cutWeight);
+    }
+
+    private static void addEdge(List<Map<Integer, Integer>> edges, int type1, int type2, int weight) {
+        Integer current = edges.get(type1).get(type2);
+        edges.get(type1).put(type2, current == null ? weight : current + weight);
+        current = edges.get(type2).get(type1);
+        edges.get(type2).put(type1, current == null ? weight : current + weight);
+    }
+
+    private static long[] getConnections(List<Map<Integer, Integer>> edges, int[] assignment, int type,
+            int partitionNumber) {
+        long[] connections = new long[partitionNumber];
+        for (Map.Entry<Integer, Integer> edge : edges.get(type).entrySet()) {
+            int partition = assignment[edge.getKey()];
+            if (partition >= 0) {
+                connections[partition] += edge.getValue();
+            }
+        }
+        return connections;
+    }
+
+    // Returns all reference fields in type (including fields in contained types).
+    private static List<ReferenceFieldMetadata> getReferences(ComplexTypeMetadata type) {
+        final List<ReferenceFieldMetadata> references = new LinkedList<>();
+        type.accept(new DefaultMetadataVisitor<Void>() {
+
+            private final Set<TypeMetadata> processedTypes = new HashSet<>();
+
+            @Override
+            public Void visit(ContainedTypeFieldMetadata containedField) {
+                ComplexTypeMetadata containedType = containedField.getContainedType();
+                if (processedTypes.add(containedType)) {
+                    containedType.accept(this);
+                    for (ComplexTypeMetadata subType : containedType.getSubTypes()) {
+                        if (processedTypes.add(subType)) {
+                            subType.accept(this);
+                        }
+                    }
+                }
+                return null;
+            }
+
+            @Override
+            public Void visit(ReferenceFieldMetadata referenceField) {
+                references.add(referenceField);
+                return null;
+            }
+        });
+        return references;
+    }
+
+    /**
+     * Result of {@link EntityPartitioner#partition(MetadataRepository, int, Map, double)}.
+     */
+    public static class Partitions {
+
+        private final List<List<ComplexTypeMetadata>> partitions;
+
+        private final Map<ComplexTypeMetadata, Integer> typePartitions;
+
+        private final long[] partitionSizes;
+
+        private final List<ReferenceFieldMetadata> cutReferences;
+
+        private final long cutWeight;
+
+        private Partitions(List<List<ComplexTypeMetadata>> partitions, Map<ComplexTypeMetadata, Integer> typePartitions,
+                long[] partitionSizes, List<ReferenceFieldMetadata> cutReferences, long cutWeight) {
+            this.partitions = partitions;
+            this.typePartitions = typePartitions;
+            this.partitionSizes = partitionSizes;
+            this.cutReferences = cutReferences;
+            this.cutWeight = cutWeight;
+        }
+
+        /**
+         * @return All partitions (a partition might be empty if there are less entity types than partitions).
+         */
+        public List<List<ComplexTypeMetadata>> getPartitions() {
+            return Collections.unmodifiableList(partitions);
+        }
+
+        /**
+         * @param type An entity type.
+         * @return The partition number (between 0 and k-1) of <code>type</code>, or -1 if type was not partitioned.
+         */
+        public int getPartition(ComplexTypeMetadata type) {
+            Integer partition = typePartitions.get(type);
+            return partition == null ? -1 : partition;
+        }
+
+        /**
+         * @param partition A partition number (between 0 and k-1).
+         * @return The size of partition (sum of the size of all its entity types).
+         */
+        public long getSize(int partition) {
+            return partitionSizes[partition];
+        }
+
+        /**
+         * @return All reference fields where referencing and referenced entity types are in different partitions.
+         */
+        public List<ReferenceFieldMetadata> getCutReferences() {
+            return Collections.unmodifiableList(cutReferences);
+        }
+
+        /**
+         * @return Sum of weights of edges between different partitions.
+         */
+        public long getCutWeight() {
+            return cutWeight;
+        }
+
+        @Override
+        public String toString() {
+            StringBuilder builder = new StringBuilder();
+            for (int i = 0; i < partitions.size(); i++) {
+                builder.append(i).append(" (size: ").append(partitionSizes[i]).append("): ") //$NON-NLS-1$ //$NON-NLS-2$
+                        .append(partitions.get(i)).append('\n');
+            }
+            builder.append("cut weight: ").append(cutWeight); //$NON-NLS-1$
+            return builder.toString();
+        }
+    }
+}
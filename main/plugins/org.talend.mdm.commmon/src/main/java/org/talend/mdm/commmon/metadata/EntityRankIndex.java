@@ -0,0 +1,468 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.PriorityQueue;
+import java.util.Set;
+
+/**
+ * <p>
+ * Keeps the "entity rank" of all entity types of a repository (see
+ * {@link MetadataUtils#computeEntityRank(MetadataRepository)} for entity rank definition).
+ * </p>
+ * <p>
+ * Inbound reference counts are computed once (with a single walk of the repository) and ranks are evaluated in
+ * dependency order over an indexed reference graph. Entity types and references can then be added or removed: only the
+ * ranks affected by the change are evaluated again, and the repository is never walked again.
+ * </p>
+ * <p>
+ * When references form a cycle, the entity type with the lowest index (i.e. the first added to this index) is evaluated
+ * first. References to entity types evaluated after the referencing type are ignored (as in
+ * {@link MetadataUtils#computeEntityRank(MetadataRepository)}).
+ * </p>
+ * <p>
+ * This class is <b>not</b> thread safe.
+ * </p>
+ */
+public class EntityRankIndex {
+
+    private static final double ENTITY_RANK_ADJUST = 0.9;
+
+    private final Map<ComplexTypeMetadata, Node> nodes = new LinkedHashMap<>();
+
+    // Number of reference fields (in the whole repository) per referenced type.
+    private final Map<ComplexTypeMetadata, Integer> referencedTypes = new HashMap<>();
+
+    private final Set<ReferenceFieldMetadata> references = new HashSet<>();
+
+    private List<Node> order = new ArrayList<>();
+
+    private boolean isOrderDirty;
+
+    private int nextIndex;
+
+    private EntityRankIndex() {
+    }
+
+    /**
+     * @param repository A {@link MetadataRepository} instance that contains entity types.
+     * @return A {@link EntityRankIndex} with entity ranks for all entity types in <code>repository</code>.
+     */
+    public static EntityRankIndex build(MetadataRepository repository) {
+        if (repository == null) {
+            throw new IllegalArgumentException("Repository cannot be null."); //$NON-NLS-1$
+        }
+        EntityRankIndex index = new EntityRankIndex();
+        for (ComplexTypeMetadata type : repository.getUserComplexTypes()) {
+            if (type.isInstantiable()) {
+                index.addNode(type);
+            }
+        }
+        for (ReferenceFieldMetadata reference : repository.accept(new ReferenceCollector(true))) {
+            index.countReference(reference);
+        }
+        index.evaluate();
+        return index;
+    }
+
+    /**
+     * @param type An entity type.
+     * @return The entity rank of <code>type</code> or <code>-1</code> if <code>type</code> is not indexed.
+     */
+    public double getRank(ComplexTypeMetadata type) {
+        evaluate();
+        Node node = nodes.get(type);
+        if (node == null) {
+            return -1;
+        }
+        return node.rank;
+    }
+
+    /**
+     * @return A {@link Map} that maps all indexed entity types to their (rounded) entity rank value.
+     */
+    public Map<ComplexTypeMetadata, Long> getRanks() {
+        evaluate();
+        Map<ComplexTypeMetadata, Long> ranks = new HashMap<>();
+        for (Node node : nodes.values()) {
+            ranks.put(node.type, Math.round(node.rank));
+        }
+        return ranks;
+    }
+
+    /**
+     * @return All indexed entity types in the order used to evaluate entity rank.
+     */
+    public List<ComplexTypeMetadata> getTypes() {
+        evaluate();
+        List<ComplexTypeMetadata> types = new ArrayList<>(order.size());
+        for (Node node : order) {
+            types.add(node.type);
+        }
+        return types;
+    }
+
+    /**
+     * Adds an entity type to this index (and all reference fields declared in <code>type</code>). Ranks of all
+     * entity types are evaluated again (entity rank depends on the number of entity types).
+     *
+     * @param type An entity type.
+     * @throws IllegalArgumentException If type is not an entity type or if it is already indexed.
+     */
+    public void addEntity(ComplexTypeMetadata type) {
+        if (type == null || !type.isInstantiable()) {
+            throw new IllegalArgumentException("Type '" + type + "' is not an entity type."); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        if (nodes.containsKey(type)) {
+            throw new IllegalArgumentException("Type '" + type.getName() + "' is already indexed."); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        Node node = addNode(type);
+        for (Map.Entry<ComplexTypeMetadata, Integer> entry : referencedTypes.entrySet()) {
+            if (type.isAssignableFrom(entry.getKey())) {
+                node.inboundCount += entry.getValue();
+            }
+        }
+        for (ReferenceFieldMetadata reference : type.accept(new ReferenceCollector(false))) {
+            countReference(reference);
+        }
+        markAllDirty();
+    }
+
+    /**
+     * Removes an entity type from this index (and all reference fields declared in <code>type</code>). Ranks of all
+     * entity types are evaluated again (entity rank depends on the number of entity types).
+     *
+     * @param type An entity type.
+     * @throws IllegalArgumentException If type is not indexed.
+     */
+    public void removeEntity(ComplexTypeMetadata type) {
+        Node node = nodes.get(type);
+        if (node == null) {
+            throw new IllegalArgumentException("Type '" + type + "' is not indexed."); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        for (ReferenceFieldMetadata reference : type.accept(new ReferenceCollector(false))) {
+            uncountReference(reference);
+        }
+        nodes.remove(type);
+        isOrderDirty = true;
+        markAllDirty();
+    }
+
+    /**
+     * Adds a reference field to this index: only ranks of entity types that depend (directly or not) on the referencing
+     * or referenced types are evaluated again.
+     *
+     * @param reference A reference field.
+     */
+    public void addReference(ReferenceFieldMetadata reference) {
+        countReference(reference);
+    }
+
+    /**
+     * Removes a reference field from this index: only ranks of entity types that depend (directly or not) on the
+     * referencing or referenced types are evaluated again.
+     *
+     * @param reference A reference field.
+     */
+    public void removeReference(ReferenceFieldMetadata reference) {
+        uncountReference(reference);
+    }
+
+    private Node addNode(ComplexTypeMetadata type) {
+        Node node = new Node(type, nextIndex++);
+        nodes.put(type, node);
+        isOrderDirty = true;
+        return node;
+    }
+
+    private void markAllDirty() {
+        for (Node node : nodes.values()) {
+            node.isDirty = true;
+        }
+    }
+
+    private void countReference(ReferenceFieldMetadata reference) {
+        if (!references.add(reference)) {
+            return;
+        }
+        updateReferencedType(reference.getReferencedType(), 1);
+        Node owner = getOwner(reference);
+        if (owner != null) {
+            owner.references.add(reference);
+            owner.isDirty = true;
+            isOrderDirty = true;
+        }
+    }
+
+    private void uncountReference(ReferenceFieldMetadata reference) {
+        if (!references.remove(reference)) {
+            return;
+        }
+        updateReferencedType(reference.getReferencedType(), -1);
+        Node owner = getOwner(reference);
+        if (owner != null) {
+            owner.references.remove(reference);
+            owner.isDirty = true;
+            isOrderDirty = true;
+        }
+    }
+
+    private void updateReferencedType(ComplexTypeMetadata referencedType, int delta) {
+        Integer count = referencedTypes.get(referencedType);
+        int newCount = (count == null ? 0 : count) + delta;
+        if (newCount > 0) {
+            referencedTypes.put(referencedType, newCount);
+        } else {
+            referencedTypes.remove(referencedType);
+        }
+        for (Node node : nodes.values()) {
+            if (node.type.isAssignableFrom(referencedType)) {
+                node.inboundCount += delta;
+                node.hasChanged = true; // Entity types that reference node must be evaluated again.
+            }
+        }
+    }
+
+    // Returns the node for the entity type that directly declares the reference (fields in contained types are not
+    // taken into account for entity rank).
+    private Node getOwner(ReferenceFieldMetadata reference) {
+        ComplexTypeMetadata containingType = reference.getContainingType();
+        if (containingType == null || reference.getReferencedType().equals(containingType)) {
+            return null;
+        }
+        return nodes.get(containingType);
+    }
+
+    private void evaluate() {
+        if (isOrderDirty) {
+            order = sort();
+            isOrderDirty = false;
+        }
+        double totalNumber = nodes.size();
+        for (Node node : order) {
+            if (!node.isDirty) {
+                for (ReferenceFieldMetadata reference : node.references) {
+                    Node referencedNode = nodes.get(reference.getReferencedType());
+                    if (referencedNode != null && referencedNode.hasChanged) {
+                        node.isDirty = true;
+                        break;
+                    }
+                }
+            }
+            if (node.isDirty) {
+                double rank = totalNumber;
+                for (ReferenceFieldMetadata reference : node.references) {
+                    Node referencedNode = nodes.get(reference.getReferencedType());
+                    if (referencedNode != null && referencedNode.position < node.position
+                            && referencedNode.inboundCount > 0) {
+                        rank += ENTITY_RANK_ADJUST * (referencedNode.rank / referencedNode.inboundCount);
+                    }
+                }
+                if (rank != node.rank) {
+                    node.rank = rank;
+                    node.hasChanged = true;
+                }
+                node.isDirty = false;
+            }
+        }
+        for (Node node : order) {
+            node.hasChanged = false;
+        }
+    }
+
+    // Topological sort of nodes (a referenced type is sorted before the referencing type). Ties and cycles are broken
+    // using node index, so result does not depend on hash ordering.
+    private List<Node> sort() {
+        Map<Node, List<Node>> referencingNodes = new HashMap<>();
+        Map<Node, Integer> unresolved = new HashMap<>();
+        for (Node node : nodes.values()) {
+            Set<Node> dependencies = new HashSet<>();
+            for (ReferenceFieldMetadata reference : node.references) {
+                Node referencedNode = nodes.get(reference.getReferencedType());
+                if (referencedNode != null && referencedNode != node && dependencies.add(referencedNode)) {
+                    List<Node> referencing = referencingNodes.get(referencedNode);
+                    if (referencing == null) {
+                        referencing = new LinkedList<>();
+                        referencingNodes.put(referencedNode, referencing);
+                    }
+                    referencing.add(node);
+                }
+            }
+            unresolved.put(node, dependencies.size());
+        }
+        PriorityQueue<Node> ready = new PriorityQueue<>();
+        PriorityQueue<Node> pending = new PriorityQueue<>(nodes.values());
+        for (Node node : nodes.values()) {
+            if (unresolved.get(node) == 0) {
+                ready.add(node);
+            }
+        }
+        List<Node> sortedNodes = new ArrayList<>(nodes.size());
+        while (sortedNodes.size() < nodes.size()) {
+            Node next = ready.poll();
+            if (next == null) {
+                // Cycle: pick the first node (in index order) not yet sorted.
+                next = pending.poll();
+                while (unresolved.get(next) < 0) {
+                    next = pending.poll();
+                }
+            }
+            if (unresolved.get(next) < 0) {
+                continue; // Already sorted (was added to ready after being picked to break a cycle).
+            }
+            unresolved.put(next, -1);
+            if (next.position != sortedNodes.size()) {
+                // Position of node changed, rank of node (and of nodes that reference it) must be evaluated again.
+                next.position = sortedNodes.size();
+                next.isDirty = true;
+                next.hasChanged = true;
+            }
+            sortedNodes.add(next);
+            List<Node> referencing = referencingNodes.get(next);
+            if (referencing != null) {
+                for (Node node : referencing) {
+                    int count = unresolved.get(node);
+                    if (count > 0) {
+                        unresolved.put(node, count - 1);
+                        if (count == 1) {
+                            ready.add(node);
+                        }
+                    }
+                }
+            }
+        }
+        return sortedNodes;
+    }
+
+    private static class Node implements Comparable<Node> {
+
+        private final ComplexTypeMetadata type;
+
+        private final int index;
+
+        private final Collection<ReferenceFieldMetadata> references = new LinkedList<>();
+
+        private int inboundCount;
+
+        private int position = -1;
+
+        private double rank = -1;
+
+        private boolean isDirty = true;
+
+        private boolean hasChanged;
+
+        private Node(ComplexTypeMetadata type, int index) {
+            this.type = type;
+            this.index = index;
+        }
+
+        @Override
+        public int compareTo(Node o) {
+            return Integer.compare(index, o.index);
+        }
+    }
+
+    /**
+     * Collects all reference fields reachable from the visited element (using same traversal as
+     * {@link InboundReferences}). When <code>followReferences</code> is <code>false</code>, only reference fields
+     * declared in visited type (and its contained types) are collected.
+     */
+    private static class ReferenceCollector extends DefaultMetadataVisitor<Set<ReferenceFieldMetadata>> {
+
+        private final Set<TypeMetadata> checkedTypes = new HashSet<>();
+
+        private final Set<ReferenceFieldMetadata> references = new HashSet<>();
+
+        private final boolean followReferences;
+
+        private ReferenceCollector(boolean followReferences) {
+            this.followReferences = followReferences;
+        }
+
+        @Override
+        public Set<ReferenceFieldMetadata> visit(MetadataRepository repository) {
+            for (TypeMetadata type : repository.getTypes()) {
+                visitChild(type);
+            }
+            return references;
+        }
+
+        @Override
+        protected Traversal preVisit(MetadataVisitable element) {
+            if (element instanceof ComplexTypeMetadata && !(element instanceof ContainedComplexTypeMetadata)
+                    && checkedTypes.contains(element)) {
+                return Traversal.SKIP_SUBTREE;
+            }
+            return Traversal.CONTINUE;
+        }
+
+        @Override
+        public Set<ReferenceFieldMetadata> visit(ComplexTypeMetadata complexType) {
+            if (checkedTypes.add(complexType)) {
+                super.visit(complexType);
+            }
+            return references;
+        }
+
+        @Override
+        public Set<ReferenceFieldMetadata> visit(ContainedTypeFieldMetadata containedField) {
+            ComplexTypeMetadata containedType = containedField.getContainedType();
+            if (checkedTypes.add(containedType)) {
+                super.visit(containedField);
+                for (ComplexTypeMetadata subType : containedType.getSubTypes()) {
+                    visitChild(subType);
+                }
+            }
+            return references;
+        }
+
+        @Override
+        public Set<ReferenceFieldMetadata> visit(ReferenceFieldMetadata referenceField) {
+            references.add(referenceField);
+            if (followReferences) {
+                for (ComplexTypeMetadata subType : referenceField.getReferencedType().getSubTypes()) {
+                    visitChild(subType);
+                }
+            }
+            return references;
+        }
+
+        @Override
+        public Set<ReferenceFieldMetadata> visit(SimpleTypeMetadata simpleType) {
+            return references;
+        }
+
+        @Override
+        public Set<ReferenceFieldMetadata> visit(FieldMetadata field) {
+            return references;
+        }
+
+        @Override
+        public Set<ReferenceFieldMetadata> visit(SimpleTypeFieldMetadata simpleField) {
+            return references;
+        }
+
+        @Override
+        public Set<ReferenceFieldMetadata> visit(EnumerationFieldMetadata enumField) {
+            return references;
+        }
+    }
+}
@@ -40,6 +40,16 @@ public class InboundReferences extends DefaultMetadataVisitor<Set<ReferenceField
         this.type = type;
     }
 
+    @Override
+    protected Traversal preVisit(MetadataVisitable element) {
+        // Prune types already checked before they're visited (contained types are checked in visit methods).
+        if (element instanceof ComplexTypeMetadata && !(element instanceof ContainedComplexTypeMetadata)
+                && checkedTypes.contains(element)) {
+            return Traversal.SKIP_SUBTREE;
+        }
+        return Traversal.CONTINUE;
+    }
+
     @Override
     public Set<ReferenceFieldMetadata> visit(ComplexTypeMetadata metadata) {
         if (!checkedTypes.contains(metadata)) {
@@ -55,7 +65,7 @@ public class InboundReferences extends DefaultMetadataVisitor<Set<ReferenceField
             fieldToCheck.add(metadata);
         }
         for (ComplexTypeMetadata subType : metadata.getReferencedType().getSubTypes()) {
-            subType.accept(this);
+            visitChild(subType);
         }
         super.visit(metadata);
         return fieldToCheck;
@@ -70,7 +80,7 @@ public class InboundReferences extends DefaultMetadataVisitor<Set<ReferenceField
     public Set<ReferenceFieldMetadata> visit(MetadataRepository repository) {
         Collection<TypeMetadata> types = repository.getTypes();
         for (TypeMetadata type : types) {
-            type.accept(this);
+            visitChild(type);
         }
         return fieldToCheck;
     }
@@ -100,7 +110,7 @@ public class InboundReferences extends DefaultMetadataVisitor<Set<ReferenceField
             checkedTypes.add(typeMetadata);
             super.visit(metadata);
             for (ComplexTypeMetadata subType : typeMetadata.getSubTypes()) {
-                subType.accept(this);
+                visitChild(subType);
             }
         }
         return fieldToCheck;
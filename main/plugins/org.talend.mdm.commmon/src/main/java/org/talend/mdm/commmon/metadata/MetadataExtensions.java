@@ -18,7 +18,18 @@ public class MetadataExtensions implements MetadataExtensible {
 
     protected Map<String, Object> dataMap;
 
-    private static final int THRESHOLD = MetadataRepository.MODEL_METADATA_VALIDATION_MARKERS.length;
+    // Data a repository computes while loading a data model (in addition to markers).
+    private static final String[] LOADED_DATA = { MetadataRepository.PERMISSION_ANNOTATIONS,
+            MetadataRepository.COMPILED_SCHEMATRON, MetadataRepository.COMPILED_DEFAULT_VALUE_RULE,
+            MetadataRepository.COMPILED_VISIBILITY_RULE, MetadataRepository.VISIBILITY_RULES,
+            MetadataRepository.COMPILED_FOREIGN_KEY_FILTER, MetadataRepository.TYPE_USAGE_INDEX };
+
+    private static final int THRESHOLD = MetadataRepository.MODEL_METADATA_VALIDATION_MARKERS.length + LOADED_DATA.length;
+
+    // Repository that assigned the ordinal (ordinals are only unique within a repository).
+    private MetadataRepository ordinalRepository;
+
+    private int ordinal = -1;
 
     public synchronized void setData(String key, Object data) {
         if (dataMap == null) {
@@ -43,4 +54,21 @@ public class MetadataExtensions implements MetadataExtensible {
         return (X) dataMap.get(key);
     }
 
+    /**
+     * @param repository A repository.
+     * @return The position of this element in <code>repository</code> (from 0 to
+     * {@link MetadataRepository#getOrdinalCount()} excluded) or -1 if element was not loaded by <code>repository</code>.
+     */
+    public int getOrdinal(MetadataRepository repository) {
+        return ordinalRepository == repository ? ordinal : -1;
+    }
+
+    boolean assignOrdinal(MetadataRepository repository, int ordinal) {
+        if (ordinalRepository != null) {
+            return false;
+        }
+        this.ordinalRepository = repository;
+        this.ordinal = ordinal;
+        return true;
+    }
 }
@@ -0,0 +1,283 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.apache.commons.codec.binary.Hex;
+import org.talend.mdm.commmon.util.core.CommonUtil;
+
+/**
+ * <p>
+ * Structural fingerprints (SHA-256, hex encoded) of the types and fields of a data model. Fingerprint of a field covers
+ * its name, type, facets ({@link MetadataRepository#DATA_MAX_LENGTH}, {@link MetadataRepository#DATA_TOTAL_DIGITS},
+ * {@link MetadataRepository#DATA_FRACTION_DIGITS}), occurrence, key flag, FK target (and FK options) and, for complex
+ * fields, fingerprints of the contained fields. Fingerprint of a type includes fingerprints of all its fields, so
+ * fingerprints roll up to entity types and to the whole repository (Merkle tree): two entity types with same
+ * fingerprint have the same structure.
+ * </p>
+ * <p>
+ * Fingerprints are computed by {@link MetadataRepository} once a valid data model is loaded (see
+ * {@link MetadataRepository#getFingerprints()}). They only depend on the data model content, so they can be used as
+ * cache keys (e.g. for results computed from a data model). Fingerprints are indexed by type name and field path:
+ * fingerprints remain valid for a {@link MetadataRepository#copy() copy} of the repository. Once built, this class is
+ * immutable and thread safe.
+ * </p>
+ */
+public class MetadataFingerprints {
+
+    private static final String DIGEST_ALGORITHM = "SHA-256"; //$NON-NLS-1$
+
+    private final Map<String, String> entityTypeFingerprints = new HashMap<>();
+
+    private final Map<String, String> nonInstantiableTypeFingerprints = new HashMap<>();
+
+    // Fingerprints of fields (and contained types) of entity types, indexed by entity type name + path.
+    private final Map<String, String> entityFingerprints = new HashMap<>();
+
+    // Fingerprints of fields (and contained types) of non instantiable types, indexed by type name + path.
+    private final Map<String, String> nonInstantiableFingerprints = new HashMap<>();
+
+    private String repositoryFingerprint;
+
+    private MetadataFingerprints() {
+    }
+
+    /**
+     * @param repository A {@link MetadataRepository} with frozen types.
+     * @return Fingerprints of all user types in <code>repository</code>.
+     */
+    public static MetadataFingerprints build(MetadataRepository repository) {
+        if (repository == null) {
+            throw new IllegalArgumentException("Repository cannot be null."); //$NON-NLS-1$
+        }
+        MetadataFingerprints fingerprints = new MetadataFingerprints();
+        Map<String, String> sortedEntityTypes = new TreeMap<>();
+        for (ComplexTypeMetadata type : repository.getUserComplexTypes()) {
+            String fingerprint = fingerprints.digestType(type, type.getName(), fingerprints.entityFingerprints);
+            fingerprints.entityTypeFingerprints.put(type.getName(), fingerprint);
+            sortedEntityTypes.put(type.getName(), fingerprint);
+        }
+        Map<String, String> sortedEntityTypesWithoutPK = new TreeMap<>();
+        for (ComplexTypeMetadata type : repository.getUserComplexTypesWithoutPK()) {
+            sortedEntityTypesWithoutPK.put(type.getName(), fingerprints.digestType(type, type.getName(), null));
+        }
+        Map<String, String> sortedNonInstantiableTypes = new TreeMap<>();
+        for (ComplexTypeMetadata type : repository.getNonInstantiableTypes()) {
+            String fingerprint = fingerprints.digestType(type, type.getName(), fingerprints.nonInstantiableFingerprints);
+            fingerprints.nonInstantiableTypeFingerprints.put(type.getName(), fingerprint);
+            sortedNonInstantiableTypes.put(type.getName(), type.getClass().getName() + '/' + fingerprint);
+        }
+        Digest digest = new Digest();
+        digest.add(sortedEntityTypes.size());
+        for (Map.Entry<String, String> entry : sortedEntityTypes.entrySet()) {
+            digest.add(entry.getKey()).add(entry.getValue());
+        }
+        digest.add(sortedEntityTypesWithoutPK.size());
+        for (Map.Entry<String, String> entry : sortedEntityTypesWithoutPK.entrySet()) {
+            digest.add(entry.getKey()).add(entry.getValue());
+        }
+        digest.add(sortedNonInstantiableTypes.size());
+        for (Map.Entry<String, String> entry : sortedNonInstantiableTypes.entrySet()) {
+            digest.add(entry.getKey()).add(entry.getValue());
+        }
+        fingerprints.repositoryFingerprint = digest.toHex();
+        return fingerprints;
+    }
+
+    private String digestType(ComplexTypeMetadata type, String typeName, Map<String, String> index) {
+        Digest digest = new Digest();
+        digest.add(type.getName()).add(type.getNamespace()).add(type.isInstantiable());
+        digestTypeNames(digest, type.getSuperTypes());
+        digestFields(digest, type.getFields(), typeName, index);
+        return digest.toHex();
+    }
+
+    private void digestFields(Digest digest, Collection<FieldMetadata> fields, String typeName, Map<String, String> index) {
+        digest.add(fields.size());
+        for (FieldMetadata field : fields) {
+            String fingerprint = digestField(field, typeName, index);
+            digest.add(fingerprint);
+            if (index != null) {
+                index.put(typeName + '/' + field.getPath(), fingerprint);
+            }
+        }
+    }
+
+    private String digestField(FieldMetadata field, String typeName, Map<String, String> index) {
+        Digest digest = new Digest();
+        digest.add(field.getClass().getName()).add(field.getName());
+        digest.add(field.getContainingType() == null ? null : field.getContainingType().getName());
+        digest.add(field.getDeclaringType() == null ? null : field.getDeclaringType().getName());
+        digest.add(field.isKey()).add(field.isMandatory()).add(field.isMany());
+        TypeMetadata fieldType = field.getType();
+        if (fieldType != null) {
+            digest.add(fieldType.getName()).add(fieldType.getNamespace());
+            digest.add(String.valueOf(CommonUtil.getSuperTypeMaxLength(fieldType, fieldType)));
+            digest.add(String.valueOf(fieldType.<Object> getData(MetadataRepository.DATA_TOTAL_DIGITS)));
+            digest.add(String.valueOf(fieldType.<Object> getData(MetadataRepository.DATA_FRACTION_DIGITS)));
+        } else {
+            digest.add((String) null);
+        }
+        if (field instanceof ReferenceFieldMetadata) {
+            ReferenceFieldMetadata referenceField = (ReferenceFieldMetadata) field;
+            digest.add(referenceField.getReferencedType().getName());
+            digest.add(getFieldIdentity(referenceField.getReferencedField()));
+            digest.add(referenceField.isFKIntegrity()).add(referenceField.allowFKIntegrityOverride());
+            digest.add(referenceField.getForeignKeyInfoFields().size());
+            for (FieldMetadata foreignKeyInfoField : referenceField.getForeignKeyInfoFields()) {
+                digest.add(getFieldIdentity(foreignKeyInfoField));
+            }
+        } else if (field instanceof ContainedTypeFieldMetadata) {
+            ComplexTypeMetadata containedType = ((ContainedTypeFieldMetadata) field).getContainedType();
+            digestTypeNames(digest, containedType.getSubTypes());
+            if (fieldType instanceof ComplexTypeMetadata && MetadataRepository.isCircle((ComplexTypeMetadata) fieldType, null)) {
+                // Recursive contained type: contained fields are already part of a parent fingerprint.
+                digest.add(-1);
+            } else {
+                String containedTypeFingerprint = digestContainedType(containedType, typeName, index);
+                digest.add(containedTypeFingerprint);
+                if (index != null) {
+                    index.put(typeName + '/' + field.getPath() + '#', containedTypeFingerprint);
+                }
+            }
+        }
+        return digest.toHex();
+    }
+
+    private String digestContainedType(ComplexTypeMetadata containedType, String typeName, Map<String, String> index) {
+        Digest digest = new Digest();
+        digest.add(containedType.getName()).add(containedType.getNamespace());
+        digestFields(digest, containedType.getFields(), typeName, index);
+        return digest.toHex();
+    }
+
+    private static void digestTypeNames(Digest digest, Collection<? extends TypeMetadata> types) {
+        Map<String, String> sortedNames = new TreeMap<>();
+        for (TypeMetadata type : types) {
+            sortedNames.put(type.getName(), type.getNamespace());
+        }
+        digest.add(sortedNames.size());
+        for (Map.Entry<String, String> entry : sortedNames.entrySet()) {
+            digest.add(entry.getKey()).add(entry.getValue());
+        }
+    }
+
+    // Identifies a field that might be declared in another type (e.g. a referenced field).
+    private static String getFieldIdentity(FieldMetadata field) {
+        if (field == null) {
+            return null;
+        }
+        StringBuilder identity = new StringBuilder();
+        identity.append(field.getEntityTypeName()).append('/').append(field.getPath());
+        identity.append('/').append(field.isKey()).append('/').append(field.isMandatory()).append('/').append(field.isMany());
+        if (field.getType() != null) {
+            identity.append('/').append(field.getType().getName());
+        }
+        return identity.toString();
+    }
+
+    /**
+     * @return Fingerprint of all user types (entity types and non instantiable types) of the repository.
+     */
+    public String getRepositoryFingerprint() {
+        return repositoryFingerprint;
+    }
+
+    /**
+     * @param type An entity type or a non instantiable type.
+     * @return Fingerprint of the type (covers all fields of the type, including fields of contained types) or
+     * <code>null</code> if type is not in this index.
+     */
+    public String getFingerprint(ComplexTypeMetadata type) {
+        if (type instanceof ContainedComplexTypeMetadata) {
+            FieldMetadata container = type.getContainer();
+            return getIndex(container).get(getIndexedTypeName(container) + '/' + container.getPath() + '#');
+        }
+        if (type.isInstantiable()) {
+            return entityTypeFingerprints.get(type.getName());
+        }
+        return nonInstantiableTypeFingerprints.get(type.getName());
+    }
+
+    /**
+     * @param entityTypeName An entity type name.
+     * @return Fingerprint of the entity type or <code>null</code> if there's no such entity type in this index.
+     */
+    public String getEntityFingerprint(String entityTypeName) {
+        return entityTypeFingerprints.get(entityTypeName);
+    }
+
+    /**
+     * @param field A field of an entity type or of a non instantiable type.
+     * @return Fingerprint of the field or <code>null</code> if field is not in this index (e.g. field is in a
+     * recursive contained type).
+     */
+    public String getFingerprint(FieldMetadata field) {
+        return getIndex(field).get(getIndexedTypeName(field) + '/' + field.getPath());
+    }
+
+    private Map<String, String> getIndex(FieldMetadata field) {
+        return field.getContainingType().getEntity().isInstantiable() ? entityFingerprints : nonInstantiableFingerprints;
+    }
+
+    private static String getIndexedTypeName(FieldMetadata field) {
+        return field.getContainingType().getEntity().getName();
+    }
+
+    private static class Digest {
+
+        private final MessageDigest messageDigest;
+
+        private Digest() {
+            try {
+                messageDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("Digest algorithm '" + DIGEST_ALGORITHM + "' is not available.", e); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        }
+
+        // Values are length-prefixed so that different sequences of values never produce the same input.
+        private Digest add(String value) {
+            if (value == null) {
+                return add(-1);
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            add(bytes.length);
+            messageDigest.update(bytes);
+            return this;
+        }
+
+        private Digest add(int value) {
+            messageDigest.update((byte) (value >>> 24));
+            messageDigest.update((byte) (value >>> 16));
+            messageDigest.update((byte) (value >>> 8));
+            messageDigest.update((byte) value);
+            return this;
+        }
+
+        private Digest add(boolean value) {
+            messageDigest.update((byte) (value ? 1 : 0));
+            return this;
+        }
+
+        private String toHex() {
+            return Hex.encodeHexString(messageDigest.digest());
+        }
+    }
+}
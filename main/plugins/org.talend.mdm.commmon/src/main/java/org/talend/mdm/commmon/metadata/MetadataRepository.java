@@ -12,16 +12,20 @@ package org.talend.mdm.commmon.metadata;
 
 import java.io.InputStream;
 import java.io.Serializable;
+import java.util.ArrayDeque;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Collections;
+import java.util.Deque;
 import java.util.HashMap;
+import java.util.IdentityHashMap;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.Set;
 import java.util.Stack;
 import java.util.TreeMap;
 
@@ -71,7 +75,12 @@ import org.talend.mdm.commmon.metadata.annotation.SchematronProcessor;
 import org.talend.mdm.commmon.metadata.annotation.UserAccessProcessor;
 import org.talend.mdm.commmon.metadata.annotation.XmlSchemaAnnotationProcessor;
 import org.talend.mdm.commmon.metadata.annotation.XmlSchemaAnnotationProcessorState;
+import org.talend.mdm.commmon.metadata.expression.CompiledDefaultValueRule;
+import org.talend.mdm.commmon.metadata.expression.CompiledVisibilityRule;
+import org.talend.mdm.commmon.metadata.expression.ForeignKeyFilter;
+import org.talend.mdm.commmon.metadata.expression.VisibilityRules;
 import org.talend.mdm.commmon.metadata.validation.ValidationFactory;
+import org.talend.mdm.commmon.metadata.validation.ValidationRun;
 import org.talend.mdm.commmon.metadata.xsd.XSDVisitor;
 import org.talend.mdm.commmon.metadata.xsd.XmlSchemaWalker;
 import org.talend.mdm.commmon.util.core.ICoreConstants;
@@ -100,7 +109,12 @@ public class MetadataRepository implements MetadataVisitable, XSDVisitor, Serial
     public static final String XSD_COLUMN_NUMBER = "metadata.xsd.column"; //$NON-NLS-1$
 
     public static final String XSD_DOM_ELEMENT = "metadata.xsd.dom.element"; //$NON-NLS-1$
-    
+
+    /**
+     * @deprecated No longer set when loading a data model (keeping the EMF declaration retained the whole XSD model):
+     * use {@link #PERMISSION_ANNOTATIONS} or {@link #XSD_DOM_ELEMENT} instead.
+     */
+    @Deprecated
     public static final String XSD_ELEMENT = "metadata.xsd.element"; //$NON-NLS-1$
 
     public static final String DEFAULT_VALUE = "default.value"; //$NON-NLS-1$
@@ -127,6 +141,20 @@ public class MetadataRepository implements MetadataVisitable, XSDVisitor, Serial
 
     public static final String VALIDATION_PERMISSION_MARKER = "validation.permission.validated";
 
+    public static final String PERMISSION_ANNOTATIONS = "metadata.permission.annotations"; //$NON-NLS-1$
+
+    public static final String COMPILED_SCHEMATRON = "metadata.schematron.compiled"; //$NON-NLS-1$
+
+    public static final String COMPILED_DEFAULT_VALUE_RULE = "metadata.default.value.rule.compiled"; //$NON-NLS-1$
+
+    public static final String COMPILED_VISIBILITY_RULE = "metadata.visibility.rule.compiled"; //$NON-NLS-1$
+
+    public static final String VISIBILITY_RULES = "metadata.visibility.rules"; //$NON-NLS-1$
+
+    public static final String COMPILED_FOREIGN_KEY_FILTER = "metadata.foreign.key.filter.compiled"; //$NON-NLS-1$
+
+    public static final String TYPE_USAGE_INDEX = "metadata.usage.index"; //$NON-NLS-1$
+
     public static final String DATA_ZIPPED = "metadata.zipped"; //$NON-NLS-1$
 
     public static final String ANONYMOUS_PREFIX = "X_ANONYMOUS"; //$NON-NLS-1$
@@ -172,6 +200,15 @@ public class MetadataRepository implements MetadataVisitable, XSDVisitor, Serial
 
     private final Map<String, Map<String, TypeMetadata>> nonInstantiableTypes = new HashMap<String, Map<String, TypeMetadata>>();
 
+    private TypeUsageIndex typeUsageIndex;
+
+    private MetadataFingerprints fingerprints;
+
+    private int ordinalCount;
+
+    // Only validates data model (see validateOnly(...)): skips structures that are not needed for validation.
+    private boolean isValidateOnly;
+
     private final Stack<ComplexTypeMetadata> currentTypeStack = new Stack<ComplexTypeMetadata>();
 
     private String targetNamespace;
@@ -253,7 +290,7 @@ public class MetadataRepository implements MetadataVisitable, XSDVisitor, Serial
         return _getUserComplexTypes(entityTypes);
     }
 
-    private Collection<ComplexTypeMetadata> getUserComplexTypesWithoutPK() {
+    Collection<ComplexTypeMetadata> getUserComplexTypesWithoutPK() {
         return _getUserComplexTypes(entityTypesWithoutPK);
     }
 
@@ -319,6 +356,42 @@ public class MetadataRepository implements MetadataVisitable, XSDVisitor, Serial
     }
 
     public void load(InputStream inputStream, ValidationHandler handler) {
+        load(inputStream, handler, null);
+    }
+
+    /**
+     * Validates a data model and reports the same errors as {@link #load(InputStream, ValidationHandler)}: XSD
+     * diagnostics and all validation rules are performed.
+     * <p>
+     * Types are built as for a full load: reusable types are still copied for each of their usages (validation rules of
+     * contained fields are performed on these copies) and types reference their XSD DOM elements while validation runs
+     * (messages refer to them). Only structures read once data model is loaded are skipped: Schematron, default value,
+     * visibility and foreign key filter rules are not compiled, type usages are not indexed and no fingerprints are
+     * computed. The repository is not returned, so parsed XSD and types can be garbage collected once validation ends.
+     * </p>
+     *
+     * @param inputStream The data model.
+     * @param handler Handler for validation messages.
+     */
+    public static void validateOnly(InputStream inputStream, ValidationHandler handler) {
+        MetadataRepository repository = new MetadataRepository();
+        repository.isValidateOnly = true;
+        try {
+            repository.load(inputStream, handler);
+        } finally {
+            repository.close();
+        }
+    }
+
+    /**
+     * Loads a data model and validates it, reusing validation results of unchanged types from
+     * <code>validationCache</code> (see {@link ValidationCache}).
+     *
+     * @param inputStream The data model.
+     * @param handler Handler for validation messages.
+     * @param validationCache A cache for validation results (or <code>null</code> to validate all types).
+     */
+    public void load(InputStream inputStream, ValidationHandler handler, ValidationCache validationCache) {
         if (inputStream == null) {
             throw new IllegalArgumentException("Input stream can not be null.");
         }
@@ -353,29 +426,118 @@ public class MetadataRepository implements MetadataVisitable, XSDVisitor, Serial
         freezeUsages();
         entityTypes.put(getUserNamespace(), freezeTypes(entityTypes.get(getUserNamespace())));
         entityTypesWithoutPK.put(getUserNamespace(), freezeTypes(entityTypesWithoutPK.get(getUserNamespace())));
-        // Validate types
-        for (TypeMetadata type : getUserComplexTypes()) {
-            if (!XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(type.getNamespace())) {
-                type.validate(handler);
-            }
+        // Index type usages (all usages are now frozen). Validation counts usages without index.
+        if (!isValidateOnly) {
+            indexTypeUsages();
         }
-        for (TypeMetadata type : getUserComplexTypesWithoutPK()) {
-            if (!XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(type.getNamespace())) {
-                type.validate(handler);
+        assignOrdinals();
+        // Validate types (validation state is kept by the run, not in types)
+        ValidationRun validationRun = ValidationRun.start(this);
+        try {
+            validate(handler, validationCache);
+        } finally {
+            validationRun.end();
+        }
+        handler.end();
+        if (handler.getErrorCount() != 0) {
+            LOGGER.error("Could not parse data model (" + handler.getErrorCount() + " error(s) found).");
+        } else if (!isValidateOnly) {
+            // Compute structural fingerprints of frozen types (only for valid data models).
+            fingerprints = MetadataFingerprints.build(this);
+            // Group visibility rules of fields by entity (records are rendered with visibility of all fields).
+            for (ComplexTypeMetadata type : getUserComplexTypes()) {
+                type.setData(VISIBILITY_RULES, VisibilityRules.build(type));
             }
+            resolveForeignKeyFilters();
         }
-        for (TypeMetadata type : getNonInstantiableTypes()) {
-            if (!XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(type.getNamespace())) {
-                type.validate(handler);
+    }
+
+    private void validate(ValidationHandler handler, ValidationCache validationCache) {
+        if (validationCache != null) {
+            validationCache.validate(this, handler);
+        } else {
+            for (TypeMetadata type : getUserComplexTypes()) {
+                if (!XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(type.getNamespace())) {
+                    type.validate(handler);
+                }
+            }
+            for (TypeMetadata type : getUserComplexTypesWithoutPK()) {
+                if (!XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(type.getNamespace())) {
+                    type.validate(handler);
+                }
+            }
+            for (TypeMetadata type : getNonInstantiableTypes()) {
+                if (!XMLConstants.W3C_XML_SCHEMA_NS_URI.equals(type.getNamespace())) {
+                    type.validate(handler);
+                }
             }
         }
         ValidationFactory.getRule(this).perform(handler); // Perform data model-scoped validation (e.g. cycles).
-        handler.end();
-        if (handler.getErrorCount() != 0) {
-            LOGGER.error("Could not parse data model (" + handler.getErrorCount() + " error(s) found).");
+    }
+
+    // Resolves paths of parsed foreign key filters (referenced types are now frozen).
+    private void resolveForeignKeyFilters() {
+        DefaultMetadataVisitor<Void> visitor = new DefaultMetadataVisitor<Void>(true) {
+
+            @Override
+            public Void visit(ReferenceFieldMetadata referenceField) {
+                ForeignKeyFilter filter = referenceField.getData(COMPILED_FOREIGN_KEY_FILTER);
+                if (filter != null && !filter.isResolved()) {
+                    try {
+                        referenceField.setData(COMPILED_FOREIGN_KEY_FILTER, filter.resolve(referenceField.getReferencedType(),
+                                referenceField.getContainingType().getEntity()));
+                    } catch (IllegalArgumentException e) {
+                        LOGGER.warn("Could not resolve foreign key filter of field '" + referenceField.getPath() + "': " //$NON-NLS-1$ //$NON-NLS-2$
+                                + e.getMessage());
+                    }
+                }
+                return null;
+            }
+        };
+        for (ComplexTypeMetadata type : getUserComplexTypes()) {
+            visitor.traverse(type);
+        }
+    }
+
+    // Assigns an ordinal to user types and fields (see ValidationRun).
+    private void assignOrdinals() {
+        Set<MetadataExtensible> visited = Collections.newSetFromMap(new IdentityHashMap<MetadataExtensible, Boolean>());
+        Deque<TypeMetadata> types = new ArrayDeque<TypeMetadata>();
+        types.addAll(getUserComplexTypes());
+        types.addAll(getUserComplexTypesWithoutPK());
+        types.addAll(getNonInstantiableTypes());
+        while (!types.isEmpty()) {
+            TypeMetadata type = types.pop();
+            if (type instanceof ContainedComplexTypeMetadata) {
+                type = ((ContainedComplexTypeMetadata) type).getContainedType();
+            }
+            if (!(type instanceof MetadataExtensions) || !visited.add(type)) {
+                continue;
+            }
+            if (((MetadataExtensions) type).assignOrdinal(this, ordinalCount)) {
+                ordinalCount++;
+            }
+            if (type instanceof ComplexTypeMetadataImpl) {
+                for (FieldMetadata field : ((ComplexTypeMetadata) type).getFields()) {
+                    if (field instanceof MetadataExtensions && visited.add(field)
+                            && ((MetadataExtensions) field).assignOrdinal(this, ordinalCount)) {
+                        ordinalCount++;
+                    }
+                    types.push(field.getType());
+                }
+            }
+            types.addAll(type.getSuperTypes());
         }
     }
 
+    /**
+     * @return Number of {@link MetadataExtensions#getOrdinal(MetadataRepository) ordinals} assigned to types and fields
+     * loaded by this repository.
+     */
+    public int getOrdinalCount() {
+        return ordinalCount;
+    }
+
     protected void freezeUsages() {
         for (List<ComplexTypeMetadata> entityTypes : entityTypeUsage.values()) {
             for (ComplexTypeMetadata entityType : entityTypes) {
@@ -399,6 +561,33 @@ public class MetadataRepository implements MetadataVisitable, XSDVisitor, Serial
         }
     }
 
+    private void indexTypeUsages() {
+        List<TypeMetadata> types = new LinkedList<TypeMetadata>();
+        types.addAll(getUserComplexTypes());
+        types.addAll(getUserComplexTypesWithoutPK());
+        types.addAll(getNonInstantiableTypes());
+        typeUsageIndex = TypeUsageIndex.build(types);
+        for (TypeMetadata type : types) {
+            type.setData(TYPE_USAGE_INDEX, typeUsageIndex);
+        }
+    }
+
+    /**
+     * @return The {@link TypeUsageIndex usage index} for all user types in this repository, or <code>null</code> if
+     * this repository was not {@link #load(InputStream) loaded} from a data model.
+     */
+    public TypeUsageIndex getTypeUsageIndex() {
+        return typeUsageIndex;
+    }
+
+    /**
+     * @return The {@link MetadataFingerprints structural fingerprints} of all user types in this repository, or
+     * <code>null</code> if this repository was not {@link #load(InputStream) loaded} from a valid data model.
+     */
+    public MetadataFingerprints getFingerprints() {
+        return fingerprints;
+    }
+
     public static boolean isCircle(ComplexTypeMetadata containedType, ComplexTypeMetadata subType) {
         if (subType == null) {
             subType = containedType;
@@ -660,6 +849,7 @@ public class MetadataRepository implements MetadataVisitable, XSDVisitor, Serial
             try {
                 XSDAnnotation annotation = element.getAnnotation();
                 state = new XmlSchemaAnnotationProcessorState();
+                state.setValidateOnly(isValidateOnly);
                 for (XmlSchemaAnnotationProcessor processor : XML_ANNOTATIONS_PROCESSORS) {
                     processor.process(this, null, annotation, state);
                 }
@@ -687,8 +877,11 @@ public class MetadataRepository implements MetadataVisitable, XSDVisitor, Serial
             // Keep line and column of definition
             type.setData(XSD_LINE_NUMBER, XSDParser.getStartLine(element.getElement()));
             type.setData(XSD_COLUMN_NUMBER, XSDParser.getStartColumn(element.getElement()));
-            type.setData(XSD_ELEMENT, element);
+            type.setData(PERMISSION_ANNOTATIONS, state.getPermissionAnnotations());
             type.setData(XSD_DOM_ELEMENT, element.getElement());
+            if (state.getCompiledSchematron() != null) {
+                type.setData(COMPILED_SCHEMATRON, state.getCompiledSchematron());
+            }
             addTypeMetadata(type);
             // Keep usage information
             entityTypeUsage.get(element.getType()).add(type);
@@ -763,6 +956,7 @@ public class MetadataRepository implements MetadataVisitable, XSDVisitor, Serial
         }
         boolean isMany = maxOccurs == -1 || maxOccurs > 1;
         XmlSchemaAnnotationProcessorState state = new XmlSchemaAnnotationProcessorState();
+        state.setValidateOnly(isValidateOnly);
         try {
             XSDAnnotation annotation = element.getAnnotation();
             for (XmlSchemaAnnotationProcessor processor : XML_ANNOTATIONS_PROCESSORS) {
@@ -812,7 +1006,8 @@ public class MetadataRepository implements MetadataVisitable, XSDVisitor, Serial
                         state.getForeignKeyFilter(), visibilityRule, state.getNoAddRoles(), state.getNoRemoveRoles(), isFKMainRender);
                 referenceField.setData(XSD_LINE_NUMBER, XSDParser.getStartLine(element.getElement()));
                 referenceField.setData(XSD_COLUMN_NUMBER, XSDParser.getStartColumn(element.getElement()));
-                referenceField.setData(XSD_ELEMENT, element);
+                referenceField.setData(PERMISSION_ANNOTATIONS, state.getPermissionAnnotations());
+                setCompiledVisibilityRule(referenceField, state.getCompiledVisibilityRule());
                 referenceField.setData(XSD_DOM_ELEMENT, element.getElement());
                 referenceField.setData(MIN_OCCURS, minOccurs);
                 referenceField.setData(MAX_OCCURS, maxOccurs);
@@ -820,6 +1015,10 @@ public class MetadataRepository implements MetadataVisitable, XSDVisitor, Serial
                 setLocalizedDescriptions(referenceField, state.getLocaleToDescription());
                 setDefaultValue(referenceField, state.getDefaultValue());
                 setDefaultValueRule(referenceField, state.getDefaultValueRule());
+                setCompiledDefaultValueRule(referenceField, state.getCompiledDefaultValueRule());
+                if (state.getParsedForeignKeyFilter() != null) {
+                    referenceField.setData(COMPILED_FOREIGN_KEY_FILTER, state.getParsedForeignKeyFilter());
+                }
                 setFieldData(simpleSchemaType, referenceField);
                 return referenceField;
             }
@@ -837,7 +1036,8 @@ public class MetadataRepository implements MetadataVisitable, XSDVisitor, Serial
                                 isMandatory, fieldName, fieldType, allowWriteUsers, hideUsers, visibilityRule);
                         enumField.setData(XSD_LINE_NUMBER, XSDParser.getStartLine(element.getElement()));
                         enumField.setData(XSD_COLUMN_NUMBER, XSDParser.getStartColumn(element.getElement()));
-                        enumField.setData(XSD_ELEMENT, element);
+                        enumField.setData(PERMISSION_ANNOTATIONS, state.getPermissionAnnotations());
+                        setCompiledVisibilityRule(enumField, state.getCompiledVisibilityRule());
                         enumField.setData(XSD_DOM_ELEMENT, element.getElement());
                         enumField.setData(MIN_OCCURS, minOccurs);
                         enumField.setData(MAX_OCCURS, maxOccurs);
@@ -845,6 +1045,7 @@ public class MetadataRepository implements MetadataVisitable, XSDVisitor, Serial
                         setLocalizedDescriptions(enumField, state.getLocaleToDescription());
                         setDefaultValue(enumField, state.getDefaultValue());
                         setDefaultValueRule(enumField, state.getDefaultValueRule());
+                        setCompiledDefaultValueRule(enumField, state.getCompiledDefaultValueRule());
                         setFieldData(simpleSchemaType, enumField);
                         return enumField;
                     } else {
@@ -852,7 +1053,8 @@ public class MetadataRepository implements MetadataVisitable, XSDVisitor, Serial
                                 fieldType, allowWriteUsers, hideUsers, visibilityRule);
                         field.setData(XSD_LINE_NUMBER, XSDParser.getStartLine(element.getElement()));
                         field.setData(XSD_COLUMN_NUMBER, XSDParser.getStartColumn(element.getElement()));
-                        field.setData(XSD_ELEMENT, element);
+                        field.setData(PERMISSION_ANNOTATIONS, state.getPermissionAnnotations());
+                        setCompiledVisibilityRule(field, state.getCompiledVisibilityRule());
                         field.setData(XSD_DOM_ELEMENT, element.getElement());
                         field.setData(MIN_OCCURS, minOccurs);
                         field.setData(MAX_OCCURS, maxOccurs);
@@ -860,6 +1062,7 @@ public class MetadataRepository implements MetadataVisitable, XSDVisitor, Serial
                         setLocalizedDescriptions(field, state.getLocaleToDescription());
                         setDefaultValue(field, state.getDefaultValue());
                         setDefaultValueRule(field, state.getDefaultValueRule());
+                        setCompiledDefaultValueRule(field, state.getCompiledDefaultValueRule());
                         setFieldData(simpleSchemaType, field);
                         return field;
                     }
@@ -868,7 +1071,8 @@ public class MetadataRepository implements MetadataVisitable, XSDVisitor, Serial
                             fieldType, allowWriteUsers, hideUsers, visibilityRule);
                     field.setData(XSD_LINE_NUMBER, XSDParser.getStartLine(element.getElement()));
                     field.setData(XSD_COLUMN_NUMBER, XSDParser.getStartColumn(element.getElement()));
-                    field.setData(XSD_ELEMENT, element);
+                    field.setData(PERMISSION_ANNOTATIONS, state.getPermissionAnnotations());
+                    setCompiledVisibilityRule(field, state.getCompiledVisibilityRule());
                     field.setData(XSD_DOM_ELEMENT, element.getElement());
                     field.setData(MIN_OCCURS, minOccurs);
                     field.setData(MAX_OCCURS, maxOccurs);
@@ -876,6 +1080,7 @@ public class MetadataRepository implements MetadataVisitable, XSDVisitor, Serial
                     setLocalizedDescriptions(field, state.getLocaleToDescription());
                     setDefaultValue(field, state.getDefaultValue());
                     setDefaultValueRule(field, state.getDefaultValueRule());
+                    setCompiledDefaultValueRule(field, state.getCompiledDefaultValueRule());
                     setFieldData(simpleSchemaType, field);
                     return field;
                 }
@@ -917,7 +1122,8 @@ public class MetadataRepository implements MetadataVisitable, XSDVisitor, Serial
                     hideUsers, visibilityRule);
             containedField.setData(XSD_LINE_NUMBER, XSDParser.getStartLine(element.getElement()));
             containedField.setData(XSD_COLUMN_NUMBER, XSDParser.getStartColumn(element.getElement()));
-            containedField.setData(XSD_ELEMENT, element);
+            containedField.setData(PERMISSION_ANNOTATIONS, state.getPermissionAnnotations());
+            setCompiledVisibilityRule(containedField, state.getCompiledVisibilityRule());
             containedField.setData(XSD_DOM_ELEMENT, element.getElement());
             containedField.setData(MIN_OCCURS, minOccurs);
             containedField.setData(MAX_OCCURS, maxOccurs);
@@ -948,7 +1154,8 @@ public class MetadataRepository implements MetadataVisitable, XSDVisitor, Serial
                     allowWriteUsers, hideUsers, visibilityRule);
             field.setData(XSD_LINE_NUMBER, XSDParser.getStartLine(element.getElement()));
             field.setData(XSD_COLUMN_NUMBER, XSDParser.getStartColumn(element.getElement()));
-            field.setData(XSD_ELEMENT, element);
+            field.setData(PERMISSION_ANNOTATIONS, state.getPermissionAnnotations());
+            setCompiledVisibilityRule(field, state.getCompiledVisibilityRule());
             field.setData(XSD_DOM_ELEMENT, element.getElement());
             field.setData(MIN_OCCURS, minOccurs);
             field.setData(MAX_OCCURS, maxOccurs);
@@ -1022,6 +1229,18 @@ public class MetadataRepository implements MetadataVisitable, XSDVisitor, Serial
         }
     }
 
+    private static void setCompiledDefaultValueRule(FieldMetadata field, CompiledDefaultValueRule compiledDefaultValueRule) {
+        if (compiledDefaultValueRule != null) {
+            field.setData(COMPILED_DEFAULT_VALUE_RULE, compiledDefaultValueRule);
+        }
+    }
+
+    private static void setCompiledVisibilityRule(FieldMetadata field, CompiledVisibilityRule compiledVisibilityRule) {
+        if (compiledVisibilityRule != null) {
+            field.setData(COMPILED_VISIBILITY_RULE, compiledVisibilityRule);
+        }
+    }
+
     public MetadataRepository copy() {
         MetadataRepository repositoryCopy = new MetadataRepository();
         // Copy first non instantiable types...
@@ -1046,6 +1265,12 @@ public class MetadataRepository implements MetadataVisitable, XSDVisitor, Serial
                 repositoryCopy.entityTypes.put(currentNamespace.getKey(), namespaceCopy);
             }
         }
+        // Usage index is keyed by type instances: copied types need their own index.
+        if (typeUsageIndex != null) {
+            repositoryCopy.indexTypeUsages();
+        }
+        // Fingerprints are indexed by names: they're still valid for copied types.
+        repositoryCopy.fingerprints = fingerprints;
         return repositoryCopy;
     }
 
@@ -37,8 +37,6 @@ public class MetadataUtils {
     private MetadataUtils() {
     }
 
-    private static final double ENTITY_RANK_ADJUST = 0.9;
-
     /**
      * <p>
      * Computes "entity rank": entity rank score is based on a modified version of Google's Page Rank algorithm (it's
@@ -57,41 +55,16 @@ public class MetadataUtils {
      * </ul>
      * </p>
      * <p>
-     * Code is expected to run in linear time (O(n+p) where n is the number of entities and p the number of references).
-     * Used memory is O(n^2) (due to a dependency ordering).
+     * Code is expected to run in linear time (O(n+p) where n is the number of entities and p the number of references):
+     * inbound reference counts are computed once. Use {@link EntityRankIndex} to update entity ranks when entities or
+     * references are added/removed without computing all entity ranks again.
      * </p>
      *
      * @param repository A {@link MetadataRepository} instance that contains entity types.
      * @return A {@link Map} that maps a entity to its entity rank value.
      */
     public static Map<ComplexTypeMetadata, Long> computeEntityRank(MetadataRepository repository) {
-        List<ComplexTypeMetadata> sortedTypes = sortTypes(repository, SortType.LENIENT);
-        int totalNumber = sortedTypes.size();
-
-        Map<ComplexTypeMetadata, Long> entityRank = new HashMap<>();
-        for (ComplexTypeMetadata currentType : sortedTypes) {
-            if (currentType.isInstantiable()) {
-                double rank = totalNumber;
-                for (FieldMetadata currentField : currentType.getFields()) {
-                    if (currentField instanceof ReferenceFieldMetadata) {
-                        ComplexTypeMetadata referencedType = ((ReferenceFieldMetadata) currentField).getReferencedType();
-                        if (referencedType != currentType) {
-                            Long referencedEntityRank = entityRank.get(referencedType);
-                            if (referencedEntityRank != null) {
-                                double inboundReferencesCount = getInboundReferencesCount(repository, referencedType);
-                                rank += ENTITY_RANK_ADJUST * (referencedEntityRank / inboundReferencesCount);
-                            }
-                        }
-                    }
-                }
-                entityRank.put(currentType, Math.round(rank));
-            }
-        }
-        return entityRank;
-    }
-
-    private static double getInboundReferencesCount(MetadataRepository repository, ComplexTypeMetadata referencedType) {
-        return repository.accept(new InboundReferences(referencedType)).size();
+        return EntityRankIndex.build(repository).getRanks();
     }
 
     /**
@@ -291,6 +264,111 @@ public class MetadataUtils {
         return _sortTypes(repository, types, sortType);
     }
 
+    /**
+     * <p>
+     * Returns a {@link DependencyPlan plan} to load records of all entity types in <code>repository</code> using
+     * {@link org.talend.mdm.commmon.metadata.MetadataUtils.SortType#LENIENT lenient} dependencies: entity types are
+     * grouped in levels and all entity types of a level only depend on entity types in previous levels (so they can be
+     * loaded concurrently). Entity types in a dependency cycle are grouped in a single unit.
+     * </p>
+     * <p>
+     * Building the plan runs in linear time <i>O(n+p)</i> (<i>n</i> number of types and <i>p</i> number of
+     * dependencies between types) when there's no dependency cycle. Each dependency cycle makes it superlinear: a depth
+     * first search of the cycle is run again for each reference selected to break it (<i>O(b*(k+d*b))</i> for a cycle
+     * of <i>k</i> types, <i>d</i> dependencies and <i>b</i> broken references), and types of the cycle are then
+     * ordered in <i>O(k*k*d)</i>.
+     * </p>
+     *
+     * @param repository The repository that contains entity types to load.
+     * @return A load plan for all entity types in <code>repository</code>.
+     * @throws CircularDependencyException If a dependency cycle only contains mandatory references.
+     * @see #getLoadPlan(MetadataRepository, SortType, Map)
+     */
+    public static DependencyPlan getLoadPlan(MetadataRepository repository) {
+        return getLoadPlan(repository, SortType.LENIENT, Collections.<ComplexTypeMetadata, Long> emptyMap());
+    }
+
+    /**
+     * <p>
+     * Returns a {@link DependencyPlan plan} to load records of all entity types in <code>repository</code>: entity
+     * types are grouped in levels and all entity types of a level only depend on entity types in previous levels (so
+     * they can be loaded concurrently). Entity types in a dependency cycle are grouped in a single unit:
+     * {@link DependencyPlan.Unit#getBrokenReferences()} returns the reference fields to set once all types of the unit
+     * are loaded.
+     * </p>
+     * <p>
+     * Building the plan runs in linear time <i>O(n+p)</i> (<i>n</i> number of types and <i>p</i> number of
+     * dependencies between types) when there's no dependency cycle. Each dependency cycle makes it superlinear: a depth
+     * first search of the cycle is run again for each reference selected to break it (<i>O(b*(k+d*b))</i> for a cycle
+     * of <i>k</i> types, <i>d</i> dependencies and <i>b</i> broken references), and types of the cycle are then
+     * ordered in <i>O(k*k*d)</i>.
+     * </p>
+     *
+     * @param repository The repository that contains entity types to load.
+     * @param sortType Selects which references are dependencies (see {@link SortType}).
+     * @param costHints Estimated cost to load each entity type (e.g. number of records), used to compute
+     * {@link DependencyPlan#getCriticalPath() critical path}. Entity types with no cost hint have a cost of 1.
+     * @return A load plan for all entity types in <code>repository</code>.
+     * @throws CircularDependencyException If a dependency cycle only contains mandatory references (see
+     * {@link DependencyPlan.Unit#getBrokenReferences()}).
+     */
+    public static DependencyPlan getLoadPlan(MetadataRepository repository, SortType sortType,
+            Map<ComplexTypeMetadata, Long> costHints) {
+        if (costHints == null) {
+            costHints = Collections.emptyMap();
+        }
+        return DependencyPlan.create(EntityDependencyGraph.build(repository, sortType), costHints, false);
+    }
+
+    /**
+     * <p>
+     * Returns a {@link DependencyPlan plan} to delete records of all entity types in <code>repository</code> (e.g. to
+     * purge a data container). Plan is in reverse dependency order: entity types are grouped in levels and all entity
+     * types that reference a type are in previous levels (so all types in a level can be purged concurrently).
+     * </p>
+     * <p>
+     * Entity types in a dependency cycle are grouped in a single unit: in this case,
+     * {@link DependencyPlan.Unit#getBrokenReferences()} returns the reference fields that must be set to
+     * <code>null</code> (or for which FK integrity must be overridden) before records of the unit are deleted.
+     * </p>
+     *
+     * @param repository The repository that contains entity types to purge.
+     * @return A purge plan for all entity types in <code>repository</code>.
+     * @throws CircularDependencyException If a dependency cycle only contains mandatory references with no FK
+     * integrity override.
+     * @see #getPurgePlan(MetadataRepository, Map)
+     */
+    public static DependencyPlan getPurgePlan(MetadataRepository repository) {
+        return getPurgePlan(repository, Collections.<ComplexTypeMetadata, Long> emptyMap());
+    }
+
+    /**
+     * <p>
+     * Returns a {@link DependencyPlan plan} to delete records of all entity types in <code>repository</code> (e.g. to
+     * purge a data container). Plan is in reverse dependency order: entity types are grouped in levels and all entity
+     * types that reference a type are in previous levels (so all types in a level can be purged concurrently).
+     * </p>
+     * <p>
+     * All references with FK integrity (mandatory or not) are taken into account. Entity types in a dependency cycle
+     * are grouped in a single unit: in this case, {@link DependencyPlan.Unit#getBrokenReferences()} returns the
+     * reference fields that must be set to <code>null</code> (or for which FK integrity must be overridden) before
+     * records of the unit are deleted.
+     * </p>
+     *
+     * @param repository The repository that contains entity types to purge.
+     * @param costHints Estimated cost to delete records of each entity type (e.g. number of records), used to compute
+     * {@link DependencyPlan#getCriticalPath() critical path}. Entity types with no cost hint have a cost of 1.
+     * @return A purge plan for all entity types in <code>repository</code>.
+     * @throws CircularDependencyException If a dependency cycle only contains mandatory references with no FK
+     * integrity override.
+     */
+    public static DependencyPlan getPurgePlan(MetadataRepository repository, Map<ComplexTypeMetadata, Long> costHints) {
+        if (costHints == null) {
+            costHints = Collections.emptyMap();
+        }
+        return DependencyPlan.create(EntityDependencyGraph.build(repository, SortType.LENIENT), costHints, true);
+    }
+
     // Internal method for type sort
     private static List<ComplexTypeMetadata> _sortTypes(MetadataRepository repository, List<ComplexTypeMetadata> typesSubSet,
             final SortType sortType) {
@@ -845,10 +923,19 @@ public class MetadataUtils {
     /**
      * Counts how many times a type (usually a reusable type) is used throughout the data model.
      *
+     * <p>
+     * If <code>type</code> was loaded by {@link MetadataRepository#load(java.io.InputStream)}, value is read from the
+     * repository {@link TypeUsageIndex usage index} (constant time).
+     * </p>
+     *
      * @param type A data model type.
      * @return For entity types, this method returns 0. For reusable types, return a number greater or equals to 0.
      */
     public static int countEntityUsageCount(ComplexTypeMetadata type) {
+        TypeUsageIndex usageIndex = type.getData(MetadataRepository.TYPE_USAGE_INDEX);
+        if (usageIndex != null && usageIndex.contains(type)) {
+            return usageIndex.getUsageCount(type);
+        }
         int usageCount = 0;
         for (ComplexTypeMetadata usage : type.getUsages()) {
             FieldMetadata container = usage.getContainer();
@@ -33,6 +33,16 @@ public class OutboundReferences extends DefaultMetadataVisitor<Set<ReferenceFiel
         return fieldToCheck;
     }
 
+    @Override
+    protected Traversal preVisit(MetadataVisitable element) {
+        // Prune types already checked before they're visited (contained types are checked in visit methods).
+        if (element instanceof ComplexTypeMetadata && !(element instanceof ContainedComplexTypeMetadata)
+                && checkedTypes.contains(element)) {
+            return Traversal.SKIP_SUBTREE;
+        }
+        return Traversal.CONTINUE;
+    }
+
     @Override
     public Set<ReferenceFieldMetadata> visit(ComplexTypeMetadata metadata) {
         if (!checkedTypes.contains(metadata)) {
@@ -46,7 +56,7 @@ public class OutboundReferences extends DefaultMetadataVisitor<Set<ReferenceFiel
     public Set<ReferenceFieldMetadata> visit(ReferenceFieldMetadata metadata) {
         fieldToCheck.add(metadata);
         for (ComplexTypeMetadata subType : metadata.getReferencedType().getSubTypes()) {
-            subType.accept(this);
+            visitChild(subType);
         }
         return fieldToCheck;
     }
@@ -60,7 +70,7 @@ public class OutboundReferences extends DefaultMetadataVisitor<Set<ReferenceFiel
     public Set<ReferenceFieldMetadata> visit(MetadataRepository repository) {
         Collection<TypeMetadata> types = repository.getTypes();
         for (TypeMetadata type : types) {
-            type.accept(this);
+            visitChild(type);
         }
         return fieldToCheck;
     }
@@ -87,7 +97,7 @@ public class OutboundReferences extends DefaultMetadataVisitor<Set<ReferenceFiel
     public Set<ReferenceFieldMetadata> visit(ContainedTypeFieldMetadata metadata) {
         super.visit(metadata);
         for (ComplexTypeMetadata subType : metadata.getContainedType().getSubTypes()) {
-            subType.accept(this);
+            visitChild(subType);
         }
         return fieldToCheck;
     }
@@ -0,0 +1,178 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * <p>
+ * Visits top-level types of a data model in parallel (on a {@link ForkJoinPool}): a new visitor (created by a
+ * {@link VisitorFactory}) visits each type and per-type results are merged using a {@link Combiner}. Results are
+ * always combined in type order (the order of the types collection), so a result does not depend on thread
+ * scheduling as long as the combiner is associative.
+ * </p>
+ * <p>
+ * Requirements for a parallel traversal:
+ * <ul>
+ * <li>Types must be frozen (e.g. types of a {@link MetadataRepository} once
+ * {@link MetadataRepository#load(java.io.InputStream)} returned): frozen types are only read during a visit.</li>
+ * <li>Visitors must be side-effect free: they should not modify visited types (e.g. with
+ * {@link MetadataExtensible#setData(String, Object)}) nor share mutable state with other visitors. Each visitor
+ * instance is only used by one thread for one top-level type.</li>
+ * <li>Visitors should not depend on a state shared between types (e.g. a set of "already visited types" shared for the
+ * whole repository): each top-level type is visited with a new visitor.</li>
+ * </ul>
+ * Parallel traversal pays off for whole-repository analyses of large data models; for small models the sequential
+ * {@link MetadataVisitable#accept(MetadataVisitor)} is usually faster (types are visited in the calling thread when
+ * there are fewer types than {@link #SEQUENTIAL_THRESHOLD}).
+ * </p>
+ */
+public class ParallelMetadataTraversal {
+
+    /**
+     * Below this number of types, types are visited in calling thread.
+     */
+    public static final int SEQUENTIAL_THRESHOLD = 8;
+
+    private ParallelMetadataTraversal() {
+    }
+
+    /**
+     * Creates visitors for a parallel traversal.
+     *
+     * @param <T> Visit result type.
+     */
+    public interface VisitorFactory<T> {
+
+        /**
+         * @return A new visitor (called once per visited type).
+         */
+        MetadataVisitor<T> create();
+    }
+
+    /**
+     * Combines results of visits for a parallel traversal.
+     *
+     * @param <T> Visit result type.
+     */
+    public interface Combiner<T> {
+
+        /**
+         * @param left Result for first types (may be <code>null</code>).
+         * @param right Result for next types (may be <code>null</code>).
+         * @return The combined result.
+         */
+        T combine(T left, T right);
+    }
+
+    /**
+     * Visits all user types of <code>repository</code> (entity types and then non instantiable types, as
+     * {@link DefaultMetadataVisitor#visit(MetadataRepository)} does) in parallel using the common fork join pool.
+     *
+     * @param repository A {@link MetadataRepository} with frozen types.
+     * @param factory Creates a visitor for each type.
+     * @param combiner Merges results.
+     * @return The combined result or <code>null</code> if repository does not contain any type.
+     */
+    public static <T> T visit(MetadataRepository repository, VisitorFactory<T> factory, Combiner<T> combiner) {
+        return visit(repository, factory, combiner, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * Visits all user types of <code>repository</code> (entity types and then non instantiable types, as
+     * {@link DefaultMetadataVisitor#visit(MetadataRepository)} does) in parallel.
+     *
+     * @param repository A {@link MetadataRepository} with frozen types.
+     * @param factory Creates a visitor for each type.
+     * @param combiner Merges results.
+     * @param pool The pool used for visits.
+     * @return The combined result or <code>null</code> if repository does not contain any type.
+     */
+    public static <T> T visit(MetadataRepository repository, VisitorFactory<T> factory, Combiner<T> combiner,
+            ForkJoinPool pool) {
+        if (repository == null) {
+            throw new IllegalArgumentException("Repository cannot be null."); //$NON-NLS-1$
+        }
+        List<TypeMetadata> types = new ArrayList<TypeMetadata>();
+        types.addAll(repository.getUserComplexTypes());
+        types.addAll(repository.getNonInstantiableTypes());
+        return visit(types, factory, combiner, pool);
+    }
+
+    /**
+     * Visits <code>types</code> in parallel.
+     *
+     * @param types Frozen types to visit.
+     * @param factory Creates a visitor for each type.
+     * @param combiner Merges results (in <code>types</code> order).
+     * @param pool The pool used for visits.
+     * @return The combined result or <code>null</code> if <code>types</code> is empty.
+     */
+    public static <T> T visit(Collection<? extends TypeMetadata> types, VisitorFactory<T> factory, Combiner<T> combiner,
+            ForkJoinPool pool) {
+        if (factory == null || combiner == null || pool == null) {
+            throw new IllegalArgumentException("Factory, combiner and pool cannot be null."); //$NON-NLS-1$
+        }
+        List<TypeMetadata> typeList = new ArrayList<TypeMetadata>(types);
+        if (typeList.isEmpty()) {
+            return null;
+        }
+        VisitTask<T> task = new VisitTask<T>(typeList, 0, typeList.size(), factory, combiner);
+        if (typeList.size() < SEQUENTIAL_THRESHOLD) {
+            return task.compute();
+        }
+        return pool.invoke(task);
+    }
+
+    private static class VisitTask<T> extends RecursiveTask<T> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final List<TypeMetadata> types;
+
+        private final int start;
+
+        private final int end;
+
+        private final VisitorFactory<T> factory;
+
+        private final Combiner<T> combiner;
+
+        private VisitTask(List<TypeMetadata> types, int start, int end, VisitorFactory<T> factory, Combiner<T> combiner) {
+            this.types = types;
+            this.start = start;
+            this.end = end;
+            this.factory = factory;
+            this.combiner = combiner;
+        }
+
+        @Override
+        protected T compute() {
+            if (end - start == 1) {
+                return types.get(start).accept(factory.create());
+            }
+            int middle = (start + end) >>> 1;
+            VisitTask<T> left = new VisitTask<T>(types, start, middle, factory, combiner);
+            VisitTask<T> right = new VisitTask<T>(types, middle, end, factory, combiner);
+            if (!inForkJoinPool()) { // Not in a pool (small type list): compute sequentially.
+                return combiner.combine(left.compute(), right.compute());
+            }
+            right.fork();
+            T leftResult = left.compute();
+            return combiner.combine(leftResult, right.join());
+        }
+    }
+}
@@ -0,0 +1,150 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * <p>
+ * Precomputed usages of types (usually reusable types) in a data model: for each type, this index keeps the number of
+ * times the type is used in entity types (see {@link MetadataUtils#countEntityUsageCount(ComplexTypeMetadata)}) and
+ * the set of entity types that (directly or not) use the type.
+ * </p>
+ * <p>
+ * Types are indexed by identity: an entity type and a reusable type may share the same name (e.g. an entity
+ * <code>Product</code> of type <code>Product</code>) and are {@link Object#equals(Object) equal}, but they don't have
+ * the same usages.
+ * </p>
+ * <p>
+ * Index is built by {@link MetadataRepository} once all types usages are frozen (see
+ * {@link MetadataRepository#getTypeUsageIndex()}). Once built, this class is immutable and thread safe.
+ * </p>
+ */
+public class TypeUsageIndex {
+
+    private final Map<ComplexTypeMetadata, Integer> usageCounts = new IdentityHashMap<>();
+
+    private final Map<ComplexTypeMetadata, Set<ComplexTypeMetadata>> usingEntities = new IdentityHashMap<>();
+
+    private TypeUsageIndex() {
+    }
+
+    /**
+     * @param types Types to index (types must be frozen).
+     * @return An index with usages of all <code>types</code>.
+     */
+    public static TypeUsageIndex build(Collection<? extends TypeMetadata> types) {
+        TypeUsageIndex index = new TypeUsageIndex();
+        Set<ComplexTypeMetadata> inProgress = Collections
+                .newSetFromMap(new IdentityHashMap<ComplexTypeMetadata, Boolean>());
+        for (TypeMetadata type : types) {
+            if (type instanceof ComplexTypeMetadata) {
+                index.computeUsageCount((ComplexTypeMetadata) type, inProgress);
+                index.computeUsingEntities((ComplexTypeMetadata) type, inProgress);
+            }
+        }
+        return index;
+    }
+
+    // Same algorithm as MetadataUtils#countEntityUsageCount, with results memoized and a guard against usage cycles
+    // between reusable types.
+    private int computeUsageCount(ComplexTypeMetadata type, Set<ComplexTypeMetadata> inProgress) {
+        Integer usageCount = usageCounts.get(type);
+        if (usageCount != null) {
+            return usageCount;
+        }
+        if (!inProgress.add(type)) {
+            return 0;
+        }
+        int count = 0;
+        for (ComplexTypeMetadata usage : type.getUsages()) {
+            FieldMetadata container = usage.getContainer();
+            if (container != null) {
+                ComplexTypeMetadata entity = container.getContainingType().getEntity();
+                if (entity.isInstantiable()) {
+                    count++;
+                } else if (!type.equals(entity)) {
+                    count += computeUsageCount(entity, inProgress);
+                }
+            } else {
+                count++;
+            }
+        }
+        inProgress.remove(type);
+        usageCounts.put(type, count);
+        return count;
+    }
+
+    private Set<ComplexTypeMetadata> computeUsingEntities(ComplexTypeMetadata type, Set<ComplexTypeMetadata> inProgress) {
+        Set<ComplexTypeMetadata> entities = usingEntities.get(type);
+        if (entities != null) {
+            return entities;
+        }
+        if (!inProgress.add(type)) {
+            return Collections.emptySet();
+        }
+        entities = new LinkedHashSet<>();
+        for (ComplexTypeMetadata usage : type.getUsages()) {
+            FieldMetadata container = usage.getContainer();
+            ComplexTypeMetadata entity = container != null ? container.getContainingType().getEntity() : usage.getEntity();
+            if (entity.isInstantiable()) {
+                entities.add(entity);
+            } else if (!type.equals(entity)) {
+                entities.addAll(computeUsingEntities(entity, inProgress));
+            }
+        }
+        inProgress.remove(type);
+        entities = Collections.unmodifiableSet(entities);
+        usingEntities.put(type, entities);
+        return entities;
+    }
+
+    /**
+     * @param type A type.
+     * @return <code>true</code> if <code>type</code> is in this index.
+     */
+    public boolean contains(ComplexTypeMetadata type) {
+        return usageCounts.containsKey(type);
+    }
+
+    /**
+     * @param type A type.
+     * @return Number of times the type is used in entity types (same value as
+     * {@link MetadataUtils#countEntityUsageCount(ComplexTypeMetadata)}).
+     * @throws IllegalArgumentException If type is not in this index.
+     */
+    public int getUsageCount(ComplexTypeMetadata type) {
+        Integer usageCount = usageCounts.get(type);
+        if (usageCount == null) {
+            throw new IllegalArgumentException("Type '" + type + "' is not indexed."); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        return usageCount;
+    }
+
+    /**
+     * @param type A type.
+     * @return All entity types that use (directly or via other reusable types) <code>type</code>.
+     * @throws IllegalArgumentException If type is not in this index.
+     */
+    public Set<ComplexTypeMetadata> getUsingEntities(ComplexTypeMetadata type) {
+        Set<ComplexTypeMetadata> entities = usingEntities.get(type);
+        if (entities == null) {
+            throw new IllegalArgumentException("Type '" + type + "' is not indexed."); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        return entities;
+    }
+}
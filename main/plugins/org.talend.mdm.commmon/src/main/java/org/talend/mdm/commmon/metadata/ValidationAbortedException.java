@@ -0,0 +1,47 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata;
+
+import java.util.Collection;
+import java.util.Collections;
+import java.util.LinkedList;
+
+/**
+ * Thrown by {@link ConcurrentValidationHandler} when the maximum number of validation errors is reached: data model
+ * validation stops without validating the remaining types.
+ */
+public class ValidationAbortedException extends RuntimeException {
+
+    private static final long serialVersionUID = 1L;
+
+    private final Collection<String> messages;
+
+    public ValidationAbortedException(int maxErrors, Collection<String> messages) {
+        super("Data model validation aborted after " + maxErrors + " error(s):\n\t" + join(messages)); //$NON-NLS-1$ //$NON-NLS-2$
+        this.messages = Collections.unmodifiableCollection(new LinkedList<String>(messages));
+    }
+
+    private static String join(Collection<String> messages) {
+        StringBuilder aggregatedMessages = new StringBuilder();
+        for (String message : messages) {
+            aggregatedMessages.append(message).append('\n').append('\t');
+        }
+        return aggregatedMessages.toString();
+    }
+
+    /**
+     * @return Messages of the errors found before validation was aborted.
+     */
+    public Collection<String> getMessages() {
+        return messages;
+    }
+}
@@ -0,0 +1,910 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import javax.xml.XMLConstants;
+
+import org.apache.commons.codec.binary.Hex;
+import org.apache.commons.lang.ObjectUtils;
+import org.eclipse.xsd.util.XSDParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.talend.mdm.commmon.metadata.validation.ValidationRun;
+import org.w3c.dom.Attr;
+import org.w3c.dom.NamedNodeMap;
+import org.w3c.dom.NodeList;
+
+/**
+ * <p>
+ * Caches results of type validation (messages sent to {@link ValidationHandler}) between data model loads (see
+ * {@link MetadataRepository#load(java.io.InputStream, ValidationHandler, ValidationCache)}): only types that changed
+ * since a previous load are validated again, messages of unchanged types are replayed (with line numbers adjusted to
+ * the new position of the types in the data model). This is useful when the same data model is deployed again with
+ * few changes, or for Studio when user edits one entity type of a large data model.
+ * </p>
+ * <p>
+ * Validation of a type also validates some of the types it depends on (referenced entity types, super types, reusable
+ * types...). Each validated type is therefore cached with the types it depends on (directly or not): key of a type is a
+ * digest of the XSD sources of this forward dependency closure, so an edit only validates again the edited type and
+ * the types that depend on it. A type validated again is validated on its own: as in a full validation, types of its
+ * closure that are also in the closure of a type validated before are skipped (key records these types, so messages
+ * only depend on the closure).
+ * </p>
+ * <p>
+ * Messages are replayed in type order, identical messages (e.g. reported by several types about a type they all
+ * depend on) are only sent once. Messages that can't be re-attached to the types of a closure (e.g. messages about unresolved types) prevent
+ * caching of the type. This class is thread safe: a cache can be shared by several repositories.
+ * </p>
+ * <p>
+ * A self checking cache (see {@link #ValidationCache(int, boolean)}) also validates all types without cache and compares
+ * messages (identical messages are counted once): if they differ, messages of the validation without cache are sent,
+ * the difference is logged and cache is cleared. This doubles validation time, so it is meant to check the cache on
+ * actual data models (e.g. in tests).
+ * </p>
+ */
+public class ValidationCache {
+
+    private static final String DIGEST_ALGORITHM = "SHA-256"; //$NON-NLS-1$
+
+    private static final String CACHE_VERSION = "3"; //$NON-NLS-1$
+
+    // Simple types have no XSD source in repository: their digest uses their facets.
+    private static final String[] SIMPLE_TYPE_DATA = { MetadataRepository.DATA_MAX_LENGTH, MetadataRepository.DATA_MIN_LENGTH,
+            MetadataRepository.DATA_LENGTH, MetadataRepository.DATA_TOTAL_DIGITS, MetadataRepository.DATA_FRACTION_DIGITS,
+            MetadataRepository.ENUMERATION_LIST, MetadataRepository.PATTERN, MetadataRepository.MAX_EXCLUSIVE,
+            MetadataRepository.MIN_EXCLUSIVE, MetadataRepository.MAX_INCLUSIVE, MetadataRepository.MIN_INCLUSIVE };
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ValidationCache.class);
+
+    private final Map<String, List<Message>> cache;
+
+    private final boolean isSelfChecking;
+
+    /**
+     * @param maxEntries Maximum number of types kept in cache (least recently used types are evicted first).
+     */
+    public ValidationCache(int maxEntries) {
+        this(maxEntries, false);
+    }
+
+    /**
+     * @param maxEntries Maximum number of types kept in cache (least recently used types are evicted first).
+     * @param isSelfChecking <code>true</code> to compare messages with a validation without cache on each validation.
+     */
+    public ValidationCache(final int maxEntries, boolean isSelfChecking) {
+        this.isSelfChecking = isSelfChecking;
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Max entries must be greater than 0."); //$NON-NLS-1$
+        }
+        cache = new LinkedHashMap<String, List<Message>>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<Message>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Removes all cached validation results.
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+    }
+
+    /**
+     * Validates all user types of <code>repository</code> (as {@link MetadataRepository#load(java.io.InputStream)}
+     * does), reusing cached results for unchanged types.
+     *
+     * @param repository A repository with frozen types.
+     * @param handler Handler for validation messages.
+     */
+    void validate(MetadataRepository repository, ValidationHandler handler) {
+        Graph graph = new Graph(repository);
+        // Identical messages are only sent once (iteration follows validation order).
+        Set<ResolvedMessage> sentMessages = new LinkedHashSet<>();
+        Set<TypeNode> previousNodes = Collections.newSetFromMap(new IdentityHashMap<TypeNode, Boolean>());
+        for (TypeMetadata validatedType : graph.validatedTypes) {
+            Closure closure = graph.getClosure(validatedType, previousNodes);
+            String key = closure.getKey();
+            List<Message> messages = null;
+            if (key != null) {
+                synchronized (cache) {
+                    messages = cache.get(key);
+                }
+            }
+            List<ResolvedMessage> resolvedMessages = messages != null ? closure.resolve(messages) : null;
+            if (resolvedMessages == null) {
+                RecordingHandler recorder = new RecordingHandler(closure, handler);
+                // Validates type on its own (in a nested run, so types validated by other types are validated again).
+                ValidationRun run = ValidationRun.start(repository);
+                try {
+                    closure.markPreviousTypesValidated();
+                    validatedType.validate(recorder);
+                } finally {
+                    run.end();
+                }
+                resolvedMessages = recorder.resolvedMessages;
+                if (key != null && recorder.messages != null) {
+                    synchronized (cache) {
+                        cache.put(key, Collections.unmodifiableList(recorder.messages));
+                    }
+                }
+            }
+            sentMessages.addAll(resolvedMessages);
+            markValidated(validatedType, Collections.newSetFromMap(new IdentityHashMap<TypeMetadata, Boolean>()));
+            previousNodes.addAll(closure.nodes.values());
+        }
+        if (isSelfChecking) {
+            sentMessages = check(repository, graph, sentMessages, handler);
+        }
+        for (ResolvedMessage sentMessage : sentMessages) {
+            sentMessage.sendTo(handler);
+        }
+    }
+
+    // Validates all types without cache (as MetadataRepository#load(...) does) and returns these messages if they differ.
+    private Set<ResolvedMessage> check(MetadataRepository repository, Graph graph, Set<ResolvedMessage> messages,
+            ValidationHandler handler) {
+        RecordingHandler recorder = new RecordingHandler(null, handler);
+        ValidationRun run = ValidationRun.start(repository);
+        try {
+            for (TypeMetadata validatedType : graph.validatedTypes) {
+                validatedType.validate(recorder);
+            }
+        } finally {
+            run.end();
+        }
+        Set<ResolvedMessage> expectedMessages = new LinkedHashSet<>(recorder.resolvedMessages);
+        if (expectedMessages.equals(messages)) {
+            return messages;
+        }
+        for (ResolvedMessage expectedMessage : expectedMessages) {
+            if (!messages.contains(expectedMessage)) {
+                LOGGER.error("Validation cache lost message: " + expectedMessage); //$NON-NLS-1$
+            }
+        }
+        for (ResolvedMessage message : messages) {
+            if (!expectedMessages.contains(message)) {
+                LOGGER.error("Validation cache sent unexpected message: " + message); //$NON-NLS-1$
+            }
+        }
+        clear();
+        return expectedMessages;
+    }
+
+    // Marks types as validated (as a validation would do).
+    private static void markValidated(TypeMetadata type, Set<TypeMetadata> visitedTypes) {
+        if (!visitedTypes.add(type)) {
+            return;
+        }
+        ValidationRun.mark(type, ValidationRun.Marker.VALIDATED);
+        if (type instanceof ComplexTypeMetadata) {
+            for (FieldMetadata field : ((ComplexTypeMetadata) type).getFields()) {
+                ValidationRun.mark(field, ValidationRun.Marker.VALIDATED);
+                if (field.getType() instanceof ContainedComplexTypeMetadata) {
+                    markValidated(field.getType(), visitedTypes);
+                }
+            }
+        }
+    }
+
+    // Types of a repository (nodes) and the dependencies between them.
+    private static class Graph {
+
+        private final Map<String, TypeNode> nodes = new LinkedHashMap<>();
+
+        private final Map<TypeMetadata, TypeNode> typeNodes = new IdentityHashMap<>();
+
+        private final List<TypeMetadata> validatedTypes = new ArrayList<>();
+
+        private String documentDigest;
+
+        private Graph(MetadataRepository repository) {
+            String userNamespace = repository.getUserNamespace();
+            for (TypeMetadata type : repository.getTypes()) {
+                if (type instanceof SimpleTypeMetadata && userNamespace.equals(type.getNamespace())) {
+                    addNode("S:" + type.getName(), type); //$NON-NLS-1$
+                }
+            }
+            // Same order as MetadataRepository#load(...)
+            for (ComplexTypeMetadata type : repository.getUserComplexTypes()) {
+                addNode("E:" + type.getName(), type).isValidatedType = true; //$NON-NLS-1$
+                validatedTypes.add(type);
+            }
+            for (ComplexTypeMetadata type : repository.getUserComplexTypesWithoutPK()) {
+                addNode("W:" + type.getName(), type).isValidatedType = true; //$NON-NLS-1$
+                validatedTypes.add(type);
+            }
+            for (ComplexTypeMetadata type : repository.getNonInstantiableTypes()) {
+                addNode("T:" + type.getName(), type).isValidatedType = true; //$NON-NLS-1$
+                validatedTypes.add(type);
+            }
+            documentDigest = getDocumentDigest();
+            for (TypeNode node : new ArrayList<>(nodes.values())) {
+                try {
+                    addDependencies(node, node.type, Collections.newSetFromMap(
+                            new IdentityHashMap<TypeMetadata, Boolean>()));
+                } catch (RuntimeException e) {
+                    // Invalid data model: types that depend on this node will be validated (not cached).
+                    node.isCacheable = false;
+                }
+            }
+        }
+
+        // Validation of each type reports all XSD attribute declarations of the data model (see
+        // XSDAttributeValidationRule): they are part of all keys.
+        private String getDocumentDigest() {
+            Digest digest = new Digest();
+            for (TypeNode node : nodes.values()) {
+                if (node.source != null) {
+                    NodeList attributes = node.source.getOwnerDocument().getElementsByTagNameNS(
+                            XMLConstants.W3C_XML_SCHEMA_NS_URI, "attribute"); //$NON-NLS-1$
+                    digest.add(String.valueOf(attributes.getLength()));
+                    for (int i = 0; i < attributes.getLength(); i++) {
+                        org.w3c.dom.Element attribute = (org.w3c.dom.Element) attributes.item(i);
+                        digest.add(String.valueOf(XSDParser.getStartLine(attribute))).add(attribute);
+                    }
+                    break;
+                }
+            }
+            return digest.toHex();
+        }
+
+        private TypeNode addNode(String id, TypeMetadata type) {
+            TypeNode node = new TypeNode(id, type);
+            nodes.put(id, node);
+            typeNodes.put(type, node);
+            return node;
+        }
+
+        private TypeNode getNode(TypeMetadata type) {
+            if (type == null) {
+                return null;
+            }
+            TypeNode node = typeNodes.get(type);
+            if (node != null) {
+                return node;
+            }
+            if (type instanceof UnresolvedTypeMetadata) {
+                String id = "U:" + type.getName(); //$NON-NLS-1$
+                node = nodes.get(id);
+                if (node == null) {
+                    node = new TypeNode(id, type);
+                    node.isCacheable = false;
+                    nodes.put(id, node);
+                }
+                return node;
+            }
+            return null;
+        }
+
+        private void addDependencies(TypeNode node, TypeMetadata type, Set<TypeMetadata> visitedTypes) {
+            if (!visitedTypes.add(type)) {
+                return;
+            }
+            for (TypeMetadata superType : type.getSuperTypes()) {
+                node.dependsOn(getNode(superType));
+            }
+            if (!(type instanceof ComplexTypeMetadata)) {
+                return;
+            }
+            ComplexTypeMetadata complexType = (ComplexTypeMetadata) type;
+            for (ComplexTypeMetadata subType : complexType.getSubTypes()) {
+                node.dependsOn(getNode(subType));
+            }
+            for (FieldMetadata field : complexType.getFields()) {
+                node.dependsOn(getNode(field.getDeclaringType()));
+                TypeMetadata fieldType = field.getType();
+                if (fieldType instanceof ContainedComplexTypeMetadata) {
+                    ContainedComplexTypeMetadata containedType = (ContainedComplexTypeMetadata) fieldType;
+                    node.dependsOn(getNode(containedType.getContainedType()));
+                    for (ComplexTypeMetadata subType : containedType.getSubTypes()) {
+                        node.dependsOn(getNode(subType));
+                    }
+                    addDependencies(node, containedType, visitedTypes);
+                } else {
+                    node.dependsOn(getNode(fieldType));
+                    if (fieldType != null) {
+                        for (TypeMetadata superType : fieldType.getSuperTypes()) {
+                            node.dependsOn(getNode(superType));
+                        }
+                    }
+                }
+                if (field instanceof ReferenceFieldMetadata) {
+                    ReferenceFieldMetadata referenceField = (ReferenceFieldMetadata) field;
+                    node.dependsOn(getNode(referenceField.getReferencedType()));
+                    for (FieldMetadata foreignKeyInfoField : referenceField.getForeignKeyInfoFields()) {
+                        node.dependsOn(getNode(foreignKeyInfoField.getContainingType().getEntity()));
+                    }
+                }
+            }
+        }
+
+        // Type and all types it depends on (directly or not).
+        private Closure getClosure(TypeMetadata type, Set<TypeNode> previousNodes) {
+            TypeNode root = typeNodes.get(type);
+            Closure closure = new Closure(root, previousNodes, documentDigest);
+            List<TypeNode> pending = new ArrayList<>();
+            pending.add(root);
+            closure.add(root);
+            while (!pending.isEmpty()) {
+                TypeNode node = pending.remove(pending.size() - 1);
+                for (TypeNode dependency : node.dependencies) {
+                    if (closure.add(dependency)) {
+                        pending.add(dependency);
+                    }
+                }
+            }
+            return closure;
+        }
+    }
+
+    private static class TypeNode {
+
+        private final String id;
+
+        private final TypeMetadata type;
+
+        private final org.w3c.dom.Element source;
+
+        private final Set<TypeNode> dependencies = new LinkedHashSet<>();
+
+        private boolean isCacheable = true;
+
+        private boolean isValidatedType;
+
+        private boolean isDigestComputed;
+
+        private String cachedDigest;
+
+        private TypeNode(String id, TypeMetadata type) {
+            this.id = id;
+            this.type = type;
+            source = type.getData(MetadataRepository.XSD_DOM_ELEMENT);
+        }
+
+        private void dependsOn(TypeNode other) {
+            if (other != null && other != this) {
+                dependencies.add(other);
+            }
+        }
+
+        private String getDigest() {
+            if (!isDigestComputed) {
+                cachedDigest = isCacheable ? computeDigest() : null;
+                isDigestComputed = true;
+            }
+            return cachedDigest;
+        }
+
+        private String computeDigest() {
+            Digest digest = new Digest();
+            digest.add(id).add(type.getClass().getName());
+            if (source != null) {
+                digest.add(source);
+            } else if (type instanceof SimpleTypeMetadata) {
+                for (TypeMetadata superType : type.getSuperTypes()) {
+                    digest.add(superType.getName());
+                }
+                for (String data : SIMPLE_TYPE_DATA) {
+                    digest.add(String.valueOf(type.<Object> getData(data)));
+                }
+            } else {
+                return null;
+            }
+            if (type instanceof ComplexTypeMetadata && !type.isInstantiable()) {
+                // Reusable types are reported when no entity uses them (usages are declared in other types).
+                digest.add(String.valueOf(MetadataUtils.countEntityUsageCount((ComplexTypeMetadata) type) == 0));
+            }
+            return digest.toHex();
+        }
+    }
+
+    // A validated type and all types it depends on.
+    private static class Closure {
+
+        private final TypeNode root;
+
+        // Nodes that might be validated by types validated before root.
+        private final Set<TypeNode> previousNodes;
+
+        private final Map<String, TypeNode> nodes = new TreeMap<>();
+
+        private final Map<TypeMetadata, TypeNode> typeNodes = new IdentityHashMap<>();
+
+        private final Map<org.w3c.dom.Node, TypeNode> sources = new IdentityHashMap<>();
+
+        private final String documentDigest;
+
+        private Closure(TypeNode root, Set<TypeNode> previousNodes, String documentDigest) {
+            this.root = root;
+            this.previousNodes = previousNodes;
+            this.documentDigest = documentDigest;
+        }
+
+        private boolean add(TypeNode node) {
+            if (nodes.put(node.id, node) != null) {
+                return false;
+            }
+            typeNodes.put(node.type, node);
+            if (node.source != null) {
+                sources.put(node.source, node);
+            }
+            return true;
+        }
+
+        private String getKey() {
+            Digest digest = new Digest();
+            digest.add(CACHE_VERSION).add(documentDigest).add(root.id);
+            for (TypeNode node : nodes.values()) {
+                String nodeDigest = node.getDigest();
+                if (nodeDigest == null) {
+                    return null;
+                }
+                digest.add(nodeDigest).add(String.valueOf(isPrevious(node)));
+            }
+            return digest.toHex();
+        }
+
+        // Only validated types (they are validated on their own, so their messages are never lost).
+        private boolean isPrevious(TypeNode node) {
+            return node != root && node.isValidatedType && previousNodes.contains(node);
+        }
+
+        // Types that types validated before root (might) have validated are skipped, as in a full validation.
+        private void markPreviousTypesValidated() {
+            Set<TypeMetadata> visitedTypes = Collections.newSetFromMap(new IdentityHashMap<TypeMetadata, Boolean>());
+            for (TypeNode node : nodes.values()) {
+                if (isPrevious(node)) {
+                    markValidated(node.type, visitedTypes);
+                }
+            }
+        }
+
+        private Message record(char level, boolean isFieldMessage, MetadataExtensible subject, String message,
+                org.w3c.dom.Element element, Integer lineNumber, Integer columnNumber, ValidationError error) {
+            Message recorded = new Message(level, isFieldMessage, message, error);
+            TypeNode subjectNode = null;
+            if (subject instanceof FieldMetadata) {
+                FieldMetadata field = (FieldMetadata) subject;
+                subjectNode = typeNodes.get(field.getContainingType().getEntity());
+                recorded.subjectKind = 'F';
+                recorded.subjectPath = field.getPath();
+            } else if (subject instanceof ContainedComplexTypeMetadata) {
+                FieldMetadata container = ((ContainedComplexTypeMetadata) subject).getContainer();
+                subjectNode = typeNodes.get(container.getContainingType().getEntity());
+                recorded.subjectKind = 'C';
+                recorded.subjectPath = container.getPath();
+            } else if (subject instanceof TypeMetadata) {
+                subjectNode = typeNodes.get(subject);
+                recorded.subjectKind = 'T';
+            }
+            if (subject != null) {
+                if (subjectNode == null) {
+                    return null;
+                }
+                recorded.subjectNode = subjectNode.id;
+                // Only keep messages that find their subject back.
+                if (resolveSubject(recorded) != subject) {
+                    return null;
+                }
+            }
+            TypeNode anchor = subjectNode;
+            if (element != null) {
+                List<Integer> path = new ArrayList<>();
+                org.w3c.dom.Node current = element;
+                while (current != null && !sources.containsKey(current)) {
+                    int index = 0;
+                    for (org.w3c.dom.Node sibling = current.getPreviousSibling(); sibling != null; sibling = sibling
+                            .getPreviousSibling()) {
+                        index++;
+                    }
+                    path.add(0, index);
+                    current = current.getParentNode();
+                }
+                if (current == null) {
+                    return null;
+                }
+                anchor = sources.get(current);
+                recorded.elementNode = anchor.id;
+                recorded.elementPath = new int[path.size()];
+                for (int i = 0; i < path.size(); i++) {
+                    recorded.elementPath[i] = path.get(i);
+                }
+            }
+            recorded.line = lineNumber;
+            recorded.column = columnNumber;
+            if (lineNumber != null && lineNumber >= 0) {
+                // Line numbers are relative to the source of the type (type might move in data model).
+                if (anchor == null || anchor.source == null) {
+                    return null;
+                }
+                int startLine = XSDParser.getStartLine(anchor.source);
+                if (lineNumber < startLine || lineNumber > XSDParser.getEndLine(anchor.source)) {
+                    return null;
+                }
+                recorded.lineNode = anchor.id;
+                recorded.line = lineNumber - startLine;
+                if (recorded.line == 0 && columnNumber != null && columnNumber >= 0) {
+                    recorded.column = columnNumber - XSDParser.getStartColumn(anchor.source);
+                }
+            }
+            return recorded;
+        }
+
+        private List<ResolvedMessage> resolve(List<Message> messages) {
+            List<ResolvedMessage> resolvedMessages = new ArrayList<>(messages.size());
+            for (Message message : messages) {
+                ResolvedMessage resolvedMessage = new ResolvedMessage(message);
+                if (message.subjectKind != 0) {
+                    resolvedMessage.subject = resolveSubject(message);
+                    if (resolvedMessage.subject == null) {
+                        return null;
+                    }
+                }
+                if (message.elementNode != null) {
+                    TypeNode node = nodes.get(message.elementNode);
+                    if (node == null || node.source == null) {
+                        return null;
+                    }
+                    org.w3c.dom.Node current = node.source;
+                    for (int index : message.elementPath) {
+                        NodeList children = current.getChildNodes();
+                        if (index >= children.getLength()) {
+                            return null;
+                        }
+                        current = children.item(index);
+                    }
+                    if (!(current instanceof org.w3c.dom.Element)) {
+                        return null;
+                    }
+                    resolvedMessage.element = (org.w3c.dom.Element) current;
+                }
+                resolvedMessage.line = message.line;
+                resolvedMessage.column = message.column;
+                if (message.lineNode != null) {
+                    TypeNode node = nodes.get(message.lineNode);
+                    if (node == null || node.source == null) {
+                        return null;
+                    }
+                    resolvedMessage.line = message.line + XSDParser.getStartLine(node.source);
+                    if (message.line == 0 && message.column != null && message.column >= 0) {
+                        resolvedMessage.column = message.column + XSDParser.getStartColumn(node.source);
+                    }
+                }
+                resolvedMessages.add(resolvedMessage);
+            }
+            return resolvedMessages;
+        }
+
+        private MetadataExtensible resolveSubject(Message message) {
+            TypeNode node = nodes.get(message.subjectNode);
+            if (node == null) {
+                return null;
+            }
+            if (message.subjectKind == 'T') {
+                return node.type;
+            }
+            if (!(node.type instanceof ComplexTypeMetadata) || !((ComplexTypeMetadata) node.type).hasField(message.subjectPath)) {
+                return null;
+            }
+            FieldMetadata field;
+            try {
+                field = ((ComplexTypeMetadata) node.type).getField(message.subjectPath);
+            } catch (RuntimeException e) {
+                return null;
+            }
+            if (message.subjectKind == 'C') {
+                return field.getType() instanceof ContainedComplexTypeMetadata ? field.getType() : null;
+            }
+            return field;
+        }
+    }
+
+    // A validation message stored in cache (independent of repository instance).
+    private static class Message {
+
+        private final char level;
+
+        private final boolean isFieldMessage;
+
+        private final String message;
+
+        private final ValidationError error;
+
+        private char subjectKind;
+
+        private String subjectNode;
+
+        private String subjectPath;
+
+        private String elementNode;
+
+        private int[] elementPath;
+
+        private String lineNode;
+
+        private Integer line;
+
+        private Integer column;
+
+        private Message(char level, boolean isFieldMessage, String message, ValidationError error) {
+            this.level = level;
+            this.isFieldMessage = isFieldMessage;
+            this.message = message;
+            this.error = error;
+        }
+    }
+
+    // A validation message attached to elements of a repository.
+    private static class ResolvedMessage {
+
+        private final char level;
+
+        private final boolean isFieldMessage;
+
+        private final String message;
+
+        private final ValidationError error;
+
+        private MetadataExtensible subject;
+
+        private org.w3c.dom.Element element;
+
+        private Integer line;
+
+        private Integer column;
+
+        private ResolvedMessage(char level, boolean isFieldMessage, String message, ValidationError error) {
+            this.level = level;
+            this.isFieldMessage = isFieldMessage;
+            this.message = message;
+            this.error = error;
+        }
+
+        private ResolvedMessage(Message message) {
+            this(message.level, message.isFieldMessage, message.message, message.error);
+        }
+
+        private void sendTo(ValidationHandler handler) {
+            if (isFieldMessage) {
+                FieldMetadata field = (FieldMetadata) subject;
+                switch (level) {
+                case 'F':
+                    handler.fatal(field, message, element, line, column, error);
+                    break;
+                case 'E':
+                    handler.error(field, message, element, line, column, error);
+                    break;
+                default:
+                    handler.warning(field, message, element, line, column, error);
+                }
+            } else {
+                TypeMetadata type = (TypeMetadata) subject;
+                switch (level) {
+                case 'F':
+                    handler.fatal(type, message, element, line, column, error);
+                    break;
+                case 'E':
+                    handler.error(type, message, element, line, column, error);
+                    break;
+                default:
+                    handler.warning(type, message, element, line, column, error);
+                }
+            }
+        }
+
+        @Override
+        public String toString() {
+            String subjectName;
+            if (subject instanceof FieldMetadata) {
+                subjectName = ((FieldMetadata) subject).getEntityTypeName() + '/' + ((FieldMetadata) subject).getPath();
+            } else if (subject instanceof TypeMetadata) {
+                subjectName = ((TypeMetadata) subject).getName();
+            } else {
+                subjectName = null;
+            }
+            return level + " " + subjectName + " (line " + line + ", column " + column + ", " + error + "): " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$
+                    + message;
+        }
+
+        // Subjects and elements are compared by identity (same message about two elements is sent twice).
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof ResolvedMessage)) {
+                return false;
+            }
+            ResolvedMessage that = (ResolvedMessage) o;
+            return level == that.level && isFieldMessage == that.isFieldMessage && subject == that.subject
+                    && element == that.element && error == that.error && ObjectUtils.equals(message, that.message)
+                    && ObjectUtils.equals(line, that.line) && ObjectUtils.equals(column, that.column);
+        }
+
+        @Override
+        public int hashCode() {
+            int result = level;
+            result = 31 * result + System.identityHashCode(subject);
+            result = 31 * result + System.identityHashCode(element);
+            result = 31 * result + ObjectUtils.hashCode(message);
+            result = 31 * result + ObjectUtils.hashCode(line);
+            return result;
+        }
+    }
+
+    // Records messages of a type validation (and the same messages for cache, if all can be re-attached to the closure).
+    private static class RecordingHandler implements ValidationHandler {
+
+        private final Closure closure;
+
+        private final ValidationHandler delegate;
+
+        private final List<ResolvedMessage> resolvedMessages = new ArrayList<>();
+
+        private List<Message> messages = new ArrayList<>();
+
+        private int errorCount;
+
+        // No closure: only records messages for the repository (no message for cache).
+        private RecordingHandler(Closure closure, ValidationHandler delegate) {
+            this.closure = closure;
+            this.delegate = delegate;
+            if (closure == null) {
+                messages = null;
+            }
+        }
+
+        private void record(char level, boolean isFieldMessage, MetadataExtensible subject, String message,
+                org.w3c.dom.Element element, Integer lineNumber, Integer columnNumber, ValidationError error) {
+            ResolvedMessage resolvedMessage = new ResolvedMessage(level, isFieldMessage, message, error);
+            resolvedMessage.subject = subject;
+            resolvedMessage.element = element;
+            resolvedMessage.line = lineNumber;
+            resolvedMessage.column = columnNumber;
+            resolvedMessages.add(resolvedMessage);
+            if (level != 'W') {
+                errorCount++;
+            }
+            if (messages != null) {
+                Message recorded = closure.record(level, isFieldMessage, subject, message, element, lineNumber,
+                        columnNumber, error);
+                if (recorded == null) {
+                    messages = null;
+                } else {
+                    messages.add(recorded);
+                }
+            }
+        }
+
+        @Override
+        public void fatal(FieldMetadata field, String message, org.w3c.dom.Element element, Integer lineNumber,
+                Integer columnNumber, ValidationError error) {
+            record('F', true, field, message, element, lineNumber, columnNumber, error);
+        }
+
+        @Override
+        public void error(FieldMetadata field, String message, org.w3c.dom.Element element, Integer lineNumber,
+                Integer columnNumber, ValidationError error) {
+            record('E', true, field, message, element, lineNumber, columnNumber, error);
+        }
+
+        @Override
+        public void warning(FieldMetadata field, String message, org.w3c.dom.Element element, Integer lineNumber,
+                Integer columnNumber, ValidationError error) {
+            record('W', true, field, message, element, lineNumber, columnNumber, error);
+        }
+
+        @Override
+        public void fatal(TypeMetadata type, String message, org.w3c.dom.Element element, Integer lineNumber,
+                Integer columnNumber, ValidationError error) {
+            record('F', false, type, message, element, lineNumber, columnNumber, error);
+        }
+
+        @Override
+        public void error(TypeMetadata type, String message, org.w3c.dom.Element element, Integer lineNumber,
+                Integer columnNumber, ValidationError error) {
+            record('E', false, type, message, element, lineNumber, columnNumber, error);
+        }
+
+        @Override
+        public void warning(TypeMetadata type, String message, org.w3c.dom.Element element, Integer lineNumber,
+                Integer columnNumber, ValidationError error) {
+            record('W', false, type, message, element, lineNumber, columnNumber, error);
+        }
+
+        @Override
+        public void end() {
+            // Messages are sent to delegate (and delegate ended) once all types are validated.
+        }
+
+        @Override
+        public int getErrorCount() {
+            // Errors already sent to delegate and errors of this type validation.
+            return delegate.getErrorCount() + errorCount;
+        }
+    }
+
+    private static class Digest {
+
+        private final MessageDigest messageDigest;
+
+        private Digest() {
+            try {
+                messageDigest = MessageDigest.getInstance(DIGEST_ALGORITHM);
+            } catch (NoSuchAlgorithmException e) {
+                throw new IllegalStateException("Digest algorithm '" + DIGEST_ALGORITHM + "' is not available.", e); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        }
+
+        private Digest add(String value) {
+            if (value == null) {
+                messageDigest.update((byte) 0);
+                return this;
+            }
+            byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+            messageDigest.update((byte) 1);
+            messageDigest.update((byte) (bytes.length >>> 24));
+            messageDigest.update((byte) (bytes.length >>> 16));
+            messageDigest.update((byte) (bytes.length >>> 8));
+            messageDigest.update((byte) bytes.length);
+            messageDigest.update(bytes);
+            return this;
+        }
+
+        // Digest of a DOM tree (includes white spaces, so line offsets in the tree are covered).
+        private Digest add(org.w3c.dom.Node node) {
+            add(String.valueOf(node.getNodeType())).add(node.getNamespaceURI()).add(node.getNodeName());
+            if (node instanceof org.w3c.dom.Element) {
+                NamedNodeMap attributes = node.getAttributes();
+                Map<String, String> sortedAttributes = new TreeMap<>();
+                for (int i = 0; i < attributes.getLength(); i++) {
+                    Attr attribute = (Attr) attributes.item(i);
+                    sortedAttributes.put(attribute.getName(), attribute.getValue());
+                }
+                add(String.valueOf(sortedAttributes.size()));
+                for (Map.Entry<String, String> attribute : sortedAttributes.entrySet()) {
+                    add(attribute.getKey()).add(attribute.getValue());
+                }
+            } else {
+                add(node.getNodeValue());
+            }
+            NodeList children = node.getChildNodes();
+            add(String.valueOf(children.getLength()));
+            for (int i = 0; i < children.getLength(); i++) {
+                add(children.item(i));
+            }
+            return this;
+        }
+
+        private String toHex() {
+            return Hex.encodeHexString(messageDigest.digest());
+        }
+    }
+}
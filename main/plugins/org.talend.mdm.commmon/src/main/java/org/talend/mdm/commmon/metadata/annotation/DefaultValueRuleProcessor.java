@@ -14,12 +14,17 @@ import org.apache.commons.lang.StringUtils;
 import org.apache.commons.lang.math.NumberUtils;
 import org.eclipse.emf.common.util.EList;
 import org.eclipse.xsd.XSDAnnotation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.talend.mdm.commmon.metadata.ComplexTypeMetadata;
 import org.talend.mdm.commmon.metadata.MetadataRepository;
+import org.talend.mdm.commmon.metadata.expression.CompiledDefaultValueRule;
 import org.w3c.dom.Element;
 
 public class DefaultValueRuleProcessor implements XmlSchemaAnnotationProcessor {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(DefaultValueRuleProcessor.class);
+
     @Override
     public void process(MetadataRepository repository, ComplexTypeMetadata type, XSDAnnotation annotation,
             XmlSchemaAnnotationProcessorState state) {
@@ -29,17 +34,31 @@ public class DefaultValueRuleProcessor implements XmlSchemaAnnotationProcessor {
                 String source = appInfo.getAttribute("source"); //$NON-NLS-1$
 
                 if ("X_Default_Value_Rule".equals(source)) { //$NON-NLS-1$
-                    if (isValue(appInfo.getTextContent().trim())) {
-                        state.setDefaultValue(appInfo.getTextContent().trim());
+                    String rule = appInfo.getTextContent().trim();
+                    if (isValue(rule)) {
+                        state.setDefaultValue(rule);
                     }
-                    if (StringUtils.isNotBlank(appInfo.getTextContent())) {
-                        state.setDefaultValueRule(appInfo.getTextContent().trim());
+                    if (StringUtils.isNotBlank(rule)) {
+                        state.setDefaultValueRule(rule);
+                        if (!state.isValidateOnly()) {
+                            state.setCompiledDefaultValueRule(compile(rule));
+                        }
                     }
                 }
             }
         }
     }
 
+    // Nothing is kept for a rule that can't be compiled: CompiledDefaultValueRule.get(...) reports error to callers.
+    private static CompiledDefaultValueRule compile(String rule) {
+        try {
+            return CompiledDefaultValueRule.compile(rule);
+        } catch (IllegalArgumentException e) {
+            RuleCompilation.logFailure(LOGGER, "default value rule '" + rule + "'", e); //$NON-NLS-1$ //$NON-NLS-2$
+            return null;
+        }
+    }
+
     private boolean isValue(String text) {
         boolean isValue = false;
 
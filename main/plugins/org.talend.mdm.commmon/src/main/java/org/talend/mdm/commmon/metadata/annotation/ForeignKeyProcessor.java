@@ -14,16 +14,21 @@ import org.apache.commons.lang.StringUtils;
 import org.eclipse.emf.common.util.EList;
 import org.eclipse.xsd.XSDAnnotation;
 import org.eclipse.xsd.util.XSDParser;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.talend.mdm.commmon.metadata.ComplexTypeMetadata;
 import org.talend.mdm.commmon.metadata.FieldMetadata;
 import org.talend.mdm.commmon.metadata.MetadataRepository;
 import org.talend.mdm.commmon.metadata.SoftFieldRef;
 import org.talend.mdm.commmon.metadata.SoftIdFieldRef;
 import org.talend.mdm.commmon.metadata.SoftTypeRef;
+import org.talend.mdm.commmon.metadata.expression.ForeignKeyFilter;
 import org.w3c.dom.Element;
 
 public class ForeignKeyProcessor implements XmlSchemaAnnotationProcessor {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(ForeignKeyProcessor.class);
+
     @Override
     public void process(MetadataRepository repository, ComplexTypeMetadata type, XSDAnnotation annotation,
             XmlSchemaAnnotationProcessorState state) {
@@ -36,6 +41,9 @@ public class ForeignKeyProcessor implements XmlSchemaAnnotationProcessor {
                     handleForeignKey(repository, type, state, appInfo);
                 } else if("X_ForeignKey_Filter".equals(source)) { //$NON-NLS-1$
                     state.setForeignKeyFilter(appInfo.getTextContent());
+                    if (!state.isValidateOnly()) {
+                        state.setParsedForeignKeyFilter(parseForeignKeyFilter(appInfo.getTextContent()));
+                    }
                 }
             }
             // Then proceed to other FK related annotations
@@ -56,6 +64,19 @@ public class ForeignKeyProcessor implements XmlSchemaAnnotationProcessor {
         }
     }
 
+    // Parses filter once (paths are resolved once referenced types are known, see MetadataRepository).
+    private static ForeignKeyFilter parseForeignKeyFilter(String filter) {
+        if (StringUtils.isBlank(filter)) {
+            return null;
+        }
+        try {
+            return ForeignKeyFilter.parse(filter);
+        } catch (IllegalArgumentException e) {
+            RuleCompilation.logFailure(LOGGER, "foreign key filter '" + filter + "'", e); //$NON-NLS-1$ //$NON-NLS-2$
+            return null;
+        }
+    }
+
     private void handleForeignKeyInfo(MetadataRepository repository, XmlSchemaAnnotationProcessorState state, Element appInfo) {
         String path = appInfo.getTextContent();
         FieldMetadata fieldMetadata = getFieldMetadata(repository, (ComplexTypeMetadata) state.getReferencedType(), appInfo, path, true);
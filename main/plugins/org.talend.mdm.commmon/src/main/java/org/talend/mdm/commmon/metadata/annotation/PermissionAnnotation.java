@@ -0,0 +1,75 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata.annotation;
+
+import org.eclipse.xsd.util.XSDParser;
+import org.w3c.dom.Element;
+
+/**
+ * A permission annotation (X_Write, X_Hide, X_Deny_Create, X_Deny_LogicalDelete or X_Deny_PhysicalDelete) of an
+ * entity or a field, as captured by {@link UserAccessProcessor}: permission validation uses these instead of reading
+ * again the XSD annotations.
+ */
+public class PermissionAnnotation {
+
+    private final String source;
+
+    private final String role;
+
+    private final Element element;
+
+    private final int lineNumber;
+
+    private final int columnNumber;
+
+    public PermissionAnnotation(String source, String role, Element element) {
+        this.source = source;
+        this.role = role;
+        this.element = element;
+        this.lineNumber = XSDParser.getStartLine(element);
+        this.columnNumber = XSDParser.getStartColumn(element);
+    }
+
+    /**
+     * @return The annotation source (e.g. "X_Write").
+     */
+    public String getSource() {
+        return source;
+    }
+
+    /**
+     * @return The role name.
+     */
+    public String getRole() {
+        return role;
+    }
+
+    /**
+     * @return The appinfo element of the annotation.
+     */
+    public Element getElement() {
+        return element;
+    }
+
+    public int getLineNumber() {
+        return lineNumber;
+    }
+
+    public int getColumnNumber() {
+        return columnNumber;
+    }
+
+    @Override
+    public String toString() {
+        return source + ": " + role; //$NON-NLS-1$
+    }
+}
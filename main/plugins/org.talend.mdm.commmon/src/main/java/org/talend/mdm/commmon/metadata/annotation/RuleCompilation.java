@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata.annotation;
+
+import org.slf4j.Logger;
+
+/**
+ * Annotation processors compile rules (Schematron, default value, visibility rules and foreign key filters) once, when
+ * data model is loaded, so records are handled without parsing rules again. These rules are only used when records are
+ * validated, created, rendered or looked up: a rule that can't be compiled is logged and doesn't prevent data model
+ * from being loaded.
+ */
+final class RuleCompilation {
+
+    private RuleCompilation() {
+    }
+
+    /**
+     * @param logger Logger of the annotation processor.
+     * @param rule Description of the rule (e.g. "default value rule '...'").
+     * @param e Error raised by rule compilation.
+     */
+    static void logFailure(Logger logger, String rule, Exception e) {
+        logger.warn("Could not compile " + rule + ": " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+    }
+}
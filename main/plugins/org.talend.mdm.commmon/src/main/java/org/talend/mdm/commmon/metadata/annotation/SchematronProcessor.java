@@ -24,12 +24,17 @@ import javax.xml.transform.stream.StreamSource;
 import org.apache.commons.lang.StringEscapeUtils;
 import org.eclipse.emf.common.util.EList;
 import org.eclipse.xsd.XSDAnnotation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.talend.mdm.commmon.metadata.ComplexTypeMetadata;
 import org.talend.mdm.commmon.metadata.MetadataRepository;
+import org.talend.mdm.commmon.metadata.schematron.CompiledSchematron;
 import org.w3c.dom.Element;
 
 public class SchematronProcessor implements XmlSchemaAnnotationProcessor {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(SchematronProcessor.class);
+
     private static final TransformerFactory transformerFactory;
 
     static {
@@ -47,38 +52,69 @@ public class SchematronProcessor implements XmlSchemaAnnotationProcessor {
         }
     }
 
+    // Identity transformers are not thread safe (and are expensive to create): re-use one per thread.
+    private static final ThreadLocal<Transformer> TRANSFORMER = new ThreadLocal<Transformer>() {
+
+        @Override
+        protected Transformer initialValue() {
+            try {
+                return transformerFactory.newTransformer();
+            } catch (TransformerConfigurationException e) {
+                throw new RuntimeException("Could not create transformer instance.", e);
+            }
+        }
+    };
+
     @Override
     public void process(MetadataRepository repository, ComplexTypeMetadata type, XSDAnnotation annotation,
             XmlSchemaAnnotationProcessorState state) {
         if (annotation != null) {
             EList<Element> annotations = annotation.getApplicationInformation();
+            StringBuilder schematrons = null;
             for (Element appInfo : annotations) {
                 if ("X_Schematron".equals(appInfo.getAttribute("source"))) { //$NON-NLS-1$ //$NON-NLS-2$
                     StringWriter sw = new StringWriter();
-                    Transformer transformer;
-                    try {
-                        transformer = transformerFactory.newTransformer();
-                    } catch (TransformerConfigurationException e) {
-                        throw new RuntimeException("Could not create transformer instance.", e);
-                    }
+                    Transformer transformer = TRANSFORMER.get();
+                    transformer.reset();
                     transformer.setOutputProperty("omit-xml-declaration", "yes"); //$NON-NLS-1$ //$NON-NLS-2$
                     try {
                         // TODO This is not really efficient but doing it nicely would require to rewrite a
                         // StringEscapeUtils.unescapeXml()
                         transformer.transform(new StreamSource(new StringReader(appInfo.getTextContent())), new StreamResult(sw));
-                        state.setSchematron("<schema>" + sw.toString() + "</schema>"); //$NON-NLS-1$ //$NON-NLS-2$
                     } catch (TransformerException e) {
                         try {
+                            sw = new StringWriter();
+                            transformer.reset();
+                            transformer.setOutputProperty("omit-xml-declaration", "yes"); //$NON-NLS-1$ //$NON-NLS-2$
                             transformer.transform(
                                     new StreamSource(new StringReader(StringEscapeUtils.unescapeXml(appInfo.getTextContent()))),
                                     new StreamResult(sw));
-                            state.setSchematron("<schema>" + sw.toString() + "</schema>"); //$NON-NLS-1$ //$NON-NLS-2$
                         } catch (TransformerException e1) {
                             throw new RuntimeException(e1);
                         }
                     }
+                    // Type's Schematron is the last X_Schematron annotation, compiled rules include all of them.
+                    state.setSchematron("<schema>" + sw.toString() + "</schema>"); //$NON-NLS-1$ //$NON-NLS-2$
+                    if (schematrons == null) {
+                        schematrons = new StringBuilder();
+                    }
+                    schematrons.append(sw.toString());
                 }
             }
+            if (schematrons != null && !state.isValidateOnly()) {
+                state.setCompiledSchematron(compile(type, "<schema>" + schematrons + "</schema>")); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        }
+    }
+
+    // All X_Schematron annotations of the type are compiled together (see RuleCompilation).
+    private static CompiledSchematron compile(ComplexTypeMetadata type, String schematron) {
+        try {
+            return CompiledSchematron.compile(schematron);
+        } catch (Exception e) {
+            String rules = "Schematron rules" + (type == null ? "" : " of type '" + type.getName() + "'"); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+            RuleCompilation.logFailure(LOGGER, rules, e);
+            return null;
         }
     }
 }
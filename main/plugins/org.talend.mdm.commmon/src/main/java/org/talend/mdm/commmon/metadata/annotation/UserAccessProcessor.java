@@ -11,18 +11,51 @@
 
 package org.talend.mdm.commmon.metadata.annotation;
 
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang.StringUtils;
 import org.eclipse.emf.common.util.EList;
 import org.eclipse.xsd.XSDAnnotation;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.talend.mdm.commmon.metadata.ComplexTypeMetadata;
 import org.talend.mdm.commmon.metadata.MetadataRepository;
+import org.talend.mdm.commmon.metadata.expression.CompiledVisibilityRule;
 import org.w3c.dom.Element;
 
 public class UserAccessProcessor implements XmlSchemaAnnotationProcessor {
 
+    private static final Logger LOGGER = LoggerFactory.getLogger(UserAccessProcessor.class);
+
     private static final String NO_ADD = "X_No_Add"; //$NON-NLS-1$
 
     private static final String NO_REMOVE = "X_No_Remove"; //$NON-NLS-1$
 
+    private static final Set<String> PERMISSION_SOURCES = new HashSet<String>(Arrays.asList("X_Hide", "X_Write", //$NON-NLS-1$ //$NON-NLS-2$
+            "X_Deny_Create", "X_Deny_LogicalDelete", "X_Deny_PhysicalDelete")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+
+    /**
+     * @param annotation An element or type annotation (may be <code>null</code>).
+     * @return The permission annotations (X_Write, X_Hide, X_Deny_*) of <code>annotation</code>, without processing
+     * any other appinfo.
+     */
+    public static List<PermissionAnnotation> getPermissionAnnotations(XSDAnnotation annotation) {
+        List<PermissionAnnotation> permissionAnnotations = new ArrayList<PermissionAnnotation>(2);
+        if (annotation != null) {
+            for (Element appInfo : annotation.getApplicationInformation()) {
+                String source = appInfo.getAttribute("source"); //$NON-NLS-1$
+                if (PERMISSION_SOURCES.contains(source)) {
+                    permissionAnnotations.add(new PermissionAnnotation(source, appInfo.getTextContent(), appInfo));
+                }
+            }
+        }
+        return permissionAnnotations;
+    }
+
     @Override
     public void process(MetadataRepository repository, ComplexTypeMetadata type, XSDAnnotation annotation, XmlSchemaAnnotationProcessorState state) {
         if (annotation != null) {
@@ -30,6 +63,9 @@ public class UserAccessProcessor implements XmlSchemaAnnotationProcessor {
             for (Element appInfo : appInfoElements) {
                 String source = appInfo.getAttribute("source"); //$NON-NLS-1$
                 String textContent = appInfo.getTextContent();
+                if (PERMISSION_SOURCES.contains(source)) {
+                    state.addPermissionAnnotation(new PermissionAnnotation(source, textContent, appInfo));
+                }
                 if ("X_Hide".equals(source)) { //$NON-NLS-1$
                     state.getHide().add(textContent);
                 } else if ("X_Write".equals(source)) { //$NON-NLS-1$
@@ -42,6 +78,9 @@ public class UserAccessProcessor implements XmlSchemaAnnotationProcessor {
                     state.getDenyPhysicalDelete().add(textContent);
                 } else if ("X_Visible_Rule".equals(source)) { //$NON-NLS-1$
                     state.setVisibilityRule(textContent);
+                    if (!state.isValidateOnly()) {
+                        state.setCompiledVisibilityRule(compileVisibilityRule(textContent));
+                    }
                 } else if (NO_ADD.equals(source)) {
                     handleAddRightInfo(repository, state, appInfo);
                 } else if (NO_REMOVE.equals(source)) {
@@ -51,6 +90,19 @@ public class UserAccessProcessor implements XmlSchemaAnnotationProcessor {
         }
     }
 
+    // An invalid rule hides the field (see CompiledVisibilityRule.INVALID).
+    private static CompiledVisibilityRule compileVisibilityRule(String rule) {
+        if (StringUtils.isBlank(rule)) {
+            return null;
+        }
+        try {
+            return CompiledVisibilityRule.compile(rule);
+        } catch (IllegalArgumentException e) {
+            RuleCompilation.logFailure(LOGGER, "visibility rule '" + rule + "' (field is hidden)", e); //$NON-NLS-1$ //$NON-NLS-2$
+            return CompiledVisibilityRule.INVALID;
+        }
+    }
+
     private void handleAddRightInfo(MetadataRepository repository, XmlSchemaAnnotationProcessorState state, Element appInfo) {
         String textContent = appInfo.getTextContent();
         if (!state.getNoAddRoles().contains(textContent)) {
@@ -11,6 +11,7 @@
 
 package org.talend.mdm.commmon.metadata.annotation;
 
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
@@ -22,6 +23,10 @@ import org.apache.commons.lang.StringUtils;
 import org.talend.mdm.commmon.metadata.Category;
 import org.talend.mdm.commmon.metadata.FieldMetadata;
 import org.talend.mdm.commmon.metadata.TypeMetadata;
+import org.talend.mdm.commmon.metadata.expression.CompiledDefaultValueRule;
+import org.talend.mdm.commmon.metadata.expression.CompiledVisibilityRule;
+import org.talend.mdm.commmon.metadata.expression.ForeignKeyFilter;
+import org.talend.mdm.commmon.metadata.schematron.CompiledSchematron;
 
 /**
  * A simple bean that keeps track of information parsed by {@link XmlSchemaAnnotationProcessor} implementations.
@@ -42,6 +47,8 @@ public class XmlSchemaAnnotationProcessorState {
 
     private final List<String> denyLogicalDelete = new LinkedList<String>();
 
+    private List<PermissionAnnotation> permissionAnnotations = Collections.emptyList();
+
     private final List<FieldMetadata> foreignKeyInfo = new LinkedList<FieldMetadata>();
 
     private String foreignKeyInfoFormat;
@@ -66,20 +73,30 @@ public class XmlSchemaAnnotationProcessorState {
 
     private String schematron = StringUtils.EMPTY;
 
+    private CompiledSchematron compiledSchematron;
+
     private List<FieldMetadata> primaryKeyInfo = Collections.emptyList();
 
     private List<FieldMetadata> lookupFields = Collections.emptyList();
 
     private String visibilityRule;
 
+    private CompiledVisibilityRule compiledVisibilityRule;
+
     private String foreignKeyFilter = StringUtils.EMPTY;
 
+    private ForeignKeyFilter parsedForeignKeyFilter;
+
     private String defaultValue;
 
     private String defaultValueRule;
 
+    private CompiledDefaultValueRule compiledDefaultValueRule;
+
     private List<Category> categories = Collections.emptyList();
 
+    private boolean isValidateOnly;
+
     public void setFkIntegrity(boolean fkIntegrity) {
         this.fkIntegrity = fkIntegrity;
     }
@@ -172,6 +189,17 @@ public class XmlSchemaAnnotationProcessorState {
         return denyLogicalDelete;
     }
 
+    public void addPermissionAnnotation(PermissionAnnotation permissionAnnotation) {
+        if (permissionAnnotations.isEmpty()) {
+            permissionAnnotations = new ArrayList<PermissionAnnotation>(2);
+        }
+        permissionAnnotations.add(permissionAnnotation);
+    }
+
+    public List<PermissionAnnotation> getPermissionAnnotations() {
+        return permissionAnnotations;
+    }
+
     public void setSchematron(String schematron) {
         this.schematron = schematron;
     }
@@ -180,6 +208,14 @@ public class XmlSchemaAnnotationProcessorState {
         return schematron;
     }
 
+    public void setCompiledSchematron(CompiledSchematron compiledSchematron) {
+        this.compiledSchematron = compiledSchematron;
+    }
+
+    public CompiledSchematron getCompiledSchematron() {
+        return compiledSchematron;
+    }
+
     public void setPrimaryKeyInfo(List<FieldMetadata> primaryKeyInfo) {
         this.primaryKeyInfo = primaryKeyInfo;
     }
@@ -220,6 +256,14 @@ public class XmlSchemaAnnotationProcessorState {
         return foreignKeyFilter;
     }
 
+    public void setParsedForeignKeyFilter(ForeignKeyFilter parsedForeignKeyFilter) {
+        this.parsedForeignKeyFilter = parsedForeignKeyFilter;
+    }
+
+    public ForeignKeyFilter getParsedForeignKeyFilter() {
+        return parsedForeignKeyFilter;
+    }
+
     public void setVisibilityRule(String visibilityRule) {
         this.visibilityRule = visibilityRule;
     }
@@ -228,6 +272,14 @@ public class XmlSchemaAnnotationProcessorState {
         return visibilityRule;
     }
 
+    public void setCompiledVisibilityRule(CompiledVisibilityRule compiledVisibilityRule) {
+        this.compiledVisibilityRule = compiledVisibilityRule;
+    }
+
+    public CompiledVisibilityRule getCompiledVisibilityRule() {
+        return compiledVisibilityRule;
+    }
+
     public String getDefaultValue() {
         return defaultValue;
     }
@@ -244,6 +296,14 @@ public class XmlSchemaAnnotationProcessorState {
         this.defaultValueRule = defaultValueRule;
     }
 
+    public CompiledDefaultValueRule getCompiledDefaultValueRule() {
+        return compiledDefaultValueRule;
+    }
+
+    public void setCompiledDefaultValueRule(CompiledDefaultValueRule compiledDefaultValueRule) {
+        this.compiledDefaultValueRule = compiledDefaultValueRule;
+    }
+
     public boolean isFKMainRender() {
         return isFKMainRender;
     }
@@ -260,4 +320,16 @@ public class XmlSchemaAnnotationProcessorState {
         this.categories = categories;
     }
 
+    /**
+     * @return <code>true</code> if data model is only validated: processors don't need to compile rules (Schematron,
+     * default value, visibility and foreign key filter rules), since compiled rules are never used.
+     */
+    public boolean isValidateOnly() {
+        return isValidateOnly;
+    }
+
+    public void setValidateOnly(boolean isValidateOnly) {
+        this.isValidateOnly = isValidateOnly;
+    }
+
 }
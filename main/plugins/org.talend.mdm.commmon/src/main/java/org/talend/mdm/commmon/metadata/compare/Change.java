@@ -14,7 +14,11 @@ import java.util.HashMap;
 import java.util.Locale;
 import java.util.Map;
 
+import org.apache.commons.lang.StringUtils;
+import org.talend.mdm.commmon.metadata.ComplexTypeMetadata;
+import org.talend.mdm.commmon.metadata.FieldMetadata;
 import org.talend.mdm.commmon.metadata.MetadataVisitable;
+import org.talend.mdm.commmon.metadata.TypeMetadata;
 
 public abstract class Change {
 
@@ -24,6 +28,16 @@ public abstract class Change {
 
     public static final String TEXT_TO_TEXT = "textToText"; //$NON-NLS-1$
 
+    /**
+     * Estimated number of records touched when change is applied (see {@link CostBasedImpactAnalyzer}).
+     */
+    public static final String ESTIMATED_ROWS = "estimatedRows"; //$NON-NLS-1$
+
+    /**
+     * Estimated number of bytes rewritten when change is applied (see {@link CostBasedImpactAnalyzer}).
+     */
+    public static final String ESTIMATED_BYTES = "estimatedBytes"; //$NON-NLS-1$
+
     protected static final String MESSAGE_BUNDLE_NAME = "org.talend.mdm.commmon.metadata.compare.i18n.messages"; //$NON-NLS-1$
 
     protected final MetadataVisitable element;
@@ -36,6 +50,21 @@ public abstract class Change {
         return element;
     }
 
+    /**
+     * @return Name of the entity type (or of the non instantiable type) the changed element belongs to.
+     */
+    public String getEntityName() {
+        if (element instanceof FieldMetadata) {
+            return ((FieldMetadata) element).getContainingType().getEntity().getName();
+        } else if (element instanceof ComplexTypeMetadata) {
+            return ((ComplexTypeMetadata) element).getEntity().getName();
+        } else if (element instanceof TypeMetadata) {
+            return ((TypeMetadata) element).getName();
+        } else {
+            return StringUtils.EMPTY;
+        }
+    }
+
     public abstract String getMessage(Locale locale);
 
     private Map<String, Object> data = new HashMap<>();
@@ -0,0 +1,41 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata.compare;
+
+/**
+ * <p>
+ * Receives changes between 2 data models as soon as they are found (see
+ * {@link Compare#compare(org.talend.mdm.commmon.metadata.MetadataRepository,
+ * org.talend.mdm.commmon.metadata.MetadataRepository, ChangeConsumer)}).
+ * </p>
+ * <p>
+ * Changes are delivered entity type per entity type: all changes of an entity type are delivered before changes of
+ * next entity type (see {@link Change#getEntityName()}).
+ * </p>
+ *
+ * @see Compare.DiffResults
+ * @see ImpactAnalyzerConsumer
+ */
+public interface ChangeConsumer {
+
+    /**
+     * @param change A change between the 2 data models.
+     * @return <code>true</code> to continue comparison, <code>false</code> to stop comparison (no more changes will be
+     * delivered and {@link #end()} won't be called).
+     */
+    boolean accept(Change change);
+
+    /**
+     * Called once all changes were delivered.
+     */
+    void end();
+}
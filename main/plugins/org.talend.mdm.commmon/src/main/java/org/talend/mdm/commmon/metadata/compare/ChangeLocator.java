@@ -0,0 +1,98 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata.compare;
+
+import org.apache.commons.lang.StringUtils;
+import org.talend.mdm.commmon.metadata.ComplexTypeMetadata;
+import org.talend.mdm.commmon.metadata.ContainedComplexTypeMetadata;
+import org.talend.mdm.commmon.metadata.FieldMetadata;
+import org.talend.mdm.commmon.metadata.MetadataRepository;
+import org.talend.mdm.commmon.metadata.MetadataVisitable;
+import org.talend.mdm.commmon.metadata.TypeMetadata;
+
+/**
+ * Locates types and fields of a data model with a string (so changes can be stored and re-attached to another
+ * instance of the same data model). A locator starts with its kind: 'E' entity type, 'T' non instantiable type, 'F'
+ * (or 'G') a field in an entity type (or in a non instantiable type) and 'C' (or 'D') a contained type in an entity
+ * type (or in a non instantiable type), followed by type name and, for fields and contained types, field path.
+ */
+final class ChangeLocator {
+
+    private ChangeLocator() {
+    }
+
+    /**
+     * @param element A type, a contained type or a field.
+     * @param repository The repository that contains <code>element</code>.
+     * @return A locator for <code>element</code> or <code>null</code> if element can't be located in
+     * <code>repository</code>.
+     */
+    static String toLocator(MetadataVisitable element, MetadataRepository repository) {
+        String locator;
+        if (element instanceof FieldMetadata) {
+            FieldMetadata field = (FieldMetadata) element;
+            ComplexTypeMetadata type = field.getContainingType().getEntity();
+            locator = (type.isInstantiable() ? "F" : "G") + type.getName() + '/' + field.getPath(); //$NON-NLS-1$ //$NON-NLS-2$
+        } else if (element instanceof ContainedComplexTypeMetadata) {
+            FieldMetadata container = ((ContainedComplexTypeMetadata) element).getContainer();
+            ComplexTypeMetadata type = container.getContainingType().getEntity();
+            locator = (type.isInstantiable() ? "C" : "D") + type.getName() + '/' + container.getPath(); //$NON-NLS-1$ //$NON-NLS-2$
+        } else if (element instanceof TypeMetadata) {
+            TypeMetadata type = (TypeMetadata) element;
+            locator = (type.isInstantiable() ? "E" : "T") + type.getName(); //$NON-NLS-1$ //$NON-NLS-2$
+        } else {
+            return null;
+        }
+        // Only keep locators that find the element back.
+        return fromLocator(locator, repository) == element ? locator : null;
+    }
+
+    /**
+     * @param locator A locator returned by {@link #toLocator(MetadataVisitable, MetadataRepository)}.
+     * @param repository A repository.
+     * @return The element in <code>repository</code> or <code>null</code> if there's no such element.
+     */
+    static MetadataVisitable fromLocator(String locator, MetadataRepository repository) {
+        char kind = locator.charAt(0);
+        String typeName = StringUtils.substringBefore(locator.substring(1), "/"); //$NON-NLS-1$
+        String path = StringUtils.substringAfter(locator.substring(1), "/"); //$NON-NLS-1$
+        TypeMetadata type;
+        switch (kind) {
+        case 'E':
+        case 'F':
+        case 'C':
+            type = repository.getComplexType(typeName);
+            break;
+        case 'T':
+        case 'G':
+        case 'D':
+            type = repository.getNonInstantiableType(repository.getUserNamespace(), typeName);
+            break;
+        default:
+            return null;
+        }
+        if (type == null) {
+            return null;
+        }
+        if (kind == 'E' || kind == 'T') {
+            return type;
+        }
+        if (!(type instanceof ComplexTypeMetadata) || !((ComplexTypeMetadata) type).hasField(path)) {
+            return null;
+        }
+        FieldMetadata field = ((ComplexTypeMetadata) type).getField(path);
+        if (kind == 'C' || kind == 'D') {
+            return field.getType() instanceof ContainedComplexTypeMetadata ? field.getType() : null;
+        }
+        return field;
+    }
+}
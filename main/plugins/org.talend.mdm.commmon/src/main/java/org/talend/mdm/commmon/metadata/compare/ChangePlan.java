@@ -0,0 +1,372 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata.compare;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.talend.mdm.commmon.metadata.CircularDependencyException;
+import org.talend.mdm.commmon.metadata.ComplexTypeMetadata;
+import org.talend.mdm.commmon.metadata.ContainedComplexTypeMetadata;
+import org.talend.mdm.commmon.metadata.DependencyPlan;
+import org.talend.mdm.commmon.metadata.FieldMetadata;
+import org.talend.mdm.commmon.metadata.MetadataRepository;
+import org.talend.mdm.commmon.metadata.MetadataUtils;
+import org.talend.mdm.commmon.metadata.MetadataVisitable;
+
+/**
+ * <p>
+ * A plan to apply the changes between 2 data models with as few storage alterations as possible. Changes are grouped:
+ * <ul>
+ * <li>by table: changes on the fields of an entity type (or on the fields of a contained type, identified by the path
+ * of its container) form a {@link ChangeGroup}, that may be applied with a single table alteration.</li>
+ * <li>by dependency: groups of an entity type (or of all entity types in a dependency cycle) form a
+ * {@link ChangeBatch}, applied sequentially.</li>
+ * </ul>
+ * Batches are ordered in stages following the {@link MetadataUtils#getLoadPlan(MetadataRepository) load plan} of the
+ * new data model: a batch only depends on batches in previous stages, so all batches of a stage can be applied
+ * concurrently. Changes on non instantiable types (that have no table) are in the first stage, changes on entity types
+ * removed from the data model are in the last stage.
+ * </p>
+ */
+public class ChangePlan {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChangePlan.class);
+
+    private final List<List<ChangeBatch>> stages;
+
+    private ChangePlan(List<List<ChangeBatch>> stages) {
+        this.stages = stages;
+    }
+
+    /**
+     * @param left The original data model.
+     * @param right The new data model.
+     * @param diffResults The differences between <code>left</code> and <code>right</code> (see
+     * {@link Compare#compare(MetadataRepository, MetadataRepository)}).
+     * @param analyzer Gives the impact of each change.
+     * @return A plan to apply all changes in <code>diffResults</code>.
+     */
+    public static ChangePlan build(MetadataRepository left, MetadataRepository right, Compare.DiffResults diffResults,
+            ImpactAnalyzer analyzer) {
+        if (left == null || right == null || diffResults == null || analyzer == null) {
+            throw new IllegalArgumentException("Repositories, diff results and analyzer cannot be null."); //$NON-NLS-1$
+        }
+        // Impact values are sorted from HIGH to LOW: a change listed with several impacts gets the highest one.
+        Map<Change, ImpactAnalyzer.Impact> changeImpacts = new IdentityHashMap<>();
+        Map<ImpactAnalyzer.Impact, List<Change>> impacts = analyzer.analyzeImpacts(diffResults);
+        for (ImpactAnalyzer.Impact impact : ImpactAnalyzer.Impact.values()) {
+            List<Change> changes = impacts.get(impact);
+            if (changes != null) {
+                for (Change change : changes) {
+                    if (!changeImpacts.containsKey(change)) {
+                        changeImpacts.put(change, impact);
+                    }
+                }
+            }
+        }
+        // Group changes per table (in diff order). An entity type and a non instantiable type may share the same name:
+        // their changes are kept in separate groups.
+        Map<String, Map<String, ChangeGroup>> entityGroups = new LinkedHashMap<>();
+        Map<String, Map<String, ChangeGroup>> typeGroups = new LinkedHashMap<>();
+        for (Change change : diffResults.getActions()) {
+            String entityName = change.getEntityName();
+            String containerPath = getContainerPath(change.getElement());
+            boolean isEntityType = isEntityType(change.getElement());
+            Map<String, Map<String, ChangeGroup>> kindGroups = isEntityType ? entityGroups : typeGroups;
+            Map<String, ChangeGroup> groups = kindGroups.get(entityName);
+            if (groups == null) {
+                groups = new LinkedHashMap<>();
+                kindGroups.put(entityName, groups);
+            }
+            ChangeGroup group = groups.get(containerPath);
+            if (group == null) {
+                group = new ChangeGroup(entityName, containerPath, isEntityType);
+                groups.put(containerPath, group);
+            }
+            ImpactAnalyzer.Impact impact = changeImpacts.get(change);
+            group.add(change, impact == null ? ImpactAnalyzer.Impact.LOW : impact);
+        }
+        List<List<ChangeBatch>> stages = new ArrayList<>();
+        // Non instantiable types first (no table, but types must exist before entity types use them).
+        List<ChangeBatch> typeStage = new ArrayList<>();
+        for (Map.Entry<String, Map<String, ChangeGroup>> entry : typeGroups.entrySet()) {
+            typeStage.add(new ChangeBatch(Collections.singletonList(entry.getKey()), entry.getValue().values()));
+        }
+        if (!typeStage.isEmpty()) {
+            stages.add(typeStage);
+        }
+        // Entity types in new data model, in load order.
+        try {
+            DependencyPlan loadPlan = MetadataUtils.getLoadPlan(right);
+            for (List<DependencyPlan.Unit> level : loadPlan.getLevels()) {
+                List<ChangeBatch> stage = new ArrayList<>();
+                for (DependencyPlan.Unit unit : level) {
+                    ChangeBatch batch = createBatch(unit.getTypes(), entityGroups);
+                    if (batch != null) {
+                        stage.add(batch);
+                    }
+                }
+                if (!stage.isEmpty()) {
+                    stages.add(stage);
+                }
+            }
+        } catch (CircularDependencyException e) {
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("Unable to order changes by dependency, changes will be applied sequentially.", e); //$NON-NLS-1$
+            }
+            ChangeBatch batch = createBatch(right.getUserComplexTypes(), entityGroups);
+            if (batch != null) {
+                stages.add(Collections.singletonList(batch));
+            }
+        }
+        // Entity types removed from data model: removed in reverse load order of the original data model.
+        List<ComplexTypeMetadata> removedTypes = new ArrayList<>();
+        for (ComplexTypeMetadata type : getLoadOrder(left)) {
+            if (right.getComplexType(type.getName()) == null) {
+                removedTypes.add(type);
+            }
+        }
+        Collections.reverse(removedTypes);
+        ChangeBatch removedTypesBatch = createBatch(removedTypes, entityGroups);
+        if (removedTypesBatch != null) {
+            stages.add(Collections.singletonList(removedTypesBatch));
+        }
+        return new ChangePlan(stages);
+    }
+
+    private static List<ComplexTypeMetadata> getLoadOrder(MetadataRepository repository) {
+        try {
+            return MetadataUtils.getLoadPlan(repository).getTypes();
+        } catch (CircularDependencyException e) {
+            return new ArrayList<>(repository.getUserComplexTypes());
+        }
+    }
+
+    private static ChangeBatch createBatch(Iterable<ComplexTypeMetadata> types,
+            Map<String, Map<String, ChangeGroup>> entityGroups) {
+        List<String> entityNames = new ArrayList<>();
+        List<ChangeGroup> groups = new ArrayList<>();
+        for (ComplexTypeMetadata type : types) {
+            Map<String, ChangeGroup> typeGroups = entityGroups.get(type.getName());
+            if (typeGroups != null) {
+                entityNames.add(type.getName());
+                groups.addAll(typeGroups.values());
+            }
+        }
+        return groups.isEmpty() ? null : new ChangeBatch(entityNames, groups);
+    }
+
+    // Returns true if element is in an entity type (with a table), false if element is in a non instantiable type.
+    private static boolean isEntityType(MetadataVisitable element) {
+        ComplexTypeMetadata entity = null;
+        if (element instanceof FieldMetadata) {
+            entity = ((FieldMetadata) element).getContainingType().getEntity();
+        } else if (element instanceof ComplexTypeMetadata) {
+            entity = ((ComplexTypeMetadata) element).getEntity();
+        }
+        return entity != null && entity.isInstantiable();
+    }
+
+    // Path of the contained type field that contains element (or null if element is in entity type table).
+    private static String getContainerPath(MetadataVisitable element) {
+        ComplexTypeMetadata type = null;
+        if (element instanceof FieldMetadata) {
+            type = ((FieldMetadata) element).getContainingType();
+        } else if (element instanceof ContainedComplexTypeMetadata) {
+            type = (ComplexTypeMetadata) element;
+        }
+        if (type instanceof ContainedComplexTypeMetadata) {
+            return type.getContainer().getPath();
+        }
+        return null;
+    }
+
+    /**
+     * @return Batches of changes by stage: stages must be applied in order, batches in a stage can be applied
+     * concurrently.
+     */
+    public List<List<ChangeBatch>> getStages() {
+        return Collections.unmodifiableList(stages);
+    }
+
+    /**
+     * @return All groups of changes, in plan order.
+     */
+    public List<ChangeGroup> getGroups() {
+        List<ChangeGroup> groups = new ArrayList<>();
+        for (List<ChangeBatch> stage : stages) {
+            for (ChangeBatch batch : stage) {
+                groups.addAll(batch.getGroups());
+            }
+        }
+        return groups;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < stages.size(); i++) {
+            builder.append("Stage ").append(i).append(": ").append(stages.get(i)).append('\n'); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        return builder.toString();
+    }
+
+    /**
+     * Groups of changes applied sequentially: groups of one entity type or groups of entity types in a dependency
+     * cycle.
+     */
+    public static class ChangeBatch {
+
+        private final List<String> entityNames;
+
+        private final List<ChangeGroup> groups;
+
+        private ChangeBatch(List<String> entityNames, Iterable<ChangeGroup> groups) {
+            this.entityNames = entityNames;
+            this.groups = new ArrayList<>();
+            for (ChangeGroup group : groups) {
+                this.groups.add(group);
+            }
+        }
+
+        /**
+         * @return Names of entity types changed by this batch.
+         */
+        public List<String> getEntityNames() {
+            return Collections.unmodifiableList(entityNames);
+        }
+
+        /**
+         * @return Groups of changes in this batch, in order.
+         */
+        public List<ChangeGroup> getGroups() {
+            return Collections.unmodifiableList(groups);
+        }
+
+        @Override
+        public String toString() {
+            return groups.toString();
+        }
+    }
+
+    /**
+     * All changes on a single table: changes on fields of an entity type, or on fields of a contained type.
+     */
+    public static class ChangeGroup {
+
+        private final String entityName;
+
+        private final String containerPath;
+
+        private final boolean isEntityType;
+
+        private final List<Change> changes = new ArrayList<>();
+
+        private final Map<ImpactAnalyzer.Impact, Integer> impactCounts = new HashMap<>();
+
+        private ImpactAnalyzer.Impact impact = ImpactAnalyzer.Impact.LOW;
+
+        private boolean isFieldChangesOnly = true;
+
+        private ChangeGroup(String entityName, String containerPath, boolean isEntityType) {
+            this.entityName = entityName;
+            this.containerPath = containerPath;
+            this.isEntityType = isEntityType;
+        }
+
+        private void add(Change change, ImpactAnalyzer.Impact changeImpact) {
+            changes.add(change);
+            if (changeImpact.compareTo(impact) < 0) {
+                impact = changeImpact;
+            }
+            Integer count = impactCounts.get(changeImpact);
+            impactCounts.put(changeImpact, count == null ? 1 : count + 1);
+            isFieldChangesOnly &= change.getElement() instanceof FieldMetadata;
+        }
+
+        /**
+         * @return Name of the entity type (or non instantiable type) of the changes.
+         */
+        public String getEntityName() {
+            return entityName;
+        }
+
+        /**
+         * @return <code>true</code> if changes are on an entity type (that has a table), <code>false</code> if changes
+         * are on a non instantiable type.
+         */
+        public boolean isEntityType() {
+            return isEntityType;
+        }
+
+        /**
+         * @return Path of the contained type field for changes in a contained type, <code>null</code> for changes in
+         * the entity type itself.
+         */
+        public String getContainerPath() {
+            return containerPath;
+        }
+
+        /**
+         * @return Changes in this group, in diff order.
+         */
+        public List<Change> getChanges() {
+            return Collections.unmodifiableList(changes);
+        }
+
+        /**
+         * @return The highest impact of changes in this group.
+         */
+        public ImpactAnalyzer.Impact getImpact() {
+            return impact;
+        }
+
+        /**
+         * @param impact An impact.
+         * @return Number of changes in this group with <code>impact</code>.
+         */
+        public int getImpactCount(ImpactAnalyzer.Impact impact) {
+            Integer count = impactCounts.get(impact);
+            return count == null ? 0 : count;
+        }
+
+        /**
+         * @return <code>true</code> if all changes of this group can be applied in one table rewrite: all changes are
+         * field changes (no type creation or removal) and none has a {@link ImpactAnalyzer.Impact#HIGH high} impact
+         * (high impact changes need a specific migration).
+         */
+        public boolean isSingleRewrite() {
+            return isFieldChangesOnly && impact != ImpactAnalyzer.Impact.HIGH;
+        }
+
+        @Override
+        public String toString() {
+            Set<String> names = new LinkedHashSet<>();
+            for (Change change : changes) {
+                MetadataVisitable element = change.getElement();
+                names.add(element instanceof FieldMetadata ? ((FieldMetadata) element).getName() : String.valueOf(element));
+            }
+            return entityName + (containerPath == null ? "" : '/' + containerPath) //$NON-NLS-1$
+                    + (isSingleRewrite() ? " (single rewrite) " : " ") + names; //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+}
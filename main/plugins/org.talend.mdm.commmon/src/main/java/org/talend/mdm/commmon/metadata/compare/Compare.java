@@ -11,7 +11,6 @@
 package org.talend.mdm.commmon.metadata.compare;
 
 import java.util.ArrayList;
-import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -21,8 +20,10 @@ import java.util.List;
 import java.util.Map;
 import java.util.Set;
 import java.util.Stack;
+import java.util.concurrent.ForkJoinPool;
 
 import org.apache.commons.lang.ObjectUtils;
+import org.apache.commons.lang.StringUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 import org.talend.mdm.commmon.metadata.ComplexTypeMetadata;
@@ -31,9 +32,12 @@ import org.talend.mdm.commmon.metadata.ContainedTypeFieldMetadata;
 import org.talend.mdm.commmon.metadata.DefaultMetadataVisitor;
 import org.talend.mdm.commmon.metadata.EnumerationFieldMetadata;
 import org.talend.mdm.commmon.metadata.FieldMetadata;
+import org.talend.mdm.commmon.metadata.MetadataFingerprints;
 import org.talend.mdm.commmon.metadata.MetadataRepository;
 import org.talend.mdm.commmon.metadata.MetadataUtils;
 import org.talend.mdm.commmon.metadata.MetadataVisitable;
+import org.talend.mdm.commmon.metadata.MetadataVisitor;
+import org.talend.mdm.commmon.metadata.ParallelMetadataTraversal;
 import org.talend.mdm.commmon.metadata.ReferenceFieldMetadata;
 import org.talend.mdm.commmon.metadata.SimpleTypeFieldMetadata;
 import org.talend.mdm.commmon.metadata.SimpleTypeMetadata;
@@ -46,7 +50,7 @@ public class Compare {
 
     /**
      * Compare two {@link org.talend.mdm.commmon.metadata.MetadataRepository repositories} and return the differences
-     * between them.
+     * between them. Entity types with same {@link MetadataFingerprints fingerprint} on both sides are not compared.
      *
      * @param left The original {@link org.talend.mdm.commmon.metadata.MetadataRepository repository}.
      * @param right The new {@link org.talend.mdm.commmon.metadata.MetadataRepository repository}.
@@ -55,124 +59,222 @@ public class Compare {
      * @see org.talend.mdm.commmon.metadata.compare.Compare.DiffResults
      */
     public static DiffResults compare(MetadataRepository left, MetadataRepository right) {
-        Collection<ComplexTypeMetadata> leftEntityTypes = left.getUserComplexTypes();
+        DiffResults diffResults = new DiffResults();
+        compare(left, right, diffResults);
+        return diffResults;
+    }
+
+    /**
+     * <p>
+     * Compare two {@link org.talend.mdm.commmon.metadata.MetadataRepository repositories} and send the differences
+     * between them to <code>consumer</code> as soon as they are found (differences are not kept in memory by this
+     * method, only differences of one entity type at a time).
+     * </p>
+     * <p>
+     * Differences are the same as {@link #compare(MetadataRepository, MetadataRepository)} and are delivered entity type
+     * per entity type (add changes, then remove changes and then modify changes for each entity type).
+     * </p>
+     *
+     * @param left The original {@link org.talend.mdm.commmon.metadata.MetadataRepository repository}.
+     * @param right The new {@link org.talend.mdm.commmon.metadata.MetadataRepository repository}.
+     * @param consumer Receives the differences.
+     * @return <code>true</code> if all differences were sent to <code>consumer</code>, <code>false</code> if
+     * <code>consumer</code> stopped the comparison.
+     * @see ChangeConsumer
+     */
+    public static boolean compare(MetadataRepository left, MetadataRepository right, ChangeConsumer consumer) {
+        if (consumer == null) {
+            throw new IllegalArgumentException("Consumer cannot be null."); //$NON-NLS-1$
+        }
+        if (isSameFingerprint(left, right)) {
+            consumer.end();
+            return true;
+        }
         DiffResults diffResults = new DiffResults();
         compareEntitiesChange(left, right, diffResults);
+        if (!diffResults.sendTo(consumer)) {
+            return false;
+        }
+        for (ComplexTypeMetadata leftType : left.getUserComplexTypes()) {
+            if (!isSameFingerprint(left, right, leftType.getName())) {
+                diffResults = new DiffResults();
+                compareEntity(leftType, right.getComplexType(leftType.getName()), diffResults);
+                if (!diffResults.sendTo(consumer)) {
+                    return false;
+                }
+            }
+        }
+        diffResults = new DiffResults();
+        compareNonInstantiableTypes(left, right, diffResults);
+        if (!diffResults.sendTo(consumer)) {
+            return false;
+        }
+        consumer.end();
+        return true;
+    }
 
-        DumpContent dumpContent = new DumpContent();
-        for (ComplexTypeMetadata leftType : leftEntityTypes) {
-            ComplexTypeMetadata rightType = right.getComplexType(leftType.getName());
-            if(rightType != null){
-                // Read left content
-                List<MetadataVisitable> leftContent = new ArrayList<MetadataVisitable>(leftType.accept(dumpContent));
-                dumpContent.reset();
-                // Read right content
-                List<MetadataVisitable> rightContent = new ArrayList<MetadataVisitable>(rightType.accept(dumpContent));
-                dumpContent.reset();
-                // Compare contents
-                Map<String, FieldMetadata> removedElementNames = new HashMap<String, FieldMetadata>();
-                for (MetadataVisitable leftVisitable : leftContent) {
-                    int index = rightContent.indexOf(leftVisitable);
-                    if (index < 0) {
-                        // Different (right does not exist, but might be removed or modified).
-                        if (leftVisitable instanceof FieldMetadata) {
-                            FieldMetadata field = (FieldMetadata) leftVisitable;
-                            if (field.getContainingType() instanceof ContainedComplexTypeMetadata) {
-                                removedElementNames.put(field.getContainingType().getContainer().getName() + "/"
-                                        + field.getContainingType().getName() + "/" + field.getName(), field);
-                            } else {
-                                removedElementNames.put(field.getContainingType().getName() + "/" + field.getName(), field);
-                            }
-                        }
-                    } else {
-                        // Field exists on both sides, but checks max length
-                        MetadataVisitable rightElement = rightContent.get(index);
-                        if (leftVisitable instanceof FieldMetadata) {
-                            TypeMetadata leftVisitableType = ((FieldMetadata) leftVisitable).getType();
-                            TypeMetadata rightVisitableType = ((FieldMetadata) rightElement).getType();
-                            if(leftVisitable instanceof ReferenceFieldMetadata){
-                                compareReferenceFieldMetadata(diffResults.modifyChanges, (ReferenceFieldMetadata) leftVisitable, (ReferenceFieldMetadata) rightElement);
-                            }
-                            // TMDM-9909: Increase the length of a string element should be low impact
-                            Object leftLength = CommonUtil.getSuperTypeMaxLength(leftVisitableType, leftVisitableType) ;
-                            Object rightLength = CommonUtil.getSuperTypeMaxLength(rightVisitableType, rightVisitableType) ;
-                            if (!ObjectUtils.equals(leftLength, rightLength)) {
-                                diffResults.modifyChanges.add(new ModifyChange(leftVisitable, rightElement));
-                            }
-                            // TMDM-8022: issues about custom decimal type totalDigits/fractionDigits.
-                            Object leftTotalDigits = leftVisitableType.getData(MetadataRepository.DATA_TOTAL_DIGITS);
-                            Object rightTotalDigits = rightVisitableType.getData(MetadataRepository.DATA_TOTAL_DIGITS);
-                            if (!ObjectUtils.equals(leftTotalDigits, rightTotalDigits)) {
-                                diffResults.modifyChanges.add(new ModifyChange(leftVisitable, rightElement));
-                            }
-                            Object leftFractionDigits = leftVisitableType.getData(MetadataRepository.DATA_FRACTION_DIGITS);
-                            Object rightFractionDigits = rightVisitableType.getData(MetadataRepository.DATA_FRACTION_DIGITS);
-                            if (!ObjectUtils.equals(leftFractionDigits, rightFractionDigits)) {
-                                diffResults.modifyChanges.add(new ModifyChange(leftVisitable, rightElement));
-                            }
-                        }
-                        rightContent.remove(index); // Same or already marked as diff, so remove from things to compare
+    /**
+     * <p>
+     * Compare two {@link org.talend.mdm.commmon.metadata.MetadataRepository repositories} and return the differences
+     * between them: each pair of entity types is compared in parallel (using <code>pool</code>).
+     * </p>
+     * <p>
+     * Returned differences are the same (and in the same order) as
+     * {@link #compare(MetadataRepository, MetadataRepository)}: per-entity results are merged in entity type order.
+     * Both repositories must be loaded (i.e. types are frozen) before calling this method.
+     * </p>
+     *
+     * @param left The original {@link org.talend.mdm.commmon.metadata.MetadataRepository repository}.
+     * @param right The new {@link org.talend.mdm.commmon.metadata.MetadataRepository repository}.
+     * @param pool The pool used to compare entity types.
+     * @return The {@link org.talend.mdm.commmon.metadata.compare.Compare.DiffResults differences} between the two
+     * repositories.
+     * @see ParallelMetadataTraversal
+     */
+    public static DiffResults compare(final MetadataRepository left, final MetadataRepository right, ForkJoinPool pool) {
+        DiffResults diffResults = new DiffResults();
+        if (isSameFingerprint(left, right)) {
+            return diffResults;
+        }
+        compareEntitiesChange(left, right, diffResults);
+        DiffResults entitiesDiffResults = ParallelMetadataTraversal.visit(left.getUserComplexTypes(),
+                new ParallelMetadataTraversal.VisitorFactory<DiffResults>() {
+
+                    @Override
+                    public MetadataVisitor<DiffResults> create() {
+                        return new EntityCompare(left, right);
                     }
-                }
-                if (!rightContent.isEmpty()) {
-                    Iterator<MetadataVisitable> addedElements = rightContent.iterator();
-                    while (addedElements.hasNext()) {
-                        MetadataVisitable current = addedElements.next();
-                        MetadataVisitable modifiedElement = null;
-                        if (current instanceof FieldMetadata) {
-                            FieldMetadata field = (FieldMetadata) current;
-
-                            if (field.getContainingType() instanceof ContainedComplexTypeMetadata) {
-                                modifiedElement = removedElementNames.get(field.getContainingType().getContainer().getName()
-                                        + "/" + field.getContainingType().getName() + "/" + field.getName());
-                            } else {
-                                modifiedElement = removedElementNames.get(field.getContainingType().getName() + "/"
-                                        + field.getName());
-                            }
+                }, new ParallelMetadataTraversal.Combiner<DiffResults>() {
+
+                    @Override
+                    public DiffResults combine(DiffResults leftResults, DiffResults rightResults) {
+                        if (leftResults == null) {
+                            return rightResults;
                         }
-                        if (modifiedElement != null) {
-                            // Modified element (only exist in right, not in left).
-                            diffResults.modifyChanges.add(new ModifyChange(modifiedElement, current));
-                            if (LOGGER.isDebugEnabled()) {
-                                LOGGER.debug("[MODIFIED] " + current + " was modified" + "\t was " + modifiedElement + "\t now "
-                                        + current);
-                            }
-                            if (current instanceof FieldMetadata) {
-                                FieldMetadata field = (FieldMetadata) current;
-
-                                if (field.getContainingType() instanceof ContainedComplexTypeMetadata) {
-                                    removedElementNames.remove(field.getContainingType().getContainer().getName() + "/"
-                                            + field.getContainingType().getName() + "/" + field.getName());
-                                } else {
-                                    modifiedElement = removedElementNames.get(field.getContainingType().getName() + "/"
-                                            + field.getName());
-                                    removedElementNames.remove(field.getContainingType().getName() + "/" + field.getName());
-                                }
-                            }
-                        } else {
-                            // Added element (only exist in right, not in left).
-                            diffResults.addChanges.add(new AddChange(current));
-                            if (LOGGER.isDebugEnabled()) {
-                                LOGGER.debug("[ADDED] " + current + " was added.");
-                            }
+                        if (rightResults != null) {
+                            leftResults.addAll(rightResults);
                         }
-                        addedElements.remove();
+                        return leftResults;
                     }
+                }, pool);
+        if (entitiesDiffResults != null) {
+            diffResults.addAll(entitiesDiffResults);
+        }
+        compareNonInstantiableTypes(left, right, diffResults);
+        return diffResults;
+    }
+
+    // Repositories with same fingerprint have the same structure: there are no differences to look for.
+    private static boolean isSameFingerprint(MetadataRepository left, MetadataRepository right) {
+        MetadataFingerprints leftFingerprints = left.getFingerprints();
+        MetadataFingerprints rightFingerprints = right.getFingerprints();
+        return leftFingerprints != null && rightFingerprints != null
+                && leftFingerprints.getRepositoryFingerprint().equals(rightFingerprints.getRepositoryFingerprint());
+    }
+
+    // Entity types with same fingerprint have the same structure: comparison of their content can be skipped.
+    private static boolean isSameFingerprint(MetadataRepository left, MetadataRepository right, String entityTypeName) {
+        MetadataFingerprints leftFingerprints = left.getFingerprints();
+        MetadataFingerprints rightFingerprints = right.getFingerprints();
+        if (leftFingerprints == null || rightFingerprints == null) {
+            return false;
+        }
+        String leftFingerprint = leftFingerprints.getEntityFingerprint(entityTypeName);
+        return leftFingerprint != null && leftFingerprint.equals(rightFingerprints.getEntityFingerprint(entityTypeName));
+    }
+
+    private static void compareEntity(ComplexTypeMetadata leftType, ComplexTypeMetadata rightType, DiffResults diffResults) {
+        if (rightType == null) {
+            return;
+        }
+        DumpContent dumpContent = new DumpContent();
+        // Read left content
+        List<MetadataVisitable> leftContent = new ArrayList<MetadataVisitable>(leftType.accept(dumpContent));
+        dumpContent.reset();
+        // Read right content
+        List<MetadataVisitable> rightContent = new ArrayList<MetadataVisitable>(rightType.accept(dumpContent));
+        dumpContent.reset();
+        // Compare contents: right elements are indexed by name so each left element is only compared to right
+        // elements with same name (and not all right elements).
+        Map<String, LinkedList<Integer>> rightIndex = indexContent(rightContent);
+        boolean[] matchedElements = new boolean[rightContent.size()];
+        Map<String, FieldMetadata> removedElementNames = new HashMap<String, FieldMetadata>();
+        for (MetadataVisitable leftVisitable : leftContent) {
+            int index = findMatch(leftVisitable, rightContent, rightIndex);
+            if (index < 0) {
+                // Different (right does not exist, but might be removed or modified).
+                if (leftVisitable instanceof FieldMetadata) {
+                    FieldMetadata field = (FieldMetadata) leftVisitable;
+                    removedElementNames.put(getPathIdentity(field), field);
                 }
-                // Process removed elements
-                for (FieldMetadata fieldMetadata : removedElementNames.values()) {
-                    // Different (right does not exist).
-                    diffResults.removeChanges.add(new RemoveChange(fieldMetadata));
-                    if (LOGGER.isDebugEnabled()) {
-                        LOGGER.debug("[REMOVED] " + fieldMetadata + " no longer exist.");
+            } else {
+                // Field exists on both sides, but checks max length
+                MetadataVisitable rightElement = rightContent.get(index);
+                if (leftVisitable instanceof FieldMetadata) {
+                    TypeMetadata leftVisitableType = ((FieldMetadata) leftVisitable).getType();
+                    TypeMetadata rightVisitableType = ((FieldMetadata) rightElement).getType();
+                    if(leftVisitable instanceof ReferenceFieldMetadata){
+                        compareReferenceFieldMetadata(diffResults.modifyChanges, (ReferenceFieldMetadata) leftVisitable, (ReferenceFieldMetadata) rightElement);
+                    }
+                    // TMDM-9909: Increase the length of a string element should be low impact
+                    Object leftLength = CommonUtil.getSuperTypeMaxLength(leftVisitableType, leftVisitableType) ;
+                    Object rightLength = CommonUtil.getSuperTypeMaxLength(rightVisitableType, rightVisitableType) ;
+                    if (!ObjectUtils.equals(leftLength, rightLength)) {
+                        diffResults.modifyChanges.add(new ModifyChange(leftVisitable, rightElement));
+                    }
+                    // TMDM-8022: issues about custom decimal type totalDigits/fractionDigits.
+                    Object leftTotalDigits = leftVisitableType.getData(MetadataRepository.DATA_TOTAL_DIGITS);
+                    Object rightTotalDigits = rightVisitableType.getData(MetadataRepository.DATA_TOTAL_DIGITS);
+                    if (!ObjectUtils.equals(leftTotalDigits, rightTotalDigits)) {
+                        diffResults.modifyChanges.add(new ModifyChange(leftVisitable, rightElement));
+                    }
+                    Object leftFractionDigits = leftVisitableType.getData(MetadataRepository.DATA_FRACTION_DIGITS);
+                    Object rightFractionDigits = rightVisitableType.getData(MetadataRepository.DATA_FRACTION_DIGITS);
+                    if (!ObjectUtils.equals(leftFractionDigits, rightFractionDigits)) {
+                        diffResults.modifyChanges.add(new ModifyChange(leftVisitable, rightElement));
                     }
                 }
-                if (!rightContent.isEmpty()) { // Not expected at all -> likely a bug
-                    throw new IllegalStateException("Elements remain for comparison.");
+                matchedElements[index] = true; // Same or already marked as diff, so remove from things to compare
+            }
+        }
+        for (int i = 0; i < matchedElements.length; i++) {
+            if (matchedElements[i]) {
+                continue;
+            }
+            MetadataVisitable current = rightContent.get(i);
+            MetadataVisitable modifiedElement = null;
+            String pathIdentity = null;
+            if (current instanceof FieldMetadata) {
+                pathIdentity = getPathIdentity((FieldMetadata) current);
+                modifiedElement = removedElementNames.get(pathIdentity);
+            }
+            if (modifiedElement != null) {
+                // Modified element (only exist in right, not in left).
+                diffResults.modifyChanges.add(new ModifyChange(modifiedElement, current));
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("[MODIFIED] " + current + " was modified" + "\t was " + modifiedElement + "\t now "
+                            + current);
                 }
+                removedElementNames.remove(pathIdentity);
+            } else {
+                // Added element (only exist in right, not in left).
+                diffResults.addChanges.add(new AddChange(current));
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("[ADDED] " + current + " was added.");
+                }
+            }
+        }
+        // Process removed elements
+        for (FieldMetadata fieldMetadata : removedElementNames.values()) {
+            // Different (right does not exist).
+            diffResults.removeChanges.add(new RemoveChange(fieldMetadata));
+            if (LOGGER.isDebugEnabled()) {
+                LOGGER.debug("[REMOVED] " + fieldMetadata + " no longer exist.");
             }
         }
+    }
 
+    private static void compareNonInstantiableTypes(MetadataRepository left, MetadataRepository right, DiffResults diffResults) {
         List<ComplexTypeMetadata> instantiableTypes = left.getNonInstantiableTypes();
         compareTypesChange(left, right, diffResults);
         for (ComplexTypeMetadata leftType : instantiableTypes) {
@@ -188,7 +290,96 @@ public class Compare {
                 }
             }
         }
-        return diffResults;
+    }
+
+    /**
+     * Indexes <code>content</code> by element name: two equal elements always have the same name (see
+     * {@link #getElementName(MetadataVisitable)}), so a match for an element is only searched among elements with the
+     * same name.
+     *
+     * @param content Elements of a type (as returned by {@link DumpContent}).
+     * @return A map that gives for each name the positions (in <code>content</code> order) of elements with this name.
+     */
+    private static Map<String, LinkedList<Integer>> indexContent(List<MetadataVisitable> content) {
+        Map<String, LinkedList<Integer>> index = new HashMap<String, LinkedList<Integer>>();
+        for (int i = 0; i < content.size(); i++) {
+            String name = getElementName(content.get(i));
+            LinkedList<Integer> positions = index.get(name);
+            if (positions == null) {
+                positions = new LinkedList<Integer>();
+                index.put(name, positions);
+            }
+            positions.add(i);
+        }
+        return index;
+    }
+
+    /**
+     * Finds (and removes from <code>index</code>) the first element in <code>content</code> equal to
+     * <code>element</code>, i.e. same result as <code>content.indexOf(element)</code> when matched elements are removed
+     * from <code>content</code>.
+     *
+     * @return Position of the matching element in <code>content</code> or <code>-1</code> if none matches.
+     */
+    private static int findMatch(MetadataVisitable element, List<MetadataVisitable> content,
+            Map<String, LinkedList<Integer>> index) {
+        LinkedList<Integer> positions = index.get(getElementName(element));
+        if (positions != null) {
+            Iterator<Integer> iterator = positions.iterator();
+            while (iterator.hasNext()) {
+                int position = iterator.next();
+                if (element.equals(content.get(position))) {
+                    iterator.remove();
+                    return position;
+                }
+            }
+        }
+        return -1;
+    }
+
+    // Fields and types equals() implementations all compare names (as well as containing type name for fields).
+    private static String getElementName(MetadataVisitable element) {
+        if (element instanceof FieldMetadata) {
+            FieldMetadata field = (FieldMetadata) element;
+            ComplexTypeMetadata containingType = field.getContainingType();
+            return (containingType == null ? "" : containingType.getName()) + '/' + field.getName(); //$NON-NLS-1$
+        } else if (element instanceof TypeMetadata) {
+            return ((TypeMetadata) element).getName();
+        } else {
+            return StringUtils.EMPTY; // Unknown element: compared with all other unknown elements.
+        }
+    }
+
+    // Identifies a field in an entity type (used to detect modified fields: removed in left, added in right).
+    private static String getPathIdentity(FieldMetadata field) {
+        ComplexTypeMetadata containingType = field.getContainingType();
+        if (containingType instanceof ContainedComplexTypeMetadata) {
+            return containingType.getContainer().getName() + "/" + containingType.getName() + "/" + field.getName();
+        } else {
+            return containingType.getName() + "/" + field.getName();
+        }
+    }
+
+    // Compares an entity type (from left repository) with the entity type with same name in right repository.
+    private static class EntityCompare extends DefaultMetadataVisitor<DiffResults> {
+
+        private final MetadataRepository left;
+
+        private final MetadataRepository right;
+
+        private EntityCompare(MetadataRepository left, MetadataRepository right) {
+            this.left = left;
+            this.right = right;
+        }
+
+        @Override
+        public DiffResults visit(ComplexTypeMetadata complexType) {
+            DiffResults diffResults = new DiffResults();
+            if (!isSameFingerprint(left, right, complexType.getName())) {
+                compareEntity(complexType, right.getComplexType(complexType.getName()), diffResults);
+            }
+            return diffResults;
+        }
     }
 
     private static class DumpContent extends DefaultMetadataVisitor<List<MetadataVisitable>> {
@@ -267,13 +458,14 @@ public class Compare {
     }
 
     /**
-     * Groups and sorts all differences between 2 repositories.
+     * Groups and sorts all differences between 2 repositories. This class can also collect changes sent by
+     * {@link Compare#compare(MetadataRepository, MetadataRepository, ChangeConsumer)}.
      *
      * @see #getAddChanges()
      * @see #getModifyChanges()
      * @see #getRemoveChanges()
      */
-    public static class DiffResults {
+    public static class DiffResults implements ChangeConsumer {
 
         private final List<AddChange> addChanges = new LinkedList<AddChange>();
 
@@ -301,6 +493,61 @@ public class Compare {
             allChanges.addAll(modifyChanges);
             return allChanges;
         }
+
+        /**
+         * Adds <code>change</code> to the list of changes of the same kind (add, remove or modify).
+         */
+        void add(Change change) {
+            if (change instanceof AddChange) {
+                addChanges.add((AddChange) change);
+            } else if (change instanceof RemoveChange) {
+                removeChanges.add((RemoveChange) change);
+            } else if (change instanceof ModifyChange) {
+                modifyChanges.add((ModifyChange) change);
+            } else {
+                throw new IllegalArgumentException("Change type '" + change + "' is not supported."); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        }
+
+        @Override
+        public boolean accept(Change change) {
+            add(change);
+            return true;
+        }
+
+        @Override
+        public void end() {
+            // Nothing to do
+        }
+
+        // Sends all changes (add, remove and then modify changes) to consumer.
+        boolean sendTo(ChangeConsumer consumer) {
+            for (Change change : addChanges) {
+                if (!consumer.accept(change)) {
+                    return false;
+                }
+            }
+            for (Change change : removeChanges) {
+                if (!consumer.accept(change)) {
+                    return false;
+                }
+            }
+            for (Change change : modifyChanges) {
+                if (!consumer.accept(change)) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /**
+         * Appends all changes of <code>other</code> after changes of this instance.
+         */
+        void addAll(DiffResults other) {
+            addChanges.addAll(other.addChanges);
+            removeChanges.addAll(other.removeChanges);
+            modifyChanges.addAll(other.modifyChanges);
+        }
     }
 
     @SuppressWarnings("unused")
@@ -349,12 +596,15 @@ public class Compare {
         complexTypeSet.addAll(right.getNonInstantiableTypes());
 
         for(TypeMetadata ctm : complexTypeSet){
-            if (left.getNonInstantiableType(ctm.getNamespace(), ctm.getName()) != null && right.getNonInstantiableType(ctm.getNamespace(), ctm.getName()) == null) {
-                if(left.getNonInstantiableType(ctm.getNamespace(), ctm.getName()) instanceof ComplexTypeMetadata && MetadataUtils.countEntityUsageCount((ComplexTypeMetadata)left.getNonInstantiableType(ctm.getNamespace(), ctm.getName())) > 0){
+            // Usage counts are read from repository usage index (see MetadataRepository#getTypeUsageIndex()).
+            TypeMetadata leftType = left.getNonInstantiableType(ctm.getNamespace(), ctm.getName());
+            TypeMetadata rightType = right.getNonInstantiableType(ctm.getNamespace(), ctm.getName());
+            if (leftType != null && rightType == null) {
+                if(leftType instanceof ComplexTypeMetadata && MetadataUtils.countEntityUsageCount((ComplexTypeMetadata) leftType) > 0){
                     unusedLeftTypes.add(ctm);
                 }
-            } else if (left.getNonInstantiableType(ctm.getNamespace(), ctm.getName()) == null && right.getNonInstantiableType(ctm.getNamespace(), ctm.getName()) != null){
-                if(right.getNonInstantiableType(ctm.getNamespace(), ctm.getName()) instanceof ComplexTypeMetadata && MetadataUtils.countEntityUsageCount((ComplexTypeMetadata)right.getNonInstantiableType(ctm.getNamespace(), ctm.getName())) > 0){
+            } else if (leftType == null && rightType != null){
+                if(rightType instanceof ComplexTypeMetadata && MetadataUtils.countEntityUsageCount((ComplexTypeMetadata) rightType) > 0){
                     unusedRightTypes.add(ctm);
                 }
             }
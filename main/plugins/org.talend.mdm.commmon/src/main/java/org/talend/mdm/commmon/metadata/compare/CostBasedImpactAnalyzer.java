@@ -0,0 +1,250 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata.compare;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.apache.commons.collections.MapUtils;
+import org.apache.commons.lang.StringUtils;
+import org.talend.mdm.commmon.metadata.ComplexTypeMetadata;
+import org.talend.mdm.commmon.metadata.FieldMetadata;
+import org.talend.mdm.commmon.metadata.MetadataRepository;
+import org.talend.mdm.commmon.metadata.MetadataVisitable;
+import org.talend.mdm.commmon.metadata.TypeUsageIndex;
+
+/**
+ * <p>
+ * An {@link ImpactAnalyzer} that adds to the impact analysis of another analyzer an estimated cost for each change:
+ * number of records touched ({@link Change#ESTIMATED_ROWS}) and number of bytes rewritten
+ * ({@link Change#ESTIMATED_BYTES}) when the change is applied to the underlying storage. Estimates are computed from
+ * data volume statistics of the entity type of the change (see {@link StatisticsProvider}).
+ * </p>
+ * <p>
+ * Default cost model:
+ * <ul>
+ * <li>A {@link Impact#HIGH high} impact change rewrites all records of the entity type.</li>
+ * <li>A newly added mandatory field with a default value, or a field that becomes mandatory while records have no
+ * value for it, updates all records of the entity type.</li>
+ * <li>Other changes only change the schema (no record is touched).</li>
+ * </ul>
+ * Sub classes may override {@link #estimate(Change, Impact, EntityStatistics)} to change this model.
+ * </p>
+ * <p>
+ * A change of a reusable type is estimated for all entity types that use it (see
+ * {@link TypeUsageIndex#getUsingEntities(ComplexTypeMetadata)}). Changes of entity types without statistics get no
+ * estimate (see {@link CostEstimate#getUnestimatedChanges()}).
+ * </p>
+ */
+public class CostBasedImpactAnalyzer implements ImpactAnalyzer {
+
+    private final ImpactAnalyzer delegate;
+
+    private final StatisticsProvider statisticsProvider;
+
+    /**
+     * @param delegate The analyzer that sorts changes by impact.
+     * @param statisticsProvider Provides data volume statistics for entity types.
+     */
+    public CostBasedImpactAnalyzer(ImpactAnalyzer delegate, StatisticsProvider statisticsProvider) {
+        if (delegate == null || statisticsProvider == null) {
+            throw new IllegalArgumentException("Analyzer and statistics provider cannot be null."); //$NON-NLS-1$
+        }
+        this.delegate = delegate;
+        this.statisticsProvider = statisticsProvider;
+    }
+
+    /**
+     * Analyzes impact of the <code>diffResult</code> (with the delegate analyzer) and adds estimated costs to the
+     * {@link Change#getData() data} of each change.
+     *
+     * @see ImpactAnalyzer#analyzeImpacts(Compare.DiffResults)
+     */
+    @Override
+    public Map<Impact, List<Change>> analyzeImpacts(Compare.DiffResults diffResult) {
+        Map<Impact, List<Change>> impacts = delegate.analyzeImpacts(diffResult);
+        Map<String, EntityStatistics> statistics = new HashMap<String, EntityStatistics>();
+        // Impact values are sorted from HIGH to LOW: a change listed with several impacts is estimated with the highest
+        // one.
+        Map<Change, Boolean> estimatedChanges = new IdentityHashMap<Change, Boolean>();
+        for (Impact impact : Impact.values()) {
+            List<Change> changes = impacts.get(impact);
+            if (changes == null) {
+                continue;
+            }
+            for (Change change : changes) {
+                if (estimatedChanges.put(change, Boolean.TRUE) != null) {
+                    continue;
+                }
+                long rows = 0;
+                long bytes = 0;
+                boolean isEstimated = true;
+                for (String entityName : getEntityNames(change)) {
+                    EntityStatistics entityStatistics;
+                    if (statistics.containsKey(entityName)) {
+                        entityStatistics = statistics.get(entityName);
+                    } else {
+                        entityStatistics = statisticsProvider.getStatistics(entityName);
+                        statistics.put(entityName, entityStatistics);
+                    }
+                    if (entityStatistics == null) {
+                        isEstimated = false;
+                        break;
+                    }
+                    CostEstimate estimate = estimate(change, impact, entityStatistics);
+                    rows += estimate.getRows();
+                    bytes += estimate.getBytes();
+                }
+                if (isEstimated) {
+                    change.addData(Change.ESTIMATED_ROWS, rows);
+                    change.addData(Change.ESTIMATED_BYTES, bytes);
+                }
+            }
+        }
+        return impacts;
+    }
+
+    // Records of a reusable type are stored in the entity types that use it (an unused reusable type has no record).
+    private static List<String> getEntityNames(Change change) {
+        MetadataVisitable element = change.getElement();
+        ComplexTypeMetadata entity = null;
+        if (element instanceof FieldMetadata) {
+            entity = ((FieldMetadata) element).getContainingType().getEntity();
+        } else if (element instanceof ComplexTypeMetadata) {
+            entity = ((ComplexTypeMetadata) element).getEntity();
+        }
+        if (entity != null && !entity.isInstantiable()) {
+            TypeUsageIndex usageIndex = entity.getData(MetadataRepository.TYPE_USAGE_INDEX);
+            if (usageIndex != null && usageIndex.contains(entity)) {
+                List<String> entityNames = new ArrayList<String>();
+                for (ComplexTypeMetadata usingEntity : usageIndex.getUsingEntities(entity)) {
+                    entityNames.add(usingEntity.getName());
+                }
+                return entityNames;
+            }
+        }
+        return Collections.singletonList(change.getEntityName());
+    }
+
+    /**
+     * @param change A change.
+     * @param impact Impact of the change.
+     * @param statistics Statistics of the entity type of the change.
+     * @return Estimated cost to apply <code>change</code>.
+     */
+    protected CostEstimate estimate(Change change, Impact impact, EntityStatistics statistics) {
+        if (impact == Impact.HIGH || isFillingValues(change)) {
+            long rows = statistics.getRowCount();
+            return new CostEstimate(rows, rows * statistics.getAverageRecordSize(), 0);
+        }
+        return new CostEstimate(0, 0, 0);
+    }
+
+    // Returns true if applying change needs a value to be set in all existing records.
+    private static boolean isFillingValues(Change change) {
+        if (!(change.getElement() instanceof FieldMetadata)) {
+            return false;
+        }
+        if (change instanceof AddChange) {
+            FieldMetadata field = (FieldMetadata) change.getElement();
+            String defaultValue = field.getData(MetadataRepository.DEFAULT_VALUE);
+            return field.isMandatory() && StringUtils.isNotBlank(defaultValue);
+        } else if (change instanceof ModifyChange) {
+            ModifyChange modifyChange = (ModifyChange) change;
+            FieldMetadata previous = (FieldMetadata) modifyChange.getPrevious();
+            FieldMetadata current = (FieldMetadata) modifyChange.getCurrent();
+            return !previous.isMandatory() && current.isMandatory()
+                    && MapUtils.getBooleanValue(change.getData(), Change.HAS_NULL_VALUE);
+        }
+        return false;
+    }
+
+    /**
+     * @param impacts Changes sorted by impact (as returned by {@link #analyzeImpacts(Compare.DiffResults)}).
+     * @return Overall cost estimate (sum of estimates of all changes, each change is counted once).
+     */
+    public static CostEstimate getTotalCost(Map<Impact, List<Change>> impacts) {
+        long rows = 0;
+        long bytes = 0;
+        int unestimatedChanges = 0;
+        Map<Change, Boolean> countedChanges = new IdentityHashMap<Change, Boolean>();
+        for (List<Change> changes : impacts.values()) {
+            for (Change change : changes) {
+                if (countedChanges.put(change, Boolean.TRUE) != null) {
+                    continue;
+                }
+                Object changeRows = change.getData().get(Change.ESTIMATED_ROWS);
+                Object changeBytes = change.getData().get(Change.ESTIMATED_BYTES);
+                if (changeRows instanceof Long && changeBytes instanceof Long) {
+                    rows += (Long) changeRows;
+                    bytes += (Long) changeBytes;
+                } else {
+                    unestimatedChanges++;
+                }
+            }
+        }
+        return new CostEstimate(rows, bytes, unestimatedChanges);
+    }
+
+    /**
+     * Estimated cost to apply one or more changes.
+     */
+    public static class CostEstimate {
+
+        private final long rows;
+
+        private final long bytes;
+
+        private final int unestimatedChanges;
+
+        public CostEstimate(long rows, long bytes, int unestimatedChanges) {
+            this.rows = rows;
+            this.bytes = bytes;
+            this.unestimatedChanges = unestimatedChanges;
+        }
+
+        /**
+         * @return Estimated number of records touched.
+         */
+        public long getRows() {
+            return rows;
+        }
+
+        /**
+         * @return Estimated number of bytes rewritten.
+         */
+        public long getBytes() {
+            return bytes;
+        }
+
+        /**
+         * @return Number of changes without estimate (no statistics for their entity type): actual cost might be
+         * higher.
+         */
+        public int getUnestimatedChanges() {
+            return unestimatedChanges;
+        }
+
+        @Override
+        public String toString() {
+            return "CostEstimate {" + //$NON-NLS-1$
+                    "rows=" + rows + //$NON-NLS-1$
+                    ", bytes=" + bytes + //$NON-NLS-1$
+                    ", unestimatedChanges=" + unestimatedChanges + //$NON-NLS-1$
+                    '}';
+        }
+    }
+}
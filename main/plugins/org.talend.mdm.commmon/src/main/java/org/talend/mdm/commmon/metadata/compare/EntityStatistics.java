@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata.compare;
+
+/**
+ * Data volume statistics for an entity type.
+ *
+ * @see StatisticsProvider
+ */
+public class EntityStatistics {
+
+    private final long rowCount;
+
+    private final long averageRecordSize;
+
+    /**
+     * @param rowCount Number of records of the entity type.
+     * @param averageRecordSize Average size (in bytes) of a record.
+     */
+    public EntityStatistics(long rowCount, long averageRecordSize) {
+        if (rowCount < 0 || averageRecordSize < 0) {
+            throw new IllegalArgumentException("Row count and record size cannot be negative."); //$NON-NLS-1$
+        }
+        this.rowCount = rowCount;
+        this.averageRecordSize = averageRecordSize;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    public long getAverageRecordSize() {
+        return averageRecordSize;
+    }
+
+    @Override
+    public String toString() {
+        return "EntityStatistics {" + //$NON-NLS-1$
+                "rowCount=" + rowCount + //$NON-NLS-1$
+                ", averageRecordSize=" + averageRecordSize + //$NON-NLS-1$
+                '}';
+    }
+}
@@ -10,10 +10,15 @@
 
 package org.talend.mdm.commmon.metadata.compare;
 
+import java.util.ArrayList;
 import java.util.EnumMap;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 
 import org.apache.commons.collections.MapUtils;
 import org.apache.commons.lang.NotImplementedException;
@@ -40,6 +45,120 @@ public class HibernateStorageImpactAnalyzer implements ImpactAnalyzer {
         return impactSort;
     }
 
+    /**
+     * <p>
+     * Analyzes impact of the <code>diffResult</code> in parallel: changes are grouped by entity type and each group is
+     * analyzed (with {@link #analyzeImpacts(Compare.DiffResults)}) on <code>pool</code>.
+     * </p>
+     * <p>
+     * Returned changes are the same (and in the same order) as {@link #analyzeImpacts(Compare.DiffResults)}, as long as
+     * analysis of a change only depends on changes of the same entity type.
+     * </p>
+     *
+     * @param diffResult A diff computed between 2 data models.
+     * @param pool The pool used to analyze changes.
+     * @return All the changes sorted by impact for the underlying storage.
+     */
+    public Map<Impact, List<Change>> analyzeImpacts(Compare.DiffResults diffResult, ForkJoinPool pool) {
+        Map<String, Compare.DiffResults> entityDiffResults = new LinkedHashMap<String, Compare.DiffResults>();
+        for (Change change : diffResult.getActions()) {
+            String entityName = change.getEntityName();
+            Compare.DiffResults entityDiffResult = entityDiffResults.get(entityName);
+            if (entityDiffResult == null) {
+                entityDiffResult = new Compare.DiffResults();
+                entityDiffResults.put(entityName, entityDiffResult);
+            }
+            entityDiffResult.add(change);
+        }
+        List<Compare.DiffResults> groups = new ArrayList<Compare.DiffResults>(entityDiffResults.values());
+        Map<Impact, List<Change>> groupsImpactSort;
+        if (groups.size() < 2) {
+            groupsImpactSort = analyzeImpacts(diffResult);
+        } else {
+            groupsImpactSort = pool.invoke(new AnalyzeTask(this, groups, 0, groups.size()));
+        }
+        // Restore order of changes in diffResult (groups were analyzed out of order).
+        Map<Change, int[]> impactCounts = new IdentityHashMap<Change, int[]>();
+        for (Map.Entry<Impact, List<Change>> entry : groupsImpactSort.entrySet()) {
+            for (Change change : entry.getValue()) {
+                int[] counts = impactCounts.get(change);
+                if (counts == null) {
+                    counts = new int[Impact.values().length];
+                    impactCounts.put(change, counts);
+                }
+                counts[entry.getKey().ordinal()]++;
+            }
+        }
+        Map<Impact, List<Change>> impactSort = new EnumMap<Impact, List<Change>>(Impact.class);
+        for (Impact impact : Impact.values()) {
+            impactSort.put(impact, new LinkedList<Change>());
+        }
+        for (Change change : diffResult.getActions()) {
+            int[] counts = impactCounts.remove(change);
+            if (counts != null) {
+                for (Impact impact : Impact.values()) {
+                    for (int i = 0; i < counts[impact.ordinal()]; i++) {
+                        impactSort.get(impact).add(change);
+                    }
+                }
+            }
+        }
+        if (!impactCounts.isEmpty()) { // Changes not in diffResult (added by a sub class): keep them at the end.
+            for (Map.Entry<Impact, List<Change>> entry : groupsImpactSort.entrySet()) {
+                for (Change change : entry.getValue()) {
+                    if (impactCounts.containsKey(change)) {
+                        impactSort.get(entry.getKey()).add(change);
+                    }
+                }
+            }
+        }
+        return impactSort;
+    }
+
+    private static class AnalyzeTask extends RecursiveTask<Map<Impact, List<Change>>> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final ImpactAnalyzer analyzer;
+
+        private final List<Compare.DiffResults> groups;
+
+        private final int start;
+
+        private final int end;
+
+        private AnalyzeTask(ImpactAnalyzer analyzer, List<Compare.DiffResults> groups, int start, int end) {
+            this.analyzer = analyzer;
+            this.groups = groups;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected Map<Impact, List<Change>> compute() {
+            if (end - start == 1) {
+                return analyzer.analyzeImpacts(groups.get(start));
+            }
+            int middle = (start + end) >>> 1;
+            AnalyzeTask right = new AnalyzeTask(analyzer, groups, middle, end);
+            right.fork();
+            Map<Impact, List<Change>> leftResult = new AnalyzeTask(analyzer, groups, start, middle).compute();
+            Map<Impact, List<Change>> rightResult = right.join();
+            Map<Impact, List<Change>> result = new EnumMap<Impact, List<Change>>(Impact.class);
+            for (Impact impact : Impact.values()) {
+                List<Change> changes = new LinkedList<Change>();
+                if (leftResult.get(impact) != null) {
+                    changes.addAll(leftResult.get(impact));
+                }
+                if (rightResult.get(impact) != null) {
+                    changes.addAll(rightResult.get(impact));
+                }
+                result.put(impact, changes);
+            }
+            return result;
+        }
+    }
+
     protected void analyzeAddChange(Compare.DiffResults diffResult, Map<Impact, List<Change>> impactSort) {
         for (AddChange addAction : diffResult.getAddChanges()) {
             MetadataVisitable element = addAction.getElement();
@@ -0,0 +1,685 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata.compare;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.EnumMap;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.WeakHashMap;
+
+import org.apache.commons.codec.digest.DigestUtils;
+import org.apache.commons.lang.StringUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.talend.mdm.commmon.metadata.ComplexTypeMetadata;
+import org.talend.mdm.commmon.metadata.ContainedTypeFieldMetadata;
+import org.talend.mdm.commmon.metadata.FieldMetadata;
+import org.talend.mdm.commmon.metadata.MetadataFingerprints;
+import org.talend.mdm.commmon.metadata.MetadataRepository;
+import org.talend.mdm.commmon.metadata.MetadataUtils;
+import org.talend.mdm.commmon.metadata.MetadataVisitable;
+import org.talend.mdm.commmon.metadata.TypeMetadata;
+
+/**
+ * <p>
+ * A bounded cache for impact analysis results: the differences between 2 data models (see
+ * {@link Compare#compare(MetadataRepository, MetadataRepository)}) and their impacts (see
+ * {@link ImpactAnalyzer#analyzeImpacts(Compare.DiffResults)}) are cached using the
+ * {@link MetadataFingerprints#getRepositoryFingerprint() fingerprints} of the data models, a version of the analyzer
+ * implementation (a digest of the analyzer classes, see {@link #getAnalyzerVersion(ImpactAnalyzer)}) and all other
+ * inputs of the analyzer: properties of fields not included in fingerprints (default value and concrete type) and the
+ * {@link ChangeFlags key of the change data} set by caller (e.g. {@link Change#HAS_NULL_VALUE}). On a cache hit, data
+ * models are not compared again. A new analyzer implementation never reuses results of a previous one.
+ * </p>
+ * <p>
+ * Results are kept in memory (at most <code>maxEntries</code> results, least recently used results are evicted first)
+ * and, optionally, in a directory (at most <code>maxEntries</code> files, least recently used files are deleted first):
+ * nodes that share this directory reuse results computed by other nodes. Results are
+ * kept in a serialized form and, on a cache hit, new {@link Change changes} are created for the caller's data models (a
+ * result is ignored if one of its changes can't be located): cache never shares {@link Change} instances between
+ * callers nor keeps data models in memory.
+ * </p>
+ * <p>
+ * Cached results must only depend on the inputs above: analyzers with other inputs (e.g.
+ * {@link CostBasedImpactAnalyzer} that uses data volume statistics) should not be used with this cache. Only
+ * {@link Change#getData() change data} with boolean, number or string values are kept in cache, and results with
+ * changes that can't be located in data models are not cached.
+ * </p>
+ */
+public class ImpactAnalysisCache {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ImpactAnalysisCache.class);
+
+    private static final String FILE_HEADER = "mdm-impact-analysis 3"; //$NON-NLS-1$
+
+    private static final String FILE_EXTENSION = ".impacts"; //$NON-NLS-1$
+
+    private static final String NO_ELEMENT = "-"; //$NON-NLS-1$
+
+    private static final String CONTAINS_DATA = "+"; //$NON-NLS-1$
+
+    private static final String ESCAPED_CHARACTERS = "\\\t\n\r,="; //$NON-NLS-1$
+
+    private static final String ESCAPE_CODES = "\\tnrce"; //$NON-NLS-1$
+
+    // Analyzer versions follow MDM classes only (libraries are part of the product version).
+    private static final String MDM_PACKAGE = "org/talend/mdm/"; //$NON-NLS-1$
+
+    private static final Map<Class<?>, String> ANALYZER_VERSIONS = new WeakHashMap<Class<?>, String>();
+
+    // Digests of field inputs of loaded data models (data models are not modified once loaded).
+    private static final Map<MetadataRepository, String> FIELD_INPUTS = new WeakHashMap<MetadataRepository, String>();
+
+    private final Map<String, List<String>> cache;
+
+    /**
+     * Sets the {@link Change#getData() change data} (and {@link RemoveChange#isContainsData()}) the analyzer reads,
+     * e.g. {@link Change#HAS_NULL_VALUE} computed from the records in storage.
+     */
+    public interface ChangeFlags {
+
+        /**
+         * @return A key for the data set by {@link #setData(Compare.DiffResults)}: a cached result is only reused
+         * for the same key, so two calls that would set different data must return different keys (e.g. a digest of
+         * the storage state the data is computed from).
+         */
+        String getKey();
+
+        /**
+         * Called on a cache miss, before impacts are analyzed.
+         *
+         * @param diffResults The differences between the data models.
+         */
+        void setData(Compare.DiffResults diffResults);
+    }
+
+    private final File directory;
+
+    private final int maxEntries;
+
+    /**
+     * Creates an in-memory cache.
+     *
+     * @param maxEntries Maximum number of results kept in memory.
+     */
+    public ImpactAnalysisCache(int maxEntries) {
+        this(maxEntries, null);
+    }
+
+    /**
+     * @param maxEntries Maximum number of results kept in memory (and in directory).
+     * @param directory Directory where results are stored (or <code>null</code> for an in-memory only cache).
+     */
+    public ImpactAnalysisCache(final int maxEntries, File directory) {
+        if (maxEntries <= 0) {
+            throw new IllegalArgumentException("Max entries must be greater than 0."); //$NON-NLS-1$
+        }
+        if (directory != null && !directory.isDirectory() && !directory.mkdirs()) {
+            throw new IllegalArgumentException("Unable to create directory '" + directory + "'."); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        this.directory = directory;
+        this.maxEntries = maxEntries;
+        cache = new LinkedHashMap<String, List<String>>(16, 0.75f, true) {
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<String>> eldest) {
+                return size() > maxEntries;
+            }
+        };
+    }
+
+    /**
+     * Compares <code>left</code> and <code>right</code> and analyzes impacts of the differences, or returns the cached
+     * result if the same data models were already analyzed with the same {@link ChangeFlags#getKey() change data key}
+     * by the same analyzer implementation. Repositories that were not loaded from a data model (without
+     * {@link MetadataRepository#getFingerprints() fingerprints}) are always compared and analyzed.
+     *
+     * @param left The original data model.
+     * @param right The new data model.
+     * @param analyzer The impact analyzer.
+     * @param flags Sets change data before the analysis (or <code>null</code> if analyzer reads no change data).
+     * @return All the changes sorted by impact (see {@link ImpactAnalyzer#analyzeImpacts(Compare.DiffResults)}).
+     */
+    public Map<ImpactAnalyzer.Impact, List<Change>> analyzeImpacts(MetadataRepository left, MetadataRepository right,
+            ImpactAnalyzer analyzer, ChangeFlags flags) {
+        if (left == null || right == null || analyzer == null) {
+            throw new IllegalArgumentException("Repositories and analyzer cannot be null."); //$NON-NLS-1$
+        }
+        MetadataFingerprints leftFingerprints = left.getFingerprints();
+        MetadataFingerprints rightFingerprints = right.getFingerprints();
+        if (leftFingerprints == null || rightFingerprints == null) {
+            return analyze(left, right, analyzer, flags);
+        }
+        String key = DigestUtils.sha256Hex(leftFingerprints.getRepositoryFingerprint() + '/'
+                + rightFingerprints.getRepositoryFingerprint() + '/' + getFieldInputs(left) + '/'
+                + getFieldInputs(right) + '/' + getAnalyzerVersion(analyzer) + '/'
+                + (flags == null ? StringUtils.EMPTY : DigestUtils.sha256Hex(StringUtils.defaultString(flags.getKey()))));
+        List<String> lines;
+        synchronized (cache) {
+            lines = cache.get(key);
+        }
+        if (lines == null && directory != null) {
+            lines = read(key);
+        }
+        if (lines != null) {
+            Map<ImpactAnalyzer.Impact, List<Change>> impacts = toImpacts(lines, left, right);
+            if (impacts != null) {
+                synchronized (cache) {
+                    cache.put(key, lines);
+                }
+                return impacts;
+            }
+        }
+        Map<ImpactAnalyzer.Impact, List<Change>> impacts = analyze(left, right, analyzer, flags);
+        lines = toLines(impacts, left, right);
+        if (lines != null) {
+            synchronized (cache) {
+                cache.put(key, lines);
+            }
+            if (directory != null) {
+                write(key, lines);
+            }
+        }
+        return impacts;
+    }
+
+    private static Map<ImpactAnalyzer.Impact, List<Change>> analyze(MetadataRepository left, MetadataRepository right,
+            ImpactAnalyzer analyzer, ChangeFlags flags) {
+        Compare.DiffResults diffResults = Compare.compare(left, right);
+        if (flags != null) {
+            flags.setData(diffResults);
+        }
+        return analyzer.analyzeImpacts(diffResults);
+    }
+
+    /**
+     * Removes all results from memory and from directory.
+     */
+    public void clear() {
+        synchronized (cache) {
+            cache.clear();
+        }
+        if (directory != null) {
+            File[] files = directory.listFiles();
+            if (files != null) {
+                for (File file : files) {
+                    if (file.getName().endsWith(FILE_EXTENSION) && !file.delete()) {
+                        LOGGER.warn("Unable to delete cached impact analysis '" + file + "'."); //$NON-NLS-1$ //$NON-NLS-2$
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * @param analyzer An impact analyzer.
+     * @return A version of <code>analyzer</code> implementation: a digest of the byte code of the analyzer class and of
+     * all the MDM classes it uses (directly or not), {@link Compare} included.
+     */
+    public static String getAnalyzerVersion(ImpactAnalyzer analyzer) {
+        Class<?> analyzerClass = analyzer.getClass();
+        synchronized (ANALYZER_VERSIONS) {
+            String version = ANALYZER_VERSIONS.get(analyzerClass);
+            if (version != null) {
+                return version;
+            }
+        }
+        Map<String, String> classDigests = new TreeMap<String, String>();
+        collectClassDigests(toInternalName(analyzerClass), analyzerClass.getClassLoader(), classDigests);
+        collectClassDigests(toInternalName(Compare.class), Compare.class.getClassLoader(), classDigests);
+        String version = DigestUtils.sha256Hex(classDigests.toString());
+        synchronized (ANALYZER_VERSIONS) {
+            ANALYZER_VERSIONS.put(analyzerClass, version);
+        }
+        return version;
+    }
+
+    private static String toInternalName(Class<?> clazz) {
+        return clazz.getName().replace('.', '/');
+    }
+
+    // Digests byte code of className and of the MDM classes it references (in its constant pool).
+    private static void collectClassDigests(String className, ClassLoader classLoader, Map<String, String> classDigests) {
+        if (classDigests.containsKey(className)) {
+            return;
+        }
+        byte[] classBytes = getClassBytes(className, classLoader);
+        if (classBytes == null) {
+            // No byte code available (e.g. generated class): class name is the best version available.
+            classDigests.put(className, className);
+            return;
+        }
+        classDigests.put(className, DigestUtils.sha256Hex(classBytes));
+        try {
+            for (String referencedClass : getReferencedClasses(classBytes)) {
+                if (referencedClass.startsWith(MDM_PACKAGE)) {
+                    collectClassDigests(referencedClass, classLoader, classDigests);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read byte code of '" + className + "'.", e); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    private static byte[] getClassBytes(String className, ClassLoader classLoader) {
+        ClassLoader loader = classLoader == null ? ImpactAnalysisCache.class.getClassLoader() : classLoader;
+        try (InputStream classBytes = loader.getResourceAsStream(className + ".class")) { //$NON-NLS-1$
+            if (classBytes == null) {
+                return null;
+            }
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            byte[] buffer = new byte[8192];
+            int read;
+            while ((read = classBytes.read(buffer)) >= 0) {
+                bytes.write(buffer, 0, read);
+            }
+            return bytes.toByteArray();
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to read byte code of '" + className + "'.", e); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    // Names of the classes in the constant pool of a class file (see JVM specification, section 4.4).
+    private static List<String> getReferencedClasses(byte[] classBytes) throws IOException {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(classBytes));
+        if (input.readInt() != 0xCAFEBABE) {
+            throw new IOException("Not a class file."); //$NON-NLS-1$
+        }
+        input.skipBytes(4); // Minor and major versions
+        int count = input.readUnsignedShort();
+        String[] strings = new String[count];
+        List<Integer> classNameIndexes = new ArrayList<Integer>();
+        for (int i = 1; i < count; i++) {
+            int tag = input.readUnsignedByte();
+            switch (tag) {
+            case 1: // Utf8
+                strings[i] = input.readUTF();
+                break;
+            case 7: // Class
+                classNameIndexes.add(input.readUnsignedShort());
+                break;
+            case 8: // String
+            case 16: // MethodType
+            case 19: // Module
+            case 20: // Package
+                input.skipBytes(2);
+                break;
+            case 15: // MethodHandle
+                input.skipBytes(3);
+                break;
+            case 3: // Integer
+            case 4: // Float
+            case 9: // Fieldref
+            case 10: // Methodref
+            case 11: // InterfaceMethodref
+            case 12: // NameAndType
+            case 17: // Dynamic
+            case 18: // InvokeDynamic
+                input.skipBytes(4);
+                break;
+            case 5: // Long
+            case 6: // Double
+                input.skipBytes(8);
+                i++; // Takes 2 entries
+                break;
+            default:
+                throw new IOException("Unexpected constant pool tag " + tag + '.'); //$NON-NLS-1$
+            }
+        }
+        List<String> classNames = new ArrayList<String>(classNameIndexes.size());
+        for (int index : classNameIndexes) {
+            // Array classes: "[[Lorg/talend/...;"
+            String name = StringUtils.removeEnd(StringUtils.stripStart(strings[index], "["), ";"); //$NON-NLS-1$ //$NON-NLS-2$
+            classNames.add(name.startsWith("L") && name.indexOf('/') > 0 ? name.substring(1) : name); //$NON-NLS-1$
+        }
+        return classNames;
+    }
+
+    // Kind of change, element and current element (modify change only) of a change (tab separated).
+    private static String toChangeLocator(Change change, MetadataRepository left, MetadataRepository right) {
+        String kind;
+        String element;
+        String current = NO_ELEMENT;
+        if (change instanceof AddChange) {
+            kind = "A"; //$NON-NLS-1$
+            element = ChangeLocator.toLocator(change.getElement(), right);
+        } else if (change instanceof RemoveChange) {
+            kind = "R"; //$NON-NLS-1$
+            element = ChangeLocator.toLocator(change.getElement(), left);
+        } else if (change instanceof ModifyChange) {
+            kind = "M"; //$NON-NLS-1$
+            element = ChangeLocator.toLocator(change.getElement(), left);
+            current = ChangeLocator.toLocator(((ModifyChange) change).getCurrent(), right);
+        } else {
+            return null;
+        }
+        if (element == null || current == null) {
+            return null;
+        }
+        return kind + '\t' + element + '\t' + current;
+    }
+
+    // Analyzer inputs not included in fingerprints: default value and concrete type of all fields.
+    private static String getFieldInputs(MetadataRepository repository) {
+        synchronized (FIELD_INPUTS) {
+            String digest = FIELD_INPUTS.get(repository);
+            if (digest != null) {
+                return digest;
+            }
+        }
+        Map<String, String> inputs = new TreeMap<String, String>();
+        for (ComplexTypeMetadata type : repository.getUserComplexTypes()) {
+            collectFieldInputs(inputs, 'F' + type.getName(), type.getFields(), new HashSet<String>());
+        }
+        for (ComplexTypeMetadata type : repository.getNonInstantiableTypes()) {
+            collectFieldInputs(inputs, 'G' + type.getName(), type.getFields(), new HashSet<String>());
+        }
+        String digest = DigestUtils.sha256Hex(inputs.toString());
+        synchronized (FIELD_INPUTS) {
+            FIELD_INPUTS.put(repository, digest);
+        }
+        return digest;
+    }
+
+    private static void collectFieldInputs(Map<String, String> inputs, String typeLocator, Collection<FieldMetadata> fields,
+            Set<String> containingTypes) {
+        for (FieldMetadata field : fields) {
+            TypeMetadata concreteType = field.getType() == null ? null : MetadataUtils.getSuperConcreteType(field.getType());
+            inputs.put(typeLocator + '/' + field.getPath(), field.<Object> getData(MetadataRepository.DEFAULT_VALUE) + "/" //$NON-NLS-1$
+                    + (concreteType == null ? null : concreteType.getName()));
+            if (field instanceof ContainedTypeFieldMetadata) {
+                ComplexTypeMetadata containedType = ((ContainedTypeFieldMetadata) field).getContainedType();
+                if (containingTypes.add(containedType.getName())) { // Skip recursive types
+                    collectFieldInputs(inputs, typeLocator, containedType.getFields(), containingTypes);
+                    containingTypes.remove(containedType.getName());
+                }
+            }
+        }
+    }
+
+    private static List<String> toLines(Map<ImpactAnalyzer.Impact, List<Change>> impacts, MetadataRepository left,
+            MetadataRepository right) {
+        List<String> lines = new ArrayList<String>();
+        for (Map.Entry<ImpactAnalyzer.Impact, List<Change>> entry : impacts.entrySet()) {
+            if (entry.getValue() == null) {
+                continue;
+            }
+            for (Change change : entry.getValue()) {
+                String line = toLine(entry.getKey(), change, left, right);
+                if (line == null) {
+                    if (LOGGER.isDebugEnabled()) {
+                        LOGGER.debug("Impact analysis can not be cached (unable to locate '" + change.getElement() //$NON-NLS-1$
+                                + "')."); //$NON-NLS-1$
+                    }
+                    return null;
+                }
+                lines.add(line);
+            }
+        }
+        return Collections.unmodifiableList(lines);
+    }
+
+    // Creates the changes of a cached result for the data models (returns null if a cached change can't be located).
+    private static Map<ImpactAnalyzer.Impact, List<Change>> toImpacts(List<String> lines, MetadataRepository left,
+            MetadataRepository right) {
+        Map<ImpactAnalyzer.Impact, List<Change>> impacts = new EnumMap<ImpactAnalyzer.Impact, List<Change>>(
+                ImpactAnalyzer.Impact.class);
+        for (ImpactAnalyzer.Impact impact : ImpactAnalyzer.Impact.values()) {
+            impacts.put(impact, new LinkedList<Change>());
+        }
+        for (String line : lines) {
+            String[] columns = StringUtils.splitPreserveAllTokens(line, '\t');
+            if (columns.length != 6) {
+                return null;
+            }
+            ImpactAnalyzer.Impact impact;
+            Map<String, Object> data;
+            try {
+                impact = ImpactAnalyzer.Impact.valueOf(columns[0]);
+                data = parseData(columns[5]);
+            } catch (IllegalArgumentException e) {
+                LOGGER.warn("Ignoring invalid cached impact analysis.", e); //$NON-NLS-1$
+                return null;
+            }
+            Change change = toChange(columns[1], columns[2], columns[3], left, right);
+            if (change == null) {
+                return null;
+            }
+            if (change instanceof RemoveChange) {
+                ((RemoveChange) change).setContainsData(CONTAINS_DATA.equals(columns[4]));
+            }
+            for (Map.Entry<String, Object> entry : data.entrySet()) {
+                change.addData(entry.getKey(), entry.getValue());
+            }
+            impacts.get(impact).add(change);
+        }
+        return impacts;
+    }
+
+    private static Change toChange(String kind, String element, String current, MetadataRepository left,
+            MetadataRepository right) {
+        if ("A".equals(kind)) { //$NON-NLS-1$
+            MetadataVisitable addedElement = ChangeLocator.fromLocator(element, right);
+            return addedElement == null ? null : new AddChange(addedElement);
+        } else if ("R".equals(kind)) { //$NON-NLS-1$
+            MetadataVisitable removedElement = ChangeLocator.fromLocator(element, left);
+            return removedElement == null ? null : new RemoveChange(removedElement);
+        } else if ("M".equals(kind)) { //$NON-NLS-1$
+            MetadataVisitable previousElement = ChangeLocator.fromLocator(element, left);
+            MetadataVisitable currentElement = ChangeLocator.fromLocator(current, right);
+            return previousElement == null || currentElement == null ? null : new ModifyChange(previousElement,
+                    currentElement);
+        }
+        return null;
+    }
+
+    private void write(String key, List<String> lines) {
+        File file = new File(directory, key + FILE_EXTENSION);
+        File temporaryFile = new File(directory, key + '.' + System.nanoTime() + ".tmp"); //$NON-NLS-1$
+        try {
+            try (Writer writer = new OutputStreamWriter(new FileOutputStream(temporaryFile), StandardCharsets.UTF_8)) {
+                writer.write(FILE_HEADER);
+                writer.write('\n');
+                for (String line : lines) {
+                    writer.write(line);
+                    writer.write('\n');
+                }
+            }
+            // Atomic move so other nodes never read a partially written file.
+            Files.move(temporaryFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                    StandardCopyOption.ATOMIC_MOVE);
+            evictFiles();
+        } catch (IOException e) {
+            LOGGER.warn("Unable to store impact analysis in '" + file + "'.", e); //$NON-NLS-1$ //$NON-NLS-2$
+        } finally {
+            if (temporaryFile.exists() && !temporaryFile.delete()) {
+                temporaryFile.deleteOnExit();
+            }
+        }
+    }
+
+    // Deletes least recently used files when directory has more than maxEntries results.
+    private void evictFiles() {
+        File[] files = directory.listFiles();
+        if (files == null) {
+            return;
+        }
+        List<File> results = new ArrayList<File>(files.length);
+        for (File file : files) {
+            if (file.getName().endsWith(FILE_EXTENSION)) {
+                results.add(file);
+            }
+        }
+        if (results.size() <= maxEntries) {
+            return;
+        }
+        final Map<File, Long> lastModified = new HashMap<File, Long>();
+        for (File result : results) {
+            lastModified.put(result, result.lastModified());
+        }
+        Collections.sort(results, new Comparator<File>() {
+
+            @Override
+            public int compare(File file1, File file2) {
+                return Long.compare(lastModified.get(file1), lastModified.get(file2));
+            }
+        });
+        for (File result : results.subList(0, results.size() - maxEntries)) {
+            // Another node may have deleted it already.
+            if (!result.delete() && result.exists()) {
+                LOGGER.warn("Unable to delete cached impact analysis '" + result + "'."); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        }
+    }
+
+    private List<String> read(String key) {
+        File file = new File(directory, key + FILE_EXTENSION);
+        if (!file.exists()) {
+            return null;
+        }
+        List<String> lines = new ArrayList<String>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file),
+                StandardCharsets.UTF_8))) {
+            if (!FILE_HEADER.equals(reader.readLine())) {
+                return null;
+            }
+            String line;
+            while ((line = reader.readLine()) != null) {
+                lines.add(line);
+            }
+            // Keeps recently used results when files are evicted.
+            if (!file.setLastModified(System.currentTimeMillis())) {
+                LOGGER.debug("Unable to update last modification time of '" + file + "'."); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            return Collections.unmodifiableList(lines);
+        } catch (IOException e) {
+            LOGGER.warn("Unable to read impact analysis from '" + file + "'.", e); //$NON-NLS-1$ //$NON-NLS-2$
+            return null;
+        }
+    }
+
+    // Line format: impact, change locator (see toChangeLocator), contains data flag and data (tab separated).
+    private static String toLine(ImpactAnalyzer.Impact impact, Change change, MetadataRepository left,
+            MetadataRepository right) {
+        String changeLocator = toChangeLocator(change, left, right);
+        if (changeLocator == null) {
+            return null;
+        }
+        StringBuilder line = new StringBuilder();
+        line.append(impact.name()).append('\t').append(changeLocator).append('\t');
+        boolean containsData = change instanceof RemoveChange && ((RemoveChange) change).isContainsData();
+        line.append(containsData ? CONTAINS_DATA : NO_ELEMENT).append('\t');
+        boolean isFirst = true;
+        for (Map.Entry<String, Object> entry : change.getData().entrySet()) {
+            Object value = entry.getValue();
+            String type;
+            if (value instanceof Boolean) {
+                type = "b"; //$NON-NLS-1$
+            } else if (value instanceof Long || value instanceof Integer) {
+                type = value instanceof Long ? "l" : "i"; //$NON-NLS-1$ //$NON-NLS-2$
+            } else if (value instanceof String) {
+                type = "s"; //$NON-NLS-1$
+                value = escape((String) value);
+            } else {
+                continue;
+            }
+            if (!isFirst) {
+                line.append(',');
+            }
+            line.append(escape(entry.getKey())).append('=').append(type).append(':').append(value);
+            isFirst = false;
+        }
+        return line.toString();
+    }
+
+    private static Map<String, Object> parseData(String dataColumn) {
+        Map<String, Object> changeData = new HashMap<String, Object>();
+        if (dataColumn.isEmpty()) {
+            return changeData;
+        }
+        for (String data : StringUtils.split(dataColumn, ',')) {
+            String name = unescape(StringUtils.substringBefore(data, "=")); //$NON-NLS-1$
+            String type = StringUtils.substringBetween(data, "=", ":"); //$NON-NLS-1$ //$NON-NLS-2$
+            String value = StringUtils.substringAfter(StringUtils.substringAfter(data, "="), ":"); //$NON-NLS-1$ //$NON-NLS-2$
+            if ("b".equals(type)) { //$NON-NLS-1$
+                changeData.put(name, Boolean.valueOf(value));
+            } else if ("l".equals(type)) { //$NON-NLS-1$
+                changeData.put(name, Long.valueOf(value));
+            } else if ("i".equals(type)) { //$NON-NLS-1$
+                changeData.put(name, Integer.valueOf(value));
+            } else {
+                changeData.put(name, unescape(value));
+            }
+        }
+        return changeData;
+    }
+
+    // Escapes separators of lines (tab, line breaks) and of data (',' and '=').
+    private static String escape(String value) {
+        StringBuilder escaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            int index = ESCAPED_CHARACTERS.indexOf(c);
+            if (index < 0) {
+                escaped.append(c);
+            } else {
+                escaped.append('\\').append(ESCAPE_CODES.charAt(index));
+            }
+        }
+        return escaped.toString();
+    }
+
+    private static String unescape(String value) {
+        if (value.indexOf('\\') < 0) {
+            return value;
+        }
+        StringBuilder unescaped = new StringBuilder(value.length());
+        for (int i = 0; i < value.length(); i++) {
+            char c = value.charAt(i);
+            if (c == '\\' && i + 1 < value.length()) {
+                int index = ESCAPE_CODES.indexOf(value.charAt(++i));
+                if (index < 0) {
+                    throw new IllegalArgumentException("Invalid escape sequence in '" + value + "'."); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+                unescaped.append(ESCAPED_CHARACTERS.charAt(index));
+            } else {
+                unescaped.append(c);
+            }
+        }
+        return unescaped.toString();
+    }
+}
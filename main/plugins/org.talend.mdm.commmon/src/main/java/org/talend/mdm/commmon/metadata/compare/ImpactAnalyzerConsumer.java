@@ -0,0 +1,118 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata.compare;
+
+import java.util.Collections;
+import java.util.EnumMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * <p>
+ * A {@link ChangeConsumer} that analyzes impacts of changes with an {@link ImpactAnalyzer} while changes are found.
+ * Changes are buffered for one entity type at a time and analyzed once all changes of the entity type were received
+ * (impact of a change may depend on other changes of the same entity type).
+ * </p>
+ * <p>
+ * When created with <code>stopOnHighImpact</code>, this consumer stops the comparison as soon as a
+ * {@link ImpactAnalyzer.Impact#HIGH high} impact change is found: this is useful to check if a data model update
+ * can be applied without reading the full list of changes.
+ * </p>
+ */
+public class ImpactAnalyzerConsumer implements ChangeConsumer {
+
+    private final ImpactAnalyzer analyzer;
+
+    private final boolean stopOnHighImpact;
+
+    private final Map<ImpactAnalyzer.Impact, List<Change>> impacts = new EnumMap<ImpactAnalyzer.Impact, List<Change>>(
+            ImpactAnalyzer.Impact.class);
+
+    private Compare.DiffResults entityChanges = new Compare.DiffResults();
+
+    private String entityName;
+
+    private boolean isStopped;
+
+    /**
+     * @param analyzer The analyzer for changes.
+     * @param stopOnHighImpact <code>true</code> to stop comparison at the first high impact change.
+     */
+    public ImpactAnalyzerConsumer(ImpactAnalyzer analyzer, boolean stopOnHighImpact) {
+        if (analyzer == null) {
+            throw new IllegalArgumentException("Analyzer cannot be null."); //$NON-NLS-1$
+        }
+        this.analyzer = analyzer;
+        this.stopOnHighImpact = stopOnHighImpact;
+        for (ImpactAnalyzer.Impact impact : ImpactAnalyzer.Impact.values()) {
+            impacts.put(impact, new LinkedList<Change>());
+        }
+    }
+
+    @Override
+    public boolean accept(Change change) {
+        if (isStopped) {
+            return false;
+        }
+        String changeEntityName = change.getEntityName();
+        if (entityName != null && !entityName.equals(changeEntityName)) {
+            if (!analyzeEntityChanges()) {
+                return false;
+            }
+        }
+        entityName = changeEntityName;
+        entityChanges.add(change);
+        return true;
+    }
+
+    @Override
+    public void end() {
+        analyzeEntityChanges();
+    }
+
+    private boolean analyzeEntityChanges() {
+        Map<ImpactAnalyzer.Impact, List<Change>> entityImpacts = analyzer.analyzeImpacts(entityChanges);
+        for (Map.Entry<ImpactAnalyzer.Impact, List<Change>> entry : entityImpacts.entrySet()) {
+            impacts.get(entry.getKey()).addAll(entry.getValue());
+        }
+        entityChanges = new Compare.DiffResults();
+        entityName = null;
+        List<Change> highImpactChanges = entityImpacts.get(ImpactAnalyzer.Impact.HIGH);
+        if (stopOnHighImpact && highImpactChanges != null && !highImpactChanges.isEmpty()) {
+            isStopped = true;
+        }
+        return !isStopped;
+    }
+
+    /**
+     * @return All analyzed changes sorted by impact (if comparison was stopped, only changes found before the first
+     * high impact change and changes of the same entity type).
+     */
+    public Map<ImpactAnalyzer.Impact, List<Change>> getImpacts() {
+        return Collections.unmodifiableMap(impacts);
+    }
+
+    /**
+     * @return <code>true</code> if at least one change has a {@link ImpactAnalyzer.Impact#HIGH high} impact.
+     */
+    public boolean hasHighImpact() {
+        return !impacts.get(ImpactAnalyzer.Impact.HIGH).isEmpty();
+    }
+
+    /**
+     * @return <code>true</code> if this consumer stopped the comparison (see constructor's <code>stopOnHighImpact</code>).
+     */
+    public boolean isStopped() {
+        return isStopped;
+    }
+}
@@ -0,0 +1,37 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata.compare;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A {@link StatisticsProvider} with statistics set by caller (e.g. statistics collected beforehand or tests).
+ */
+public class InMemoryStatisticsProvider implements StatisticsProvider {
+
+    private final Map<String, EntityStatistics> statistics = new ConcurrentHashMap<String, EntityStatistics>();
+
+    /**
+     * @param entityTypeName An entity type name.
+     * @param rowCount Number of records of the entity type.
+     * @param averageRecordSize Average size (in bytes) of a record.
+     */
+    public void setStatistics(String entityTypeName, long rowCount, long averageRecordSize) {
+        statistics.put(entityTypeName, new EntityStatistics(rowCount, averageRecordSize));
+    }
+
+    @Override
+    public EntityStatistics getStatistics(String entityTypeName) {
+        return statistics.get(entityTypeName);
+    }
+}
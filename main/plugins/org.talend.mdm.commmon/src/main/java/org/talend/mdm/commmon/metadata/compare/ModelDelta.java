@@ -0,0 +1,330 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata.compare;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.talend.mdm.commmon.metadata.MetadataFingerprints;
+import org.talend.mdm.commmon.metadata.MetadataRepository;
+import org.talend.mdm.commmon.metadata.MetadataVisitable;
+
+/**
+ * <p>
+ * A compact (binary, compressed) form of the differences between 2 versions of a data model, for cluster deployments
+ * (see {@link org.talend.mdm.commmon.util.core.MDMConfiguration#isClusterEnabled()}): the node that deploys a data
+ * model compares versions once and sends the delta along with the data model; other nodes re-use the differences
+ * instead of comparing again the data models (and may update their storage incrementally).
+ * </p>
+ * <p>
+ * A delta includes the {@link MetadataFingerprints#getRepositoryFingerprint() fingerprints} of both versions: a node
+ * can only {@link #apply(MetadataRepository, MetadataRepository) apply} a delta if its current data model is the
+ * previous version of the delta. Otherwise (e.g. node missed an update), node should fall back to a full reload of the
+ * data model.
+ * </p>
+ */
+public class ModelDelta {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ModelDelta.class);
+
+    private static final int MAGIC = 0x4d444d44; // "MDMD"
+
+    private static final byte VERSION = 1;
+
+    private static final byte ADD = 'A';
+
+    private static final byte REMOVE = 'R';
+
+    private static final byte MODIFY = 'M';
+
+    private final String previousFingerprint;
+
+    private final String currentFingerprint;
+
+    private final List<EncodedChange> changes;
+
+    private ModelDelta(String previousFingerprint, String currentFingerprint, List<EncodedChange> changes) {
+        this.previousFingerprint = previousFingerprint;
+        this.currentFingerprint = currentFingerprint;
+        this.changes = changes;
+    }
+
+    /**
+     * @param previous The previous version of the data model.
+     * @param current The new version of the data model.
+     * @param diff Differences between <code>previous</code> and <code>current</code> (as returned by
+     * {@link Compare#compare(MetadataRepository, MetadataRepository)}).
+     * @return The serialized delta.
+     * @throws IllegalArgumentException If one of the repositories was not loaded from a valid data model (no
+     * fingerprints).
+     */
+    public static byte[] write(MetadataRepository previous, MetadataRepository current, Compare.DiffResults diff) {
+        MetadataFingerprints previousFingerprints = previous.getFingerprints();
+        MetadataFingerprints currentFingerprints = current.getFingerprints();
+        if (previousFingerprints == null || currentFingerprints == null) {
+            throw new IllegalArgumentException("Delta requires fingerprints of both data models."); //$NON-NLS-1$
+        }
+        List<EncodedChange> changes = new ArrayList<EncodedChange>(diff.getActions().size());
+        for (Change change : diff.getActions()) {
+            EncodedChange encodedChange = encode(change, previous, current);
+            if (encodedChange == null) {
+                if (LOGGER.isDebugEnabled()) {
+                    LOGGER.debug("Change of '" + change.getElement() + "' can not be encoded in delta."); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+                // Receiving nodes will compare data models.
+                changes = null;
+                break;
+            }
+            changes.add(encodedChange);
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (DataOutputStream output = new DataOutputStream(new DeflaterOutputStream(bytes))) {
+            output.writeInt(MAGIC);
+            output.writeByte(VERSION);
+            output.writeUTF(previousFingerprints.getRepositoryFingerprint());
+            output.writeUTF(currentFingerprints.getRepositoryFingerprint());
+            output.writeInt(changes == null ? -1 : changes.size());
+            if (changes != null) {
+                for (EncodedChange change : changes) {
+                    change.write(output);
+                }
+            }
+        } catch (IOException e) {
+            throw new IllegalStateException("Unable to write data model delta.", e); //$NON-NLS-1$
+        }
+        return bytes.toByteArray();
+    }
+
+    /**
+     * @param delta A delta returned by {@link #write(MetadataRepository, MetadataRepository, Compare.DiffResults)}.
+     * @return The delta.
+     * @throws IllegalArgumentException If <code>delta</code> is not a valid data model delta.
+     */
+    public static ModelDelta read(byte[] delta) {
+        try (DataInputStream input = new DataInputStream(new InflaterInputStream(new ByteArrayInputStream(delta)))) {
+            if (input.readInt() != MAGIC || input.readByte() != VERSION) {
+                throw new IllegalArgumentException("Not a data model delta (or unsupported delta version)."); //$NON-NLS-1$
+            }
+            String previousFingerprint = input.readUTF();
+            String currentFingerprint = input.readUTF();
+            int size = input.readInt();
+            List<EncodedChange> changes = null;
+            if (size >= 0) {
+                changes = new ArrayList<EncodedChange>(size);
+                for (int i = 0; i < size; i++) {
+                    changes.add(EncodedChange.read(input));
+                }
+            }
+            return new ModelDelta(previousFingerprint, currentFingerprint, changes);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("Unable to read data model delta.", e); //$NON-NLS-1$
+        }
+    }
+
+    /**
+     * @return Fingerprint of the data model the delta applies to.
+     */
+    public String getPreviousFingerprint() {
+        return previousFingerprint;
+    }
+
+    /**
+     * @return Fingerprint of the data model once delta is applied.
+     */
+    public String getCurrentFingerprint() {
+        return currentFingerprint;
+    }
+
+    /**
+     * @param repository The data model currently deployed on a node.
+     * @return <code>true</code> if the delta can be applied to <code>repository</code>, <code>false</code> if node should
+     * do a full reload of the data model.
+     */
+    public boolean canApply(MetadataRepository repository) {
+        MetadataFingerprints fingerprints = repository.getFingerprints();
+        return changes != null && fingerprints != null && previousFingerprint.equals(fingerprints.getRepositoryFingerprint());
+    }
+
+    /**
+     * Rebuilds differences between <code>repository</code> and <code>updated</code> from this delta (no comparison
+     * of the data models).
+     *
+     * @param repository The data model currently deployed on a node.
+     * @param updated The new data model (must be the current version of this delta).
+     * @return The differences between the data models or <code>null</code> if delta can't be applied (node should do a
+     * full reload of the data model).
+     */
+    public Compare.DiffResults apply(MetadataRepository repository, MetadataRepository updated) {
+        MetadataFingerprints updatedFingerprints = updated.getFingerprints();
+        if (!canApply(repository) || updatedFingerprints == null
+                || !currentFingerprint.equals(updatedFingerprints.getRepositoryFingerprint())) {
+            return null;
+        }
+        Compare.DiffResults diffResults = new Compare.DiffResults();
+        for (EncodedChange encodedChange : changes) {
+            Change change = encodedChange.decode(repository, updated);
+            if (change == null) {
+                LOGGER.warn("Unable to apply data model delta (element '" + encodedChange.element + "' not found)."); //$NON-NLS-1$ //$NON-NLS-2$
+                return null;
+            }
+            diffResults.add(change);
+        }
+        return diffResults;
+    }
+
+    private static EncodedChange encode(Change change, MetadataRepository previous, MetadataRepository current) {
+        byte kind;
+        String element;
+        String currentElement = null;
+        if (change instanceof AddChange) {
+            kind = ADD;
+            element = ChangeLocator.toLocator(change.getElement(), current);
+        } else if (change instanceof RemoveChange) {
+            kind = REMOVE;
+            element = ChangeLocator.toLocator(change.getElement(), previous);
+        } else if (change instanceof ModifyChange) {
+            kind = MODIFY;
+            element = ChangeLocator.toLocator(change.getElement(), previous);
+            currentElement = ChangeLocator.toLocator(((ModifyChange) change).getCurrent(), current);
+            if (currentElement == null) {
+                return null;
+            }
+        } else {
+            return null;
+        }
+        if (element == null) {
+            return null;
+        }
+        Map<String, Object> data = new LinkedHashMap<String, Object>();
+        for (Map.Entry<String, Object> entry : change.getData().entrySet()) {
+            Object value = entry.getValue();
+            if (value instanceof Boolean || value instanceof Integer || value instanceof Long || value instanceof String) {
+                data.put(entry.getKey(), value);
+            }
+        }
+        return new EncodedChange(kind, element, currentElement, data);
+    }
+
+    private static class EncodedChange {
+
+        private final byte kind;
+
+        private final String element;
+
+        private final String currentElement;
+
+        private final Map<String, Object> data;
+
+        private EncodedChange(byte kind, String element, String currentElement, Map<String, Object> data) {
+            this.kind = kind;
+            this.element = element;
+            this.currentElement = currentElement;
+            this.data = data;
+        }
+
+        private void write(DataOutputStream output) throws IOException {
+            output.writeByte(kind);
+            output.writeUTF(element);
+            if (kind == MODIFY) {
+                output.writeUTF(currentElement);
+            }
+            output.writeShort(data.size());
+            for (Map.Entry<String, Object> entry : data.entrySet()) {
+                output.writeUTF(entry.getKey());
+                Object value = entry.getValue();
+                if (value instanceof Boolean) {
+                    output.writeByte('b');
+                    output.writeBoolean((Boolean) value);
+                } else if (value instanceof Integer) {
+                    output.writeByte('i');
+                    output.writeInt((Integer) value);
+                } else if (value instanceof Long) {
+                    output.writeByte('l');
+                    output.writeLong((Long) value);
+                } else {
+                    output.writeByte('s');
+                    output.writeUTF((String) value);
+                }
+            }
+        }
+
+        private static EncodedChange read(DataInputStream input) throws IOException {
+            byte kind = input.readByte();
+            String element = input.readUTF();
+            String currentElement = kind == MODIFY ? input.readUTF() : null;
+            int size = input.readShort();
+            Map<String, Object> data = size == 0 ? Collections.<String, Object> emptyMap()
+                    : new LinkedHashMap<String, Object>();
+            for (int i = 0; i < size; i++) {
+                String key = input.readUTF();
+                byte type = input.readByte();
+                switch (type) {
+                case 'b':
+                    data.put(key, input.readBoolean());
+                    break;
+                case 'i':
+                    data.put(key, input.readInt());
+                    break;
+                case 'l':
+                    data.put(key, input.readLong());
+                    break;
+                case 's':
+                    data.put(key, input.readUTF());
+                    break;
+                default:
+                    throw new IOException("Unexpected data type '" + (char) type + "'."); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+            }
+            return new EncodedChange(kind, element, currentElement, data);
+        }
+
+        private Change decode(MetadataRepository previous, MetadataRepository current) {
+            Change change;
+            switch (kind) {
+            case ADD:
+                MetadataVisitable addedElement = ChangeLocator.fromLocator(element, current);
+                change = addedElement == null ? null : new AddChange(addedElement);
+                break;
+            case REMOVE:
+                MetadataVisitable removedElement = ChangeLocator.fromLocator(element, previous);
+                change = removedElement == null ? null : new RemoveChange(removedElement);
+                break;
+            case MODIFY:
+                MetadataVisitable previousElement = ChangeLocator.fromLocator(element, previous);
+                MetadataVisitable modifiedElement = ChangeLocator.fromLocator(currentElement, current);
+                change = previousElement == null || modifiedElement == null ? null : new ModifyChange(previousElement,
+                        modifiedElement);
+                break;
+            default:
+                return null;
+            }
+            if (change != null) {
+                for (Map.Entry<String, Object> entry : data.entrySet()) {
+                    change.addData(entry.getKey(), entry.getValue());
+                }
+            }
+            return change;
+        }
+    }
+}
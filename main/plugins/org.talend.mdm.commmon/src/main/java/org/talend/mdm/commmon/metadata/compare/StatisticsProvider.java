@@ -0,0 +1,27 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata.compare;
+
+/**
+ * Provides data volume statistics for entity types (usually read from the underlying storage). Statistics are used
+ * by {@link CostBasedImpactAnalyzer} to estimate the cost of data model changes.
+ *
+ * @see InMemoryStatisticsProvider
+ */
+public interface StatisticsProvider {
+
+    /**
+     * @param entityTypeName An entity type name.
+     * @return Statistics for the entity type or <code>null</code> if no statistics are available for this type.
+     */
+    EntityStatistics getStatistics(String entityTypeName);
+}
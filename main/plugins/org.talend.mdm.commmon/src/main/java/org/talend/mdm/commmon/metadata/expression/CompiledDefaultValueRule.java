@@ -0,0 +1,180 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata.expression;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+
+import javax.xml.xpath.XPathConstants;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+import org.talend.mdm.commmon.metadata.FieldMetadata;
+import org.talend.mdm.commmon.metadata.MetadataRepository;
+import org.w3c.dom.Node;
+
+/**
+ * <p>
+ * A default value rule (X_Default_Value_Rule annotation) of a field, compiled once: literals (quoted strings, numbers,
+ * <code>fn:true()</code> and <code>fn:false()</code>) are kept as typed constants, other rules are compiled as XPath
+ * expressions.
+ *
+ * <pre>
+ * CompiledDefaultValueRule rule = CompiledDefaultValueRule.get(field);
+ * String value = rule.evaluate(record);
+ * </pre>
+ *
+ * </p>
+ * <p>
+ * Instances are thread safe. See {@link DefaultValueRules} to apply all default values of an entity to records.
+ * </p>
+ */
+public class CompiledDefaultValueRule {
+
+    private final String rule;
+
+    private final Object value;
+
+    private final String lexicalValue;
+
+    private final CompiledXPath expression;
+
+    private CompiledDefaultValueRule(String rule, Object value, String lexicalValue) {
+        this.rule = rule;
+        this.value = value;
+        this.lexicalValue = lexicalValue;
+        this.expression = null;
+    }
+
+    private CompiledDefaultValueRule(String rule, CompiledXPath expression) {
+        this.rule = rule;
+        this.value = null;
+        this.lexicalValue = null;
+        this.expression = expression;
+    }
+
+    /**
+     * @param field A field.
+     * @return Default value rule of <code>field</code> (compiled when field was loaded by a {@link MetadataRepository})
+     * or <code>null</code> if field has no default value rule.
+     * @throws IllegalArgumentException If default value rule of field can not be compiled.
+     */
+    public static CompiledDefaultValueRule get(FieldMetadata field) {
+        CompiledDefaultValueRule compiledRule = field.getData(MetadataRepository.COMPILED_DEFAULT_VALUE_RULE);
+        if (compiledRule != null) {
+            return compiledRule;
+        }
+        String rule = field.getData(MetadataRepository.DEFAULT_VALUE_RULE);
+        if (StringUtils.isBlank(rule)) {
+            return null;
+        }
+        return compile(rule);
+    }
+
+    /**
+     * @param rule A default value rule (e.g. <code>"John"</code>, <code>18</code>, <code>fn:true()</code> or
+     * <code>fn:current-date()</code>).
+     * @return The compiled rule.
+     * @throws IllegalArgumentException If <code>rule</code> is blank or is not a valid XPath expression.
+     */
+    public static CompiledDefaultValueRule compile(String rule) {
+        if (StringUtils.isBlank(rule)) {
+            throw new IllegalArgumentException("Default value rule can not be empty."); //$NON-NLS-1$
+        }
+        String text = rule.trim();
+        String literal = getStringLiteral(text);
+        if (literal != null) {
+            return new CompiledDefaultValueRule(text, literal, literal);
+        }
+        if (NumberUtils.isNumber(text)) {
+            return new CompiledDefaultValueRule(text, toNumber(text), text);
+        }
+        if (StringUtils.equalsIgnoreCase(text, MetadataRepository.FN_TRUE)) {
+            return new CompiledDefaultValueRule(text, Boolean.TRUE, Boolean.TRUE.toString());
+        }
+        if (StringUtils.equalsIgnoreCase(text, MetadataRepository.FN_FALSE)) {
+            return new CompiledDefaultValueRule(text, Boolean.FALSE, Boolean.FALSE.toString());
+        }
+        return new CompiledDefaultValueRule(text, new CompiledXPath(text));
+    }
+
+    // Returns content of a quoted string ('' or "" inside a literal stands for a quote), or null if text isn't one.
+    private static String getStringLiteral(String text) {
+        if (text.length() < 2) {
+            return null;
+        }
+        char quote = text.charAt(0);
+        if ((quote != '\'' && quote != '"') || text.charAt(text.length() - 1) != quote) {
+            return null;
+        }
+        String content = text.substring(1, text.length() - 1);
+        String doubledQuote = new String(new char[] { quote, quote });
+        if (content.replace(doubledQuote, StringUtils.EMPTY).indexOf(quote) >= 0) {
+            return null; // e.g. 'a' || 'b'
+        }
+        return content.replace(doubledQuote, String.valueOf(quote));
+    }
+
+    private static Number toNumber(String text) {
+        try {
+            BigDecimal decimal = new BigDecimal(text);
+            if (decimal.scale() <= 0 && text.indexOf('.') < 0 && text.indexOf('e') < 0 && text.indexOf('E') < 0) {
+                BigInteger integer = decimal.toBigIntegerExact();
+                return integer.bitLength() < 64 ? (Number) integer.longValue() : integer;
+            }
+            return decimal;
+        } catch (NumberFormatException e) {
+            // Java specific forms (e.g. 0x1F or 10L)
+            return NumberUtils.createNumber(text);
+        }
+    }
+
+    /**
+     * @return The rule (as declared in data model).
+     */
+    public String getRule() {
+        return rule;
+    }
+
+    /**
+     * @return <code>true</code> if rule is a literal (value does not depend on records nor time).
+     */
+    public boolean isConstant() {
+        return expression == null;
+    }
+
+    /**
+     * @return For a {@link #isConstant() constant} rule, the value as a {@link String}, a {@link Number} (a
+     * {@link Long}, a {@link BigInteger} or a {@link BigDecimal}) or a {@link Boolean}. <code>null</code> if rule is an
+     * expression.
+     */
+    public Object getValue() {
+        return value;
+    }
+
+    /**
+     * @param record The record the default value is computed for (expressions are evaluated with the record root
+     * element as context node), or <code>null</code>.
+     * @return The default value (as it should be written in the record).
+     */
+    public String evaluate(Node record) {
+        if (expression == null) {
+            return lexicalValue;
+        }
+        return (String) expression.evaluate(record, XPathConstants.STRING);
+    }
+
+    @Override
+    public String toString() {
+        return rule;
+    }
+}
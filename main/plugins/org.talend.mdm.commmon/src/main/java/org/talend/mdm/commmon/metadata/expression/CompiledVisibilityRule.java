@@ -0,0 +1,152 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata.expression;
+
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.xml.xpath.XPathConstants;
+
+import org.apache.commons.lang.StringUtils;
+import org.talend.mdm.commmon.metadata.FieldMetadata;
+import org.talend.mdm.commmon.metadata.MetadataRepository;
+import org.w3c.dom.Document;
+import org.w3c.dom.Node;
+
+/**
+ * <p>
+ * A visibility rule (X_Visible_Rule annotation) of a field, compiled once as a boolean XPath expression. Rules are
+ * evaluated with the record document as context node (rules use paths such as <code>Person/Name</code>).
+ * </p>
+ * <p>
+ * Instances are thread safe, and identical rules share the same instance (compiled rules are cached). See
+ * {@link VisibilityRules} to evaluate visibility of all fields of an entity.
+ * </p>
+ */
+public class CompiledVisibilityRule {
+
+    /**
+     * Rule of a field whose visibility rule could not be compiled when it was loaded (a warning was logged then): field
+     * is always hidden, and {@link #get(FieldMetadata)} returns this rule without compiling it again.
+     */
+    public static final CompiledVisibilityRule INVALID = new CompiledVisibilityRule();
+
+    private static final int MAX_CACHE_SIZE = 1024;
+
+    private static final ConcurrentMap<String, CompiledVisibilityRule> CACHE = new ConcurrentHashMap<String, CompiledVisibilityRule>();
+
+    private final String rule;
+
+    private final Boolean value;
+
+    private final CompiledXPath expression;
+
+    private CompiledVisibilityRule() {
+        rule = null;
+        value = Boolean.FALSE;
+        expression = null;
+    }
+
+    private CompiledVisibilityRule(String rule) {
+        this.rule = rule;
+        if (StringUtils.equalsIgnoreCase(rule, MetadataRepository.FN_TRUE)) {
+            value = Boolean.TRUE;
+            expression = null;
+        } else if (StringUtils.equalsIgnoreCase(rule, MetadataRepository.FN_FALSE)) {
+            value = Boolean.FALSE;
+            expression = null;
+        } else {
+            value = null;
+            expression = new CompiledXPath(rule);
+        }
+    }
+
+    /**
+     * @param field A field.
+     * @return Visibility rule of <code>field</code> (compiled when field was loaded by a {@link MetadataRepository}) or
+     * <code>null</code> if field has no visibility rule. Returns {@link #INVALID} if its rule could not be compiled when
+     * field was loaded.
+     * @throws IllegalArgumentException If visibility rule of field can not be compiled.
+     */
+    public static CompiledVisibilityRule get(FieldMetadata field) {
+        CompiledVisibilityRule compiledRule = field.getData(MetadataRepository.COMPILED_VISIBILITY_RULE);
+        if (compiledRule != null) {
+            return compiledRule;
+        }
+        if (StringUtils.isBlank(field.getVisibilityRule())) {
+            return null;
+        }
+        return compile(field.getVisibilityRule());
+    }
+
+    /**
+     * @param rule A visibility rule (e.g. <code>Person/Name != "x"</code>).
+     * @return The compiled rule.
+     * @throws IllegalArgumentException If <code>rule</code> is blank or is not a valid XPath expression.
+     */
+    public static CompiledVisibilityRule compile(String rule) {
+        if (StringUtils.isBlank(rule)) {
+            throw new IllegalArgumentException("Visibility rule can not be empty."); //$NON-NLS-1$
+        }
+        String text = rule.trim();
+        CompiledVisibilityRule compiledRule = CACHE.get(text);
+        if (compiledRule == null) {
+            compiledRule = new CompiledVisibilityRule(text);
+            if (CACHE.size() >= MAX_CACHE_SIZE) {
+                CACHE.clear();
+            }
+            CompiledVisibilityRule previous = CACHE.putIfAbsent(text, compiledRule);
+            if (previous != null) {
+                compiledRule = previous;
+            }
+        }
+        return compiledRule;
+    }
+
+    /**
+     * @return The rule (as declared in data model).
+     */
+    public String getRule() {
+        return rule;
+    }
+
+    /**
+     * @return <code>true</code> if rule does not depend on records (<code>fn:true()</code> or <code>fn:false()</code>).
+     */
+    public boolean isConstant() {
+        return expression == null;
+    }
+
+    /**
+     * @param record A record (a {@link Document}, or the record root element of a document).
+     * @return <code>true</code> if field is visible for <code>record</code>.
+     */
+    public boolean isVisible(Node record) {
+        if (expression == null) {
+            return value;
+        }
+        return (Boolean) expression.evaluate(getContext(record), XPathConstants.BOOLEAN);
+    }
+
+    // Rules start with the entity name: context node is the parent (document) of the record root element.
+    static Node getContext(Node record) {
+        if (record instanceof Document || record == null || record.getParentNode() == null) {
+            return record;
+        }
+        return record.getParentNode();
+    }
+
+    @Override
+    public String toString() {
+        return rule;
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata.expression;
+
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+
+import org.w3c.dom.Node;
+
+/**
+ * An XPath expression checked once and compiled once per thread (JAXP expressions can not be shared between threads).
+ */
+class CompiledXPath {
+
+    // Expressions of the current thread, by instance (weak keys: expressions are released with their instance).
+    private static final ThreadLocal<Map<CompiledXPath, XPathExpression>> EXPRESSIONS =
+            new ThreadLocal<Map<CompiledXPath, XPathExpression>>() {
+
+        @Override
+        protected Map<CompiledXPath, XPathExpression> initialValue() {
+            return new WeakHashMap<CompiledXPath, XPathExpression>();
+        }
+    };
+
+    private final String source;
+
+    // Source with the prefix of core functions removed
+    private final String resolvedSource;
+
+    /**
+     * @param source An XPath expression (functions of the <code>fn</code> namespace are supported).
+     * @throws IllegalArgumentException If <code>source</code> is not a valid expression.
+     */
+    CompiledXPath(String source) {
+        this.source = source;
+        this.resolvedSource = XPathFunctions.resolveFunctions(source);
+        EXPRESSIONS.get().put(this, compile());
+    }
+
+    private XPathExpression compile() {
+        try {
+            return XPathFunctions.newXPath().compile(resolvedSource);
+        } catch (XPathExpressionException e) {
+            throw new IllegalArgumentException("Invalid XPath expression '" + source + "'.", e); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    /**
+     * @param node Context node of the evaluation (or <code>null</code> for an expression with no context).
+     * @param returnType One of {@link javax.xml.xpath.XPathConstants} types.
+     * @return Result of the evaluation.
+     */
+    Object evaluate(Node node, QName returnType) {
+        Map<CompiledXPath, XPathExpression> expressions = EXPRESSIONS.get();
+        XPathExpression current = expressions.get(this);
+        if (current == null) {
+            current = compile();
+            expressions.put(this, current);
+        }
+        try {
+            return current.evaluate(node, returnType);
+        } catch (XPathExpressionException e) {
+            throw new RuntimeException("Could not evaluate expression '" + source + "'.", e); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    String getSource() {
+        return source;
+    }
+
+    @Override
+    public String toString() {
+        return source;
+    }
+}
@@ -0,0 +1,259 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata.expression;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.talend.mdm.commmon.metadata.ComplexTypeMetadata;
+import org.talend.mdm.commmon.metadata.ContainedTypeFieldMetadata;
+import org.talend.mdm.commmon.metadata.FieldMetadata;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * <p>
+ * Default value rules of all fields of an entity (fields of non repeatable contained types included), to fill default
+ * values in new records:
+ *
+ * <pre>
+ * DefaultValueRules rules = DefaultValueRules.get(type);
+ * rules.apply(records);
+ * </pre>
+ *
+ * </p>
+ * <p>
+ * A default value is set when a field has no element in record, or when its element is empty (missing elements are
+ * created in the order of the fields in the type). Rules are looked up in type once: keep the instance to fill several
+ * batches of records. Instances are thread safe (records must not be shared between threads).
+ * </p>
+ */
+public class DefaultValueRules {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(DefaultValueRules.class);
+
+    private final ComplexTypeMetadata type;
+
+    private final List<Entry> entries;
+
+    private DefaultValueRules(ComplexTypeMetadata type, List<Entry> entries) {
+        this.type = type;
+        this.entries = entries;
+    }
+
+    /**
+     * @param type An entity type.
+     * @return Default value rules of the fields of <code>type</code>.
+     */
+    public static DefaultValueRules get(ComplexTypeMetadata type) {
+        if (type == null) {
+            throw new IllegalArgumentException("Type can not be null."); //$NON-NLS-1$
+        }
+        List<Entry> entries = new ArrayList<Entry>();
+        collect(type, new Step[0], Collections.<String> emptySet(), new HashMap<ComplexTypeMetadata, Map<String, Integer>>(),
+                entries);
+        return new DefaultValueRules(type, entries);
+    }
+
+    private static void collect(ComplexTypeMetadata type, Step[] path, Set<String> containingTypes,
+            Map<ComplexTypeMetadata, Map<String, Integer>> fieldIndexes, List<Entry> entries) {
+        Map<String, Integer> indexes = fieldIndexes.get(type);
+        if (indexes == null) {
+            indexes = new HashMap<String, Integer>();
+            for (FieldMetadata field : type.getFields()) {
+                if (!indexes.containsKey(field.getName())) {
+                    indexes.put(field.getName(), indexes.size());
+                }
+            }
+            fieldIndexes.put(type, indexes);
+        }
+        for (FieldMetadata field : type.getFields()) {
+            Step[] fieldPath = new Step[path.length + 1];
+            System.arraycopy(path, 0, fieldPath, 0, path.length);
+            fieldPath[path.length] = new Step(field.getName(), indexes.get(field.getName()), indexes);
+            if (field instanceof ContainedTypeFieldMetadata) {
+                ComplexTypeMetadata containedType = ((ContainedTypeFieldMetadata) field).getContainedType();
+                // Default values of repeatable elements can't be set on new records (and recursive types are skipped).
+                if (!field.isMany() && !containingTypes.contains(containedType.getName())) {
+                    Set<String> fieldContainingTypes = new HashSet<String>(containingTypes);
+                    fieldContainingTypes.add(containedType.getName());
+                    collect(containedType, fieldPath, fieldContainingTypes, fieldIndexes, entries);
+                }
+            } else {
+                CompiledDefaultValueRule rule;
+                try {
+                    rule = CompiledDefaultValueRule.get(field);
+                } catch (IllegalArgumentException e) {
+                    LOGGER.warn("Ignoring default value rule of field '" + field.getPath() + "': " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+                    continue;
+                }
+                if (rule != null) {
+                    entries.add(new Entry(field, rule, fieldPath));
+                }
+            }
+        }
+    }
+
+    /**
+     * @return The entity type.
+     */
+    public ComplexTypeMetadata getType() {
+        return type;
+    }
+
+    /**
+     * @return <code>true</code> if no field of the type has a default value rule.
+     */
+    public boolean isEmpty() {
+        return entries.isEmpty();
+    }
+
+    /**
+     * @return Fields with a default value rule, and their rule (in the order of the fields in type).
+     */
+    public Map<FieldMetadata, CompiledDefaultValueRule> getRules() {
+        Map<FieldMetadata, CompiledDefaultValueRule> rules = new LinkedHashMap<FieldMetadata, CompiledDefaultValueRule>();
+        for (Entry entry : entries) {
+            rules.put(entry.field, entry.rule);
+        }
+        return rules;
+    }
+
+    /**
+     * Sets default values in a batch of records.
+     *
+     * @param records Records (documents or record root elements).
+     * @return Number of values set.
+     */
+    public int apply(List<? extends Node> records) {
+        int count = 0;
+        if (entries.isEmpty()) {
+            return count;
+        }
+        for (Node record : records) {
+            count += apply(record);
+        }
+        return count;
+    }
+
+    /**
+     * Sets default values in a record.
+     *
+     * @param record A record (a document or the record root element).
+     * @return Number of values set.
+     */
+    public int apply(Node record) {
+        Element root = record instanceof Document ? ((Document) record).getDocumentElement() : (Element) record;
+        int count = 0;
+        for (Entry entry : entries) {
+            if (entry.apply(root)) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    private static Element getChild(Element parent, String name) {
+        for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE && name.equals(child.getNodeName())) {
+                return (Element) child;
+            }
+        }
+        return null;
+    }
+
+    private static boolean isEmpty(Element element) {
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE || !child.getTextContent().trim().isEmpty()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private static class Step {
+
+        private final String name;
+
+        private final int index;
+
+        // Index of each field of the containing type (elements are inserted in field order)
+        private final Map<String, Integer> fieldIndexes;
+
+        private Step(String name, int index, Map<String, Integer> fieldIndexes) {
+            this.name = name;
+            this.index = index;
+            this.fieldIndexes = fieldIndexes;
+        }
+
+        private Element create(Element parent) {
+            Element element = parent.getOwnerDocument().createElement(name);
+            for (Node child = parent.getFirstChild(); child != null; child = child.getNextSibling()) {
+                if (child.getNodeType() == Node.ELEMENT_NODE) {
+                    Integer childIndex = fieldIndexes.get(child.getNodeName());
+                    if (childIndex != null && childIndex > index) {
+                        return (Element) parent.insertBefore(element, child);
+                    }
+                }
+            }
+            return (Element) parent.appendChild(element);
+        }
+    }
+
+    private static class Entry {
+
+        private final FieldMetadata field;
+
+        private final CompiledDefaultValueRule rule;
+
+        private final Step[] path;
+
+        private Entry(FieldMetadata field, CompiledDefaultValueRule rule, Step[] path) {
+            this.field = field;
+            this.rule = rule;
+            this.path = path;
+        }
+
+        private boolean apply(Element root) {
+            Element parent = root;
+            int last = path.length - 1;
+            // Don't create containers when field already has a value.
+            for (int i = 0; i < last && parent != null; i++) {
+                parent = getChild(parent, path[i].name);
+            }
+            Element element = parent == null ? null : getChild(parent, path[last].name);
+            if (element != null && !isEmpty(element)) {
+                return false;
+            }
+            String value = rule.evaluate(root);
+            if (element == null) {
+                parent = root;
+                for (int i = 0; i < last; i++) {
+                    Element child = getChild(parent, path[i].name);
+                    parent = child == null ? path[i].create(parent) : child;
+                }
+                element = path[last].create(parent);
+            }
+            element.setTextContent(value);
+            return true;
+        }
+    }
+}
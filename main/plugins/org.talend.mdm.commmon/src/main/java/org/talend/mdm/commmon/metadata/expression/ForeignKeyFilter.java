@@ -0,0 +1,655 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata.expression;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+import org.apache.commons.lang.StringUtils;
+import org.apache.commons.lang.math.NumberUtils;
+import org.talend.mdm.commmon.metadata.ComplexTypeMetadata;
+import org.talend.mdm.commmon.metadata.FieldMetadata;
+import org.talend.mdm.commmon.metadata.MetadataRepository;
+import org.talend.mdm.commmon.metadata.ReferenceFieldMetadata;
+import org.talend.mdm.commmon.metadata.TypeMetadata;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+
+/**
+ * <p>
+ * A foreign key filter (X_ForeignKey_Filter annotation) parsed once. A filter is a list of conditions separated by
+ * <code>#</code>, each condition being <code>path$$operator$$value$$predicate</code>:
+ * <ul>
+ * <li><code>path</code> is a field of the referenced type (e.g. <code>City/Country</code>).</li>
+ * <li><code>operator</code> is one of {@link Operator} (e.g. <code>=</code> or <code>Contains</code>).</li>
+ * <li><code>value</code> is a literal (<code>"FR"</code> or <code>10</code>) or a reference to a field of the record
+ * that contains the foreign key (e.g. <code>Person/Country</code>).</li>
+ * <li><code>predicate</code> joins the condition to the next one: <code>Or</code>, <code>And</code> (default) or
+ * <code>Not</code> (condition is negated, and joined with <code>And</code>).</li>
+ * </ul>
+ * <code>And</code> takes precedence over <code>Or</code>: a filter is a disjunction of
+ * {@link #getConjunctions() conjunctions} (which can be translated as is to storage queries). Filters starting with
+ * {@link #CUSTOM_FILTER_PREFIX} are custom filters and are not parsed.
+ * </p>
+ * <p>
+ * Filters of reference fields are parsed when data model is loaded and paths are resolved against the referenced type
+ * (see {@link #get(ReferenceFieldMetadata)}). Resolved filters can check candidate records in memory:
+ *
+ * <pre>
+ * ForeignKeyFilter filter = ForeignKeyFilter.get(field);
+ * List&lt;Document&gt; accepted = filter.filter(candidates, record);
+ * </pre>
+ *
+ * </p>
+ * <p>
+ * Instances are immutable and thread safe.
+ * </p>
+ */
+public class ForeignKeyFilter {
+
+    public static final String CUSTOM_FILTER_PREFIX = "$CFFP:"; //$NON-NLS-1$
+
+    private static final String CONDITION_SEPARATOR = "#"; //$NON-NLS-1$
+
+    private static final String PART_SEPARATOR = "$$"; //$NON-NLS-1$
+
+    private final String filter;
+
+    private final List<Condition> conditions;
+
+    private final List<List<Condition>> conjunctions;
+
+    private final ComplexTypeMetadata referencedType;
+
+    private ForeignKeyFilter(String filter, List<Condition> conditions, ComplexTypeMetadata referencedType) {
+        this.filter = filter;
+        this.conditions = Collections.unmodifiableList(conditions);
+        this.referencedType = referencedType;
+        List<List<Condition>> groups = new ArrayList<List<Condition>>();
+        List<Condition> group = new ArrayList<Condition>();
+        for (Condition condition : conditions) {
+            group.add(condition);
+            if (condition.predicate == Predicate.OR) {
+                groups.add(Collections.unmodifiableList(group));
+                group = new ArrayList<Condition>();
+            }
+        }
+        if (!group.isEmpty()) {
+            groups.add(Collections.unmodifiableList(group));
+        }
+        this.conjunctions = Collections.unmodifiableList(groups);
+    }
+
+    /**
+     * @param field A reference field.
+     * @return Filter of <code>field</code> resolved against its referenced type (parsed and resolved when field was
+     * loaded by a {@link MetadataRepository}) or <code>null</code> if field has no filter.
+     * @throws IllegalArgumentException If filter of field can not be parsed or resolved.
+     */
+    public static ForeignKeyFilter get(ReferenceFieldMetadata field) {
+        ForeignKeyFilter filter = field.getData(MetadataRepository.COMPILED_FOREIGN_KEY_FILTER);
+        if (filter == null) {
+            if (StringUtils.isBlank(field.getForeignKeyFilter())) {
+                return null;
+            }
+            filter = parse(field.getForeignKeyFilter());
+        }
+        if (filter.isResolved()) {
+            return filter;
+        }
+        ComplexTypeMetadata containingType = field.getContainingType();
+        return filter.resolve(field.getReferencedType(), containingType == null ? null : containingType.getEntity());
+    }
+
+    /**
+     * @param filter A foreign key filter (e.g. <code>City/Country$$=$$"FR"$$#</code>).
+     * @return The parsed (not {@link #isResolved() resolved}) filter.
+     * @throws IllegalArgumentException If filter is blank or a condition can not be parsed.
+     */
+    public static ForeignKeyFilter parse(String filter) {
+        if (StringUtils.isBlank(filter)) {
+            throw new IllegalArgumentException("Foreign key filter can not be empty."); //$NON-NLS-1$
+        }
+        String text = filter.trim();
+        if (text.startsWith(CUSTOM_FILTER_PREFIX)) {
+            return new ForeignKeyFilter(text, Collections.<Condition> emptyList(), null);
+        }
+        List<Condition> conditions = new ArrayList<Condition>();
+        for (String condition : split(text, CONDITION_SEPARATOR)) {
+            if (StringUtils.isNotBlank(condition)) {
+                conditions.add(Condition.parse(condition.trim()));
+            }
+        }
+        return new ForeignKeyFilter(text, conditions, null);
+    }
+
+    /**
+     * @param referencedType The type referenced by the foreign key.
+     * @param referencingType The entity that contains the foreign key (used to resolve references to fields in values,
+     * may be <code>null</code>).
+     * @return A new filter with paths of conditions resolved.
+     * @throws IllegalArgumentException If a path of a condition is not a field of <code>referencedType</code>.
+     */
+    public ForeignKeyFilter resolve(ComplexTypeMetadata referencedType, ComplexTypeMetadata referencingType) {
+        if (referencedType == null) {
+            throw new IllegalArgumentException("Referenced type can not be null."); //$NON-NLS-1$
+        }
+        List<Condition> resolvedConditions = new ArrayList<Condition>(conditions.size());
+        for (Condition condition : conditions) {
+            resolvedConditions.add(condition.resolve(referencedType, referencingType));
+        }
+        return new ForeignKeyFilter(filter, resolvedConditions, referencedType);
+    }
+
+    // Splits text on separator (separators in quoted strings are ignored).
+    private static List<String> split(String text, String separator) {
+        List<String> parts = new ArrayList<String>();
+        char quote = 0;
+        int start = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (text.startsWith(separator, i)) {
+                parts.add(text.substring(start, i));
+                start = i + separator.length();
+                i = start - 1;
+            }
+        }
+        parts.add(text.substring(start));
+        return parts;
+    }
+
+    /**
+     * @return The filter (as declared in data model).
+     */
+    public String getFilter() {
+        return filter;
+    }
+
+    /**
+     * @return <code>true</code> if this is a custom filter (starts with {@link #CUSTOM_FILTER_PREFIX}).
+     */
+    public boolean isCustom() {
+        return filter.startsWith(CUSTOM_FILTER_PREFIX);
+    }
+
+    /**
+     * @return For a custom filter, the filter without {@link #CUSTOM_FILTER_PREFIX}, <code>null</code> otherwise.
+     */
+    public String getCustomFilter() {
+        return isCustom() ? filter.substring(CUSTOM_FILTER_PREFIX.length()) : null;
+    }
+
+    /**
+     * @return <code>true</code> if paths of conditions were resolved against the referenced type.
+     */
+    public boolean isResolved() {
+        return referencedType != null || isCustom();
+    }
+
+    /**
+     * @return The referenced type conditions were resolved against (<code>null</code> if filter is not resolved).
+     */
+    public ComplexTypeMetadata getReferencedType() {
+        return referencedType;
+    }
+
+    /**
+     * @return All conditions (in declaration order).
+     */
+    public List<Condition> getConditions() {
+        return conditions;
+    }
+
+    /**
+     * @return Groups of conditions joined with <code>And</code>: filter accepts a record if all conditions of a group
+     * accept it.
+     */
+    public List<List<Condition>> getConjunctions() {
+        return conjunctions;
+    }
+
+    /**
+     * @param candidate A record of the referenced type (a document or the record root element).
+     * @param record The record that contains the foreign key (for conditions with field references as value), or
+     * <code>null</code>.
+     * @return <code>true</code> if filter accepts <code>candidate</code>.
+     * @throws UnsupportedOperationException If this filter is a custom filter.
+     * @throws IllegalStateException If this filter is not {@link #isResolved() resolved}.
+     */
+    public boolean evaluate(Node candidate, Node record) {
+        if (isCustom()) {
+            throw new UnsupportedOperationException("Custom filters can not be evaluated in memory."); //$NON-NLS-1$
+        }
+        if (!isResolved()) {
+            throw new IllegalStateException("Filter '" + filter + "' is not resolved."); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+        if (conjunctions.isEmpty()) {
+            return true;
+        }
+        Element candidateRoot = getRoot(candidate);
+        Element recordRoot = record == null ? null : getRoot(record);
+        for (List<Condition> conjunction : conjunctions) {
+            boolean isAccepted = true;
+            for (Condition condition : conjunction) {
+                if (!condition.evaluate(candidateRoot, recordRoot)) {
+                    isAccepted = false;
+                    break;
+                }
+            }
+            if (isAccepted) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * @param candidates Records of the referenced type (documents or record root elements).
+     * @param record The record that contains the foreign key, or <code>null</code>.
+     * @return Candidates accepted by this filter (in the same order as <code>candidates</code>).
+     * @throws UnsupportedOperationException If this filter is a custom filter.
+     * @throws IllegalStateException If this filter is not {@link #isResolved() resolved}.
+     */
+    public <T extends Node> List<T> filter(List<T> candidates, Node record) {
+        List<T> accepted = new ArrayList<T>(candidates.size());
+        for (T candidate : candidates) {
+            if (evaluate(candidate, record)) {
+                accepted.add(candidate);
+            }
+        }
+        return accepted;
+    }
+
+    private static Element getRoot(Node node) {
+        return node instanceof Document ? ((Document) node).getDocumentElement() : (Element) node;
+    }
+
+    // Values of the elements at path (path is relative to root).
+    private static void collectValues(Element element, String[] path, int index, List<String> values) {
+        if (index == path.length) {
+            values.add(element.getTextContent());
+            return;
+        }
+        for (Node child = element.getFirstChild(); child != null; child = child.getNextSibling()) {
+            if (child.getNodeType() == Node.ELEMENT_NODE && path[index].equals(child.getNodeName())) {
+                collectValues((Element) child, path, index + 1, values);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return filter;
+    }
+
+    /**
+     * Operators of conditions (the label is the operator as written in filters).
+     */
+    public enum Operator {
+        EQUALS("="), //$NON-NLS-1$
+        NOT_EQUALS("!="), //$NON-NLS-1$
+        GREATER_THAN(">"), //$NON-NLS-1$
+        GREATER_THAN_OR_EQUAL(">="), //$NON-NLS-1$
+        LOWER_THAN("<"), //$NON-NLS-1$
+        LOWER_THAN_OR_EQUAL("<="), //$NON-NLS-1$
+        CONTAINS("Contains"), //$NON-NLS-1$
+        STRICT_CONTAINS("Strict Contains"), //$NON-NLS-1$
+        STARTS_WITH("Starts With"), //$NON-NLS-1$
+        CONTAINS_TEXT_OF("Contains Text Of"), //$NON-NLS-1$
+        JOINS("Joins With"), //$NON-NLS-1$
+        FULL_TEXT_SEARCH("Full Text Search"), //$NON-NLS-1$
+        EMPTY_NULL("Is Empty Or Null"); //$NON-NLS-1$
+
+        private final String label;
+
+        Operator(String label) {
+            this.label = label;
+        }
+
+        public String getLabel() {
+            return label;
+        }
+
+        /**
+         * @param operator An operator label (e.g. "Starts With") or name (e.g. "STARTSWITH"), case is ignored.
+         * @return The operator.
+         * @throws IllegalArgumentException If <code>operator</code> is not supported.
+         */
+        public static Operator parse(String operator) {
+            String normalized = normalize(operator);
+            for (Operator value : values()) {
+                if (normalize(value.label).equals(normalized) || normalize(value.name()).equals(normalized)) {
+                    return value;
+                }
+            }
+            throw new IllegalArgumentException("Operator '" + operator + "' is not supported."); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+
+        private static String normalize(String operator) {
+            return StringUtils.remove(StringUtils.deleteWhitespace(operator), '_').toUpperCase(Locale.ENGLISH);
+        }
+    }
+
+    /**
+     * Predicates that join a condition to the next one.
+     */
+    public enum Predicate {
+        AND,
+        OR,
+        /**
+         * Condition is negated (and joined to the next one with {@link #AND}).
+         */
+        NOT;
+
+        /**
+         * @param predicate A predicate ("And", "Or", "Not"; empty, "None", "Strict And" and "Exactly" join with
+         * <code>And</code>), case is ignored.
+         * @return The predicate.
+         * @throws IllegalArgumentException If <code>predicate</code> is not supported.
+         */
+        public static Predicate parse(String predicate) {
+            String normalized = StringUtils.deleteWhitespace(StringUtils.defaultString(predicate)).toUpperCase(Locale.ENGLISH);
+            if (normalized.isEmpty() || "AND".equals(normalized) || "NONE".equals(normalized) //$NON-NLS-1$ //$NON-NLS-2$
+                    || "STRICTAND".equals(normalized) || "EXACTLY".equals(normalized)) { //$NON-NLS-1$ //$NON-NLS-2$
+                return AND;
+            } else if ("OR".equals(normalized)) { //$NON-NLS-1$
+                return OR;
+            } else if ("NOT".equals(normalized)) { //$NON-NLS-1$
+                return NOT;
+            }
+            throw new IllegalArgumentException("Predicate '" + predicate + "' is not supported."); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+    }
+
+    /**
+     * A condition of a filter.
+     */
+    public static class Condition {
+
+        private final String path;
+
+        private final Operator operator;
+
+        private final String value;
+
+        private final String valueReference;
+
+        private final Predicate predicate;
+
+        private final FieldMetadata field;
+
+        private final FieldMetadata valueReferenceField;
+
+        // Path of field in referenced type / of referenced value in record (element names, root element excluded)
+        private final String[] fieldPath;
+
+        private final String[] valueReferencePath;
+
+        private final BigDecimal numericValue;
+
+        private Condition(String path, Operator operator, String value, String valueReference, Predicate predicate,
+                FieldMetadata field, String[] fieldPath, FieldMetadata valueReferenceField, String[] valueReferencePath) {
+            this.path = path;
+            this.operator = operator;
+            this.value = value;
+            this.valueReference = valueReference;
+            this.predicate = predicate;
+            this.field = field;
+            this.fieldPath = fieldPath;
+            this.valueReferenceField = valueReferenceField;
+            this.valueReferencePath = valueReferencePath;
+            this.numericValue = toNumber(value);
+        }
+
+        private static Condition parse(String condition) {
+            List<String> parts = split(condition, PART_SEPARATOR);
+            if (parts.size() < 2 || StringUtils.isBlank(parts.get(0))) {
+                throw new IllegalArgumentException("Condition '" + condition + "' is not a valid foreign key filter condition."); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+            String path = parts.get(0).trim();
+            Operator operator = Operator.parse(parts.get(1));
+            String value = parts.size() > 2 ? parts.get(2).trim() : StringUtils.EMPTY;
+            Predicate predicate = Predicate.parse(parts.size() > 3 ? parts.get(3) : null);
+            String valueReference = null;
+            if (value.length() >= 2 && (value.charAt(0) == '"' || value.charAt(0) == '\'')
+                    && value.charAt(value.length() - 1) == value.charAt(0)) {
+                value = value.substring(1, value.length() - 1);
+            } else if (!value.isEmpty() && !NumberUtils.isNumber(value) && !value.startsWith("[")) { //$NON-NLS-1$
+                // Not a literal: a field of the record that contains the foreign key.
+                valueReference = value;
+                value = null;
+            }
+            String[] fieldPath = StringUtils.split(path, '/');
+            if (fieldPath.length == 0) {
+                throw new IllegalArgumentException("Path '" + path + "' of condition '" + condition //$NON-NLS-1$ //$NON-NLS-2$
+                        + "' is not a valid field path."); //$NON-NLS-1$
+            }
+            String[] valueReferencePath = valueReference == null ? null : StringUtils.split(valueReference, '/');
+            if (valueReferencePath != null && valueReferencePath.length == 0) {
+                throw new IllegalArgumentException("Value '" + valueReference + "' of condition '" + condition //$NON-NLS-1$ //$NON-NLS-2$
+                        + "' is not a valid field path."); //$NON-NLS-1$
+            }
+            return new Condition(path, operator, value, valueReference, predicate, null, fieldPath, null,
+                    valueReferencePath);
+        }
+
+        private Condition resolve(ComplexTypeMetadata referencedType, ComplexTypeMetadata referencingType) {
+            String[] segments = StringUtils.split(path, '/');
+            ComplexTypeMetadata type = referencedType;
+            int start = 0;
+            ComplexTypeMetadata namedType = getType(referencedType, segments[0]);
+            if (namedType != null) {
+                type = namedType;
+                start = 1;
+            }
+            if (start == segments.length) {
+                throw new IllegalArgumentException("Path '" + path + "' of filter does not select a field of type '" //$NON-NLS-1$ //$NON-NLS-2$
+                        + referencedType.getName() + "'."); //$NON-NLS-1$
+            }
+            String[] resolvedFieldPath = new String[segments.length - start];
+            System.arraycopy(segments, start, resolvedFieldPath, 0, resolvedFieldPath.length);
+            FieldMetadata resolvedField = type.getField(StringUtils.join(resolvedFieldPath, '/'));
+            FieldMetadata resolvedValueReferenceField = null;
+            String[] resolvedValueReferencePath = valueReferencePath;
+            if (valueReference != null && referencingType != null) {
+                String[] referenceSegments = StringUtils.split(valueReference, '/');
+                int referenceStart = referenceSegments[0].equals(referencingType.getName()) ? 1 : 0;
+                if (referenceStart < referenceSegments.length) {
+                    resolvedValueReferencePath = new String[referenceSegments.length - referenceStart];
+                    System.arraycopy(referenceSegments, referenceStart, resolvedValueReferencePath, 0,
+                            resolvedValueReferencePath.length);
+                    String referencePath = StringUtils.join(resolvedValueReferencePath, '/');
+                    if (referencingType.hasField(referencePath)) {
+                        resolvedValueReferenceField = referencingType.getField(referencePath);
+                    }
+                }
+            }
+            return new Condition(path, operator, value, valueReference, predicate, resolvedField, resolvedFieldPath,
+                    resolvedValueReferenceField, resolvedValueReferencePath);
+        }
+
+        // Returns the referenced type (or one of its sub/super types) named name.
+        private static ComplexTypeMetadata getType(ComplexTypeMetadata referencedType, String name) {
+            if (referencedType.getName().equals(name)) {
+                return referencedType;
+            }
+            for (ComplexTypeMetadata subType : referencedType.getSubTypes()) {
+                if (subType.getName().equals(name)) {
+                    return subType;
+                }
+            }
+            for (TypeMetadata superType : referencedType.getSuperTypes()) {
+                if (superType instanceof ComplexTypeMetadata && superType.getName().equals(name)) {
+                    return referencedType;
+                }
+            }
+            return null;
+        }
+
+        private static BigDecimal toNumber(String value) {
+            if (value == null || !NumberUtils.isNumber(value)) {
+                return null;
+            }
+            try {
+                return new BigDecimal(value.trim());
+            } catch (NumberFormatException e) {
+                return null;
+            }
+        }
+
+        private boolean evaluate(Element candidate, Element record) {
+            List<String> values = new ArrayList<String>(1);
+            collectValues(candidate, fieldPath, 0, values);
+            String expected = value;
+            BigDecimal expectedNumber = numericValue;
+            if (valueReference != null) {
+                List<String> referencedValues = new ArrayList<String>(1);
+                if (record != null && valueReferencePath.length > 0) {
+                    collectValues(record, valueReferencePath, 0, referencedValues);
+                }
+                expected = referencedValues.isEmpty() ? StringUtils.EMPTY : referencedValues.get(0);
+                expectedNumber = toNumber(expected);
+            }
+            boolean result = matches(values, expected, expectedNumber);
+            return predicate == Predicate.NOT ? !result : result;
+        }
+
+        private boolean matches(List<String> values, String expected, BigDecimal expectedNumber) {
+            switch (operator) {
+            case EMPTY_NULL:
+                for (String current : values) {
+                    if (!current.trim().isEmpty()) {
+                        return false;
+                    }
+                }
+                return true;
+            case NOT_EQUALS:
+                for (String current : values) {
+                    if (compare(current, expected, expectedNumber) == 0) {
+                        return false;
+                    }
+                }
+                return true;
+            default:
+                for (String current : values) {
+                    if (matches(current, expected, expectedNumber)) {
+                        return true;
+                    }
+                }
+                return false;
+            }
+        }
+
+        private boolean matches(String current, String expected, BigDecimal expectedNumber) {
+            switch (operator) {
+            case EQUALS:
+            case JOINS:
+                return compare(current, expected, expectedNumber) == 0;
+            case GREATER_THAN:
+                return compare(current, expected, expectedNumber) > 0;
+            case GREATER_THAN_OR_EQUAL:
+                return compare(current, expected, expectedNumber) >= 0;
+            case LOWER_THAN:
+                return compare(current, expected, expectedNumber) < 0;
+            case LOWER_THAN_OR_EQUAL:
+                return compare(current, expected, expectedNumber) <= 0;
+            case STRICT_CONTAINS:
+                return current.contains(expected);
+            case STARTS_WITH:
+                return current.toLowerCase(Locale.ENGLISH).startsWith(expected.toLowerCase(Locale.ENGLISH));
+            case CONTAINS:
+            case CONTAINS_TEXT_OF:
+            case FULL_TEXT_SEARCH:
+                return current.toLowerCase(Locale.ENGLISH).contains(expected.toLowerCase(Locale.ENGLISH));
+            default:
+                throw new IllegalStateException("Operator '" + operator + "' is not supported."); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        }
+
+        // Numbers are compared as numbers, other values as strings.
+        private static int compare(String current, String expected, BigDecimal expectedNumber) {
+            if (expectedNumber != null) {
+                BigDecimal currentNumber = toNumber(current);
+                if (currentNumber != null) {
+                    return currentNumber.compareTo(expectedNumber);
+                }
+            }
+            return current.compareTo(expected);
+        }
+
+        /**
+         * @return Path of the filtered field as declared in filter (e.g. "City/Country").
+         */
+        public String getPath() {
+            return path;
+        }
+
+        /**
+         * @return The filtered field of the referenced type (<code>null</code> if filter is not resolved).
+         */
+        public FieldMetadata getField() {
+            return field;
+        }
+
+        public Operator getOperator() {
+            return operator;
+        }
+
+        /**
+         * @return The literal value (without quotes), or <code>null</code> if value is a
+         * {@link #getValueReference() reference to a field}.
+         */
+        public String getValue() {
+            return value;
+        }
+
+        /**
+         * @return Path of the field (in the record that contains the foreign key) that gives the value, or
+         * <code>null</code> if value is a literal.
+         */
+        public String getValueReference() {
+            return valueReference;
+        }
+
+        /**
+         * @return The field {@link #getValueReference() value reference} points to, or <code>null</code> (filter is not
+         * resolved, value is a literal or path could not be resolved).
+         */
+        public FieldMetadata getValueReferenceField() {
+            return valueReferenceField;
+        }
+
+        /**
+         * @return How condition is joined to the next one.
+         */
+        public Predicate getPredicate() {
+            return predicate;
+        }
+
+        @Override
+        public String toString() {
+            return path + PART_SEPARATOR + operator.getLabel() + PART_SEPARATOR
+                    + (value == null ? valueReference : numericValue != null ? value : '"' + value + '"') + PART_SEPARATOR
+                    + predicate;
+        }
+    }
+}
@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata.expression;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.talend.mdm.commmon.metadata.ComplexTypeMetadata;
+import org.talend.mdm.commmon.metadata.ContainedTypeFieldMetadata;
+import org.talend.mdm.commmon.metadata.FieldMetadata;
+import org.talend.mdm.commmon.metadata.MetadataRepository;
+import org.w3c.dom.Node;
+
+/**
+ * <p>
+ * Visibility rules of all fields of an entity (fields of contained types included), to compute visibility of all
+ * fields of a record at once:
+ *
+ * <pre>
+ * VisibilityRules rules = VisibilityRules.get(type);
+ * VisibilityRules.Visibility visibility = rules.evaluate(record);
+ * if (visibility.isVisible(field)) {
+ *     ...
+ * }
+ * </pre>
+ *
+ * </p>
+ * <p>
+ * For a record, each distinct rule is evaluated once (fields often share the same rule) and fields in a hidden
+ * container are hidden without evaluating their rules. Fields of a recursive contained type are only collected once:
+ * deeper fields are hidden if their container is, or if the field at the same position in the first occurrence of the
+ * type is. Fields with a visibility rule that can not be compiled are always hidden. Instances are thread safe.
+ * </p>
+ */
+public class VisibilityRules {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(VisibilityRules.class);
+
+    private final ComplexTypeMetadata type;
+
+    private final List<FieldMetadata> fields;
+
+    private final Map<String, Integer> fieldIndexes;
+
+    // For each field, index of its container (-1 for top level fields)
+    private final int[] containers;
+
+    // For each field, index of its rule in rules (-1 if field has no rule)
+    private final int[] fieldRules;
+
+    // For each recursive container, index of the container its type was collected in (-1 for other fields)
+    private final int[] recursions;
+
+    private final CompiledVisibilityRule[] rules;
+
+    private VisibilityRules(ComplexTypeMetadata type, List<FieldMetadata> fields, int[] containers, int[] fieldRules,
+            int[] recursions, List<CompiledVisibilityRule> rules) {
+        this.type = type;
+        this.fields = Collections.unmodifiableList(fields);
+        this.fieldIndexes = new HashMap<String, Integer>();
+        for (int i = 0; i < fields.size(); i++) {
+            fieldIndexes.put(fields.get(i).getPath(), i);
+        }
+        this.containers = containers;
+        this.fieldRules = fieldRules;
+        this.recursions = recursions;
+        this.rules = rules.toArray(new CompiledVisibilityRule[rules.size()]);
+    }
+
+    /**
+     * @param type An entity type.
+     * @return Visibility rules of the fields of <code>type</code> (built when type was loaded by a
+     * {@link MetadataRepository}).
+     */
+    public static VisibilityRules get(ComplexTypeMetadata type) {
+        if (type == null) {
+            throw new IllegalArgumentException("Type can not be null."); //$NON-NLS-1$
+        }
+        VisibilityRules visibilityRules = type.getData(MetadataRepository.VISIBILITY_RULES);
+        if (visibilityRules != null) {
+            return visibilityRules;
+        }
+        return build(type);
+    }
+
+    /**
+     * @param type An entity type.
+     * @return Visibility rules of the fields of <code>type</code>.
+     */
+    public static VisibilityRules build(ComplexTypeMetadata type) {
+        if (type == null) {
+            throw new IllegalArgumentException("Type can not be null."); //$NON-NLS-1$
+        }
+        Builder builder = new Builder();
+        builder.collect(type, -1, Collections.<String, Integer> emptyMap());
+        int[] containers = new int[builder.fields.size()];
+        int[] fieldRules = new int[builder.fields.size()];
+        int[] recursions = new int[builder.fields.size()];
+        for (int i = 0; i < containers.length; i++) {
+            containers[i] = builder.containers.get(i);
+            fieldRules[i] = builder.fieldRules.get(i);
+            recursions[i] = builder.recursions.get(i);
+        }
+        return new VisibilityRules(type, builder.fields, containers, fieldRules, recursions, builder.rules);
+    }
+
+    /**
+     * @return The entity type.
+     */
+    public ComplexTypeMetadata getType() {
+        return type;
+    }
+
+    /**
+     * @return All fields of the entity (containers before their fields).
+     */
+    public List<FieldMetadata> getFields() {
+        return fields;
+    }
+
+    /**
+     * @return <code>true</code> if no field of the entity has a visibility rule (all fields are always visible).
+     */
+    public boolean isEmpty() {
+        return rules.length == 0;
+    }
+
+    /**
+     * @param record A record (a document, or the record root element of a document).
+     * @return Visibility of all fields for <code>record</code>.
+     */
+    public Visibility evaluate(Node record) {
+        BitSet hidden = new BitSet(fields.size());
+        if (rules.length == 0) {
+            return new Visibility(hidden);
+        }
+        Node context = CompiledVisibilityRule.getContext(record);
+        // 0: not evaluated, 1: visible, 2: hidden
+        byte[] results = new byte[rules.length];
+        for (int i = 0; i < fieldRules.length; i++) {
+            if (containers[i] >= 0 && hidden.get(containers[i])) {
+                hidden.set(i);
+                continue;
+            }
+            int rule = fieldRules[i];
+            if (rule >= 0) {
+                if (results[rule] == 0) {
+                    results[rule] = rules[rule].isVisible(context) ? (byte) 1 : (byte) 2;
+                }
+                if (results[rule] == 2) {
+                    hidden.set(i);
+                }
+            }
+        }
+        return new Visibility(hidden);
+    }
+
+    /**
+     * @param records Records (documents, or record root elements of documents).
+     * @return For each record (in the same order as <code>records</code>), visibility of all fields.
+     */
+    public List<Visibility> evaluate(List<? extends Node> records) {
+        List<Visibility> visibilities = new ArrayList<Visibility>(records.size());
+        for (Node record : records) {
+            visibilities.add(evaluate(record));
+        }
+        return visibilities;
+    }
+
+    /**
+     * Visibility of the fields of an entity for a record.
+     */
+    public class Visibility {
+
+        private final BitSet hidden;
+
+        private Visibility(BitSet hidden) {
+            this.hidden = hidden;
+        }
+
+        /**
+         * @param field A field of the entity.
+         * @return <code>false</code> if field (or one of its containers) is hidden by a visibility rule.
+         */
+        public boolean isVisible(FieldMetadata field) {
+            return isVisible(field.getPath());
+        }
+
+        /**
+         * @param path Path of a field in the entity (e.g. "Address/Country").
+         * @return <code>false</code> if field (or one of its containers) is hidden by a visibility rule.
+         */
+        public boolean isVisible(String path) {
+            Integer index = fieldIndexes.get(path);
+            if (index != null) {
+                return !hidden.get(index);
+            }
+            // Field under a recursive contained type: resolves through the nearest collected container.
+            int separator = path.lastIndexOf('/');
+            while (separator > 0) {
+                index = fieldIndexes.get(path.substring(0, separator));
+                if (index != null) {
+                    if (hidden.get(index)) {
+                        return false;
+                    }
+                    int recursion = recursions[index];
+                    if (recursion < 0) {
+                        return true; // Not a field of the entity
+                    }
+                    return isVisible(fields.get(recursion).getPath() + path.substring(separator));
+                }
+                separator = path.lastIndexOf('/', separator - 1);
+            }
+            return true;
+        }
+
+        /**
+         * @return Fields hidden by visibility rules.
+         */
+        public List<FieldMetadata> getHiddenFields() {
+            List<FieldMetadata> hiddenFields = new ArrayList<FieldMetadata>(hidden.cardinality());
+            for (int i = hidden.nextSetBit(0); i >= 0; i = hidden.nextSetBit(i + 1)) {
+                hiddenFields.add(fields.get(i));
+            }
+            return hiddenFields;
+        }
+    }
+
+    private static class Builder {
+
+        private final List<FieldMetadata> fields = new ArrayList<FieldMetadata>();
+
+        private final List<Integer> containers = new ArrayList<Integer>();
+
+        private final List<Integer> fieldRules = new ArrayList<Integer>();
+
+        private final List<Integer> recursions = new ArrayList<Integer>();
+
+        private final List<CompiledVisibilityRule> rules = new ArrayList<CompiledVisibilityRule>();
+
+        private final Map<String, Integer> ruleIndexes = new HashMap<String, Integer>();
+
+        // containingTypes: names of the contained types being collected, with the index of their container.
+        private void collect(ComplexTypeMetadata type, int container, Map<String, Integer> containingTypes) {
+            for (FieldMetadata field : type.getFields()) {
+                int index = fields.size();
+                fields.add(field);
+                containers.add(container);
+                fieldRules.add(getRuleIndex(field));
+                recursions.add(-1);
+                if (field instanceof ContainedTypeFieldMetadata) {
+                    ComplexTypeMetadata containedType = ((ContainedTypeFieldMetadata) field).getContainedType();
+                    Integer recursion = containingTypes.get(containedType.getName());
+                    if (recursion != null) { // Skip recursive types
+                        recursions.set(index, recursion);
+                    } else {
+                        Map<String, Integer> fieldContainingTypes = new HashMap<String, Integer>(containingTypes);
+                        fieldContainingTypes.put(containedType.getName(), index);
+                        collect(containedType, index, fieldContainingTypes);
+                    }
+                }
+            }
+        }
+
+        private int getRuleIndex(FieldMetadata field) {
+            CompiledVisibilityRule rule;
+            try {
+                rule = CompiledVisibilityRule.get(field);
+            } catch (IllegalArgumentException e) {
+                LOGGER.warn("Hiding field '" + field.getPath() + "' (invalid visibility rule): " + e.getMessage()); //$NON-NLS-1$ //$NON-NLS-2$
+                rule = CompiledVisibilityRule.INVALID;
+            }
+            if (rule == null) {
+                return -1;
+            }
+            // Fields often share the same rule: evaluate it once per record.
+            Integer index = ruleIndexes.get(rule.getRule());
+            if (index == null) {
+                index = rules.size();
+                rules.add(rule);
+                ruleIndexes.put(rule.getRule(), index);
+            }
+            return index;
+        }
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata.expression;
+
+import java.time.LocalDate;
+import java.time.LocalDateTime;
+import java.time.LocalTime;
+import java.time.format.DateTimeFormatter;
+import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Set;
+import java.util.regex.Pattern;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathFactory;
+import javax.xml.xpath.XPathFunction;
+import javax.xml.xpath.XPathFunctionException;
+import javax.xml.xpath.XPathFunctionResolver;
+
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+
+/**
+ * Functions of the <code>fn</code> namespace (as used in X_Default_Value_Rule or X_Visible_Rule annotations, e.g.
+ * <code>fn:true()</code> or <code>fn:current-date()</code>) for the JDK XPath 1.0 engine. All XPath 1.0 core functions
+ * are available with the <code>fn</code> prefix: the ones that depend on the evaluation context (such as
+ * <code>fn:last()</code> or <code>fn:local-name()</code>) are evaluated by the engine itself.
+ */
+class XPathFunctions {
+
+    static final String FN_PREFIX = "fn"; //$NON-NLS-1$
+
+    static final String FN_NAMESPACE = "http://www.w3.org/2005/xpath-functions"; //$NON-NLS-1$
+
+    private static final Set<String> FUNCTIONS = new HashSet<String>(Arrays.asList("true", "false", "not", "boolean", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+            "string", "concat", "string-length", "substring", "upper-case", "lower-case", "normalize-space", "contains", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$
+            "starts-with", "ends-with", "number", "round", "floor", "ceiling", "abs", "current-date", "current-dateTime", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$ //$NON-NLS-9$
+            "current-time", "empty", "exists", "count", "matches", "replace")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$
+
+    // XPath 1.0 core functions not in FUNCTIONS: the prefix is removed so the engine evaluates them.
+    private static final Set<String> CORE_FUNCTIONS = new HashSet<String>(Arrays.asList("last", "position", "id", //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+            "local-name", "namespace-uri", "name", "substring-before", "substring-after", "translate", "lang", "sum")); //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$ //$NON-NLS-5$ //$NON-NLS-6$ //$NON-NLS-7$ //$NON-NLS-8$
+
+    private static final NamespaceContext NAMESPACE_CONTEXT = new NamespaceContext() {
+
+        @Override
+        public String getNamespaceURI(String prefix) {
+            return FN_PREFIX.equals(prefix) ? FN_NAMESPACE : XMLConstants.NULL_NS_URI;
+        }
+
+        @Override
+        public String getPrefix(String namespaceURI) {
+            return FN_NAMESPACE.equals(namespaceURI) ? FN_PREFIX : null;
+        }
+
+        @Override
+        public Iterator<String> getPrefixes(String namespaceURI) {
+            return FN_NAMESPACE.equals(namespaceURI) ? Collections.singletonList(FN_PREFIX).iterator() : Collections
+                    .<String> emptyIterator();
+        }
+    };
+
+    private static final XPathFunctionResolver FUNCTION_RESOLVER = new XPathFunctionResolver() {
+
+        @Override
+        public XPathFunction resolveFunction(QName functionName, int arity) {
+            if (FN_NAMESPACE.equals(functionName.getNamespaceURI()) && FUNCTIONS.contains(functionName.getLocalPart())) {
+                return new Function(functionName.getLocalPart());
+            }
+            return null;
+        }
+    };
+
+    private XPathFunctions() {
+    }
+
+    /**
+     * @return A new {@link XPath} that resolves functions of the <code>fn</code> namespace.
+     */
+    static XPath newXPath() {
+        XPath xPath = XPathFactory.newInstance().newXPath();
+        xPath.setNamespaceContext(NAMESPACE_CONTEXT);
+        xPath.setXPathFunctionResolver(FUNCTION_RESOLVER);
+        return xPath;
+    }
+
+    /**
+     * JDK resolves functions only when an expression is evaluated: this checks all <code>fn</code> functions used in
+     * <code>expression</code> are supported, and removes the prefix of the core functions the engine evaluates.
+     *
+     * @param expression An XPath expression.
+     * @return The expression to compile.
+     * @throws IllegalArgumentException If <code>expression</code> uses an unsupported <code>fn</code> function.
+     */
+    static String resolveFunctions(String expression) {
+        StringBuilder resolved = new StringBuilder(expression.length());
+        char quote = 0;
+        for (int i = 0; i < expression.length(); i++) {
+            char c = expression.charAt(i);
+            resolved.append(c);
+            if (quote != 0) {
+                if (c == quote) {
+                    quote = 0;
+                }
+            } else if (c == '\'' || c == '"') {
+                quote = c;
+            } else if (expression.startsWith(FN_PREFIX + ':', i)
+                    && (i == 0 || !isNameChar(expression.charAt(i - 1)))) {
+                int start = i + FN_PREFIX.length() + 1;
+                int end = start;
+                while (end < expression.length() && isNameChar(expression.charAt(end))) {
+                    end++;
+                }
+                String name = expression.substring(start, end);
+                if (CORE_FUNCTIONS.contains(name)) {
+                    resolved.setLength(resolved.length() - 1);
+                } else if (FUNCTIONS.contains(name)) {
+                    resolved.append(expression, i + 1, start);
+                } else {
+                    throw new IllegalArgumentException("Function '" + FN_PREFIX + ':' + name + "' is not supported."); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+                resolved.append(name);
+                i = end - 1;
+            }
+        }
+        return resolved.toString();
+    }
+
+    private static boolean isNameChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '-' || c == '_' || c == '.';
+    }
+
+    static String asString(Object value) {
+        if (value instanceof NodeList) {
+            NodeList nodes = (NodeList) value;
+            return nodes.getLength() == 0 ? "" : nodes.item(0).getTextContent(); //$NON-NLS-1$
+        } else if (value instanceof Node) {
+            return ((Node) value).getTextContent();
+        } else if (value instanceof Double) {
+            double number = (Double) value;
+            if (number == Math.rint(number) && !Double.isInfinite(number)) {
+                return String.valueOf((long) number);
+            }
+            return String.valueOf(number);
+        }
+        return value == null ? "" : String.valueOf(value); //$NON-NLS-1$
+    }
+
+    static double asNumber(Object value) {
+        if (value instanceof Number) {
+            return ((Number) value).doubleValue();
+        } else if (value instanceof Boolean) {
+            return (Boolean) value ? 1 : 0;
+        }
+        try {
+            return Double.parseDouble(asString(value).trim());
+        } catch (NumberFormatException e) {
+            return Double.NaN;
+        }
+    }
+
+    static boolean asBoolean(Object value) {
+        if (value instanceof Boolean) {
+            return (Boolean) value;
+        } else if (value instanceof Number) {
+            double number = ((Number) value).doubleValue();
+            return number != 0 && !Double.isNaN(number);
+        } else if (value instanceof NodeList) {
+            return ((NodeList) value).getLength() > 0;
+        }
+        return value != null && !asString(value).isEmpty();
+    }
+
+    // A sequence is empty if it's an empty node set (values such as "" are not empty sequences).
+    private static boolean exists(Object value) {
+        if (value instanceof NodeList) {
+            return ((NodeList) value).getLength() > 0;
+        }
+        return value != null;
+    }
+
+    private static class Function implements XPathFunction {
+
+        private final String name;
+
+        private Function(String name) {
+            this.name = name;
+        }
+
+        @Override
+        public Object evaluate(@SuppressWarnings("rawtypes") List args) throws XPathFunctionException {
+            Object first = args.isEmpty() ? null : args.get(0);
+            switch (name) {
+            case "true": //$NON-NLS-1$
+                return Boolean.TRUE;
+            case "false": //$NON-NLS-1$
+                return Boolean.FALSE;
+            case "not": //$NON-NLS-1$
+                return !asBoolean(first);
+            case "boolean": //$NON-NLS-1$
+                return asBoolean(first);
+            case "string": //$NON-NLS-1$
+                return asString(first);
+            case "concat": //$NON-NLS-1$
+                StringBuilder builder = new StringBuilder();
+                for (Object arg : args) {
+                    builder.append(asString(arg));
+                }
+                return builder.toString();
+            case "string-length": //$NON-NLS-1$
+                return (double) asString(first).length();
+            case "substring": //$NON-NLS-1$
+                String value = asString(first);
+                // XPath positions start at 1 (and are rounded)
+                double start = Math.round(asNumber(args.get(1)));
+                double end = args.size() > 2 ? start + Math.round(asNumber(args.get(2))) : Double.POSITIVE_INFINITY;
+                int from = (int) Math.max(1, start);
+                int to = (int) Math.min(value.length() + 1, end);
+                return from < to ? value.substring(from - 1, to - 1) : ""; //$NON-NLS-1$
+            case "upper-case": //$NON-NLS-1$
+                return asString(first).toUpperCase(Locale.ROOT);
+            case "lower-case": //$NON-NLS-1$
+                return asString(first).toLowerCase(Locale.ROOT);
+            case "normalize-space": //$NON-NLS-1$
+                return asString(first).trim().replaceAll("\\s+", " "); //$NON-NLS-1$ //$NON-NLS-2$
+            case "contains": //$NON-NLS-1$
+                return asString(first).contains(asString(args.get(1)));
+            case "starts-with": //$NON-NLS-1$
+                return asString(first).startsWith(asString(args.get(1)));
+            case "ends-with": //$NON-NLS-1$
+                return asString(first).endsWith(asString(args.get(1)));
+            case "empty": //$NON-NLS-1$
+                return !exists(first);
+            case "exists": //$NON-NLS-1$
+                return exists(first);
+            case "count": //$NON-NLS-1$
+                return (double) (first instanceof NodeList ? ((NodeList) first).getLength() : exists(first) ? 1 : 0);
+            case "matches": //$NON-NLS-1$
+                return Pattern.compile(asString(args.get(1))).matcher(asString(first)).find();
+            case "replace": //$NON-NLS-1$
+                return Pattern.compile(asString(args.get(1))).matcher(asString(first)).replaceAll(asString(args.get(2)));
+            case "number": //$NON-NLS-1$
+                return asNumber(first);
+            case "round": //$NON-NLS-1$
+                return (double) Math.round(asNumber(first));
+            case "floor": //$NON-NLS-1$
+                return Math.floor(asNumber(first));
+            case "ceiling": //$NON-NLS-1$
+                return Math.ceil(asNumber(first));
+            case "abs": //$NON-NLS-1$
+                return Math.abs(asNumber(first));
+            case "current-date": //$NON-NLS-1$
+                return LocalDate.now().format(DateTimeFormatter.ISO_LOCAL_DATE);
+            case "current-dateTime": //$NON-NLS-1$
+                return LocalDateTime.now().truncatedTo(ChronoUnit.SECONDS).format(DateTimeFormatter.ISO_LOCAL_DATE_TIME);
+            case "current-time": //$NON-NLS-1$
+                return LocalTime.now().truncatedTo(ChronoUnit.SECONDS).format(DateTimeFormatter.ISO_LOCAL_TIME);
+            default:
+                throw new XPathFunctionException("Function '" + FN_PREFIX + ':' + name + "' is not supported."); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        }
+    }
+}
@@ -0,0 +1,589 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata.schematron;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import javax.xml.XMLConstants;
+import javax.xml.namespace.NamespaceContext;
+import javax.xml.namespace.QName;
+import javax.xml.parsers.DocumentBuilder;
+import javax.xml.xpath.XPath;
+import javax.xml.xpath.XPathConstants;
+import javax.xml.xpath.XPathExpression;
+import javax.xml.xpath.XPathExpressionException;
+import javax.xml.xpath.XPathFactory;
+
+import org.apache.commons.lang.StringUtils;
+import org.talend.mdm.commmon.metadata.ComplexTypeMetadata;
+import org.talend.mdm.commmon.metadata.MetadataRepository;
+import org.talend.mdm.commmon.util.core.MDMXMLUtils;
+import org.w3c.dom.Attr;
+import org.w3c.dom.Document;
+import org.w3c.dom.Element;
+import org.w3c.dom.Node;
+import org.w3c.dom.NodeList;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+
+/**
+ * <p>
+ * Schematron rules (X_Schematron annotations) of an entity type, parsed once with all XPath expressions (rule contexts,
+ * assertion tests, <code>value-of</code> selects) checked at compilation. Rules are then evaluated on records without
+ * parsing the Schematron again:
+ *
+ * <pre>
+ * CompiledSchematron schematron = CompiledSchematron.get(type);
+ * List&lt;SchematronFailure&gt; failures = schematron.validate(record);
+ * </pre>
+ *
+ * </p>
+ * <p>
+ * Supported Schematron elements are <code>ns</code>, <code>pattern</code>, <code>rule</code>, <code>assert</code>,
+ * <code>report</code> and, in messages, <code>value-of</code> and <code>name</code>. As in Schematron, a node is only
+ * checked by the first rule of a pattern it matches. Abstract rules, <code>extends</code> and <code>let</code> are not
+ * supported: compilation fails instead of ignoring them.
+ * </p>
+ * <p>
+ * Instances are thread safe: XPath expressions are compiled once per thread (JAXP expressions can not be shared between
+ * threads) and re-used for all records validated by this thread. Compiled expressions of a thread are weakly
+ * referenced by instances, so they are released with the instance (even by pooled threads).
+ * </p>
+ */
+public class CompiledSchematron {
+
+    /**
+     * Schematron with no rules (all records are valid).
+     */
+    public static final CompiledSchematron EMPTY = new CompiledSchematron(Collections.<Pattern> emptyList(),
+            Collections.<String> emptyList(), Collections.<String, String> emptyMap());
+
+    // Evaluators of the current thread, by instance (weak keys: evaluators are released with their instance).
+    private static final ThreadLocal<Map<CompiledSchematron, Evaluator>> EVALUATORS =
+            new ThreadLocal<Map<CompiledSchematron, Evaluator>>() {
+
+        @Override
+        protected Map<CompiledSchematron, Evaluator> initialValue() {
+            return new WeakHashMap<CompiledSchematron, Evaluator>();
+        }
+    };
+
+    private final List<Pattern> patterns;
+
+    private final String[] expressions;
+
+    private final Map<String, String> namespaces;
+
+    private CompiledSchematron(List<Pattern> patterns, List<String> expressions, Map<String, String> namespaces) {
+        this.patterns = patterns;
+        this.expressions = expressions.toArray(new String[expressions.size()]);
+        this.namespaces = namespaces;
+    }
+
+    /**
+     * @param type An entity type.
+     * @return Schematron rules of <code>type</code>: rules of all X_Schematron annotations, compiled when type was loaded
+     * by a {@link MetadataRepository}. Otherwise, rules are compiled from {@link ComplexTypeMetadata#getSchematron()}
+     * (the last X_Schematron annotation of a loaded type).
+     * @throws IllegalArgumentException If Schematron rules of type can not be compiled.
+     */
+    public static CompiledSchematron get(ComplexTypeMetadata type) {
+        CompiledSchematron schematron = type.getData(MetadataRepository.COMPILED_SCHEMATRON);
+        if (schematron != null) {
+            return schematron;
+        }
+        if (StringUtils.isEmpty(type.getSchematron())) {
+            return EMPTY;
+        }
+        return compile(type.getSchematron());
+    }
+
+    /**
+     * @param schematron A Schematron document (as returned by {@link ComplexTypeMetadata#getSchematron()}).
+     * @return The compiled Schematron.
+     * @throws IllegalArgumentException If <code>schematron</code> can not be parsed, contains an invalid XPath
+     * expression or an unsupported element.
+     */
+    public static CompiledSchematron compile(String schematron) {
+        Document document;
+        try {
+            document = newDocumentBuilder().parse(new InputSource(new StringReader(schematron)));
+        } catch (SAXException | IOException e) {
+            throw new IllegalArgumentException("Could not parse Schematron.", e); //$NON-NLS-1$
+        }
+        return compile(Collections.singletonList(document));
+    }
+
+    /**
+     * @param schematrons Schematron documents, <code>schema</code> or <code>pattern</code> elements (patterns of all
+     * nodes are compiled together).
+     * @return The compiled Schematron.
+     * @throws IllegalArgumentException If an XPath expression of <code>schematrons</code> is invalid or if
+     * <code>schematrons</code> contain an unsupported element.
+     */
+    public static CompiledSchematron compile(List<? extends Node> schematrons) {
+        Compiler compiler = new Compiler();
+        for (Node schematron : schematrons) {
+            compiler.add(schematron);
+        }
+        if (compiler.patterns.isEmpty()) {
+            return EMPTY;
+        }
+        CompiledSchematron compiledSchematron = new CompiledSchematron(compiler.patterns, compiler.expressions,
+                compiler.namespaces);
+        // Checks all expressions (evaluator is kept for records validated by this thread).
+        compiledSchematron.getEvaluator();
+        return compiledSchematron;
+    }
+
+    /**
+     * @return <code>true</code> if there's no rule to check.
+     */
+    public boolean isEmpty() {
+        return patterns.isEmpty();
+    }
+
+    /**
+     * @param record A record (a {@link Document} or the record root {@link Element}).
+     * @return Failed assertions and fired reports (empty if record is valid).
+     */
+    public List<SchematronFailure> validate(Node record) {
+        if (isEmpty()) {
+            return Collections.emptyList();
+        }
+        return validate(getEvaluator(), record);
+    }
+
+    /**
+     * @param record A record (as XML).
+     * @return Failed assertions and fired reports (empty if record is valid).
+     * @throws IllegalArgumentException If record can not be parsed.
+     */
+    public List<SchematronFailure> validate(InputStream record) {
+        if (isEmpty()) {
+            return Collections.emptyList();
+        }
+        Evaluator evaluator = getEvaluator();
+        return validate(evaluator, evaluator.parse(record));
+    }
+
+    /**
+     * Validates a batch of records.
+     *
+     * @param records Records (documents or record root elements).
+     * @return For each record (in the same order as <code>records</code>), failed assertions and fired reports.
+     */
+    public List<List<SchematronFailure>> validate(List<? extends Node> records) {
+        List<List<SchematronFailure>> failures = new ArrayList<List<SchematronFailure>>(records.size());
+        if (isEmpty()) {
+            for (int i = 0; i < records.size(); i++) {
+                failures.add(Collections.<SchematronFailure> emptyList());
+            }
+            return failures;
+        }
+        Evaluator evaluator = getEvaluator();
+        for (Node record : records) {
+            failures.add(validate(evaluator, record));
+        }
+        return failures;
+    }
+
+    private List<SchematronFailure> validate(Evaluator evaluator, Node record) {
+        List<SchematronFailure> failures = Collections.emptyList();
+        for (Pattern pattern : patterns) {
+            // A node is only checked by the first rule that matches it
+            Set<Node> checkedNodes = pattern.rules.size() > 1 ? Collections
+                    .newSetFromMap(new IdentityHashMap<Node, Boolean>()) : null;
+            for (Rule rule : pattern.rules) {
+                NodeList contextNodes = (NodeList) evaluator.evaluate(rule.context, record, XPathConstants.NODESET);
+                for (int i = 0; i < contextNodes.getLength(); i++) {
+                    Node contextNode = contextNodes.item(i);
+                    if (checkedNodes != null && !checkedNodes.add(contextNode)) {
+                        continue;
+                    }
+                    for (Check check : rule.checks) {
+                        Boolean result = (Boolean) evaluator.evaluate(check.test, contextNode, XPathConstants.BOOLEAN);
+                        if (result == check.isReport) {
+                            if (failures.isEmpty()) {
+                                failures = new LinkedList<SchematronFailure>();
+                            }
+                            failures.add(new SchematronFailure(pattern.name, rule.contextSource, check.testSource,
+                                    check.isReport, check.getMessage(evaluator, contextNode), getLocation(contextNode)));
+                        }
+                    }
+                }
+            }
+        }
+        return failures;
+    }
+
+    private Evaluator getEvaluator() {
+        Map<CompiledSchematron, Evaluator> evaluators = EVALUATORS.get();
+        Evaluator evaluator = evaluators.get(this);
+        if (evaluator == null) {
+            evaluator = new Evaluator(expressions, namespaces);
+            evaluators.put(this, evaluator);
+        }
+        return evaluator;
+    }
+
+    private static String getLocation(Node node) {
+        StringBuilder location = new StringBuilder();
+        Node current = node;
+        while (current != null && current.getNodeType() != Node.DOCUMENT_NODE) {
+            StringBuilder step = new StringBuilder();
+            switch (current.getNodeType()) {
+            case Node.ATTRIBUTE_NODE:
+                step.append("/@").append(current.getNodeName()); //$NON-NLS-1$
+                current = ((Attr) current).getOwnerElement();
+                break;
+            case Node.ELEMENT_NODE:
+                int index = 1;
+                for (Node sibling = current.getPreviousSibling(); sibling != null; sibling = sibling.getPreviousSibling()) {
+                    if (sibling.getNodeType() == Node.ELEMENT_NODE && sibling.getNodeName().equals(current.getNodeName())) {
+                        index++;
+                    }
+                }
+                step.append('/').append(current.getNodeName()).append('[').append(index).append(']');
+                current = current.getParentNode();
+                break;
+            default:
+                step.append("/text()"); //$NON-NLS-1$
+                current = current.getParentNode();
+                break;
+            }
+            location.insert(0, step);
+        }
+        return location.length() == 0 ? "/" : location.toString(); //$NON-NLS-1$
+    }
+
+    private static DocumentBuilder newDocumentBuilder() {
+        return MDMXMLUtils.getDocumentBuilderWithNamespace().get();
+    }
+
+    private static class Pattern {
+
+        private final String name;
+
+        private final List<Rule> rules = new ArrayList<Rule>();
+
+        private Pattern(String name) {
+            this.name = name;
+        }
+    }
+
+    private static class Rule {
+
+        private final String contextSource;
+
+        private final int context;
+
+        private final List<Check> checks = new ArrayList<Check>();
+
+        private Rule(String contextSource, int context) {
+            this.contextSource = contextSource;
+            this.context = context;
+        }
+    }
+
+    private static class Check {
+
+        // Message part for <name/>
+        private static final Object NAME = new Object();
+
+        private final String testSource;
+
+        private final int test;
+
+        private final boolean isReport;
+
+        // Literal text (String), value-of select expressions (Integer) or NAME
+        private final List<Object> message = new ArrayList<Object>();
+
+        private Check(String testSource, int test, boolean isReport) {
+            this.testSource = testSource;
+            this.test = test;
+            this.isReport = isReport;
+        }
+
+        private String getMessage(Evaluator evaluator, Node contextNode) {
+            if (message.size() == 1 && message.get(0) instanceof String) {
+                return (String) message.get(0);
+            }
+            StringBuilder builder = new StringBuilder();
+            for (Object part : message) {
+                if (part instanceof Integer) {
+                    builder.append(evaluator.evaluate((Integer) part, contextNode, XPathConstants.STRING));
+                } else if (part == NAME) {
+                    builder.append(contextNode.getNodeName());
+                } else {
+                    builder.append(part);
+                }
+            }
+            return builder.toString().trim();
+        }
+    }
+
+    private static class Compiler {
+
+        private final List<Pattern> patterns = new ArrayList<Pattern>();
+
+        private final List<String> expressions = new ArrayList<String>();
+
+        private final Map<String, Integer> expressionIndexes = new HashMap<String, Integer>();
+
+        private final Map<String, String> namespaces = new HashMap<String, String>();
+
+        private void add(Node schematron) {
+            if (schematron instanceof Document) {
+                schematron = ((Document) schematron).getDocumentElement();
+            }
+            if (!(schematron instanceof Element)) {
+                return;
+            }
+            if ("pattern".equals(getName(schematron))) { //$NON-NLS-1$
+                addPattern((Element) schematron);
+                return;
+            }
+            for (Node child = schematron.getFirstChild(); child != null; child = child.getNextSibling()) {
+                String name = getName(child);
+                if ("pattern".equals(name)) { //$NON-NLS-1$
+                    addPattern((Element) child);
+                } else if ("ns".equals(name)) { //$NON-NLS-1$
+                    Element ns = (Element) child;
+                    namespaces.put(ns.getAttribute("prefix"), ns.getAttribute("uri")); //$NON-NLS-1$ //$NON-NLS-2$
+                } else if ("let".equals(name)) { //$NON-NLS-1$
+                    throw unsupported(child);
+                }
+            }
+        }
+
+        private void addPattern(Element patternElement) {
+            String name = patternElement.getAttribute("name"); //$NON-NLS-1$
+            if (name.isEmpty()) {
+                name = patternElement.getAttribute("id"); //$NON-NLS-1$
+            }
+            Pattern pattern = new Pattern(name.isEmpty() ? null : name);
+            for (Node child = patternElement.getFirstChild(); child != null; child = child.getNextSibling()) {
+                String childName = getName(child);
+                if ("let".equals(childName)) { //$NON-NLS-1$
+                    throw unsupported(child);
+                }
+                if ("rule".equals(childName)) { //$NON-NLS-1$
+                    Element ruleElement = (Element) child;
+                    if ("true".equals(ruleElement.getAttribute("abstract"))) { //$NON-NLS-1$ //$NON-NLS-2$
+                        throw new IllegalArgumentException("Abstract rules are not supported in Schematron (rule '" //$NON-NLS-1$
+                                + ruleElement.getAttribute("id") + "')."); //$NON-NLS-1$ //$NON-NLS-2$
+                    }
+                    String context = ruleElement.getAttribute("context"); //$NON-NLS-1$
+                    if (context.isEmpty()) {
+                        continue;
+                    }
+                    Rule rule = new Rule(context, register(toXPath(context)));
+                    addChecks(rule, ruleElement);
+                    pattern.rules.add(rule);
+                }
+            }
+            if (!pattern.rules.isEmpty()) {
+                patterns.add(pattern);
+            }
+        }
+
+        private void addChecks(Rule rule, Element ruleElement) {
+            for (Node child = ruleElement.getFirstChild(); child != null; child = child.getNextSibling()) {
+                String name = getName(child);
+                if ("extends".equals(name) || "let".equals(name)) { //$NON-NLS-1$ //$NON-NLS-2$
+                    throw unsupported(child);
+                }
+                if ("assert".equals(name) || "report".equals(name)) { //$NON-NLS-1$ //$NON-NLS-2$
+                    String test = ((Element) child).getAttribute("test"); //$NON-NLS-1$
+                    Check check = new Check(test, register(test), "report".equals(name)); //$NON-NLS-1$
+                    addMessage(check, child);
+                    if (check.message.size() == 1 && check.message.get(0) instanceof String) {
+                        check.message.set(0, ((String) check.message.get(0)).trim());
+                    }
+                    rule.checks.add(check);
+                }
+            }
+        }
+
+        private void addMessage(Check check, Node node) {
+            for (Node child = node.getFirstChild(); child != null; child = child.getNextSibling()) {
+                switch (child.getNodeType()) {
+                case Node.TEXT_NODE:
+                case Node.CDATA_SECTION_NODE:
+                    int last = check.message.size() - 1;
+                    if (last >= 0 && check.message.get(last) instanceof String) {
+                        check.message.set(last, check.message.get(last) + child.getNodeValue());
+                    } else {
+                        check.message.add(child.getNodeValue());
+                    }
+                    break;
+                case Node.ELEMENT_NODE:
+                    String name = getName(child);
+                    if ("value-of".equals(name)) { //$NON-NLS-1$
+                        check.message.add(register(((Element) child).getAttribute("select"))); //$NON-NLS-1$
+                    } else if ("name".equals(name)) { //$NON-NLS-1$
+                        check.message.add(Check.NAME);
+                    } else {
+                        addMessage(check, child);
+                    }
+                    break;
+                default:
+                    break;
+                }
+            }
+        }
+
+        // Identical expressions (e.g. same context in several patterns) are compiled once.
+        private int register(String expression) {
+            Integer index = expressionIndexes.get(expression);
+            if (index == null) {
+                index = expressions.size();
+                expressions.add(expression);
+                expressionIndexes.put(expression, index);
+            }
+            return index;
+        }
+
+        // Unsupported elements would change results if they were ignored (fails at compilation, not on records).
+        private static IllegalArgumentException unsupported(Node node) {
+            return new IllegalArgumentException("Element '" + getName(node) + "' is not supported in Schematron."); //$NON-NLS-1$ //$NON-NLS-2$
+        }
+
+        private static String getName(Node node) {
+            if (node.getNodeType() != Node.ELEMENT_NODE) {
+                return null;
+            }
+            return node.getLocalName() != null ? node.getLocalName() : node.getNodeName();
+        }
+
+        // Converts a rule context (a XSLT pattern) to an expression that selects matching nodes under a record.
+        private static String toXPath(String context) {
+            StringBuilder xPath = new StringBuilder();
+            int depth = 0;
+            char quote = 0;
+            int start = 0;
+            for (int i = 0; i <= context.length(); i++) {
+                char c = i < context.length() ? context.charAt(i) : '|';
+                if (quote != 0) {
+                    if (c == quote) {
+                        quote = 0;
+                    }
+                } else if (c == '\'' || c == '"') {
+                    quote = c;
+                } else if (c == '[' || c == '(') {
+                    depth++;
+                } else if (c == ']' || c == ')') {
+                    depth--;
+                } else if (c == '|' && depth == 0) {
+                    String branch = context.substring(start, i).trim();
+                    if (xPath.length() > 0) {
+                        xPath.append(" | "); //$NON-NLS-1$
+                    }
+                    if (branch.startsWith("/")) { //$NON-NLS-1$
+                        xPath.append(branch);
+                    } else if (branch.startsWith("@")) { //$NON-NLS-1$
+                        xPath.append("descendant-or-self::*/").append(branch); //$NON-NLS-1$
+                    } else {
+                        xPath.append("descendant-or-self::").append(branch); //$NON-NLS-1$
+                    }
+                    start = i + 1;
+                }
+            }
+            return xPath.toString();
+        }
+    }
+
+    // XPath expressions are not thread safe: each thread gets its own compiled expressions.
+    private static class Evaluator {
+
+        private final String[] sources;
+
+        private final XPathExpression[] expressions;
+
+        private DocumentBuilder documentBuilder;
+
+        private Evaluator(String[] sources, final Map<String, String> namespaces) {
+            this.sources = sources;
+            XPath xPath = XPathFactory.newInstance().newXPath();
+            if (!namespaces.isEmpty()) {
+                xPath.setNamespaceContext(new NamespaceContext() {
+
+                    @Override
+                    public String getNamespaceURI(String prefix) {
+                        String uri = namespaces.get(prefix);
+                        return uri == null ? XMLConstants.NULL_NS_URI : uri;
+                    }
+
+                    @Override
+                    public String getPrefix(String namespaceURI) {
+                        for (Map.Entry<String, String> entry : namespaces.entrySet()) {
+                            if (entry.getValue().equals(namespaceURI)) {
+                                return entry.getKey();
+                            }
+                        }
+                        return null;
+                    }
+
+                    @Override
+                    public Iterator<String> getPrefixes(String namespaceURI) {
+                        String prefix = getPrefix(namespaceURI);
+                        return prefix == null ? Collections.<String> emptyIterator() : Collections.singletonList(prefix)
+                                .iterator();
+                    }
+                });
+            }
+            expressions = new XPathExpression[sources.length];
+            for (int i = 0; i < sources.length; i++) {
+                try {
+                    expressions[i] = xPath.compile(sources[i]);
+                } catch (XPathExpressionException e) {
+                    throw new IllegalArgumentException("Invalid XPath expression '" + sources[i] + "' in Schematron.", e); //$NON-NLS-1$ //$NON-NLS-2$
+                }
+            }
+        }
+
+        private Object evaluate(int expression, Node node, QName returnType) {
+            try {
+                return expressions[expression].evaluate(node, returnType);
+            } catch (XPathExpressionException e) {
+                throw new RuntimeException("Could not evaluate Schematron expression '" + sources[expression] + "'.", e); //$NON-NLS-1$ //$NON-NLS-2$
+            }
+        }
+
+        private Document parse(InputStream record) {
+            if (documentBuilder == null) {
+                documentBuilder = newDocumentBuilder();
+            } else {
+                documentBuilder.reset();
+            }
+            try {
+                return documentBuilder.parse(record);
+            } catch (SAXException | IOException e) {
+                throw new IllegalArgumentException("Could not parse record.", e); //$NON-NLS-1$
+            }
+        }
+    }
+}
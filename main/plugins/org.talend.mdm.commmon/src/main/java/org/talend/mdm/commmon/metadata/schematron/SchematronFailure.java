@@ -0,0 +1,87 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata.schematron;
+
+/**
+ * A failed Schematron assertion (or a fired report) for a record validated by {@link CompiledSchematron}.
+ */
+public class SchematronFailure {
+
+    private final String pattern;
+
+    private final String context;
+
+    private final String test;
+
+    private final boolean isReport;
+
+    private final String message;
+
+    private final String location;
+
+    SchematronFailure(String pattern, String context, String test, boolean isReport, String message, String location) {
+        this.pattern = pattern;
+        this.context = context;
+        this.test = test;
+        this.isReport = isReport;
+        this.message = message;
+        this.location = location;
+    }
+
+    /**
+     * @return Name of the pattern (or <code>null</code> if pattern has no name).
+     */
+    public String getPattern() {
+        return pattern;
+    }
+
+    /**
+     * @return Context of the rule (as declared in Schematron).
+     */
+    public String getContext() {
+        return context;
+    }
+
+    /**
+     * @return The XPath test of the assertion.
+     */
+    public String getTest() {
+        return test;
+    }
+
+    /**
+     * @return <code>true</code> if this failure is a fired <code>report</code> (test evaluated to true),
+     * <code>false</code> for a failed <code>assert</code> (test evaluated to false).
+     */
+    public boolean isReport() {
+        return isReport;
+    }
+
+    /**
+     * @return The message of the assertion (e.g. "[EN:Price must be positive]").
+     */
+    public String getMessage() {
+        return message;
+    }
+
+    /**
+     * @return Location of the context node in record (e.g. "/Product[1]/Price[1]").
+     */
+    public String getLocation() {
+        return location;
+    }
+
+    @Override
+    public String toString() {
+        return location + ": " + message + " (" + test + ")"; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
+    }
+}
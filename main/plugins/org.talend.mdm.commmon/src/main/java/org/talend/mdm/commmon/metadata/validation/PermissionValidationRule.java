@@ -12,22 +12,19 @@
 // ============================================================================
 package org.talend.mdm.commmon.metadata.validation;
 
-import java.util.ArrayList;
 import java.util.Collection;
 import java.util.List;
 
-import org.apache.commons.lang.BooleanUtils;
-import org.eclipse.emf.common.util.EList;
-import org.eclipse.xsd.XSDAnnotation;
 import org.eclipse.xsd.XSDElementDeclaration;
-import org.eclipse.xsd.util.XSDParser;
 import org.talend.mdm.commmon.metadata.ComplexTypeMetadata;
 import org.talend.mdm.commmon.metadata.ContainedTypeFieldMetadata;
 import org.talend.mdm.commmon.metadata.FieldMetadata;
+import org.talend.mdm.commmon.metadata.MetadataExtensible;
 import org.talend.mdm.commmon.metadata.MetadataRepository;
-import org.talend.mdm.commmon.metadata.SoftFieldRef;
 import org.talend.mdm.commmon.metadata.ValidationError;
 import org.talend.mdm.commmon.metadata.ValidationHandler;
+import org.talend.mdm.commmon.metadata.annotation.PermissionAnnotation;
+import org.talend.mdm.commmon.metadata.annotation.UserAccessProcessor;
 import org.talend.mdm.commmon.util.core.ICoreConstants;
 import org.talend.mdm.commmon.util.core.PermissionConstants;
 import org.w3c.dom.Element;
@@ -41,6 +38,16 @@ public class PermissionValidationRule implements ValidationRule {
     private static final String ELEMENT_TYPE_ENTITY = "entity"; //$NON-NLS-1$
     private static final String ELEMENT_TYPE_FIELD = "field"; //$NON-NLS-1$
 
+    private static final String X_WRITE = "X_Write"; //$NON-NLS-1$
+
+    private static final String X_HIDE = "X_Hide"; //$NON-NLS-1$
+
+    private static final String X_DENY_CREATE = "X_Deny_Create"; //$NON-NLS-1$
+
+    private static final String X_DENY_LOGICAL_DELETE = "X_Deny_LogicalDelete"; //$NON-NLS-1$
+
+    private static final String X_DENY_PHYSICAL_DELETE = "X_Deny_PhysicalDelete"; //$NON-NLS-1$
+
     private FieldMetadata field;
     private ComplexTypeMetadata complexTypeMetadata;
 
@@ -71,48 +78,23 @@ public class PermissionValidationRule implements ValidationRule {
     }
 
     private boolean validateFieldRefPermission(FieldMetadata fieldMetadata, ValidationHandler handler) {
-        fieldMetadata.setData(MetadataRepository.VALIDATION_PERMISSION_MARKER, true);
-        String name = fieldMetadata.getName();
-        XSDElementDeclaration element = fieldMetadata.getData(MetadataRepository.XSD_ELEMENT);
-
-        if (element == null) {
+        ValidationRun.mark(fieldMetadata, ValidationRun.Marker.PERMISSION_VALIDATED);
+        List<PermissionAnnotation> permissionAnnotations = getPermissionAnnotations(fieldMetadata);
+        if (permissionAnnotations == null) {
             return true;
         }
 
-        boolean valid = true;
-
-        XSDAnnotation annotation = element.getAnnotation();
-        if (annotation != null) {
-            EList<Element> appInfoElements = annotation.getApplicationInformation();
-
-            List<FieldMetadata> writeUsers = new ArrayList<FieldMetadata>();
-            List<FieldMetadata> hideUsers = new ArrayList<FieldMetadata>();
-            List<FieldMetadata> denyCreate = new ArrayList<FieldMetadata>();          
-            for (Element appInfo : appInfoElements) {
-                String source = appInfo.getAttribute("source"); //$NON-NLS-1$
-                String permissionRole = appInfo.getTextContent();
-                if ("X_Write".equals(source)) { //$NON-NLS-1$
-                    writeUsers.add(getFieldMetadata(appInfo, permissionRole));
-                } else if ("X_Hide".equals(source)) { //$NON-NLS-1$
-                    hideUsers.add(getFieldMetadata(appInfo, permissionRole));
-                } else if ("X_Deny_Create".equals(source)) { //$NON-NLS-1$ )
-                    denyCreate.add(getFieldMetadata(appInfo, permissionRole));
-                } 
-            }
-
-            valid = doValidation(handler, ELEMENT_TYPE_FIELD, name, PermissionConstants.PERMISSIONTYPE_WRITE, writeUsers);
-            valid &= doValidation(handler, ELEMENT_TYPE_FIELD, name, PermissionConstants.PERMISSIONTYPE_HIDE, hideUsers);
-            valid &= doValidation(handler, ELEMENT_TYPE_FIELD, name, PermissionConstants.PERMISSIONTYPE_DENY_CREATE, denyCreate); 
-        }
-
+        String name = fieldMetadata.getName();
+        boolean valid = doValidation(handler, ELEMENT_TYPE_FIELD, name, PermissionConstants.PERMISSIONTYPE_WRITE, X_WRITE, permissionAnnotations);
+        valid &= doValidation(handler, ELEMENT_TYPE_FIELD, name, PermissionConstants.PERMISSIONTYPE_HIDE, X_HIDE, permissionAnnotations);
+        valid &= doValidation(handler, ELEMENT_TYPE_FIELD, name, PermissionConstants.PERMISSIONTYPE_DENY_CREATE, X_DENY_CREATE, permissionAnnotations);
 
         if(fieldMetadata instanceof ContainedTypeFieldMetadata) {
             ContainedTypeFieldMetadata containedField = (ContainedTypeFieldMetadata) fieldMetadata;
             ComplexTypeMetadata cTypeMetadata = containedField.getContainedType();
             Collection<FieldMetadata>  fieldMetadatas = cTypeMetadata.getFields();
             for(FieldMetadata fMetadata: fieldMetadatas) {
-                boolean validateMarked = BooleanUtils
-                        .isTrue(fMetadata.<Boolean> getData(MetadataRepository.VALIDATION_PERMISSION_MARKER));
+                boolean validateMarked = ValidationRun.isMarked(fMetadata, ValidationRun.Marker.PERMISSION_VALIDATED);
                 if(!validateMarked) {
                     valid &= validateFieldRefPermission(fMetadata, handler);
                 }
@@ -123,56 +105,51 @@ public class PermissionValidationRule implements ValidationRule {
     }
 
     private boolean validateComplexTypePermission(ComplexTypeMetadata cTypeMetadata, ValidationHandler handler) {// entity
-        String name = cTypeMetadata.getName();
-        XSDElementDeclaration element = cTypeMetadata.getData(MetadataRepository.XSD_ELEMENT);
-        if (element == null || element.getAnnotation() == null) {
+        List<PermissionAnnotation> permissionAnnotations = getPermissionAnnotations(cTypeMetadata);
+        if (permissionAnnotations == null || permissionAnnotations.isEmpty()) {
             return true;
         }
 
-        XSDAnnotation annotation = element.getAnnotation();
-        EList<Element> appInfoElements = annotation.getApplicationInformation();
-
-        List<FieldMetadata> writeUsers = new ArrayList<FieldMetadata>();
-        List<FieldMetadata> hideUsers = new ArrayList<FieldMetadata>();
-        List<FieldMetadata> denyCreate = new ArrayList<FieldMetadata>();
-        List<FieldMetadata> denyDeleteLogical = new ArrayList<FieldMetadata>();
-        List<FieldMetadata> denyDeletePhysical = new ArrayList<FieldMetadata>();
-        for (Element appInfo : appInfoElements) {
-            String source = appInfo.getAttribute("source"); //$NON-NLS-1$
-            String permissionRole = appInfo.getTextContent();
-            if ("X_Write".equals(source)) { //$NON-NLS-1$
-                writeUsers.add(getFieldMetadata(appInfo, permissionRole));
-            } else if ("X_Hide".equals(source)) { //$NON-NLS-1$
-                hideUsers.add(getFieldMetadata(appInfo, permissionRole));
-            } else if ("X_Deny_Create".equals(source)) { //$NON-NLS-1$
-                denyCreate.add(getFieldMetadata(appInfo, permissionRole));
-            } else if ("X_Deny_LogicalDelete".equals(source)) { //$NON-NLS-1$
-                denyDeleteLogical.add(getFieldMetadata(appInfo, permissionRole));
-            } else if ("X_Deny_PhysicalDelete".equals(source)) { //$NON-NLS-1$
-                denyDeletePhysical.add(getFieldMetadata(appInfo, permissionRole));
-            } 
-        }
-
-        boolean valid = doValidation(handler, ELEMENT_TYPE_ENTITY, name, PermissionConstants.PERMISSIONTYPE_WRITE, writeUsers);
-        valid &= doValidation(handler, ELEMENT_TYPE_ENTITY, name, PermissionConstants.PERMISSIONTYPE_HIDE, hideUsers);
-        valid &= doValidation(handler, ELEMENT_TYPE_ENTITY, name, PermissionConstants.PERMISSIONTYPE_DENY_CREATE, denyCreate);
-        valid &= doValidation(handler, ELEMENT_TYPE_ENTITY, name, PermissionConstants.PERMISSIONTYPE_DENY_DELETE_PHYSICAL, denyDeletePhysical);
-        valid &= doValidation(handler, ELEMENT_TYPE_ENTITY, name, PermissionConstants.PERMISSIONTYPE_DENY_DELETE_LOGICAL, denyDeleteLogical);
+        String name = cTypeMetadata.getName();
+        boolean valid = doValidation(handler, ELEMENT_TYPE_ENTITY, name, PermissionConstants.PERMISSIONTYPE_WRITE, X_WRITE, permissionAnnotations);
+        valid &= doValidation(handler, ELEMENT_TYPE_ENTITY, name, PermissionConstants.PERMISSIONTYPE_HIDE, X_HIDE, permissionAnnotations);
+        valid &= doValidation(handler, ELEMENT_TYPE_ENTITY, name, PermissionConstants.PERMISSIONTYPE_DENY_CREATE, X_DENY_CREATE, permissionAnnotations);
+        valid &= doValidation(handler, ELEMENT_TYPE_ENTITY, name, PermissionConstants.PERMISSIONTYPE_DENY_DELETE_PHYSICAL, X_DENY_PHYSICAL_DELETE, permissionAnnotations);
+        valid &= doValidation(handler, ELEMENT_TYPE_ENTITY, name, PermissionConstants.PERMISSIONTYPE_DENY_DELETE_LOGICAL, X_DENY_LOGICAL_DELETE, permissionAnnotations);
 
         return valid;
     }
 
-    private boolean doValidation(ValidationHandler handler, String elementType, String elementName, String permissionType, List<FieldMetadata> roles) {
+    // Permission annotations captured at load time (see UserAccessProcessor), or read from XSD element if caller set
+    // one on metadata not created by MetadataRepository.
+    private static List<PermissionAnnotation> getPermissionAnnotations(MetadataExtensible metadata) {
+        List<PermissionAnnotation> permissionAnnotations = metadata.getData(MetadataRepository.PERMISSION_ANNOTATIONS);
+        if (permissionAnnotations != null) {
+            return permissionAnnotations;
+        }
+        XSDElementDeclaration element = metadata.getData(MetadataRepository.XSD_ELEMENT);
+        if (element == null) {
+            return null;
+        }
+        return UserAccessProcessor.getPermissionAnnotations(element.getAnnotation());
+    }
+
+    private boolean doValidation(ValidationHandler handler, String elementType, String elementName, String permissionType,
+            String source, List<PermissionAnnotation> permissionAnnotations) {
         boolean valid = true;
-        for (FieldMetadata roleMetadata : roles) {
-            String lowerCaseRoleName = roleMetadata.getName().toLowerCase();
+        for (PermissionAnnotation permissionAnnotation : permissionAnnotations) {
+            if (!source.equals(permissionAnnotation.getSource())) {
+                continue;
+            }
+            String role = permissionAnnotation.getRole();
+            String lowerCaseRoleName = role.toLowerCase();
             if (lowerCaseRoleName.startsWith(ICoreConstants.SYSTEM_ROLE_PREFIX.toLowerCase()) || lowerCaseRoleName.equals(ICoreConstants.ADMIN_PERMISSION)) {
-                String message = "System role \"" + roleMetadata.getName() + "\" shouldn't be used to set \"" + permissionType //$NON-NLS-1$ //$NON-NLS-2$
+                String message = "System role \"" + role + "\" shouldn't be used to set \"" + permissionType //$NON-NLS-1$ //$NON-NLS-2$
                         + "\" permission on " + elementType + " \"" + elementName + "\" ."; //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$
 
-                Element data = roleMetadata.<Element> getData(MetadataRepository.XSD_DOM_ELEMENT);
-                Integer lineNum = roleMetadata.<Integer> getData(MetadataRepository.XSD_LINE_NUMBER);
-                Integer colNum = roleMetadata.<Integer> getData(MetadataRepository.XSD_COLUMN_NUMBER);
+                Element data = permissionAnnotation.getElement();
+                Integer lineNum = permissionAnnotation.getLineNumber();
+                Integer colNum = permissionAnnotation.getColumnNumber();
 
                 if(complexTypeMetadata != null) {
                     handler.error(complexTypeMetadata, message, data,lineNum, colNum, ValidationError.PERMISSION_SYSTEM_ROLE_NOT_SETTABLE);
@@ -185,13 +162,4 @@ public class PermissionValidationRule implements ValidationRule {
 
         return valid;
     }
-
-    private FieldMetadata getFieldMetadata(Element appInfo, String fieldName) {
-
-        FieldMetadata fieldMetadata = new SoftFieldRef(null, fieldName, "");
-        fieldMetadata.setData(MetadataRepository.XSD_LINE_NUMBER, XSDParser.getStartLine(appInfo));
-        fieldMetadata.setData(MetadataRepository.XSD_COLUMN_NUMBER, XSDParser.getStartColumn(appInfo));
-        fieldMetadata.setData(MetadataRepository.XSD_DOM_ELEMENT, appInfo);
-        return fieldMetadata;
-    }
 }
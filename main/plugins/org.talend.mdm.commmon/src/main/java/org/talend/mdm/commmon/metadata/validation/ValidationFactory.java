@@ -13,7 +13,6 @@ package org.talend.mdm.commmon.metadata.validation;
 import java.util.LinkedList;
 import java.util.List;
 
-import org.apache.commons.lang.BooleanUtils;
 import org.talend.mdm.commmon.metadata.ComplexTypeMetadataImpl;
 import org.talend.mdm.commmon.metadata.CompoundFieldMetadata;
 import org.talend.mdm.commmon.metadata.ContainedTypeFieldMetadata;
@@ -33,7 +32,7 @@ import org.talend.mdm.commmon.metadata.UnresolvedTypeMetadata;
 public class ValidationFactory {
 
     private static boolean isValidated(MetadataExtensible metadataElement) {
-        return BooleanUtils.isTrue(metadataElement.<Boolean> getData(MetadataRepository.VALIDATION_MARKER));
+        return ValidationRun.isMarked(metadataElement, ValidationRun.Marker.VALIDATED);
     }
 
     public static ValidationRule getRule(FieldMetadata field) {
@@ -44,8 +43,8 @@ public class ValidationFactory {
                 return NoOpValidationRule.SUCCESS;
             }
         }
-        field.setData(MetadataRepository.VALIDATION_MARKER, true);
-        return field.createValidationRule();
+        ValidationRun.mark(field, ValidationRun.Marker.VALIDATED);
+        return ValidationProfiler.profile(field.createValidationRule());
     }
 
     public static ValidationRule getRule(MetadataRepository repository) {
@@ -125,8 +124,8 @@ public class ValidationFactory {
                 return NoOpValidationRule.SUCCESS;
             }
         }
-        type.setData(MetadataRepository.VALIDATION_MARKER, true);
-        return type.createValidationRule();
+        ValidationRun.mark(type, ValidationRun.Marker.VALIDATED);
+        return ValidationProfiler.profile(type.createValidationRule());
     }
 
     public static ValidationRule getRule(SoftTypeRef type) {
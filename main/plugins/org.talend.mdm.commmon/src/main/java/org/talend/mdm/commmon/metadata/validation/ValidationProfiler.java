@@ -0,0 +1,263 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata.validation;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.talend.mdm.commmon.metadata.ValidationHandler;
+
+/**
+ * <p>
+ * Records statistics (invocation count, failures, total, self and max time) for each {@link ValidationRule} class
+ * performed by the current thread between {@link #start()} and {@link #stop()}:
+ *
+ * <pre>
+ * ValidationProfiler profiler = ValidationProfiler.start();
+ * try {
+ *     repository.load(inputStream);
+ * } finally {
+ *     profiler.stop();
+ * }
+ * LOGGER.info(profiler.getReport());
+ * </pre>
+ *
+ * Rules returned by {@link ValidationFactory} and rules of {@link CompositeValidationRule} are profiled (composite
+ * rules are not reported: their rules are). Total time of a rule includes time of the rules it performs (e.g.
+ * {@link ForeignKeyExist} validates the referenced field), self time does not.
+ * </p>
+ * <p>
+ * When no profiler is started, the cost of profiling is a read of a volatile counter per rule.
+ * </p>
+ */
+public class ValidationProfiler {
+
+    private static final ThreadLocal<ValidationProfiler> CURRENT = new ThreadLocal<ValidationProfiler>();
+
+    private static final AtomicInteger ACTIVE_PROFILERS = new AtomicInteger();
+
+    private final Map<Class<?>, RuleStatistics> statistics = new HashMap<Class<?>, RuleStatistics>();
+
+    // Time spent in nested rules, for each rule being performed.
+    private long[] childTimes = new long[16];
+
+    private int depth;
+
+    private boolean isStopped;
+
+    private ValidationProfiler() {
+    }
+
+    /**
+     * Starts profiling of validation rules performed by the current thread.
+     *
+     * @return The profiler (call {@link #stop()} once validation ends).
+     * @throws IllegalStateException If a profiler is already started for the current thread.
+     */
+    public static ValidationProfiler start() {
+        if (CURRENT.get() != null) {
+            throw new IllegalStateException("A validation profiler is already started for current thread."); //$NON-NLS-1$
+        }
+        ValidationProfiler profiler = new ValidationProfiler();
+        CURRENT.set(profiler);
+        ACTIVE_PROFILERS.incrementAndGet();
+        return profiler;
+    }
+
+    /**
+     * Stops profiling (must be called by the thread that started the profiler).
+     */
+    public void stop() {
+        if (!isStopped && CURRENT.get() == this) {
+            isStopped = true;
+            CURRENT.remove();
+            ACTIVE_PROFILERS.decrementAndGet();
+        }
+    }
+
+    /**
+     * @param rule A rule.
+     * @return <code>rule</code> or, if a profiler is started, a rule that records statistics when performed.
+     */
+    static ValidationRule profile(ValidationRule rule) {
+        if (ACTIVE_PROFILERS.get() == 0 || rule instanceof CompositeValidationRule || rule instanceof ProfiledRule) {
+            return rule;
+        }
+        return new ProfiledRule(rule);
+    }
+
+    /**
+     * Performs <code>rule</code> and records statistics if a profiler is started for the current thread.
+     */
+    static boolean perform(ValidationRule rule, ValidationHandler handler) {
+        if (ACTIVE_PROFILERS.get() == 0 || rule instanceof CompositeValidationRule || rule instanceof ProfiledRule) {
+            return rule.perform(handler);
+        }
+        ValidationProfiler profiler = CURRENT.get();
+        if (profiler == null) {
+            return rule.perform(handler);
+        }
+        return profiler.record(rule, handler);
+    }
+
+    private boolean record(ValidationRule rule, ValidationHandler handler) {
+        if (depth == childTimes.length) {
+            long[] newChildTimes = new long[childTimes.length * 2];
+            System.arraycopy(childTimes, 0, newChildTimes, 0, childTimes.length);
+            childTimes = newChildTimes;
+        }
+        childTimes[depth++] = 0;
+        long start = System.nanoTime();
+        boolean succeeded = false;
+        try {
+            succeeded = rule.perform(handler);
+            return succeeded;
+        } finally {
+            long time = System.nanoTime() - start;
+            long childTime = childTimes[--depth];
+            if (depth > 0) {
+                childTimes[depth - 1] += time;
+            }
+            RuleStatistics ruleStatistics = statistics.get(rule.getClass());
+            if (ruleStatistics == null) {
+                ruleStatistics = new RuleStatistics(rule.getClass());
+                statistics.put(rule.getClass(), ruleStatistics);
+            }
+            ruleStatistics.invocations++;
+            ruleStatistics.totalTime += time;
+            ruleStatistics.selfTime += time - childTime;
+            ruleStatistics.maxTime = Math.max(ruleStatistics.maxTime, time);
+            if (!succeeded) {
+                ruleStatistics.failures++;
+            }
+        }
+    }
+
+    /**
+     * @return Statistics of all performed rules (sorted by decreasing self time).
+     */
+    public List<RuleStatistics> getStatistics() {
+        List<RuleStatistics> sortedStatistics = new ArrayList<RuleStatistics>(statistics.values());
+        Collections.sort(sortedStatistics, new Comparator<RuleStatistics>() {
+
+            @Override
+            public int compare(RuleStatistics statistics1, RuleStatistics statistics2) {
+                return Long.compare(statistics2.selfTime, statistics1.selfTime);
+            }
+        });
+        return sortedStatistics;
+    }
+
+    /**
+     * @return A report (one line per rule class, sorted by decreasing self time).
+     */
+    public String getReport() {
+        StringBuilder report = new StringBuilder();
+        report.append("Validation rules (invocations, failures, total / self / max time in ms):"); //$NON-NLS-1$
+        for (RuleStatistics ruleStatistics : getStatistics()) {
+            report.append('\n').append('\t').append(ruleStatistics);
+        }
+        return report.toString();
+    }
+
+    /**
+     * Statistics for a {@link ValidationRule} class.
+     */
+    public static class RuleStatistics {
+
+        private final Class<?> ruleClass;
+
+        private long invocations;
+
+        private long failures;
+
+        private long totalTime;
+
+        private long selfTime;
+
+        private long maxTime;
+
+        private RuleStatistics(Class<?> ruleClass) {
+            this.ruleClass = ruleClass;
+        }
+
+        public Class<?> getRuleClass() {
+            return ruleClass;
+        }
+
+        public long getInvocations() {
+            return invocations;
+        }
+
+        /**
+         * @return Number of times the rule failed (returned <code>false</code> or threw an exception).
+         */
+        public long getFailures() {
+            return failures;
+        }
+
+        /**
+         * @return Total time (in nanoseconds), including time of the rules performed by this rule.
+         */
+        public long getTotalTime() {
+            return totalTime;
+        }
+
+        /**
+         * @return Time (in nanoseconds) spent in the rule itself.
+         */
+        public long getSelfTime() {
+            return selfTime;
+        }
+
+        /**
+         * @return Maximum time of a single invocation (in nanoseconds).
+         */
+        public long getMaxTime() {
+            return maxTime;
+        }
+
+        @Override
+        public String toString() {
+            return ruleClass.getSimpleName() + ": " + invocations + ", " + failures + ", " + totalTime / 1000000.0 + " / " //$NON-NLS-1$ //$NON-NLS-2$ //$NON-NLS-3$ //$NON-NLS-4$
+                    + selfTime / 1000000.0 + " / " + maxTime / 1000000.0; //$NON-NLS-1$
+        }
+    }
+
+    private static class ProfiledRule implements ValidationRule {
+
+        private final ValidationRule rule;
+
+        private ProfiledRule(ValidationRule rule) {
+            this.rule = rule;
+        }
+
+        @Override
+        public boolean perform(ValidationHandler handler) {
+            ValidationProfiler profiler = CURRENT.get();
+            if (profiler == null) {
+                return rule.perform(handler);
+            }
+            return profiler.record(rule, handler);
+        }
+
+        @Override
+        public boolean continueOnFail() {
+            return rule.continueOnFail();
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2006-2021 Talend Inc. - www.talend.com
+ *
+ * This source code is available under agreement available at
+ * %InstallDIR%\features\org.talend.rcp.branding.%PRODUCTNAME%\%PRODUCTNAME%license.txt
+ *
+ * You should have received a copy of the agreement
+ * along with this program; if not, write to Talend SA
+ * 9 rue Pages 92150 Suresnes, France
+ */
+
+package org.talend.mdm.commmon.metadata.validation;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+
+import org.apache.commons.lang.BooleanUtils;
+import org.talend.mdm.commmon.metadata.ContainedComplexTypeMetadata;
+import org.talend.mdm.commmon.metadata.MetadataExtensible;
+import org.talend.mdm.commmon.metadata.MetadataExtensions;
+import org.talend.mdm.commmon.metadata.MetadataRepository;
+
+/**
+ * <p>
+ * Keeps track of validated types and fields during the validation of a {@link MetadataRepository} by the current
+ * thread. Validation state is kept in bit sets indexed by the
+ * {@link MetadataExtensions#getOrdinal(MetadataRepository) ordinal} of elements (elements with no ordinal, e.g. types
+ * of another repository, are kept in an identity set): types and fields are not modified by validation.
+ * </p>
+ * <p>
+ * When no run is started for the current thread, validation state is kept in types and fields (using
+ * {@link MetadataRepository#VALIDATION_MARKER} and {@link MetadataRepository#VALIDATION_PERMISSION_MARKER}).
+ * </p>
+ */
+public class ValidationRun {
+
+    private static final ThreadLocal<ValidationRun> CURRENT = new ThreadLocal<ValidationRun>();
+
+    private final MetadataRepository repository;
+
+    private final ValidationRun previous;
+
+    private final BitSet[] markedOrdinals = new BitSet[Marker.values().length];
+
+    private List<Set<MetadataExtensible>> markedElements;
+
+    private boolean isEnded;
+
+    private ValidationRun(MetadataRepository repository, ValidationRun previous) {
+        this.repository = repository;
+        this.previous = previous;
+        for (int i = 0; i < markedOrdinals.length; i++) {
+            markedOrdinals[i] = new BitSet(repository.getOrdinalCount());
+        }
+    }
+
+    /**
+     * Starts a validation run for the current thread (a run started before is restored once this run ends).
+     *
+     * @param repository The repository being validated.
+     * @return The run (call {@link #end()} once validation ends).
+     */
+    public static ValidationRun start(MetadataRepository repository) {
+        if (repository == null) {
+            throw new IllegalArgumentException("Repository can not be null."); //$NON-NLS-1$
+        }
+        ValidationRun run = new ValidationRun(repository, CURRENT.get());
+        CURRENT.set(run);
+        return run;
+    }
+
+    /**
+     * Ends this run (must be called by the thread that started the run).
+     */
+    public void end() {
+        if (!isEnded && CURRENT.get() == this) {
+            isEnded = true;
+            if (previous == null) {
+                CURRENT.remove();
+            } else {
+                CURRENT.set(previous);
+            }
+        }
+    }
+
+    /**
+     * @param element A type or a field.
+     * @param marker A validation marker.
+     * @return <code>true</code> if <code>element</code> was {@link #mark(MetadataExtensible, Marker) marked}.
+     */
+    public static boolean isMarked(MetadataExtensible element, Marker marker) {
+        ValidationRun run = CURRENT.get();
+        if (run == null) {
+            return BooleanUtils.isTrue(element.<Boolean> getData(marker.getKey()));
+        }
+        element = unwrap(element);
+        int ordinal = run.getOrdinal(element);
+        if (ordinal >= 0) {
+            return run.markedOrdinals[marker.ordinal()].get(ordinal);
+        }
+        return run.markedElements != null && run.markedElements.get(marker.ordinal()).contains(element);
+    }
+
+    /**
+     * Marks <code>element</code> for the current run.
+     *
+     * @param element A type or a field.
+     * @param marker A validation marker.
+     */
+    public static void mark(MetadataExtensible element, Marker marker) {
+        ValidationRun run = CURRENT.get();
+        if (run == null) {
+            element.setData(marker.getKey(), true);
+            return;
+        }
+        element = unwrap(element);
+        int ordinal = run.getOrdinal(element);
+        if (ordinal >= 0) {
+            run.markedOrdinals[marker.ordinal()].set(ordinal);
+            return;
+        }
+        if (run.markedElements == null) {
+            run.markedElements = new ArrayList<Set<MetadataExtensible>>(run.markedOrdinals.length);
+            for (int i = 0; i < run.markedOrdinals.length; i++) {
+                run.markedElements.add(Collections.newSetFromMap(new IdentityHashMap<MetadataExtensible, Boolean>()));
+            }
+        }
+        run.markedElements.get(marker.ordinal()).add(element);
+    }
+
+    // Contained types share their data (and validation state) with the type they contain.
+    private static MetadataExtensible unwrap(MetadataExtensible element) {
+        if (element instanceof ContainedComplexTypeMetadata) {
+            return ((ContainedComplexTypeMetadata) element).getContainedType();
+        }
+        return element;
+    }
+
+    private int getOrdinal(MetadataExtensible element) {
+        if (element instanceof MetadataExtensions) {
+            return ((MetadataExtensions) element).getOrdinal(repository);
+        }
+        return -1;
+    }
+
+    /**
+     * Validation markers.
+     */
+    public enum Marker {
+        /**
+         * Validation rules were created for the element (see {@link ValidationFactory}).
+         */
+        VALIDATED(MetadataRepository.VALIDATION_MARKER),
+        /**
+         * Permissions of the element were validated (see {@link PermissionValidationRule}).
+         */
+        PERMISSION_VALIDATED(MetadataRepository.VALIDATION_PERMISSION_MARKER);
+
+        private final String key;
+
+        Marker(String key) {
+            this.key = key;
+        }
+
+        /**
+         * @return The data key used to mark elements when no run is started.
+         */
+        public String getKey() {
+            return key;
+        }
+    }
+}
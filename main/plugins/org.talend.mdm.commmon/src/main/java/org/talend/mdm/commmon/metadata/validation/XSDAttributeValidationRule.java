@@ -10,23 +10,17 @@
 
 package org.talend.mdm.commmon.metadata.validation;
 
-import java.util.Collections;
-import java.util.Iterator;
+import java.util.ArrayList;
+import java.util.List;
 
 import javax.xml.XMLConstants;
-import javax.xml.namespace.NamespaceContext;
-import javax.xml.xpath.XPath;
-import javax.xml.xpath.XPathConstants;
-import javax.xml.xpath.XPathExpressionException;
-import javax.xml.xpath.XPathFactory;
 
 import org.eclipse.xsd.util.XSDParser;
-import org.slf4j.Logger;
-import org.slf4j.LoggerFactory;
 import org.talend.mdm.commmon.metadata.ComplexTypeMetadata;
 import org.talend.mdm.commmon.metadata.MetadataRepository;
 import org.talend.mdm.commmon.metadata.ValidationError;
 import org.talend.mdm.commmon.metadata.ValidationHandler;
+import org.w3c.dom.Document;
 import org.w3c.dom.Element;
 import org.w3c.dom.NodeList;
 
@@ -36,35 +30,13 @@ import org.w3c.dom.NodeList;
  */
 class XSDAttributeValidationRule implements ValidationRule {
 
-    private static final Logger LOGGER = LoggerFactory.getLogger(XSDAttributeValidationRule.class);
+    // Attribute declarations of a data model are stored in DOM document (so they are only looked up once per document).
+    private static final String XSD_ATTRIBUTES = "mdm.validation.xsd.attributes"; //$NON-NLS-1$
 
     private final ComplexTypeMetadata type;
 
-    private final XPath xPath;
-
     public XSDAttributeValidationRule(ComplexTypeMetadata type) {
         this.type = type;
-        xPath = XPathFactory.newInstance().newXPath();
-        xPath.setNamespaceContext(new NamespaceContext() {
-
-            @Override
-            public String getNamespaceURI(String prefix) {
-                if ("xsd".equals(prefix)) { //$NON-NLS-1$
-                    return XMLConstants.W3C_XML_SCHEMA_NS_URI;
-                }
-                return null;
-            }
-
-            @Override
-            public String getPrefix(String namespaceURI) {
-                return "xsd";
-            }
-
-            @Override
-            public Iterator getPrefixes(String namespaceURI) {
-                return Collections.singletonList("xsd").iterator();
-            }
-        });
     }
 
     @Override
@@ -73,24 +45,28 @@ class XSDAttributeValidationRule implements ValidationRule {
         if (element == null) {
             return true; // No need to check anything if no DOM element
         }
-        Integer lineNumber = type.<Integer> getData(MetadataRepository.XSD_LINE_NUMBER);
-        Integer columnNumber = type.<Integer> getData(MetadataRepository.XSD_COLUMN_NUMBER);
-        try {
-            NodeList nodeSet = (NodeList) xPath.evaluate("//xsd:attribute", element, XPathConstants.NODESET); //$NON-NLS-1$
-            for (int i = 0; i < nodeSet.getLength(); i++) {
-                handler.warning(type, "Entity type '" + type.getName()
-                        + "' uses XSD attribute but attributes are ignored by MDM.", (Element) nodeSet.item(i),
-                        XSDParser.getStartLine(nodeSet.item(i)), XSDParser.getStartColumn(nodeSet.item(i)),
-                        ValidationError.TYPE_USE_XSD_ATTRIBUTES);
+        // Same as evaluating "//xsd:attribute" on element: attribute declarations of the whole document.
+        List<Element> attributes = getAttributes(element.getOwnerDocument());
+        for (Element attribute : attributes) {
+            handler.warning(type, "Entity type '" + type.getName() + "' uses XSD attribute but attributes are ignored by MDM.",
+                    attribute, XSDParser.getStartLine(attribute), XSDParser.getStartColumn(attribute),
+                    ValidationError.TYPE_USE_XSD_ATTRIBUTES);
+        }
+        return attributes.isEmpty();
+    }
+
+    @SuppressWarnings("unchecked")
+    private static List<Element> getAttributes(Document document) {
+        List<Element> attributes = (List<Element>) document.getUserData(XSD_ATTRIBUTES);
+        if (attributes == null) {
+            NodeList nodeList = document.getElementsByTagNameNS(XMLConstants.W3C_XML_SCHEMA_NS_URI, "attribute"); //$NON-NLS-1$
+            attributes = new ArrayList<Element>(nodeList.getLength());
+            for (int i = 0; i < nodeList.getLength(); i++) {
+                attributes.add((Element) nodeList.item(i));
             }
-            return nodeSet.getLength() == 0;
-        } catch (XPathExpressionException e) {
-            // Never stop the validation, but logs the exception anyway.
-            LOGGER.error("Unexpected exception during XSD attributes check", e);
-            handler.error(type, "Could not check type '" + type.getName() + "' for XSD attributes", element, lineNumber,
-                    columnNumber, ValidationError.UNCAUGHT_ERROR);
-            return false;
+            document.setUserData(XSD_ATTRIBUTES, attributes, null);
         }
+        return attributes;
     }
 
     @Override